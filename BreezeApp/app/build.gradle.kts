@@ -122,6 +122,7 @@ dependencies {
     testImplementation(libs.junit) // JUnit4 - 保留以防部分 lib 相依
     testImplementation(libs.junit.jupiter.api)
     testRuntimeOnly(libs.junit.jupiter.engine)
+    testRuntimeOnly(libs.junit.vintage.engine) // 僅供 Robolectric 的 ChatRepositoryImplTest 使用，見下方 filter
 
     testImplementation(libs.kotlinx.coroutines.test)
     testImplementation(libs.mockito.core)
@@ -154,4 +155,19 @@ dependencies {
 // ✅ 使用 JUnit5 測試平台
 tasks.withType<Test> {
     useJUnitPlatform()
+    filter {
+        // 以下 JUnit4 測試在加入 vintage engine 前從未執行過，尚未驗證；
+        // vintage engine 目前只執行 ChatRepositoryImplTest
+        listOf(
+            "ChatMessageTest",
+            "MessageAdapterTest",
+            "ChatViewModelEdgeCaseTest",
+            "LifecycleConfigurationEdgeCaseTest",
+            "ConnectionUseCaseEdgeCaseTest",
+            "StreamingUseCasesEdgeCaseTest",
+            "OverlayPermissionManagerEdgeCaseTest",
+            "SystemInterruptionEdgeCaseTest",
+            "BreezeAppEdgeCaseTestSuite"
+        ).forEach { excludeTestsMatching("com.mtkresearch.breezeapp.*.$it") }
+    }
 }
\ No newline at end of file
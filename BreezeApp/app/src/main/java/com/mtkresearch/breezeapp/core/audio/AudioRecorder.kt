@@ -10,13 +10,17 @@ import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.isActive
 import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.ShortBuffer
 import kotlin.coroutines.coroutineContext
 
 /**
  * Audio recording utility for offline ASR mode
  * 
  * Handles microphone recording and provides audio data as ByteArray
- * for processing through AsrFileUseCase
+ * for processing through AsrFileUseCase, either as one buffer after
+ * recording stops or as fixed-size PCM chunks while recording
  */
 class AudioRecorder {
     
@@ -26,6 +30,34 @@ class AudioRecorder {
         private const val CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO
         private const val AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT
         private const val BUFFER_SIZE_FACTOR = 2
+        private const val BYTES_PER_SAMPLE = 2
+        private const val SPLIT_FRAME_SAMPLES = SAMPLE_RATE / 50 // 20ms frames when looking for a pause
+        private const val SPLIT_SEARCH_SAMPLES = SAMPLE_RATE      // Look for it in the last second of a chunk
+        
+        /**
+         * Where to end a full chunk: the middle of its quietest 20ms frame within the last
+         * second, so a word running over the chunk boundary is not cut in half. The samples
+         * after the split open the next chunk.
+         */
+        internal fun findSplitPoint(samples: ShortBuffer, length: Int): Int {
+            val searchStart = maxOf(length - SPLIT_SEARCH_SAMPLES, length / 2)
+            var bestStart = -1
+            var bestEnergy = Long.MAX_VALUE
+            var frameStart = searchStart
+            while (frameStart + SPLIT_FRAME_SAMPLES <= length) {
+                var energy = 0L
+                for (i in frameStart until frameStart + SPLIT_FRAME_SAMPLES) {
+                    energy += kotlin.math.abs(samples.get(i).toInt())
+                }
+                // Later frames win ties, so silence keeps the chunk as long as possible
+                if (energy <= bestEnergy) {
+                    bestEnergy = energy
+                    bestStart = frameStart
+                }
+                frameStart += SPLIT_FRAME_SAMPLES
+            }
+            return if (bestStart < 0) length else bestStart + SPLIT_FRAME_SAMPLES / 2
+        }
     }
     
     private var audioRecord: AudioRecord? = null
@@ -63,6 +95,9 @@ class AudioRecorder {
             emit(AudioRecordingResult.Started)
             
             val buffer = ShortArray(bufferSize / 2) // Divide by 2 because we're using Short (2 bytes)
+            // Reused for every read: little-endian byte view over a single scratch array
+            val byteScratch = ByteArray(buffer.size * BYTES_PER_SAMPLE)
+            val shortView = ByteBuffer.wrap(byteScratch).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer()
             val startTime = System.currentTimeMillis()
             var wasNaturallyCompleted = false
             
@@ -77,14 +112,10 @@ class AudioRecorder {
                 
                 val readBytes = audioRecord?.read(buffer, 0, buffer.size) ?: 0
                 if (readBytes > 0) {
-                    // Convert Short array to ByteArray
-                    val byteBuffer = ByteArray(readBytes * 2)
-                    for (i in 0 until readBytes) {
-                        val sample = buffer[i].toInt()
-                        byteBuffer[i * 2] = (sample and 0xff).toByte()
-                        byteBuffer[i * 2 + 1] = ((sample shr 8) and 0xff).toByte()
-                    }
-                    outputStream.write(byteBuffer)
+                    // Convert Short array to little-endian bytes without a per-read allocation
+                    shortView.clear()
+                    shortView.put(buffer, 0, readBytes)
+                    outputStream.write(byteScratch, 0, readBytes * BYTES_PER_SAMPLE)
                     
                     // Emit progress
                     val progress = (currentTime - startTime).toFloat() / maxDurationMs.toFloat()
@@ -140,6 +171,111 @@ class AudioRecorder {
         }
     }.flowOn(Dispatchers.IO)
     
+    /**
+     * Record audio and emit PCM chunks of about [chunkDurationMs] while recording is in progress
+     *
+     * Samples are converted into a single reused direct buffer; only the finished
+     * chunk is copied out, so heap usage is bounded by the chunk size instead of
+     * the recording length. A full chunk is cut at the quietest point of its last
+     * second (see [findSplitPoint]) and the rest carries over into the next one.
+     * Each [AudioRecordingResult.Chunk] holds 16kHz mono PCM16 little-endian data
+     * and the last one is flagged with `isLast`.
+     * No Completed/Cancelled result is emitted, the audio has already been delivered.
+     *
+     * @param chunkDurationMs Duration of each emitted chunk
+     * @param maxDurationMs Maximum total recording duration
+     */
+    fun recordAudioChunks(
+        chunkDurationMs: Long = 5000,
+        maxDurationMs: Long = 60000
+    ): Flow<AudioRecordingResult> = flow {
+        val chunkSamples = (SAMPLE_RATE * chunkDurationMs / 1000).toInt().coerceAtLeast(1)
+        val chunkBuffer = ByteBuffer.allocateDirect(chunkSamples * BYTES_PER_SAMPLE).order(ByteOrder.LITTLE_ENDIAN)
+        val chunkView = chunkBuffer.asShortBuffer()
+        var chunkIndex = 0
+        var lastChunkEmitted = false
+        
+        // Copy the first samples of the direct buffer out as the chunk payload and move
+        // whatever follows them to the front
+        fun drainChunk(samples: Int = chunkView.position()): ByteArray {
+            val filled = chunkView.position()
+            val chunk = ByteArray(samples * BYTES_PER_SAMPLE)
+            chunkBuffer.position(0)
+            chunkBuffer.get(chunk)
+            for (i in samples until filled) {
+                chunkView.put(i - samples, chunkView.get(i))
+            }
+            chunkView.position(filled - samples)
+            return chunk
+        }
+        
+        try {
+            audioRecord = AudioRecord(
+                MediaRecorder.AudioSource.MIC,
+                SAMPLE_RATE,
+                CHANNEL_CONFIG,
+                AUDIO_FORMAT,
+                bufferSize
+            )
+            
+            if (audioRecord?.state != AudioRecord.STATE_INITIALIZED) {
+                emit(AudioRecordingResult.Error("Failed to initialize audio recorder"))
+                lastChunkEmitted = true
+                return@flow
+            }
+            
+            audioRecord?.startRecording()
+            emit(AudioRecordingResult.Started)
+            
+            val buffer = ShortArray(bufferSize / 2)
+            val startTime = System.currentTimeMillis()
+            
+            while (coroutineContext.isActive && !isManualStop) {
+                val currentTime = System.currentTimeMillis()
+                if (currentTime - startTime > maxDurationMs) {
+                    Log.d(TAG, "Max recording duration reached: ${maxDurationMs}ms")
+                    break
+                }
+                
+                val readSamples = audioRecord?.read(buffer, 0, buffer.size) ?: 0
+                if (readSamples > 0) {
+                    var offset = 0
+                    while (offset < readSamples) {
+                        val count = minOf(chunkView.remaining(), readSamples - offset)
+                        chunkView.put(buffer, offset, count)
+                        offset += count
+                        if (!chunkView.hasRemaining()) {
+                            val split = findSplitPoint(chunkView, chunkSamples)
+                            emit(AudioRecordingResult.Chunk(drainChunk(split), chunkIndex++, isLast = false))
+                        }
+                    }
+                    
+                    val progress = (currentTime - startTime).toFloat() / maxDurationMs.toFloat()
+                    emit(AudioRecordingResult.Recording(progress.coerceIn(0f, 1f)))
+                }
+            }
+            
+            // Flush whatever is left as the final (possibly empty) chunk
+            Log.d(TAG, "Chunked recording finished after $chunkIndex full chunks")
+            lastChunkEmitted = true
+            emit(AudioRecordingResult.Chunk(drainChunk(), chunkIndex, isLast = true))
+            
+        } catch (e: kotlinx.coroutines.CancellationException) {
+            // The collector is gone, so the rest of the audio has nowhere to go
+            Log.d(TAG, "Chunked recording cancelled after $chunkIndex full chunks")
+            throw e
+        } catch (e: Exception) {
+            if (!lastChunkEmitted) {
+                Log.e(TAG, "Chunked recording failed: ${e.message}")
+                lastChunkEmitted = true
+                emit(AudioRecordingResult.Error(e.message ?: "Unknown recording error"))
+            }
+        } finally {
+            stopRecording()
+            isManualStop = false // Reset flag for next recording
+        }
+    }.flowOn(Dispatchers.IO)
+    
     /**
      * Stop recording manually - triggers controlled termination
      */
@@ -165,5 +301,6 @@ sealed class AudioRecordingResult {
     data class Recording(val progress: Float) : AudioRecordingResult()
     data class Completed(val audioData: ByteArray) : AudioRecordingResult()
     data class Cancelled(val partialAudioData: ByteArray) : AudioRecordingResult()
+    data class Chunk(val pcmData: ByteArray, val index: Int, val isLast: Boolean) : AudioRecordingResult()
     data class Error(val message: String) : AudioRecordingResult()
 }
\ No newline at end of file
@@ -1,37 +1,153 @@
 package com.mtkresearch.breezeapp.data.repository
 
+import android.util.Log
+import com.mtkresearch.breezeapp.data.source.local.ChatLocalDataSource
+import com.mtkresearch.breezeapp.domain.model.chat.SessionChange
+import com.mtkresearch.breezeapp.domain.model.chat.SessionPage
+import com.mtkresearch.breezeapp.domain.model.chat.SessionPageKey
 import com.mtkresearch.breezeapp.domain.repository.ChatRepository
+import com.mtkresearch.breezeapp.presentation.chat.model.ChatMessage
 import com.mtkresearch.breezeapp.presentation.chat.model.ChatSession
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.asSharedFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
 import javax.inject.Inject
 import javax.inject.Singleton
 
 /**
  * Chat Repository Implementation
- * 
- * Uses in-memory storage to persist conversation across Activity instances
- * The conversation persists until app process is killed
+ *
+ * Stores every conversation in SQLite through [ChatLocalDataSource]. Only the current
+ * session is kept in memory; other sessions and older messages are read a page at a time.
+ * Saves are written behind: updates arriving within [WRITE_BEHIND_DELAY_MS], such as a
+ * streaming response, are batched into one transaction holding the latest state.
  */
 @Singleton
-class ChatRepositoryImpl @Inject constructor() : ChatRepository {
-    
+class ChatRepositoryImpl internal constructor(
+    private val localDataSource: ChatLocalDataSource,
+    private val ioDispatcher: CoroutineDispatcher
+) : ChatRepository {
+
+    @Inject
+    constructor(localDataSource: ChatLocalDataSource) : this(localDataSource, Dispatchers.IO)
+
+    private val scope = CoroutineScope(SupervisorJob() + ioDispatcher)
+    private val writeMutex = Mutex()
     private val _currentSession = MutableStateFlow<ChatSession?>(null)
-    
+    private val sessionChanges = MutableSharedFlow<SessionChange>(extraBufferCapacity = CHANGE_BUFFER_SIZE)
+
+    // Guarded by pendingWrites
+    private val pendingWrites = LinkedHashMap<String, ChatSession>()
+    private var pendingCurrentId: String? = null
+    private var writeJob: Job? = null
+
     override suspend fun getCurrentSession(): ChatSession? {
+        _currentSession.value?.let { return it }
+        val stored = withContext(ioDispatcher) {
+            localDataSource.loadCurrentSession(RECENT_MESSAGE_LIMIT)
+        }
+        if (stored != null) {
+            _currentSession.compareAndSet(null, stored)
+        }
         return _currentSession.value
     }
-    
+
     override suspend fun saveCurrentSession(session: ChatSession) {
         _currentSession.value = session
+        synchronized(pendingWrites) {
+            pendingWrites[session.id] = session
+            pendingCurrentId = session.id
+            if (writeJob == null) {
+                writeJob = scope.launch {
+                    delay(WRITE_BEHIND_DELAY_MS)
+                    try {
+                        flush()
+                    } catch (e: Exception) {
+                        Log.e(TAG, "Error writing chat sessions", e)
+                    }
+                }
+            }
+        }
     }
-    
+
     override suspend fun clearCurrentSession() {
+        flush()
         _currentSession.value = null
+        writeMutex.withLock {
+            withContext(ioDispatcher) { localDataSource.clearCurrentSessionId() }
+        }
     }
-    
+
     override fun observeCurrentSession(): Flow<ChatSession?> {
         return _currentSession.asStateFlow()
     }
-}
\ No newline at end of file
+
+    override suspend fun getSessionPage(after: SessionPageKey?, limit: Int): SessionPage {
+        flush()
+        val sessions = withContext(ioDispatcher) { localDataSource.loadSessionPage(after, limit) }
+        val nextKey = if (sessions.size < limit) null else sessions.last().let { SessionPageKey(it.updatedAt, it.id) }
+        return SessionPage(sessions, nextKey)
+    }
+
+    override suspend fun getMessagePage(sessionId: String, beforeMessageId: String?, limit: Int): List<ChatMessage> {
+        flush()
+        return withContext(ioDispatcher) { localDataSource.loadMessages(sessionId, beforeMessageId, limit) }
+    }
+
+    override suspend fun deleteSession(sessionId: String) {
+        synchronized(pendingWrites) {
+            pendingWrites.remove(sessionId)
+            if (pendingCurrentId == sessionId) {
+                pendingCurrentId = null
+            }
+        }
+        writeMutex.withLock {
+            withContext(ioDispatcher) { localDataSource.deleteSession(sessionId) }
+        }
+        if (_currentSession.value?.id == sessionId) {
+            _currentSession.value = null
+        }
+        sessionChanges.emit(SessionChange.Removed(sessionId))
+    }
+
+    override fun observeSessionChanges(): Flow<SessionChange> {
+        return sessionChanges.asSharedFlow()
+    }
+
+    override suspend fun flush() {
+        writeMutex.withLock {
+            val sessions: List<ChatSession>
+            val currentId: String?
+            synchronized(pendingWrites) {
+                sessions = pendingWrites.values.toList()
+                currentId = pendingCurrentId
+                pendingWrites.clear()
+                pendingCurrentId = null
+                // Saves from now on schedule a new write
+                writeJob = null
+            }
+            if (sessions.isEmpty() && currentId == null) return
+            val summaries = withContext(ioDispatcher) { localDataSource.writeSessions(sessions, currentId) }
+            summaries.forEach { sessionChanges.emit(SessionChange.Upserted(it)) }
+        }
+    }
+
+    companion object {
+        private const val TAG = "ChatRepositoryImpl"
+        private const val WRITE_BEHIND_DELAY_MS = 300L
+        private const val RECENT_MESSAGE_LIMIT = 50
+        private const val CHANGE_BUFFER_SIZE = 64
+    }
+}
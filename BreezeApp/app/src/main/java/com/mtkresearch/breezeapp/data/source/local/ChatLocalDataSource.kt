@@ -0,0 +1,301 @@
+package com.mtkresearch.breezeapp.data.source.local
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+import com.mtkresearch.breezeapp.domain.model.chat.ChatSessionSummary
+import com.mtkresearch.breezeapp.domain.model.chat.SessionPageKey
+import com.mtkresearch.breezeapp.presentation.chat.model.ChatMessage
+import com.mtkresearch.breezeapp.presentation.chat.model.ChatSession
+import dagger.hilt.android.qualifiers.ApplicationContext
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * SQLite storage for chat sessions and their messages.
+ *
+ * Messages are stored one row each, keyed by session and sequence number, so a page of
+ * sessions or messages is read with an indexed range query instead of loading everything.
+ * Calls block; run them off the main thread.
+ */
+@Singleton
+class ChatLocalDataSource @Inject constructor(@ApplicationContext context: Context) :
+    SQLiteOpenHelper(context, DATABASE_NAME, null, DATABASE_VERSION) {
+
+    init {
+        // Readers are not blocked by a write in progress, and each commit is one append
+        setWriteAheadLoggingEnabled(true)
+    }
+
+    override fun onCreate(db: SQLiteDatabase) {
+        db.execSQL(
+            """CREATE TABLE $TABLE_SESSIONS (
+                id TEXT PRIMARY KEY NOT NULL,
+                title TEXT NOT NULL,
+                created_at INTEGER NOT NULL,
+                updated_at INTEGER NOT NULL,
+                message_count INTEGER NOT NULL,
+                last_message TEXT)"""
+        )
+        db.execSQL("CREATE INDEX sessions_recent ON $TABLE_SESSIONS (updated_at DESC, id DESC)")
+        db.execSQL(
+            """CREATE TABLE $TABLE_MESSAGES (
+                session_id TEXT NOT NULL,
+                seq INTEGER NOT NULL,
+                id TEXT NOT NULL,
+                text TEXT NOT NULL,
+                is_from_user INTEGER NOT NULL,
+                timestamp INTEGER NOT NULL,
+                state TEXT NOT NULL,
+                image_url TEXT,
+                PRIMARY KEY (session_id, seq)) WITHOUT ROWID"""
+        )
+        db.execSQL("CREATE UNIQUE INDEX messages_id ON $TABLE_MESSAGES (session_id, id)")
+        db.execSQL("CREATE TABLE $TABLE_META (key TEXT PRIMARY KEY NOT NULL, value TEXT)")
+    }
+
+    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        // Only one version exists so far
+    }
+
+    /**
+     * Writes the sessions in one transaction and returns their updated summaries.
+     * Each session's messages are matched to stored rows by id, so only new or
+     * changed messages are written, and messages removed from the end are deleted.
+     */
+    fun writeSessions(sessions: Collection<ChatSession>, currentSessionId: String?): List<ChatSessionSummary> {
+        val db = writableDatabase
+        val summaries = mutableListOf<ChatSessionSummary>()
+        db.beginTransaction()
+        try {
+            sessions.forEach { summaries.add(writeSession(db, it)) }
+            if (currentSessionId != null) {
+                setMeta(db, KEY_CURRENT_SESSION, currentSessionId)
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        return summaries
+    }
+
+    private fun writeSession(db: SQLiteDatabase, session: ChatSession): ChatSessionSummary {
+        // Rows from the first listed message on are replaced by the list; older rows are
+        // kept, so a session holding only its recent messages can be saved as it is
+        val firstSeq = session.messages.firstOrNull()?.let { findSeq(db, session.id, it.id) } ?: 0L
+        val stored = HashMap<String, Pair<Long, ChatMessage>>()
+        db.rawQuery(
+            "SELECT seq, $MESSAGE_COLUMNS FROM $TABLE_MESSAGES WHERE session_id = ? AND seq >= ?",
+            arrayOf(session.id, firstSeq.toString())
+        ).use { cursor ->
+            while (cursor.moveToNext()) {
+                val message = readMessage(cursor, 1)
+                stored[message.id] = cursor.getLong(0) to message
+            }
+        }
+        var nextSeq = maxSeq(db, session.id) + 1
+
+        for (message in session.messages) {
+            // Rows are compared field by field, so an edit is never mistaken for no change
+            val existing = stored.remove(message.id)
+            when {
+                existing == null -> db.insertOrThrow(TABLE_MESSAGES, null, messageValues(session.id, nextSeq++, message))
+                existing.second != message -> db.update(
+                    TABLE_MESSAGES, messageValues(session.id, existing.first, message),
+                    "session_id = ? AND seq = ?", arrayOf(session.id, existing.first.toString())
+                )
+            }
+        }
+        stored.values.forEach { (seq, _) ->
+            db.delete(TABLE_MESSAGES, "session_id = ? AND seq = ?", arrayOf(session.id, seq.toString()))
+        }
+
+        val messageCount = db.rawQuery(
+            "SELECT COUNT(*) FROM $TABLE_MESSAGES WHERE session_id = ?", arrayOf(session.id)
+        ).use { cursor -> if (cursor.moveToFirst()) cursor.getInt(0) else 0 }
+        val lastMessage = db.rawQuery(
+            "SELECT text FROM $TABLE_MESSAGES WHERE session_id = ? ORDER BY seq DESC LIMIT 1", arrayOf(session.id)
+        ).use { cursor -> if (cursor.moveToFirst()) cursor.getString(0).take(LAST_MESSAGE_LENGTH) else null }
+
+        val summary = ChatSessionSummary(
+            id = session.id,
+            title = session.title,
+            messageCount = messageCount,
+            lastMessage = lastMessage,
+            createdAt = session.createdAt,
+            updatedAt = session.updatedAt
+        )
+        db.insertWithOnConflict(TABLE_SESSIONS, null, ContentValues().apply {
+            put("id", summary.id)
+            put("title", summary.title)
+            put("created_at", summary.createdAt)
+            put("updated_at", summary.updatedAt)
+            put("message_count", summary.messageCount)
+            put("last_message", summary.lastMessage)
+        }, SQLiteDatabase.CONFLICT_REPLACE)
+        return summary
+    }
+
+    /**
+     * Reads the sessions updated before the key, most recent first.
+     */
+    fun loadSessionPage(after: SessionPageKey?, limit: Int): List<ChatSessionSummary> {
+        val columns = "id, title, message_count, last_message, created_at, updated_at"
+        val cursor = if (after == null) {
+            readableDatabase.rawQuery(
+                "SELECT $columns FROM $TABLE_SESSIONS ORDER BY updated_at DESC, id DESC LIMIT ?",
+                arrayOf(limit.toString())
+            )
+        } else {
+            readableDatabase.rawQuery(
+                "SELECT $columns FROM $TABLE_SESSIONS WHERE updated_at < ? OR (updated_at = ? AND id < ?) " +
+                    "ORDER BY updated_at DESC, id DESC LIMIT ?",
+                arrayOf(after.updatedAt.toString(), after.updatedAt.toString(), after.id, limit.toString())
+            )
+        }
+        return cursor.use {
+            val sessions = ArrayList<ChatSessionSummary>(it.count)
+            while (it.moveToNext()) {
+                sessions.add(
+                    ChatSessionSummary(
+                        id = it.getString(0),
+                        title = it.getString(1),
+                        messageCount = it.getInt(2),
+                        lastMessage = if (it.isNull(3)) null else it.getString(3),
+                        createdAt = it.getLong(4),
+                        updatedAt = it.getLong(5)
+                    )
+                )
+            }
+            sessions
+        }
+    }
+
+    /**
+     * Reads up to [limit] messages before the given message, oldest first.
+     * Returns nothing if the message is not stored.
+     */
+    fun loadMessages(sessionId: String, beforeMessageId: String?, limit: Int): List<ChatMessage> {
+        val db = readableDatabase
+        val beforeSeq = if (beforeMessageId != null) {
+            findSeq(db, sessionId, beforeMessageId) ?: return emptyList()
+        } else {
+            Long.MAX_VALUE
+        }
+        return db.rawQuery(
+            "SELECT $MESSAGE_COLUMNS FROM $TABLE_MESSAGES " +
+                "WHERE session_id = ? AND seq < ? ORDER BY seq DESC LIMIT ?",
+            arrayOf(sessionId, beforeSeq.toString(), limit.toString())
+        ).use { cursor ->
+            val messages = ArrayList<ChatMessage>(cursor.count)
+            while (cursor.moveToNext()) {
+                messages.add(readMessage(cursor, 0))
+            }
+            messages.reverse()
+            messages
+        }
+    }
+
+    /**
+     * Reads the current session with its most recent messages, or null if there is none.
+     */
+    fun loadCurrentSession(messageLimit: Int): ChatSession? {
+        val db = readableDatabase
+        val id = getMeta(db, KEY_CURRENT_SESSION) ?: return null
+        return db.rawQuery(
+            "SELECT title, created_at, updated_at FROM $TABLE_SESSIONS WHERE id = ?", arrayOf(id)
+        ).use { cursor ->
+            if (!cursor.moveToFirst()) return null
+            ChatSession(
+                id = id,
+                title = cursor.getString(0),
+                messages = loadMessages(id, null, messageLimit),
+                createdAt = cursor.getLong(1),
+                updatedAt = cursor.getLong(2)
+            )
+        }
+    }
+
+    fun clearCurrentSessionId() {
+        writableDatabase.delete(TABLE_META, "key = ?", arrayOf(KEY_CURRENT_SESSION))
+    }
+
+    fun deleteSession(sessionId: String) {
+        val db = writableDatabase
+        db.beginTransaction()
+        try {
+            db.delete(TABLE_MESSAGES, "session_id = ?", arrayOf(sessionId))
+            db.delete(TABLE_SESSIONS, "id = ?", arrayOf(sessionId))
+            if (getMeta(db, KEY_CURRENT_SESSION) == sessionId) {
+                db.delete(TABLE_META, "key = ?", arrayOf(KEY_CURRENT_SESSION))
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    private fun findSeq(db: SQLiteDatabase, sessionId: String, messageId: String): Long? {
+        return db.rawQuery(
+            "SELECT seq FROM $TABLE_MESSAGES WHERE session_id = ? AND id = ?", arrayOf(sessionId, messageId)
+        ).use { cursor -> if (cursor.moveToFirst()) cursor.getLong(0) else null }
+    }
+
+    private fun maxSeq(db: SQLiteDatabase, sessionId: String): Long {
+        return db.rawQuery(
+            "SELECT MAX(seq) FROM $TABLE_MESSAGES WHERE session_id = ?", arrayOf(sessionId)
+        ).use { cursor -> if (cursor.moveToFirst() && !cursor.isNull(0)) cursor.getLong(0) else -1L }
+    }
+
+    /**
+     * Reads the [MESSAGE_COLUMNS] starting at column [first] of the cursor's row.
+     */
+    private fun readMessage(cursor: Cursor, first: Int) = ChatMessage(
+        id = cursor.getString(first),
+        text = cursor.getString(first + 1),
+        isFromUser = cursor.getInt(first + 2) != 0,
+        timestamp = cursor.getLong(first + 3),
+        state = parseState(cursor.getString(first + 4)),
+        imageUrl = if (cursor.isNull(first + 5)) null else cursor.getString(first + 5)
+    )
+
+    private fun messageValues(sessionId: String, seq: Long, message: ChatMessage) = ContentValues().apply {
+        put("session_id", sessionId)
+        put("seq", seq)
+        put("id", message.id)
+        put("text", message.text)
+        put("is_from_user", if (message.isFromUser) 1 else 0)
+        put("timestamp", message.timestamp)
+        put("state", message.state.name)
+        put("image_url", message.imageUrl)
+    }
+
+    private fun parseState(name: String): ChatMessage.MessageState {
+        return ChatMessage.MessageState.values().firstOrNull { it.name == name } ?: ChatMessage.MessageState.NORMAL
+    }
+
+    private fun getMeta(db: SQLiteDatabase, key: String): String? {
+        return db.rawQuery("SELECT value FROM $TABLE_META WHERE key = ?", arrayOf(key))
+            .use { cursor -> if (cursor.moveToFirst()) cursor.getString(0) else null }
+    }
+
+    private fun setMeta(db: SQLiteDatabase, key: String, value: String) {
+        db.insertWithOnConflict(TABLE_META, null, ContentValues().apply {
+            put("key", key)
+            put("value", value)
+        }, SQLiteDatabase.CONFLICT_REPLACE)
+    }
+
+    companion object {
+        private const val DATABASE_NAME = "chat_sessions.db"
+        private const val DATABASE_VERSION = 1
+        private const val TABLE_SESSIONS = "sessions"
+        private const val TABLE_MESSAGES = "messages"
+        private const val TABLE_META = "meta"
+        private const val KEY_CURRENT_SESSION = "current_session"
+        private const val LAST_MESSAGE_LENGTH = 100
+        private const val MESSAGE_COLUMNS = "id, text, is_from_user, timestamp, state, image_url"
+    }
+}
@@ -109,6 +109,8 @@ data class AsrConfig(
     val format: String = "json",
     val maxRecordingDurationMs: Long = 10000, // 10 seconds max for offline mode
     val autoStopOnSilence: Boolean = true,
+    val chunkedUploadEnabled: Boolean = true,  // Offline mode: send PCM chunks while still recording
+    val chunkDurationMs: Long = 5000,          // Chunk size for chunked upload
     val availabilityConfig: AsrAvailabilityConfig = AsrAvailabilityConfig() // Default to offline-only
 ) {
     /**
@@ -0,0 +1,38 @@
+package com.mtkresearch.breezeapp.domain.model.chat
+
+/**
+ * A stored conversation without its messages, for listing conversations.
+ */
+data class ChatSessionSummary(
+    val id: String,
+    val title: String,
+    val messageCount: Int,
+    val lastMessage: String?,
+    val createdAt: Long,
+    val updatedAt: Long
+)
+
+/**
+ * Position after the last summary of a page. Pages are ordered by most recently
+ * updated first, so the next page starts strictly after this key.
+ */
+data class SessionPageKey(
+    val updatedAt: Long,
+    val id: String
+)
+
+/**
+ * One page of conversations; nextKey is null on the last page.
+ */
+data class SessionPage(
+    val sessions: List<ChatSessionSummary>,
+    val nextKey: SessionPageKey?
+)
+
+/**
+ * A change to the stored conversations, so observers can update a list in place.
+ */
+sealed class SessionChange {
+    data class Upserted(val summary: ChatSessionSummary) : SessionChange()
+    data class Removed(val sessionId: String) : SessionChange()
+}
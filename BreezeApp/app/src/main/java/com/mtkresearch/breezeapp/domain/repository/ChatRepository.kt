@@ -1,5 +1,8 @@
 package com.mtkresearch.breezeapp.domain.repository
 
+import com.mtkresearch.breezeapp.domain.model.chat.SessionChange
+import com.mtkresearch.breezeapp.domain.model.chat.SessionPage
+import com.mtkresearch.breezeapp.domain.model.chat.SessionPageKey
 import com.mtkresearch.breezeapp.presentation.chat.model.ChatMessage
 import com.mtkresearch.breezeapp.presentation.chat.model.ChatSession
 import kotlinx.coroutines.flow.Flow
@@ -12,12 +15,14 @@ import kotlinx.coroutines.flow.Flow
 interface ChatRepository {
     
     /**
-     * Get the current conversation session
+     * Get the current conversation session with its most recent messages.
+     * Older messages are read with [getMessagePage].
      */
     suspend fun getCurrentSession(): ChatSession?
     
     /**
-     * Save the current conversation session
+     * Save the current conversation session. Writes may be deferred and batched;
+     * call [flush] to make them durable now.
      */
     suspend fun saveCurrentSession(session: ChatSession)
     
@@ -30,4 +35,31 @@ interface ChatRepository {
      * Observe current session changes
      */
     fun observeCurrentSession(): Flow<ChatSession?>
-}
\ No newline at end of file
+
+    /**
+     * Get a page of stored conversations, most recently updated first.
+     * Pass the previous page's nextKey to continue, or null for the first page.
+     */
+    suspend fun getSessionPage(after: SessionPageKey?, limit: Int): SessionPage
+
+    /**
+     * Get up to [limit] messages of a conversation that come before the message with
+     * [beforeMessageId], oldest first. A null id reads the most recent messages.
+     */
+    suspend fun getMessagePage(sessionId: String, beforeMessageId: String?, limit: Int): List<ChatMessage>
+
+    /**
+     * Delete a stored conversation
+     */
+    suspend fun deleteSession(sessionId: String)
+
+    /**
+     * Observe changes to the stored conversations, one change at a time
+     */
+    fun observeSessionChanges(): Flow<SessionChange>
+
+    /**
+     * Write any deferred changes to storage
+     */
+    suspend fun flush()
+}
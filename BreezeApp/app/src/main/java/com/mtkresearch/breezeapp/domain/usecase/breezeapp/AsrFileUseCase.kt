@@ -10,8 +10,11 @@ import com.mtkresearch.breezeapp.edgeai.EdgeAIException
 import com.mtkresearch.breezeapp.edgeai.InvalidInputException
 import com.mtkresearch.breezeapp.edgeai.ServiceConnectionException
 import com.mtkresearch.breezeapp.domain.model.breezeapp.BreezeAppError
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.catch
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.launch
 import javax.inject.Inject
 
 /**
@@ -32,6 +35,7 @@ class AsrFileUseCase @Inject constructor() {
     
     companion object {
         private const val TAG = "AsrFileUseCase"
+        private const val MIN_CHUNK_SIZE_BYTES = 8000 // ~0.25 second at 16kHz mono 16-bit
     }
     
     /**
@@ -53,7 +57,53 @@ class AsrFileUseCase @Inject constructor() {
             language = language
         )
         
-        return EdgeAI.asr(request)
+        return mapErrors(EdgeAI.asr(request))
+    }
+    
+    /**
+     * Execute speech recognition over PCM chunks while they are still being recorded
+     * 
+     * Chunks are buffered as they arrive and sent to the engine one request at a time,
+     * so recognition of earlier chunks overlaps with capture of later ones. Responses of
+     * every chunk are forwarded in order; the `chunk_index` metadata lets callers and
+     * engine logs correlate them. Chunks shorter than ~0.25s are skipped.
+     * 
+     * @param chunks Flow of 16kHz mono PCM16 chunks, completed when recording stops
+     * @param language The language code for recognition
+     * @return Flow of ASRResponse, one final response per recognized chunk
+     */
+    fun executeChunked(
+        chunks: Flow<ByteArray>,
+        language: String = "en"
+    ): Flow<ASRResponse> = channelFlow {
+        val pending = Channel<ByteArray>(Channel.UNLIMITED)
+        launch {
+            try {
+                chunks.collect { pending.send(it) }
+            } finally {
+                pending.close()
+            }
+        }
+        
+        var chunkIndex = 0
+        for (chunk in pending) {
+            if (chunk.size < MIN_CHUNK_SIZE_BYTES) {
+                Log.d(TAG, "Skipping ${chunk.size} byte chunk, too short to recognize")
+                continue
+            }
+            Log.d(TAG, "Executing ASR chunk $chunkIndex with ${chunk.size} bytes")
+            val request = asrRequest(
+                audioBytes = chunk,
+                language = language,
+                metadata = mapOf("chunk_index" to chunkIndex.toString())
+            )
+            mapErrors(EdgeAI.asr(request)).collect { send(it) }
+            chunkIndex++
+        }
+    }
+    
+    private fun mapErrors(responses: Flow<ASRResponse>): Flow<ASRResponse> {
+        return responses
             .catch { e ->
                 Log.e(TAG, "ASR file request failed: ${e.message}")
                 when (e) {
@@ -154,6 +154,9 @@ class AsrMicrophoneUseCase @Inject constructor() {
                         Log.d(TAG, "Audio recording cancelled: ${result.partialAudioData.size} bytes")
                         audioData = result.partialAudioData
                     }
+                    is AudioRecordingResult.Chunk -> {
+                        // Not produced by recordAudio(), chunks come only from recordAudioChunks()
+                    }
                     is AudioRecordingResult.Error -> {
                         Log.e(TAG, "Audio recording error: ${result.message}")
                         recordingError = result.message
@@ -0,0 +1,17 @@
+package com.mtkresearch.breezeapp.domain.usecase.chat
+
+import com.mtkresearch.breezeapp.domain.repository.ChatRepository
+import com.mtkresearch.breezeapp.presentation.chat.model.ChatMessage
+import javax.inject.Inject
+
+/**
+ * Use Case for loading older messages of a session, e.g. when scrolling up.
+ * A null beforeMessageId loads the most recent messages.
+ */
+class LoadMessagePageUseCase @Inject constructor(
+    private val chatRepository: ChatRepository
+) {
+    suspend operator fun invoke(sessionId: String, beforeMessageId: String?, limit: Int): List<ChatMessage> {
+        return chatRepository.getMessagePage(sessionId, beforeMessageId, limit)
+    }
+}
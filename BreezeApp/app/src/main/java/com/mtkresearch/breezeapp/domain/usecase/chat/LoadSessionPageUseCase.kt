@@ -0,0 +1,17 @@
+package com.mtkresearch.breezeapp.domain.usecase.chat
+
+import com.mtkresearch.breezeapp.domain.model.chat.SessionPage
+import com.mtkresearch.breezeapp.domain.model.chat.SessionPageKey
+import com.mtkresearch.breezeapp.domain.repository.ChatRepository
+import javax.inject.Inject
+
+/**
+ * Use Case for loading a page of stored conversations for the history list
+ */
+class LoadSessionPageUseCase @Inject constructor(
+    private val chatRepository: ChatRepository
+) {
+    suspend operator fun invoke(after: SessionPageKey?, limit: Int): SessionPage {
+        return chatRepository.getSessionPage(after, limit)
+    }
+}
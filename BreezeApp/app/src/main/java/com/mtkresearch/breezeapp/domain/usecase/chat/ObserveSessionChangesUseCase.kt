@@ -0,0 +1,17 @@
+package com.mtkresearch.breezeapp.domain.usecase.chat
+
+import com.mtkresearch.breezeapp.domain.model.chat.SessionChange
+import com.mtkresearch.breezeapp.domain.repository.ChatRepository
+import kotlinx.coroutines.flow.Flow
+import javax.inject.Inject
+
+/**
+ * Use Case for observing saved and deleted conversations while the history list is shown
+ */
+class ObserveSessionChangesUseCase @Inject constructor(
+    private val chatRepository: ChatRepository
+) {
+    operator fun invoke(): Flow<SessionChange> {
+        return chatRepository.observeSessionChanges()
+    }
+}
@@ -13,4 +13,11 @@ class SaveCurrentSessionUseCase @Inject constructor(
     suspend operator fun invoke(session: ChatSession) {
         chatRepository.saveCurrentSession(session)
     }
+
+    /**
+     * Write saved sessions to storage now instead of after the write-behind delay
+     */
+    suspend fun flush() {
+        chatRepository.flush()
+    }
 }
\ No newline at end of file
@@ -109,6 +109,11 @@ class ChatActivity : BaseActivity() {
         binding.btnSettings.setOnClickListener {
             showRuntimeSettingsDialog()
         }
+
+        // 對話記錄按鈕點擊事件
+        binding.btnHistory.setOnClickListener {
+            (supportFragmentManager.findFragmentById(R.id.fragmentContainer) as? ChatFragment)?.showSessionHistory()
+        }
     }
 
     /**
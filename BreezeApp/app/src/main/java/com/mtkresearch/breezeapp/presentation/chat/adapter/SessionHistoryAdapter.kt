@@ -0,0 +1,61 @@
+package com.mtkresearch.breezeapp.presentation.chat.adapter
+
+import android.view.LayoutInflater
+import android.view.View
+import android.view.ViewGroup
+import androidx.recyclerview.widget.DiffUtil
+import com.mtkresearch.breezeapp.R
+import com.mtkresearch.breezeapp.databinding.ItemSessionHistoryBinding
+import com.mtkresearch.breezeapp.domain.model.chat.ChatSessionSummary
+import com.mtkresearch.breezeapp.presentation.common.base.BaseAdapter
+import com.mtkresearch.breezeapp.presentation.common.base.BaseViewHolder
+
+/**
+ * 歷史會話列表適配器
+ *
+ * 只顯示會話摘要 (標題、最後一則訊息、訊息數量)，訊息內容在開啟會話時才載入
+ */
+class SessionHistoryAdapter : BaseAdapter<ChatSessionSummary, SessionHistoryAdapter.SessionViewHolder>(
+    SessionDiffCallback()
+) {
+
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): SessionViewHolder {
+        val binding = ItemSessionHistoryBinding.inflate(
+            LayoutInflater.from(parent.context),
+            parent,
+            false
+        )
+        return SessionViewHolder(binding)
+    }
+
+    /**
+     * 會話ViewHolder
+     */
+    class SessionViewHolder(
+        private val binding: ItemSessionHistoryBinding
+    ) : BaseViewHolder<ChatSessionSummary>(binding.root) {
+
+        override fun bind(item: ChatSessionSummary, position: Int) {
+            binding.textSessionTitle.text = item.title
+            binding.textLastMessage.text = item.lastMessage.orEmpty()
+            binding.textLastMessage.visibility = if (item.lastMessage.isNullOrEmpty()) View.GONE else View.VISIBLE
+            binding.textMessageCount.text = itemView.context.getString(
+                R.string.session_history_message_count,
+                item.messageCount
+            )
+        }
+    }
+}
+
+/**
+ * ChatSessionSummary的DiffCallback
+ */
+private class SessionDiffCallback : DiffUtil.ItemCallback<ChatSessionSummary>() {
+    override fun areItemsTheSame(oldItem: ChatSessionSummary, newItem: ChatSessionSummary): Boolean {
+        return oldItem.id == newItem.id
+    }
+
+    override fun areContentsTheSame(oldItem: ChatSessionSummary, newItem: ChatSessionSummary): Boolean {
+        return oldItem == newItem
+    }
+}
@@ -175,6 +175,8 @@ class ChatFragment : BaseFragment(), MessageAdapter.MessageInteractionListener {
         super.onPause()
         // Stop TTS immediately when user leaves the activity
         viewModel.stopCurrentTts()
+        // Write the session now rather than after the save delay
+        viewModel.flushPendingSession()
     }
 
     override fun onDestroyView() {
@@ -214,6 +216,11 @@ class ChatFragment : BaseFragment(), MessageAdapter.MessageInteractionListener {
                     } else {
                         binding.fabScrollToBottom.hide()
                     }
+
+                    // 接近頂端時載入較早的訊息
+                    if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= LOAD_OLDER_MESSAGES_THRESHOLD) {
+                        viewModel.loadOlderMessages()
+                    }
                 }
             })
         }
@@ -613,6 +620,15 @@ class ChatFragment : BaseFragment(), MessageAdapter.MessageInteractionListener {
         }
     }
 
+    /**
+     * 顯示歷史會話列表
+     */
+    fun showSessionHistory() {
+        if (childFragmentManager.findFragmentByTag(SessionHistoryBottomSheet.TAG) != null) return
+        hideKeyboard()
+        SessionHistoryBottomSheet().show(childFragmentManager, SessionHistoryBottomSheet.TAG)
+    }
+
     /**
      * 隱藏軟鍵盤
      */
@@ -625,6 +641,8 @@ class ChatFragment : BaseFragment(), MessageAdapter.MessageInteractionListener {
     }
 
     companion object {
+        private const val LOAD_OLDER_MESSAGES_THRESHOLD = 3 // Items from the top that trigger paging
+
         /**
          * 創建新的ChatFragment實例
          */
@@ -0,0 +1,88 @@
+package com.mtkresearch.breezeapp.presentation.chat.fragment
+
+import android.os.Bundle
+import android.view.LayoutInflater
+import android.view.View
+import android.view.ViewGroup
+import androidx.fragment.app.viewModels
+import androidx.lifecycle.Lifecycle
+import androidx.lifecycle.lifecycleScope
+import androidx.lifecycle.repeatOnLifecycle
+import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import com.google.android.material.bottomsheet.BottomSheetDialogFragment
+import com.mtkresearch.breezeapp.databinding.BottomSheetSessionHistoryBinding
+import com.mtkresearch.breezeapp.presentation.chat.adapter.SessionHistoryAdapter
+import com.mtkresearch.breezeapp.presentation.chat.viewmodel.ChatViewModel
+import kotlinx.coroutines.launch
+
+/**
+ * 歷史會話列表
+ *
+ * 與ChatFragment共用ChatViewModel：列表依捲動逐頁載入，
+ * 開啟期間保存或刪除的會話直接套用到列表上，不重新查詢
+ */
+class SessionHistoryBottomSheet : BottomSheetDialogFragment() {
+
+    private var _binding: BottomSheetSessionHistoryBinding? = null
+    private val binding get() = _binding!!
+
+    private val viewModel: ChatViewModel by viewModels(ownerProducer = { requireParentFragment() })
+    private val sessionAdapter = SessionHistoryAdapter()
+
+    override fun onCreateView(
+        inflater: LayoutInflater,
+        container: ViewGroup?,
+        savedInstanceState: Bundle?
+    ): View {
+        _binding = BottomSheetSessionHistoryBinding.inflate(inflater, container, false)
+        return binding.root
+    }
+
+    override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
+        super.onViewCreated(view, savedInstanceState)
+
+        sessionAdapter.setOnItemClickListener { summary, _, _ ->
+            viewModel.openSession(summary)
+            dismiss()
+        }
+
+        binding.recyclerViewSessions.apply {
+            adapter = sessionAdapter
+            layoutManager = LinearLayoutManager(requireContext())
+            addOnScrollListener(object : RecyclerView.OnScrollListener() {
+                override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+                    super.onScrolled(recyclerView, dx, dy)
+                    val layoutManager = recyclerView.layoutManager as LinearLayoutManager
+                    // 接近底部時載入下一頁
+                    if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= sessionAdapter.itemCount - LOAD_MORE_THRESHOLD) {
+                        viewModel.loadMoreSessionHistory()
+                    }
+                }
+            })
+        }
+
+        viewLifecycleOwner.lifecycleScope.launch {
+            viewLifecycleOwner.repeatOnLifecycle(Lifecycle.State.STARTED) {
+                viewModel.sessionHistory.collect { sessions ->
+                    sessionAdapter.submitList(sessions)
+                    binding.textHistoryEmpty.visibility = if (sessions.isEmpty()) View.VISIBLE else View.GONE
+                }
+            }
+        }
+
+        if (savedInstanceState == null) {
+            viewModel.loadSessionHistory()
+        }
+    }
+
+    override fun onDestroyView() {
+        super.onDestroyView()
+        _binding = null
+    }
+
+    companion object {
+        const val TAG = "SessionHistoryBottomSheet"
+        private const val LOAD_MORE_THRESHOLD = 5 // Items from the end that trigger paging
+    }
+}
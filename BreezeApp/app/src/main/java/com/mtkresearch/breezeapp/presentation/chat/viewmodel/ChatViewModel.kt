@@ -17,6 +17,13 @@ import com.mtkresearch.breezeapp.domain.usecase.settings.LoadRuntimeSettingsUseC
 import com.mtkresearch.breezeapp.domain.usecase.chat.LoadCurrentSessionUseCase
 import com.mtkresearch.breezeapp.domain.usecase.chat.SaveCurrentSessionUseCase
 import com.mtkresearch.breezeapp.domain.usecase.chat.ClearCurrentSessionUseCase
+import com.mtkresearch.breezeapp.domain.usecase.chat.LoadMessagePageUseCase
+import com.mtkresearch.breezeapp.domain.usecase.chat.LoadSessionPageUseCase
+import com.mtkresearch.breezeapp.domain.usecase.chat.ObserveSessionChangesUseCase
+import com.mtkresearch.breezeapp.domain.model.chat.ChatSessionSummary
+import com.mtkresearch.breezeapp.domain.model.chat.SessionChange
+import com.mtkresearch.breezeapp.domain.model.chat.SessionPage
+import com.mtkresearch.breezeapp.domain.model.chat.SessionPageKey
 import com.mtkresearch.breezeapp.domain.repository.ChatRepository
 import com.mtkresearch.breezeapp.domain.model.breezeapp.ConnectionState as BreezeAppConnectionState
 import com.mtkresearch.breezeapp.domain.model.breezeapp.BreezeAppError
@@ -32,6 +39,10 @@ import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withTimeoutOrNull
 import kotlinx.coroutines.flow.onCompletion
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.flow.filterIsInstance
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.launchIn
 import javax.inject.Inject
 
 /**
@@ -63,16 +74,40 @@ class ChatViewModel @Inject constructor(
     private val loadRuntimeSettingsUseCase: LoadRuntimeSettingsUseCase,
     private val loadCurrentSessionUseCase: LoadCurrentSessionUseCase = LoadCurrentSessionUseCase(DefaultChatRepository),
     private val saveCurrentSessionUseCase: SaveCurrentSessionUseCase = SaveCurrentSessionUseCase(DefaultChatRepository),
-    private val clearCurrentSessionUseCase: ClearCurrentSessionUseCase = ClearCurrentSessionUseCase(DefaultChatRepository)
+    private val clearCurrentSessionUseCase: ClearCurrentSessionUseCase = ClearCurrentSessionUseCase(DefaultChatRepository),
+    private val loadMessagePageUseCase: LoadMessagePageUseCase = LoadMessagePageUseCase(DefaultChatRepository),
+    private val loadSessionPageUseCase: LoadSessionPageUseCase = LoadSessionPageUseCase(DefaultChatRepository),
+    private val observeSessionChangesUseCase: ObserveSessionChangesUseCase = ObserveSessionChangesUseCase(DefaultChatRepository)
 ) : BaseViewModel() {
 
     private val tag: String = "ChatViewModel"
     private var microphoneStreamingJob: Job? = null
     private var isUserStoppingMicrophone: Boolean = false
     private val audioRecorder = AudioRecorder()
+
+    // 等待寫入的會話；串流回應期間的多次更新只保存最後一次
+    private var pendingSessionSave: ChatSession? = null
+    private var sessionSaveJob: Job? = null
+
+    // 較早訊息的分頁載入狀態
+    private var hasOlderMessages = true
+    private var isLoadingOlderMessages = false
+
+    // 歷史會話的分頁載入狀態；重新載入時遞增 generation，丟棄先前尚未完成的分頁
+    private var nextSessionPageKey: SessionPageKey? = null
+    private var hasMoreSessions = true
+    private var isLoadingSessions = false
+    private var sessionHistoryGeneration = 0
+    private var sessionChangesJob: Job? = null
     
     companion object {
         private const val SAMPLE_RATE = 16000 // 16kHz audio sample rate
+        private const val SESSION_SAVE_DELAY_MS = 500L // Updates within this window are saved once
+        private const val MESSAGE_PAGE_SIZE = 50 // Older messages loaded per scroll to the top
+        private const val SESSION_PAGE_SIZE = 30 // Conversations loaded per scroll to the end of the history list
+
+        // 與儲存庫的分頁順序相同：最近更新的在前，相同時間再依 id 排序
+        private val SESSION_ORDER = compareByDescending<ChatSessionSummary> { it.updatedAt }.thenByDescending { it.id }
     }
 
     /**
@@ -90,6 +125,10 @@ class ChatViewModel @Inject constructor(
     private val _messages = MutableStateFlow<List<ChatMessage>>(emptyList())
     val messages: StateFlow<List<ChatMessage>> = _messages.asStateFlow()
 
+    // 歷史會話列表
+    private val _sessionHistory = MutableStateFlow<List<ChatSessionSummary>>(emptyList())
+    val sessionHistory: StateFlow<List<ChatSessionSummary>> = _sessionHistory.asStateFlow()
+
     // 輸入框文字
     private val _inputText = MutableStateFlow("")
     val inputText: StateFlow<String> = _inputText.asStateFlow()
@@ -121,10 +160,6 @@ class ChatViewModel @Inject constructor(
     // TTS 播放任務
     private var currentTtsJob: Job? = null
 
-    // 歷史會話列表 (簡化實作)
-    private val _chatSessions = MutableStateFlow<List<ChatSession>>(emptyList())
-    val chatSessions: StateFlow<List<ChatSession>> = _chatSessions.asStateFlow()
-
     // BreezeApp Engine 連接狀態
     private val _connectionState = MutableStateFlow<BreezeAppConnectionState>(BreezeAppConnectionState.Disconnected)
     val connectionState: StateFlow<BreezeAppConnectionState> = _connectionState.asStateFlow()
@@ -404,7 +439,11 @@ class ChatViewModel @Inject constructor(
                     }
                 }
                 AsrMode.OFFLINE_FILE -> {
-                    startOfflineFileAsr()
+                    if (_asrConfig.value.chunkedUploadEnabled) {
+                        startChunkedFileAsr()
+                    } else {
+                        startOfflineFileAsr()
+                    }
                 }
             }
         }
@@ -538,6 +577,9 @@ class ChatViewModel @Inject constructor(
                                     audioProcessed = true // Mark as processed to avoid fallback
                                 }
                             }
+                            is AudioRecordingResult.Chunk -> {
+                                // Only emitted by recordAudioChunks(), handled in startChunkedFileAsr()
+                            }
                             is AudioRecordingResult.Error -> {
                                 Log.e(tag, "❌ [Offline] Recording error: ${result.message}")
                                 setError(getApplicationString(R.string.recording_failed).format(result.message))
@@ -575,6 +617,77 @@ class ChatViewModel @Inject constructor(
         }
     }
 
+    /**
+     * 開始離線分段 ASR 模式 - 錄音中即把固定長度的 PCM 分段送往引擎辨識
+     */
+    private fun startChunkedFileAsr() {
+        microphoneStreamingJob = viewModelScope.launch {
+            val transcript = StringBuilder()
+            
+            try {
+                Log.d(tag, "🎤 Starting OFFLINE chunked ASR...")
+                Log.d(tag, "🔄 Uploading ${_asrConfig.value.chunkDurationMs}ms PCM chunks while recording")
+                
+                _isListening.value = true
+                _recordingProgress.value = 0f
+                
+                val chunks = audioRecorder
+                    .recordAudioChunks(_asrConfig.value.chunkDurationMs, _asrConfig.value.maxRecordingDurationMs)
+                    .onEach { result ->
+                        when (result) {
+                            is AudioRecordingResult.Recording -> _recordingProgress.value = result.progress
+                            is AudioRecordingResult.Chunk -> Log.d(tag, "🎙️ [Chunked] Chunk ${result.index}: ${result.pcmData.size} bytes, last=${result.isLast}")
+                            is AudioRecordingResult.Error -> throw BreezeAppError.AsrError.RecognitionFailed(result.message)
+                            else -> Unit
+                        }
+                    }
+                    .filterIsInstance<AudioRecordingResult.Chunk>()
+                    .map { it.pcmData }
+                
+                asrFileUseCase.executeChunked(chunks, _asrConfig.value.language).collect { response ->
+                    if (response.isChunk) {
+                        updateInputText(joinTranscript(transcript.toString(), response.text))
+                    } else {
+                        val joined = joinTranscript(transcript.toString(), response.text)
+                        transcript.clear()
+                        transcript.append(joined)
+                        updateInputText(transcript.toString())
+                        Log.d(tag, "✅ [Chunked Final] ${response.text}")
+                    }
+                }
+                
+                if (transcript.isEmpty()) {
+                    setSuccess(getApplicationString(R.string.recording_cancelled_too_short))
+                }
+            } catch (e: kotlinx.coroutines.CancellationException) {
+                Log.d(tag, "🛡️ [Chunked] ASR cancelled")
+                audioRecorder.stopRecording()
+            } catch (e: Exception) {
+                Log.e(tag, "❌ [Chunked] Failed to process audio with BreezeApp Engine: ${e.message}")
+                audioRecorder.stopRecording()
+                setError(getApplicationString(R.string.voice_processing_failed).format(e.message))
+            } finally {
+                _isListening.value = false
+                _recordingProgress.value = 0f
+                microphoneStreamingJob = null
+                isUserStoppingMicrophone = false
+            }
+        }
+    }
+    
+    /**
+     * 串接分段辨識結果 - 只在英數字之間補空白，中文直接相接
+     */
+    private fun joinTranscript(previous: String, next: String): String {
+        val addition = next.trim()
+        if (previous.isEmpty()) return addition
+        if (addition.isEmpty()) return previous
+        val needsSpace = previous.last().isAsciiLetterOrDigit() && addition.first().isAsciiLetterOrDigit()
+        return if (needsSpace) "$previous $addition" else previous + addition
+    }
+    
+    private fun Char.isAsciiLetterOrDigit(): Boolean = this < '\u0080' && isLetterOrDigit()
+
     /**
      * 處理離線錄製的音頻檔案 - 立即發送到 BreezeApp Engine (ROBUST VERSION)
      */
@@ -690,12 +803,17 @@ class ChatViewModel @Inject constructor(
             }
             
             // Cancel any ongoing engine requests (non-blocking)
-            viewModelScope.launch {
-                try {
-                    requestCancellationUseCase.cancelLastRequest()
-                    Log.d(tag, "✅ Engine request cancelled successfully")
-                } catch (e: Exception) {
-                    Log.w(tag, "⚠️ Failed to cancel engine request: ${e.message}")
+            // Chunked upload keeps recognizing the remaining chunks after the recorder stops
+            if (_asrConfig.value.mode == AsrMode.OFFLINE_FILE && _asrConfig.value.chunkedUploadEnabled) {
+                Log.d(tag, "🛑 [Chunked] Letting pending chunks finish recognition")
+            } else {
+                viewModelScope.launch {
+                    try {
+                        requestCancellationUseCase.cancelLastRequest()
+                        Log.d(tag, "✅ Engine request cancelled successfully")
+                    } catch (e: Exception) {
+                        Log.w(tag, "⚠️ Failed to cancel engine request: ${e.message}")
+                    }
                 }
             }
             
@@ -714,6 +832,10 @@ class ChatViewModel @Inject constructor(
      * 清空聊天記錄
      */
     fun clearChat() {
+        // 清空的是畫面而非歷史記錄：先寫入尚未保存的舊會話，否則最後幾則訊息會遺失。
+        // 寫入在清除目前會話之前排入，清除後不會再被設回目前會話
+        flushPendingSession()
+        hasOlderMessages = true
         _messages.value = emptyList()
         _currentSession.value = ChatSession()
         _inputText.value = ""
@@ -741,10 +863,13 @@ class ChatViewModel @Inject constructor(
                 messages = _messages.value,
                 updatedAt = System.currentTimeMillis()
             )
-            saveSession(updatedSession)
+            // 立即寫入，避免被新會話的延遲保存取代
+            pendingSessionSave = updatedSession
+            flushPendingSession()
         }
 
         // 創建新會話
+        hasOlderMessages = true
         _currentSession.value = ChatSession()
         _messages.value = emptyList()
         _inputText.value = ""
@@ -762,6 +887,7 @@ class ChatViewModel @Inject constructor(
      * 加載會話
      */
     fun loadSession(session: ChatSession) {
+        hasOlderMessages = true
         _currentSession.value = session
         _messages.value = session.messages
         _inputText.value = ""
@@ -869,26 +995,149 @@ class ChatViewModel @Inject constructor(
         )
         _currentSession.value = updatedSession
         
-        // 保存到repository
+        // 延遲保存到repository，合併短時間內的連續更新
+        requestSessionSave(updatedSession)
+    }
+
+    /**
+     * 排程保存會話；已有排程時只替換待保存的內容
+     */
+    private fun requestSessionSave(session: ChatSession) {
+        pendingSessionSave = session
+        if (sessionSaveJob != null) return
+        sessionSaveJob = viewModelScope.launch {
+            delay(SESSION_SAVE_DELAY_MS)
+            sessionSaveJob = null
+            savePendingSession()
+        }
+    }
+
+    /**
+     * 立即保存尚未寫入的會話，供畫面離開前台時調用
+     */
+    fun flushPendingSession() {
+        sessionSaveJob?.cancel()
+        sessionSaveJob = null
+        val session = pendingSessionSave
+        pendingSessionSave = null
+        launchSafely(showLoading = false) {
+            session?.let { saveCurrentSessionUseCase(it) }
+            saveCurrentSessionUseCase.flush()
+        }
+    }
+
+    private fun savePendingSession() {
+        val session = pendingSessionSave ?: return
+        pendingSessionSave = null
         launchSafely(showLoading = false) {
-            saveCurrentSessionUseCase(updatedSession)
+            saveCurrentSessionUseCase(session)
         }
     }
 
     /**
-     * 保存會話
+     * 載入較早的訊息並加到列表前面，供捲動到頂端時調用
      */
-    private fun saveSession(session: ChatSession) {
-        val currentSessions = _chatSessions.value.toMutableList()
-        val existingIndex = currentSessions.indexOfFirst { it.id == session.id }
-        
-        if (existingIndex != -1) {
-            currentSessions[existingIndex] = session
-        } else {
-            currentSessions.add(0, session) // 新會話添加到最前面
+    fun loadOlderMessages() {
+        val oldestMessage = _messages.value.firstOrNull() ?: return
+        if (!hasOlderMessages || isLoadingOlderMessages) return
+        val sessionId = _currentSession.value.id
+        isLoadingOlderMessages = true
+        launchSafely(showLoading = false) {
+            try {
+                val olderMessages = loadMessagePageUseCase(sessionId, oldestMessage.id, MESSAGE_PAGE_SIZE)
+                if (olderMessages.size < MESSAGE_PAGE_SIZE) {
+                    hasOlderMessages = false
+                }
+                // 載入期間會話可能已切換
+                if (olderMessages.isNotEmpty() && _currentSession.value.id == sessionId) {
+                    _messages.value = olderMessages + _messages.value
+                }
+            } finally {
+                isLoadingOlderMessages = false
+            }
+        }
+    }
+
+    /**
+     * 從第一頁重新載入歷史會話，並開始套用之後保存或刪除的會話
+     */
+    fun loadSessionHistory() {
+        sessionHistoryGeneration++
+        nextSessionPageKey = null
+        hasMoreSessions = true
+        isLoadingSessions = false
+        _sessionHistory.value = emptyList()
+        if (sessionChangesJob == null) {
+            sessionChangesJob = observeSessionChangesUseCase()
+                .onEach { applySessionChange(it) }
+                .launchIn(viewModelScope)
+        }
+        loadMoreSessionHistory()
+    }
+
+    /**
+     * 載入下一頁歷史會話，供列表捲動到底部時調用
+     */
+    fun loadMoreSessionHistory() {
+        if (!hasMoreSessions || isLoadingSessions) return
+        val generation = sessionHistoryGeneration
+        isLoadingSessions = true
+        launchSafely(showLoading = false) {
+            try {
+                val page = loadSessionPageUseCase(nextSessionPageKey, SESSION_PAGE_SIZE)
+                if (generation == sessionHistoryGeneration) {
+                    nextSessionPageKey = page.nextKey
+                    hasMoreSessions = page.nextKey != null
+                    // 變更通知可能已先把同一會話加入列表
+                    val loadedIds = _sessionHistory.value.mapTo(HashSet()) { it.id }
+                    _sessionHistory.value = _sessionHistory.value + page.sessions.filterNot { it.id in loadedIds }
+                }
+            } finally {
+                if (generation == sessionHistoryGeneration) isLoadingSessions = false
+            }
+        }
+    }
+
+    /**
+     * 將單一會話的變更套用到已載入的列表，不重新查詢
+     */
+    private fun applySessionChange(change: SessionChange) {
+        when (change) {
+            is SessionChange.Removed -> {
+                _sessionHistory.value = _sessionHistory.value.filterNot { it.id == change.sessionId }
+            }
+            is SessionChange.Upserted -> {
+                val summary = change.summary
+                val others = _sessionHistory.value.filterNot { it.id == summary.id }
+                val index = others.indexOfFirst { SESSION_ORDER.compare(summary, it) < 0 }
+                _sessionHistory.value = when {
+                    index >= 0 -> others.toMutableList().apply { add(index, summary) }
+                    !hasMoreSessions -> others + summary
+                    // 排在已載入範圍之後，由後續分頁載入
+                    else -> others
+                }
+            }
+        }
+    }
+
+    /**
+     * 開啟歷史會話：先寫入目前會話，再載入所選會話最近的訊息
+     */
+    fun openSession(summary: ChatSessionSummary) {
+        if (summary.id == _currentSession.value.id) return
+        flushPendingSession()
+        launchSafely(showLoading = false) {
+            val recentMessages = loadMessagePageUseCase(summary.id, null, MESSAGE_PAGE_SIZE)
+            loadSession(
+                ChatSession(
+                    id = summary.id,
+                    title = summary.title,
+                    messages = recentMessages,
+                    createdAt = summary.createdAt,
+                    updatedAt = summary.updatedAt
+                )
+            )
         }
-        
-        _chatSessions.value = currentSessions
     }
 
     /**
@@ -1327,4 +1576,16 @@ private object DefaultChatRepository : ChatRepository {
     }
 
     override fun observeCurrentSession(): kotlinx.coroutines.flow.Flow<ChatSession?> = sessionFlow
+
+    override suspend fun getSessionPage(after: SessionPageKey?, limit: Int): SessionPage = SessionPage(emptyList(), null)
+
+    override suspend fun getMessagePage(sessionId: String, beforeMessageId: String?, limit: Int): List<ChatMessage> = emptyList()
+
+    override suspend fun deleteSession(sessionId: String) {
+        if (currentSession?.id == sessionId) clearCurrentSession()
+    }
+
+    override fun observeSessionChanges(): kotlinx.coroutines.flow.Flow<SessionChange> = kotlinx.coroutines.flow.emptyFlow()
+
+    override suspend fun flush() {}
 }
\ No newline at end of file
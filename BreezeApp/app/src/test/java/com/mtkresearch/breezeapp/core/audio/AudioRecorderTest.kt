@@ -0,0 +1,49 @@
+package com.mtkresearch.breezeapp.core.audio
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.nio.ShortBuffer
+
+/**
+ * AudioRecorder 分段切點測試
+ *
+ * 測試範圍：
+ * - 分段在最後一秒內最安靜的位置切開
+ * - 全程靜音時保留完整分段
+ */
+class AudioRecorderTest {
+
+    private val sampleRate = 16000
+
+    private fun speech(length: Int): ShortBuffer {
+        val samples = ShortArray(length) { (if (it % 2 == 0) 8000 else -8000).toShort() }
+        return ShortBuffer.wrap(samples)
+    }
+
+    @Test
+    fun `chunk is split in the pause before its end`() {
+        val length = 5 * sampleRate
+        val samples = speech(length)
+        // 100ms pause that starts 600ms before the end of the chunk
+        val pauseStart = length - 600 * sampleRate / 1000
+        for (i in pauseStart until pauseStart + sampleRate / 10) samples.put(i, 0.toShort())
+
+        val split = AudioRecorder.findSplitPoint(samples, length)
+
+        assertTrue(split in pauseStart until pauseStart + sampleRate / 10, "split at $split")
+    }
+
+    @Test
+    fun `silent chunk is kept whole`() {
+        val length = 5 * sampleRate
+
+        val split = AudioRecorder.findSplitPoint(ShortBuffer.allocate(length), length)
+
+        assertTrue(split > length - sampleRate / 50, "split at $split")
+    }
+
+    @Test
+    fun `chunk shorter than a frame is not split`() {
+        assertEquals(100, AudioRecorder.findSplitPoint(speech(100), 100))
+    }
+}
@@ -0,0 +1,159 @@
+package com.mtkresearch.breezeapp.data.repository
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.mtkresearch.breezeapp.data.source.local.ChatLocalDataSource
+import com.mtkresearch.breezeapp.domain.model.chat.SessionChange
+import com.mtkresearch.breezeapp.presentation.chat.model.ChatMessage
+import com.mtkresearch.breezeapp.presentation.chat.model.ChatSession
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.UnconfinedTestDispatcher
+import kotlinx.coroutines.test.runTest
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * ChatRepositoryImpl 單元測試
+ *
+ * 測試範圍：
+ * - 會話在新的 Repository 實例中仍可讀取
+ * - 串流更新合併寫入
+ * - 會話列表與訊息的分頁讀取
+ * - 會話變更的 Flow
+ */
+@RunWith(RobolectricTestRunner::class)
+class ChatRepositoryImplTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private lateinit var dataSource: ChatLocalDataSource
+
+    @Before
+    fun setUp() {
+        dataSource = ChatLocalDataSource(context)
+    }
+
+    @After
+    fun tearDown() {
+        dataSource.close()
+    }
+
+    private fun TestScope.createRepository() =
+        ChatRepositoryImpl(dataSource, UnconfinedTestDispatcher(testScheduler))
+
+    private fun createSession(id: String, messageCount: Int, updatedAt: Long = 1000L) = ChatSession(
+        id = id,
+        title = "Session $id",
+        messages = (0 until messageCount).map { ChatMessage(id = "$id-$it", text = "Message $it", isFromUser = it % 2 == 0) },
+        createdAt = 1000L,
+        updatedAt = updatedAt
+    )
+
+    @Test
+    fun `saved session is restored by a new repository with its recent messages`() = runTest {
+        val session = createSession("a", 120)
+        createRepository().run {
+            saveCurrentSession(session)
+            flush()
+        }
+
+        val restored = createRepository().getCurrentSession()
+        assertNotNull(restored)
+        assertEquals("a", restored!!.id)
+        assertEquals(session.messages.takeLast(50), restored.messages)
+
+        val older = createRepository().getMessagePage("a", restored.messages.first().id, 50)
+        assertEquals(session.messages.subList(20, 70), older)
+    }
+
+    @Test
+    fun `streaming updates are written as the latest state only`() = runTest {
+        val repository = createRepository()
+        val question = ChatMessage(id = "q", text = "Question", isFromUser = true)
+        var answer = ChatMessage(id = "r", text = "", isFromUser = false, state = ChatMessage.MessageState.TYPING)
+        repeat(100) {
+            answer = answer.copy(text = answer.text + "x")
+            repository.saveCurrentSession(ChatSession(id = "s", messages = listOf(question, answer)))
+        }
+        answer = answer.copy(state = ChatMessage.MessageState.NORMAL)
+        repository.saveCurrentSession(ChatSession(id = "s", messages = listOf(question, answer)))
+        repository.flush()
+
+        val page = repository.getSessionPage(null, 10)
+        assertEquals(1, page.sessions.size)
+        assertEquals(2, page.sessions[0].messageCount)
+        assertEquals(listOf(question, answer), repository.getMessagePage("s", null, 10))
+    }
+
+    @Test
+    fun `an edit with the same hash code is still written`() = runTest {
+        val repository = createRepository()
+        // "Aa" and "BB" have the same String.hashCode(), so the two messages hash alike
+        val message = ChatMessage(id = "m", text = "Aa", isFromUser = false, timestamp = 1L)
+        repository.saveCurrentSession(ChatSession(id = "s", messages = listOf(message)))
+        repository.flush()
+        val edited = message.copy(text = "BB")
+        assertEquals(message.hashCode(), edited.hashCode())
+        repository.saveCurrentSession(ChatSession(id = "s", messages = listOf(edited)))
+        repository.flush()
+
+        assertEquals(listOf(edited), createRepository().getMessagePage("s", null, 10))
+    }
+
+    @Test
+    fun `removed trailing messages are deleted`() = runTest {
+        val repository = createRepository()
+        val session = createSession("a", 4)
+        repository.saveCurrentSession(session)
+        repository.flush()
+        repository.saveCurrentSession(session.copy(messages = session.messages.dropLast(1)))
+        repository.flush()
+
+        assertEquals(session.messages.dropLast(1), repository.getMessagePage("a", null, 10))
+    }
+
+    @Test
+    fun `session pages continue after the previous page without overlap`() = runTest {
+        val repository = createRepository()
+        (0 until 25).forEach { repository.saveCurrentSession(createSession("s$it", 1, updatedAt = 1000L + it % 5)) }
+
+        val ids = mutableListOf<String>()
+        var page = repository.getSessionPage(null, 10)
+        ids += page.sessions.map { it.id }
+        while (page.nextKey != null) {
+            page = repository.getSessionPage(page.nextKey, 10)
+            ids += page.sessions.map { it.id }
+        }
+
+        assertEquals(25, ids.size)
+        assertEquals(25, ids.toSet().size)
+        val updated = ids.map { id -> 1000L + id.drop(1).toInt() % 5 }
+        assertEquals(updated.sortedDescending(), updated)
+    }
+
+    @Test
+    fun `deleted current session is gone from a new repository`() = runTest {
+        val repository = createRepository()
+        val changes = mutableListOf<SessionChange>()
+        val job = launch(UnconfinedTestDispatcher(testScheduler)) {
+            repository.observeSessionChanges().collect { changes.add(it) }
+        }
+        repository.saveCurrentSession(createSession("a", 2))
+        repository.flush()
+        repository.deleteSession("a")
+        job.cancel()
+
+        assertEquals(2, changes.size)
+        assertEquals("a", (changes[0] as SessionChange.Upserted).summary.id)
+        assertEquals(SessionChange.Removed("a"), changes[1])
+        assertNull(repository.getCurrentSession())
+        assertNull(repository.observeCurrentSession().first())
+        assertNull(createRepository().getCurrentSession())
+        assertTrue(repository.getMessagePage("a", null, 10).isEmpty())
+    }
+}
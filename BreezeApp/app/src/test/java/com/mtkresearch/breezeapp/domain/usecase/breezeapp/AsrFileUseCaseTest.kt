@@ -0,0 +1,95 @@
+package com.mtkresearch.breezeapp.domain.usecase.breezeapp
+
+import com.mtkresearch.breezeapp.domain.model.breezeapp.BreezeAppError
+import com.mtkresearch.breezeapp.edgeai.ASRResponse
+import com.mtkresearch.breezeapp.edgeai.EdgeAI
+import com.mtkresearch.breezeapp.edgeai.EdgeAIException
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.mockkObject
+import io.mockk.unmockkObject
+import io.mockk.verify
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+
+/**
+ * AsrFileUseCase 單元測試
+ *
+ * 測試範圍：
+ * - 分段上傳依序送出每個 PCM 分段
+ * - 過短分段不送往引擎
+ * - 引擎錯誤轉換為 BreezeAppError
+ */
+class AsrFileUseCaseTest {
+
+    private lateinit var useCase: AsrFileUseCase
+
+    @BeforeEach
+    fun setUp() {
+        mockkObject(EdgeAI)
+        useCase = AsrFileUseCase()
+    }
+
+    @AfterEach
+    fun tearDown() {
+        unmockkObject(EdgeAI)
+    }
+
+    @Test
+    fun `executeChunked should send every chunk in order`() = runTest {
+        // Given
+        var requestCount = 0
+        every { EdgeAI.asr(any()) } answers {
+            requestCount++
+            flowOf(asrResponse("chunk $requestCount"))
+        }
+        val chunks = flow {
+            emit(ByteArray(32000))
+            emit(ByteArray(16000))
+        }
+
+        // When
+        val responses = useCase.executeChunked(chunks, "en").toList()
+
+        // Then
+        assertEquals(2, requestCount, "Each chunk should be sent as its own request")
+        assertEquals(listOf("chunk 1", "chunk 2"), responses.map { it.text }, "Responses should keep capture order")
+    }
+
+    @Test
+    fun `executeChunked should skip chunks that are too short`() = runTest {
+        // Given
+        every { EdgeAI.asr(any()) } returns flowOf(asrResponse("hello"))
+        val chunks = flowOf(ByteArray(32000), ByteArray(100))
+
+        // When
+        val responses = useCase.executeChunked(chunks).toList()
+
+        // Then
+        assertEquals(1, responses.size)
+        verify(exactly = 1) { EdgeAI.asr(any()) }
+    }
+
+    @Test
+    fun `executeChunked should map engine errors to BreezeAppError`() = runTest {
+        // Given
+        every { EdgeAI.asr(any()) } returns flow { throw mockk<EdgeAIException>(relaxed = true) }
+
+        // When / Then
+        assertThrows<BreezeAppError.AsrError.RecognitionFailed> {
+            useCase.executeChunked(flowOf(ByteArray(32000))).toList()
+        }
+    }
+
+    private fun asrResponse(text: String): ASRResponse = mockk(relaxed = true) {
+        every { this@mockk.text } returns text
+        every { isChunk } returns false
+    }
+}
@@ -16,10 +16,12 @@ import android.widget.PopupMenu;
 import android.widget.Toast;
 import android.widget.ImageButton;
 import android.widget.CheckBox;
+import android.widget.EditText;
 import android.app.AlertDialog;
 import android.widget.TextView;
 import android.widget.ImageView;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.drawerlayout.widget.DrawerLayout;
 import androidx.lifecycle.Lifecycle;
@@ -29,6 +31,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import androidx.core.view.GravityCompat;
 
 import com.mtkresearch.breezeapp.utils.AudioListAdapter;
+import com.mtkresearch.breezeapp.utils.AudioRecorder;
 import com.mtkresearch.breezeapp.utils.ChatHistory;
 import com.mtkresearch.breezeapp.utils.ChatMediaHandler;
 import com.mtkresearch.breezeapp.utils.ChatMessageAdapter;
@@ -42,6 +45,7 @@ import com.mtkresearch.breezeapp.service.LLMEngineService;
 import com.mtkresearch.breezeapp.service.TTSEngineService;
 import com.mtkresearch.breezeapp.service.VLMEngineService;
 import com.mtkresearch.breezeapp.utils.IntroDialog;
+import com.mtkresearch.breezeapp.utils.ModelDownloadService;
 import com.mtkresearch.breezeapp.utils.LLMInferenceParams;
 import com.mtkresearch.breezeapp.utils.UiUtils;
 import com.mtkresearch.breezeapp.utils.AppConstants;
@@ -57,8 +61,12 @@ import android.util.Log;
 import com.mtkresearch.breezeapp.utils.FileUtils;
 import com.mtkresearch.breezeapp.utils.ChatUIStateHandler;
 import com.mtkresearch.breezeapp.utils.ConversationManager;
+import com.mtkresearch.breezeapp.utils.ChatHistoryArchive;
 import com.mtkresearch.breezeapp.utils.ChatHistoryManager;
 import com.mtkresearch.breezeapp.utils.ChatHistoryAdapter;
+import com.mtkresearch.breezeapp.utils.AttachmentIndex;
+import com.mtkresearch.breezeapp.utils.ThumbnailCache;
+import com.mtkresearch.breezeapp.utils.ContextRetriever;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -78,6 +86,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import android.os.Handler;
 import android.os.Looper;
@@ -88,6 +97,7 @@ import com.mtkresearch.breezeapp.utils.ModelFilter;
 import androidx.preference.PreferenceManager;
 
 import com.mtkresearch.breezeapp.utils.TokenEstimator;
+import com.mtkresearch.breezeapp.utils.VoiceSessionEngine;
 
 public class ChatActivity extends AppCompatActivity implements ChatMessageAdapter.OnSpeakerClickListener {
     private static final String TAG = "ChatActivity";
@@ -98,6 +108,8 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
     private static final int CAPTURE_IMAGE_REQUEST = AppConstants.CAPTURE_IMAGE_REQUEST;
     private static final int PICK_FILE_REQUEST = AppConstants.PICK_FILE_REQUEST;
     private static final int REQUEST_CODE_DOWNLOAD_ACTIVITY = AppConstants.REQUEST_CODE_DOWNLOAD_ACTIVITY;
+    private static final int EXPORT_CHATS_REQUEST = AppConstants.EXPORT_CHATS_REQUEST;
+    private static final int IMPORT_CHATS_REQUEST = AppConstants.IMPORT_CHATS_REQUEST;
 
     // Constants for alpha values
     private static final float ENABLED_ALPHA = AppConstants.ENABLED_ALPHA;
@@ -108,19 +120,37 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
 
     // Handlers
     private ChatMediaHandler mediaHandler;
+    private final AudioRecorder.PcmListener asrPcmFeed = (samples, length) -> {
+        ASREngineService service = asrService;
+        if (service != null) {
+            service.acceptPcm(samples, length);
+        }
+    };
     private ChatUIStateHandler uiHandler;
     private ConversationManager conversationManager;
     private ChatHistoryManager historyManager;
+    private ChatHistoryArchive chatArchive;
 
     // Adapters
     private ChatMessageAdapter chatAdapter;
     private ChatHistoryAdapter historyAdapter;
+    private EditText historySearchInput;
+    private final Handler historySearchHandler = new Handler(Looper.getMainLooper());
+    private Runnable pendingHistorySearch;
+
+    // Retrieval of past chats and attached files into prompts
+    private AttachmentIndex attachmentIndex;
+    private ThumbnailCache thumbnailCache;
+    private ContextRetriever contextRetriever;
+    private final Handler retrievalHandler = new Handler(Looper.getMainLooper());
 
     // Services
     private LLMEngineService llmService;
     private VLMEngineService vlmService;
     private ASREngineService asrService;
     private TTSEngineService ttsService;
+    private VoiceSessionEngine voiceSession;
+    private ChatMessage voiceSessionAiMessage;
 
     private DrawerLayout drawerLayout;
 
@@ -155,6 +185,9 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
         
         // Show intro dialog first, services will initialize after dialog is dismissed
         showIntroDialog();
+
+        // Continue a model download the app was killed in the middle of
+        ModelDownloadService.resumePending(this);
         
         setupHistoryDrawer();
         historyManager.clearCurrentActiveHistory();
@@ -187,6 +220,7 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
     protected void onPause() {
         Log.d(TAG, "onPause");
         saveCurrentChat();
+        historyManager.flush();
         
         try {
             unbindAllServices();
@@ -201,6 +235,11 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
         Log.d(TAG, "onStop");
         super.onStop();
 
+        if (voiceSession != null) {
+            voiceSession.release();
+            voiceSession = null;
+        }
+
         try {
             unbindAllServices();
         } catch (Exception e) {
@@ -213,6 +252,10 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
         Log.d(TAG, "onDestroy");
         super.onDestroy();
         
+        if (thumbnailCache != null) {
+            thumbnailCache.close();
+        }
+
         // Ensure all services are properly unbound and cleaned up
         try {
             cleanup();
@@ -259,6 +302,16 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
 
     private void initializeHandlers() {
         mediaHandler = new ChatMediaHandler(this);
+        // Raw PCM recordings report their level per chunk; drive the waveform from it
+        mediaHandler.addPcmListener((samples, length) -> {
+            int peak = 0;
+            for (int i = 0; i < length; i++) {
+                peak = Math.max(peak, Math.abs(samples[i]));
+            }
+            float amplitude = peak / (float) Short.MAX_VALUE;
+            binding.recordingInput.audioWaveView.post(
+                () -> binding.recordingInput.audioWaveView.updateAmplitude(amplitude));
+        });
         uiHandler = new ChatUIStateHandler(binding);
         conversationManager = new ConversationManager();
         historyManager = new ChatHistoryManager(this);
@@ -269,6 +322,17 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
         binding.recyclerView.setLayoutManager(new LinearLayoutManager(this));
         chatAdapter = new ChatMessageAdapter();
         binding.recyclerView.setAdapter(chatAdapter);
+        binding.recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                // Add older messages of a restored chat before the user reaches the top
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (dy < 0 && chatAdapter.hasOlderMessages() && layoutManager != null
+                        && layoutManager.findFirstVisibleItemPosition() <= AppConstants.LOAD_OLDER_MESSAGES_THRESHOLD) {
+                    recyclerView.post(() -> chatAdapter.loadOlderMessages());
+                }
+            }
+        });
 
         // Set up click listeners
         chatAdapter.setSpeakerClickListener(this);
@@ -279,6 +343,9 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
         
         // Set feedback click listener
         chatAdapter.setFeedbackClickListener(isUpvote -> showFeedbackDialog(isUpvote));
+
+        thumbnailCache = new ThumbnailCache(this);
+        chatAdapter.setThumbnailCache(thumbnailCache);
     }
 
     private void updateWatermarkVisibility() {
@@ -328,7 +395,11 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
         binding.voiceButtonExpanded.setOnClickListener(voiceClickListener);
 
         View.OnLongClickListener voiceLongClickListener = v -> {
-            showAudioList();
+            if (AppConstants.ASR_ENABLED) {
+                toggleVoiceSession();
+            } else {
+                showAudioList();
+            }
             return true;
         };
         binding.voiceButton.setOnLongClickListener(voiceLongClickListener);
@@ -339,10 +410,18 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
 
     private void setupRecordingControls() {
         binding.recordingInput.cancelRecordingButton.setOnClickListener(v -> {
+            if (voiceSession != null) {
+                stopVoiceSession();
+                return;
+            }
             stopRecording(false);
         });
 
         binding.recordingInput.finishRecordingButton.setOnClickListener(v -> {
+            if (voiceSession != null) {
+                stopVoiceSession();
+                return;
+            }
             stopRecording(true);
         });
     }
@@ -1039,7 +1118,7 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
         }
 
         // Start ASR service first
-        asrService.startListening(result -> {
+        Consumer<String> onResult = result -> {
             runOnUiThread(() -> {
                 if (result.startsWith("Partial: ")) {
                     String partialText = result.substring(9);
@@ -1054,7 +1133,13 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
                     stopRecording(false);
                 }
             });
-        });
+        };
+        // A raw PCM recording feeds ASR itself instead of both opening the microphone
+        if (AppConstants.RECORD_RAW_PCM && asrService.startListeningToPcm(onResult)) {
+            mediaHandler.addPcmListener(asrPcmFeed);
+        } else {
+            asrService.startListening(onResult);
+        }
 
         // Then start audio recording
         mediaHandler.startRecording();
@@ -1062,6 +1147,7 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
     }
 
     private void stopRecording(boolean shouldSave) {
+        mediaHandler.removePcmListener(asrPcmFeed);
         if (asrService != null) {
             asrService.stopListening();
         }
@@ -1069,6 +1155,111 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
         uiHandler.updateRecordingState(false);
     }
 
+    private void toggleVoiceSession() {
+        if (voiceSession != null && voiceSession.isActive()) {
+            stopVoiceSession();
+            return;
+        }
+
+        if (!hasAudioPermission()) {
+            requestPermissions(new String[]{android.Manifest.permission.RECORD_AUDIO},
+                PERMISSION_REQUEST_CODE);
+            return;
+        }
+
+        if (asrService == null || !asrServiceReady || llmService == null || !llmService.isReady()
+                || ttsService == null || !ttsService.isReady()) {
+            Toast.makeText(this, getString(R.string.voice_session_services_not_ready), Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        if (mediaHandler.isRecording()) {
+            stopRecording(false);
+        }
+
+        voiceSession = new VoiceSessionEngine(asrService, llmService, ttsService,
+            LLMInferenceParams.fromSharedPreferences(this), this::getFormattedPrompt,
+            new VoiceSessionEngine.Listener() {
+                @Override
+                public void onStateChanged(VoiceSessionEngine.State state) {
+                    if (binding == null) return;
+                    uiHandler.updateRecordingState(state != VoiceSessionEngine.State.IDLE);
+                }
+
+                @Override
+                public void onUserTranscript(String text, boolean isFinal) {
+                    if (binding == null) return;
+                    if (!isFinal) {
+                        binding.messageInput.setText(text);
+                        return;
+                    }
+                    binding.messageInput.setText("");
+                    ChatMessage userMessage = new ChatMessage(text, true);
+                    userMessage.setPromptId(promptId);
+                    conversationManager.addMessage(userMessage);
+                    chatAdapter.addMessage(userMessage);
+                    voiceSessionAiMessage = null;
+                    updateWatermarkVisibility();
+                    UiUtils.scrollToLatestMessage(binding.recyclerView, chatAdapter.getItemCount(), true);
+                }
+
+                @Override
+                public void onAssistantText(String text, boolean isFinal) {
+                    if (binding == null) return;
+                    if (voiceSessionAiMessage == null) {
+                        voiceSessionAiMessage = new ChatMessage(text, false);
+                        voiceSessionAiMessage.setPromptId(promptId);
+                        conversationManager.addMessage(voiceSessionAiMessage);
+                        chatAdapter.addMessage(voiceSessionAiMessage);
+                    } else {
+                        voiceSessionAiMessage.updateText(text);
+                    }
+                    voiceSessionAiMessage.setCompleted(isFinal);
+                    chatAdapter.notifyItemChanged(chatAdapter.getItemCount() - 1);
+                    if (isFinal) {
+                        voiceSessionAiMessage = null;
+                        promptId++;
+                        saveCurrentChat();
+                        refreshHistoryList();
+                    }
+                }
+
+                @Override
+                public void onBargeIn() {
+                    // The interrupted answer stays in the chat as far as it was generated
+                    if (voiceSessionAiMessage != null) {
+                        voiceSessionAiMessage.setCompleted(true);
+                        chatAdapter.notifyItemChanged(chatAdapter.getItemCount() - 1);
+                        voiceSessionAiMessage = null;
+                        promptId++;
+                    }
+                }
+
+                @Override
+                public void onStageLatency(VoiceSessionEngine.Stage stage, long latencyMs) {
+                    Log.d(TAG, "Voice session " + stage + " latency: " + latencyMs + "ms");
+                }
+
+                @Override
+                public void onError(String message) {
+                    Log.e(TAG, "Voice session error: " + message);
+                }
+            });
+        voiceSession.start();
+        Toast.makeText(this, getString(R.string.voice_session_started), Toast.LENGTH_SHORT).show();
+    }
+
+    private void stopVoiceSession() {
+        if (voiceSession == null) return;
+        voiceSession.release();
+        voiceSession = null;
+        voiceSessionAiMessage = null;
+        if (uiHandler != null) {
+            uiHandler.updateRecordingState(false);
+        }
+        Toast.makeText(this, getString(R.string.voice_session_stopped), Toast.LENGTH_SHORT).show();
+    }
+
     private void showAttachmentOptions() {
         PopupMenu popup = new PopupMenu(this, 
             binding.expandedInput.getVisibility() == View.VISIBLE ? 
@@ -1162,6 +1353,12 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
                     }
                 }
                 break;
+            case EXPORT_CHATS_REQUEST:
+            case IMPORT_CHATS_REQUEST:
+                if (data != null && data.getData() != null) {
+                    startArchiveTask(data.getData(), requestCode == EXPORT_CHATS_REQUEST);
+                }
+                break;
             case REQUEST_CODE_DOWNLOAD_ACTIVITY:
                 if(resultCode == RESULT_OK){
                     initializeServices();
@@ -1212,16 +1409,19 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
         String englishOnlyPattern = "^[\\p{IsLatin}\\p{Punct}\\d\\s]+$";
 
         // Set highlight color (e.g., orange)
-        ChatMessage msg = conversationManager.getMessages().get(position);
+        ChatMessage msg = chatAdapter.getMessage(position);
+        if (msg == null) {
+            return;
+        }
         int normalColor = msg.isUser()
             ? getResources().getColor(R.color.user_message_text, getTheme())
             : getResources().getColor(R.color.ai_message_text, getTheme());
         int highlightColor = getResources().getColor(R.color.primary, getTheme());
-        chatAdapter.setMessageTextColor(position, highlightColor);
+        chatAdapter.setMessageTextColor(msg, highlightColor);
         ttsAnimatingPosition = position;
 
         if (messageText.matches(englishOnlyPattern)) {
-            chatAdapter.setMessageTextColor(position, normalColor);
+            chatAdapter.setMessageTextColor(msg, normalColor);
             ttsAnimatingPosition = -1;
             showTTSErrorDialog(getString(R.string.tts_error_english_only));
             return;
@@ -1232,7 +1432,7 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
                 .thenAccept(success -> {
                     runOnUiThread(() -> {
                         dismissTTSProcessDialog();
-                        chatAdapter.setMessageTextColor(position, normalColor);
+                        chatAdapter.setMessageTextColor(msg, normalColor);
                         ttsAnimatingPosition = -1;
                         if (!success) {
                             showTTSErrorDialog(getString(R.string.failed_to_convert_text_to_audio));
@@ -1243,7 +1443,7 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
                     Log.e(TAG, "TTS error", throwable);
                     runOnUiThread(() -> {
                         dismissTTSProcessDialog();
-                        chatAdapter.setMessageTextColor(position, normalColor);
+                        chatAdapter.setMessageTextColor(msg, normalColor);
                         ttsAnimatingPosition = -1;
                         showTTSErrorDialog("Error during TTS: " + throwable.getMessage());
                     });
@@ -1276,6 +1476,13 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
                 // Save current chat before cleanup
                 Log.w(TAG, "saveCurrentChat in cleanup");
                 saveCurrentChat();
+                historySearchHandler.removeCallbacksAndMessages(null);
+                retrievalHandler.removeCallbacksAndMessages(null);
+                chatArchive.close();
+                historyManager.close();
+                if (attachmentIndex != null) {
+                    attachmentIndex.close();
+                }
                 
                 // Unbind services with timeout
                 ExecutorService cleanupExecutor = Executors.newSingleThreadExecutor();
@@ -1299,6 +1506,7 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
                 binding = null;
                 conversationManager = null;
                 historyManager = null;
+                chatArchive = null;
                 historyAdapter = null;
                 drawerLayout = null;
                 mediaHandler = null;
@@ -1577,7 +1785,19 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
     private void setupHistoryDrawer() {
         drawerLayout = binding.drawerLayout;
         historyManager = new ChatHistoryManager(this);
+        chatArchive = new ChatHistoryArchive(this, historyManager);
         historyAdapter = new ChatHistoryAdapter();
+        if (AppConstants.RAG_ENABLED) {
+            attachmentIndex = new AttachmentIndex(this);
+            contextRetriever = new ContextRetriever(historyManager, attachmentIndex);
+            mediaHandler.setAttachmentIndex(attachmentIndex);
+            // Look up context while the user types so sending does not wait for it
+            uiHandler.setInputTextListener(text -> {
+                retrievalHandler.removeCallbacksAndMessages(null);
+                retrievalHandler.postDelayed(
+                    () -> contextRetriever.prefetch(text, currentHistoryId()), AppConstants.RAG_PREFETCH_DELAY_MS);
+            });
+        }
         
         // Configure drawer to slide the main content
         drawerLayout.setScrimColor(Color.TRANSPARENT);
@@ -1631,6 +1851,25 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
         historyRecyclerView.setLayoutManager(new LinearLayoutManager(this));
         historyRecyclerView.setAdapter(historyAdapter);
 
+        historySearchInput = findViewById(R.id.historySearchInput);
+        historySearchInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                // Search once typing pauses instead of on every keystroke
+                if (pendingHistorySearch != null) {
+                    historySearchHandler.removeCallbacks(pendingHistorySearch);
+                }
+                pendingHistorySearch = ChatActivity.this::refreshHistoryList;
+                historySearchHandler.postDelayed(pendingHistorySearch, AppConstants.HISTORY_SEARCH_DELAY_MS);
+            }
+        });
+
         ImageButton deleteButton = findViewById(R.id.deleteHistoryButton);
         CheckBox selectAllCheckbox = findViewById(R.id.selectAllCheckbox);
         ImageButton settingsButton = findViewById(R.id.settingsButton);
@@ -1670,29 +1909,122 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
         refreshHistoryList();
 
         // Set click listener for history items
-        historyAdapter.setOnHistoryClickListener(history -> {
+        historyAdapter.setOnHistoryClickListener(summary -> {
             // First save the current conversation if it exists
             saveCurrentChat();
-            
-            // Clear the current conversation display
-            clearCurrentConversation();
-            
-            // Load the selected chat history
-            for (ChatMessage message : history.getMessages()) {
-                conversationManager.addMessage(message);
-                chatAdapter.addMessage(message);
-            }
-            
-            // Set this as the current active history
-            historyManager.setCurrentActiveHistory(history);
-            drawerLayout.closeDrawers();
-            updateWatermarkVisibility();
+
+            // The list only holds index summaries; read the messages in the background
+            historyManager.loadHistory(summary.getId())
+                .thenAccept(history -> runOnUiThread(() -> showHistory(history)))
+                .exceptionally(e -> {
+                    Log.e(TAG, "Error loading chat history", e);
+                    return null;
+                });
         });
 
-        settingsButton.setOnClickListener(v -> {
-            Intent intent = new Intent(this, SettingsActivity.class);
-            startActivity(intent);
+        settingsButton.setOnClickListener(v -> showHistoryOptions(settingsButton));
+
+        // Finish an export or import that was cut short last time. Which one it is must be read
+        // first: the resumed task drops the checkpoint when it ends
+        boolean interruptedExport = chatArchive.isInterruptedExport();
+        CompletableFuture<Integer> interrupted = chatArchive.resumeInterrupted();
+        if (interrupted != null) {
+            trackArchiveTask(interrupted, interruptedExport);
+        }
+    }
+
+    private void showHistoryOptions(View anchor) {
+        PopupMenu popup = new PopupMenu(this, anchor);
+        popup.getMenu().add(0, 1, 0, getString(R.string.settings_title));
+        popup.getMenu().add(0, 2, 0, getString(R.string.export_chats));
+        popup.getMenu().add(0, 3, 0, getString(R.string.import_chats));
+
+        popup.setOnMenuItemClickListener(item -> {
+            switch (item.getItemId()) {
+                case 1:
+                    startActivity(new Intent(this, SettingsActivity.class));
+                    break;
+                case 2:
+                    Intent export = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                    export.addCategory(Intent.CATEGORY_OPENABLE);
+                    export.setType("application/gzip");
+                    String date = new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date());
+                    export.putExtra(Intent.EXTRA_TITLE, "breeze_chats_" + date + ".jsonl.gz");
+                    startActivityForResult(export, EXPORT_CHATS_REQUEST);
+                    break;
+                case 3:
+                    Intent open = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                    open.addCategory(Intent.CATEGORY_OPENABLE);
+                    open.setType("*/*");
+                    startActivityForResult(open, IMPORT_CHATS_REQUEST);
+                    break;
+            }
+            return true;
         });
+
+        popup.show();
+    }
+
+    private void startArchiveTask(Uri uri, boolean export) {
+        try {
+            // Keep access so an interrupted export or import can resume after a restart
+            getContentResolver().takePersistableUriPermission(uri,
+                Intent.FLAG_GRANT_READ_URI_PERMISSION | (export ? Intent.FLAG_GRANT_WRITE_URI_PERMISSION : 0));
+        } catch (SecurityException e) {
+            Log.w(TAG, "Could not keep access to " + uri, e);
+        }
+        Toast.makeText(this, getString(export ? R.string.exporting_chats : R.string.importing_chats),
+            Toast.LENGTH_SHORT).show();
+        if (export) {
+            // Compress unless the user chose a plain file name
+            String name = uri.getLastPathSegment();
+            boolean gzip = name == null || !name.endsWith(".jsonl");
+            trackArchiveTask(chatArchive.exportTo(uri, gzip), true);
+        } else {
+            trackArchiveTask(chatArchive.importFrom(uri), false);
+        }
+    }
+
+    private void trackArchiveTask(CompletableFuture<Integer> task, boolean export) {
+        task.whenComplete((count, error) -> runOnUiThread(() -> {
+            if (isFinishing()) {
+                return;
+            }
+            if (error != null) {
+                Toast.makeText(this, getString(export ? R.string.chat_export_failed : R.string.chat_import_failed),
+                    Toast.LENGTH_LONG).show();
+                return;
+            }
+            Toast.makeText(this, getString(export ? R.string.chats_exported : R.string.chats_imported, count),
+                Toast.LENGTH_SHORT).show();
+            if (!export) {
+                refreshHistoryList();
+            }
+        }));
+    }
+
+    private void showHistory(ChatHistory history) {
+        if (isFinishing()) {
+            return;
+        }
+        if (history == null) {
+            refreshHistoryList();
+            return;
+        }
+
+        // Clear the current conversation display
+        clearCurrentConversation();
+
+        // Load the selected chat history; the list shows its latest page
+        for (ChatMessage message : history.getMessages()) {
+            conversationManager.addMessage(message);
+        }
+        chatAdapter.setMessages(history.getMessages());
+
+        // Set this as the current active history
+        historyManager.setCurrentActiveHistory(history);
+        drawerLayout.closeDrawers();
+        updateWatermarkVisibility();
     }
 
     private void showDeleteConfirmation() {
@@ -1752,8 +2084,39 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
     }
 
     private void refreshHistoryList() {
-        List<ChatHistory> histories = historyManager.loadAllHistories();
-        historyAdapter.setHistories(histories);
+        String query = historySearchInput != null ? historySearchInput.getText().toString().trim() : "";
+        View emptyView = findViewById(R.id.historySearchEmpty);
+        if (query.isEmpty()) {
+            emptyView.setVisibility(View.GONE);
+            historyManager.loadHistorySummaries()
+                .thenAccept(histories -> runOnUiThread(() -> {
+                    // Drop the list if a search was started meanwhile
+                    if (historyAdapter == null || (historySearchInput != null
+                            && !historySearchInput.getText().toString().trim().isEmpty())) {
+                        return;
+                    }
+                    historyAdapter.setHistories(histories);
+                }))
+                .exceptionally(e -> {
+                    Log.e(TAG, "Error loading chat histories", e);
+                    return null;
+                });
+            return;
+        }
+
+        historyManager.searchHistories(query, AppConstants.HISTORY_SEARCH_LIMIT)
+            .thenAccept(results -> runOnUiThread(() -> {
+                // Drop results for a query that has since been edited
+                if (historyAdapter == null || !query.equals(historySearchInput.getText().toString().trim())) {
+                    return;
+                }
+                historyAdapter.setSearchResults(results);
+                emptyView.setVisibility(results.isEmpty() ? View.VISIBLE : View.GONE);
+            }))
+            .exceptionally(e -> {
+                Log.e(TAG, "Error searching chat history", e);
+                return null;
+            });
     }
 
     private void saveCurrentChat() {
@@ -1780,10 +2143,30 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
         updateWatermarkVisibility();
     }
 
+    private String currentHistoryId() {
+        ChatHistory history = historyManager.getCurrentActiveHistory();
+        return history != null ? history.getId() : null;
+    }
+
+    /**
+     * Passages prefetched for the message, limited to the share of the input reserved for them.
+     * Runs on the main thread, so a lookup that has not finished is not waited for.
+     */
+    private List<ContextRetriever.Passage> getRetrievedPassages(String userMessage) {
+        if (contextRetriever == null) {
+            return new ArrayList<>();
+        }
+        List<ContextRetriever.Passage> passages = contextRetriever.retrieveIfReady(userMessage, currentHistoryId());
+        int budget = Math.min(AppConstants.RAG_MAX_CONTEXT_TOKENS, AppConstants.getLLMMaxInputLength(this) / 4);
+        return new ArrayList<>(ContextRetriever.fitToBudget(passages, budget));
+    }
+
     private String getFormattedPrompt(String userMessage) {
+        List<ContextRetriever.Passage> passages = getRetrievedPassages(userMessage);
+
         // If history lookback is 1, only use system prompt + current message
         if (AppConstants.CONVERSATION_HISTORY_LOOKBACK == 1) {
-            return PromptManager.formatCompletePrompt(userMessage, new ArrayList<>(), ModelType.BREEZE_2);
+            return PromptManager.formatCompletePrompt(userMessage, new ArrayList<>(), passages, ModelType.BREEZE_2);
         }
 
         // Otherwise use history as before
@@ -1801,12 +2184,12 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
         }
 
         // Format with history
-        String prompt = PromptManager.formatCompletePrompt(userMessage, historyMessages, ModelType.BREEZE_2);
+        String prompt = PromptManager.formatCompletePrompt(userMessage, historyMessages, passages, ModelType.BREEZE_2);
 
         // Check if prompt might exceed max token limit using TokenEstimator
         int maxTokens = AppConstants.getLLMMaxInputLength(this);
         
-        while(historyMessages.size() > 0) {
+        while(historyMessages.size() > 0 || passages.size() > 0) {
             int estimatedTokens = TokenEstimator.estimateTokenCount(prompt);
             
             if (estimatedTokens > maxTokens && historyMessages.size() > 0) {
@@ -1814,7 +2197,11 @@ public class ChatActivity extends AppCompatActivity implements ChatMessageAdapte
                        " > max: " + maxTokens + "), removing oldest history message");
                 historyMessages.remove(0);
                 
-                prompt = PromptManager.formatCompletePrompt(userMessage, historyMessages, ModelType.BREEZE_2);
+                prompt = PromptManager.formatCompletePrompt(userMessage, historyMessages, passages, ModelType.BREEZE_2);
+            } else if (estimatedTokens > maxTokens) {
+                // Retrieved passages go only after all of the history
+                passages.remove(passages.size() - 1);
+                prompt = PromptManager.formatCompletePrompt(userMessage, historyMessages, passages, ModelType.BREEZE_2);
             } else {
                 Log.d(TAG, "Final prompt token estimate: " + estimatedTokens + " (max: " + maxTokens + ")");
                 break;
@@ -1,6 +1,8 @@
 package com.mtkresearch.breezeapp;
 
+import android.Manifest;
 import android.app.Activity;
+import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.util.Log;
 import android.content.Intent;
@@ -10,6 +12,7 @@ import android.view.WindowManager;
 
 import com.mtkresearch.breezeapp.utils.ModelDownloadDialog;
 import com.mtkresearch.breezeapp.utils.HWCompatibility;
+import com.mtkresearch.breezeapp.utils.ModelFileProber;
 import com.mtkresearch.breezeapp.utils.ModelFilter;
 
 import org.json.JSONObject;
@@ -20,12 +23,16 @@ import org.json.JSONObject;
  */
 public class ModelDownloadActivity extends Activity {
     private static final String TAG = "ModelDownloadActivity";
+    private static final int NOTIFICATION_PERMISSION_REQUEST_CODE = 1;
     private ModelDownloadDialog downloadDialog;
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+
+        // Let the dialog find the sizes known from earlier visits without reading them itself
+        ModelFileProber.preload(getApplicationContext());
         
         // Set a simple layout with a title and back button
         setContentView(R.layout.activity_model_download);
@@ -33,7 +40,7 @@ public class ModelDownloadActivity extends Activity {
         // Set up the back button
         Button backButton = findViewById(R.id.backButton);
         backButton.setOnClickListener(v -> {
-            // Cancel any ongoing download and finish the activity
+            // Close the dialog; an ongoing download continues in the service
             if (downloadDialog != null && downloadDialog.isShowing()) {
                 downloadDialog.dismiss();
             }
@@ -43,6 +50,11 @@ public class ModelDownloadActivity extends Activity {
         // Display title based on filtered model list
         TextView titleText = findViewById(R.id.titleText);
         
+        // The download runs in a foreground service; let its notification show progress
+        if (checkSelfPermission(Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+            requestPermissions(new String[]{Manifest.permission.POST_NOTIFICATIONS}, NOTIFICATION_PERMISSION_REQUEST_CODE);
+        }
+        
         // Determine the download mode based on filtered model list
         ModelDownloadDialog.DownloadMode downloadMode = ModelDownloadDialog.DownloadMode.LLM;
         String hwSupport = HWCompatibility.isSupportedHW();
@@ -87,8 +99,8 @@ public class ModelDownloadActivity extends Activity {
         if (downloadDialog != null && downloadDialog.isShowing()) {
             // Ask user to confirm cancellation
             android.app.AlertDialog.Builder builder = new android.app.AlertDialog.Builder(this);
-            builder.setTitle("Cancel Download?");
-            builder.setMessage("Do you want to cancel the download? The model may not work properly without all files.");
+            builder.setTitle("Leave Download?");
+            builder.setMessage("The download continues in the background. You can pause or cancel it from the notification.");
             builder.setPositiveButton("Yes", (dialog, which) -> {
                 // Dismiss the download dialog and finish the activity
                 downloadDialog.dismiss();
@@ -34,6 +34,8 @@ public class AppConstants {
     public static final boolean VLM_ENABLED = false; // VLM is experimental
     public static final boolean ASR_ENABLED = false; // ASR requires permission
     public static final boolean TTS_ENABLED = true;  // TTS is stable
+    public static final boolean RECORD_RAW_PCM = true; // Record 16 kHz PCM WAV instead of AAC; the CPU ASR backend recognizes the same chunks
+    public static final boolean RAG_ENABLED = true; // Add passages from past chats and attached text files to prompts
     
     // Backend Constants
     public static final String BACKEND_NONE = "none";
@@ -75,6 +77,10 @@ public class AppConstants {
     public static final String MODEL_SIZE_LARGE = "large";
     public static final String MODEL_SIZE_SMALL = "small";
     public static final String MODEL_SIZE_AUTO = "auto"; // Let the app decide based on available RAM
+
+    // Model download constraint keys
+    public static final String KEY_DOWNLOAD_UNMETERED_ONLY = "download_unmetered_only";
+    public static final String KEY_DOWNLOAD_CHARGING_ONLY = "download_charging_only";
     
     public static final String LLAMA_MODEL_DIR = "/data/local/tmp/llama/";  // Legacy location
     public static final String APP_MODEL_DIR = "models";  // New path relative to app's private storage
@@ -114,14 +120,21 @@ public class AppConstants {
         public final String fileType;
         public final long fileSize;
         public final String modelId;  // Add modelId field
+        public final ModelFileDigest digest; // Null when the model list gives none
         
         public DownloadFileInfo(String url, String fileName, String displayName, String fileType, long fileSize, String modelId) {
+            this(url, fileName, displayName, fileType, fileSize, modelId, null);
+        }
+
+        public DownloadFileInfo(String url, String fileName, String displayName, String fileType, long fileSize,
+                                String modelId, ModelFileDigest digest) {
             this.url = url;
             this.fileName = fileName;
             this.displayName = displayName;
             this.fileType = fileType;
             this.fileSize = fileSize;
             this.modelId = modelId;
+            this.digest = digest;
         }
     }
 
@@ -309,6 +322,17 @@ public class AppConstants {
 
     // Conversation History Constants
     public static final int CONVERSATION_HISTORY_LOOKBACK = 500; // should be ignore and replace by history window length //BREEZE_MODEL_FILE.contains("2048") ? 1 : 1;
+    public static final int HISTORY_SEARCH_LIMIT = 20; // Max histories listed for a search
+    public static final long HISTORY_SEARCH_DELAY_MS = 150; // Wait for typing to pause before searching
+    public static final long HISTORY_SAVE_DELAY_MS = 500; // Saves of one conversation within this window are written once
+    public static final int MESSAGE_PAGE_SIZE = 50; // Messages shown at first, and added per scroll to the top, for a restored chat
+    public static final int LOAD_OLDER_MESSAGES_THRESHOLD = 3; // Load older messages when this close to the top
+
+    // Retrieval Constants
+    public static final String RETRIEVED_CONTEXT_PROMPT = "The following excerpts from earlier conversations and files the user attached may be relevant. Use them only if they help answer the question.";
+    public static final int RAG_MAX_PASSAGES = 4;
+    public static final int RAG_MAX_CONTEXT_TOKENS = 768; // Also capped at a quarter of the input length
+    public static final long RAG_PREFETCH_DELAY_MS = 300; // Retrieve once typing pauses
 
     // Activity Request Codes
     public static final int PERMISSION_REQUEST_CODE = 123;
@@ -316,6 +340,8 @@ public class AppConstants {
     public static final int CAPTURE_IMAGE_REQUEST = 2;
     public static final int PICK_FILE_REQUEST = 3;
     public static final int REQUEST_CODE_DOWNLOAD_ACTIVITY = 4;
+    public static final int EXPORT_CHATS_REQUEST = 5;
+    public static final int IMPORT_CHATS_REQUEST = 6;
 
     // UI Constants
     public static final float ENABLED_ALPHA = 1.0f;
@@ -347,6 +373,34 @@ public class AppConstants {
     // Temporary extension for partial downloads
     public static final String MODEL_DOWNLOAD_TEMP_EXTENSION = ".part";
 
+    // Segmented downloads: large files are fetched as ranges over several connections
+    public static final long MODEL_DOWNLOAD_SEGMENT_SIZE = 16L * 1024 * 1024;
+    public static final int MODEL_DOWNLOAD_INITIAL_CONNECTIONS = 2;
+    public static final int MODEL_DOWNLOAD_MAX_CONNECTIONS = 8;
+    public static final long MODEL_DOWNLOAD_SEGMENTED_MIN_SIZE = 64L * 1024 * 1024; // Smaller files use one connection
+    public static final long MODEL_DOWNLOAD_CONNECT_TIMEOUT_MS = 60000; // Per request; a stalled segment is retried
+    public static final long MODEL_DOWNLOAD_WRITE_BEHIND_BYTES = 16L * 1024 * 1024; // Flushed to disk after this much
+
+    // Bundle downloads: files of one model download in parallel within shared budgets
+    public static final int MODEL_DOWNLOAD_PARALLEL_FILES = 3;
+    public static final int MODEL_DOWNLOAD_MAX_ATTEMPTS = 3; // Per file, before the bundle is abandoned
+    public static final long MODEL_DOWNLOAD_RETRY_BASE_MS = 2000; // Doubled after each failed attempt
+    public static final long MODEL_DOWNLOAD_MAX_BYTES_PER_SEC = 0; // Across all connections; 0 for no limit
+
+    // Digest verification: the running hash of a single-connection download is saved next to its temp file
+    public static final String MODEL_DOWNLOAD_HASH_EXTENSION = ".sha256";
+    public static final long MODEL_DOWNLOAD_HASH_CHECKPOINT_BYTES = 32L * 1024 * 1024;
+
+    // Download service: free space kept beyond what the download still needs
+    public static final long MODEL_DOWNLOAD_STORAGE_HEADROOM_BYTES = 500L * 1024 * 1024;
+    public static final String MODEL_DOWNLOAD_CHANNEL_ID = "model_download";
+    public static final int MODEL_DOWNLOAD_NOTIFICATION_ID = 1001;
+
+    // File metadata probing: HEAD requests in flight at once, and how long an answer is trusted
+    public static final int MODEL_METADATA_PROBE_THREADS = 4;
+    public static final long MODEL_METADATA_TTL_MS = 30 * 60 * 1000; // Redirect targets are signed and expire
+    public static final int MODEL_METADATA_TIMEOUT_MS = 5000;
+
     // LLM 參數封裝類別
     public static class LLMPreferenceField {
         public final String key;
@@ -0,0 +1,203 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the text of attached files searchable so it can be retrieved into later prompts.
+ *
+ * A file is read as a stream and split into chunks, which are written to a chunk file
+ * named after a hash of the content and added to a {@link ChatSearchIndex}; attaching the
+ * same content again reuses them. All work runs on one background thread.
+ */
+public class AttachmentIndex {
+    private static final String TAG = "AttachmentIndex";
+    private static final String ATTACHMENT_DIR = "attachments";
+    private static final String INDEX_DIR = "index";
+    static final String CHUNK_SUFFIX = ".chunks";
+    private static final int MAX_CHUNK_TOKENS = 200;
+    private static final int MAX_CHUNKS = 2000;
+
+    private static final Set<String> TEXT_MIME_TYPES = new HashSet<>(Arrays.asList(
+        "application/json", "application/xml", "application/javascript", "application/x-yaml",
+        "application/x-sh", "application/sql"));
+    private static final Set<String> TEXT_EXTENSIONS = new HashSet<>(Arrays.asList(
+        "txt", "md", "markdown", "csv", "tsv", "json", "xml", "html", "htm", "log", "yaml", "yml",
+        "ini", "srt", "java", "kt", "py", "js", "ts", "c", "cpp", "h", "sh", "sql"));
+
+    private final Context context;
+    private final File directory;
+    private final ChatSearchIndex index;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+        r -> new Thread(r, "AttachmentIndex"));
+
+    public AttachmentIndex(Context context) {
+        this.context = context;
+        this.directory = new File(context.getFilesDir(), ATTACHMENT_DIR);
+        this.index = new ChatSearchIndex(new File(directory, INDEX_DIR));
+    }
+
+    /** True if the file looks like plain text that can be read for retrieval. */
+    public static boolean isIndexable(String mimeType, String fileName) {
+        if (mimeType != null) {
+            String type = mimeType.toLowerCase(Locale.ROOT);
+            if (type.startsWith("text/") || TEXT_MIME_TYPES.contains(type)) {
+                return true;
+            }
+        }
+        if (fileName != null) {
+            int dot = fileName.lastIndexOf('.');
+            return dot >= 0 && TEXT_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+        }
+        return false;
+    }
+
+    /** Reads, chunks and indexes the file; completes with the number of chunks indexed. */
+    public CompletableFuture<Integer> ingest(Uri uri, String fileName) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+                if (in == null) {
+                    throw new IOException("Cannot open " + uri);
+                }
+                return ingest(new InputStreamReader(new BufferedInputStream(in), StandardCharsets.UTF_8), fileName);
+            } catch (IOException e) {
+                Log.e(TAG, "Error indexing attachment " + fileName, e);
+                return 0;
+            }
+        }, executor);
+    }
+
+    private int ingest(Reader reader, String fileName) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        List<String> chunks = new ArrayList<>();
+        TextChunker.chunk(reader, MAX_CHUNK_TOKENS, chunk -> {
+            digest.update(chunk.getBytes(StandardCharsets.UTF_8));
+            chunks.add(chunk);
+            return chunks.size() < MAX_CHUNKS;
+        });
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+
+        String id = toHex(digest.digest(), 16);
+        File chunkFile = new File(directory, id + CHUNK_SUFFIX);
+        if (!chunkFile.exists()) {
+            writeChunks(chunkFile, fileName, chunks);
+        }
+        if (index.indexedMessageCount(id) != chunks.size()) {
+            index.update(id, chunks);
+        }
+        Log.d(TAG, "Indexed " + chunks.size() + " chunks of " + fileName);
+        return chunks.size();
+    }
+
+    /** Finds the attachment chunks that best match the query. */
+    public CompletableFuture<List<ContextRetriever.Passage>> search(String query, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<ContextRetriever.Passage> passages = new ArrayList<>();
+            Map<String, List<String>> loaded = new HashMap<>();
+            for (ChatSearchIndex.Result hit : index.search(query, limit)) {
+                List<String> chunks = loaded.get(hit.historyId);
+                if (chunks == null) {
+                    chunks = readChunks(new File(directory, hit.historyId + CHUNK_SUFFIX));
+                    loaded.put(hit.historyId, chunks);
+                }
+                // The first entry is the file name
+                if (hit.messageIndex + 1 < chunks.size()) {
+                    passages.add(new ContextRetriever.Passage(chunks.get(0), chunks.get(hit.messageIndex + 1), hit.score));
+                }
+            }
+            return passages;
+        }, executor);
+    }
+
+    public void close() {
+        executor.execute(index::close);
+        executor.shutdown();
+    }
+
+    private void writeChunks(File file, String fileName, List<String> chunks) throws IOException {
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        File temp = new File(directory, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(chunks.size() + 1);
+            writeString(out, fileName != null ? fileName : "");
+            for (String chunk : chunks) {
+                writeString(out, chunk);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Failed to write " + file.getName());
+        }
+    }
+
+    /** Reads the file name followed by the chunks, or an empty list if the file is unreadable. */
+    private static List<String> readChunks(File file) {
+        List<String> entries = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int length = in.readInt();
+                if (length < 0 || length > file.length()) {
+                    throw new IOException("Bad chunk length " + length);
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                entries.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading " + file.getName(), e);
+            entries.clear();
+        }
+        return entries;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String toHex(byte[] bytes, int length) {
+        StringBuilder hex = new StringBuilder(length * 2);
+        for (int i = 0; i < length; i++) {
+            hex.append(String.format(Locale.ROOT, "%02x", bytes[i]));
+        }
+        return hex.toString();
+    }
+}
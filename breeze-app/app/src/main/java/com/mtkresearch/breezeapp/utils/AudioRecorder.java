@@ -1,6 +1,8 @@
 package com.mtkresearch.breezeapp.utils;
 
 import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
 import android.media.MediaRecorder;
 import android.os.Build;
 import android.util.Log;
@@ -8,24 +10,58 @@ import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class AudioRecorder {
     private static final String TAG = "AudioRecorder";
+    public static final int PCM_SAMPLE_RATE = 16000;
+    private static final int PCM_CHUNK_MS = 100;
+
+    /**
+     * Receives raw capture chunks in PCM mode. Called on the capture thread; the array is
+     * reused for the next chunk, so copy what needs to outlive the call.
+     */
+    public interface PcmListener {
+        void onPcmChunk(short[] samples, int length);
+    }
+
     private MediaRecorder mediaRecorder;
     private final Context context;
+    private final boolean pcmMode;
     private String currentRecordingPath;
     private File recordingsDir;
     private boolean isRecording = false;
 
+    private final List<PcmListener> pcmListeners = new CopyOnWriteArrayList<>();
+    private AudioRecord audioRecord;
+    private WavFileWriter wavWriter;
+    private Thread captureThread;
+    private volatile boolean capturing = false;
+    private volatile int lastPeak = 0;
+
     public AudioRecorder(Context context) {
+        this(context, AppConstants.RECORD_RAW_PCM);
+    }
+
+    public AudioRecorder(Context context, boolean pcmMode) {
         this.context = context;
+        this.pcmMode = pcmMode;
         recordingsDir = new File(context.getFilesDir(), "recordings");
         if (!recordingsDir.exists()) {
             recordingsDir.mkdirs();
         }
     }
-    
+
+    public void addPcmListener(PcmListener listener) {
+        pcmListeners.add(listener);
+    }
+
+    public void removePcmListener(PcmListener listener) {
+        pcmListeners.remove(listener);
+    }
+
     public void startRecording() throws IOException {
         if (isRecording) {
             stopRecording();
@@ -33,10 +69,15 @@ public class AudioRecorder {
         }
 
         String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-        String fileName = "AUDIO_" + timeStamp + ".m4a";
+        String fileName = "AUDIO_" + timeStamp + (pcmMode ? ".wav" : ".m4a");
         File outputFile = new File(recordingsDir, fileName);
         currentRecordingPath = outputFile.getAbsolutePath();
 
+        if (pcmMode) {
+            startPcmRecording(outputFile);
+            return;
+        }
+
         mediaRecorder = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S 
             ? new MediaRecorder(context) 
             : new MediaRecorder();
@@ -59,7 +100,11 @@ public class AudioRecorder {
     
     public void stopRecording() {
         if (!isRecording) return;
-        
+        if (pcmMode) {
+            stopPcmRecording();
+            return;
+        }
+
         try {
             mediaRecorder.stop();
         } catch (IllegalStateException e) {
@@ -72,9 +117,13 @@ public class AudioRecorder {
     
     public void cancelRecording() {
         if (!isRecording) return;
-        
+
         try {
-            mediaRecorder.stop();
+            if (pcmMode) {
+                stopPcmRecording();
+            } else {
+                mediaRecorder.stop();
+            }
         } catch (IllegalStateException e) {
             Log.e(TAG, "Error stopping recorder", e);
         } finally {
@@ -91,6 +140,9 @@ public class AudioRecorder {
     }
     
     public int getMaxAmplitude() {
+        if (pcmMode) {
+            return isRecording ? lastPeak : 0;
+        }
         if (mediaRecorder != null && isRecording) {
             try {
                 return mediaRecorder.getMaxAmplitude();
@@ -105,6 +157,101 @@ public class AudioRecorder {
         return isRecording;
     }
 
+    public String getCurrentRecordingPath() {
+        return currentRecordingPath;
+    }
+
+    private void startPcmRecording(File outputFile) throws IOException {
+        int chunkSamples = PCM_SAMPLE_RATE * PCM_CHUNK_MS / 1000;
+        int minBuffer = AudioRecord.getMinBufferSize(PCM_SAMPLE_RATE,
+            AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        try {
+            audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, PCM_SAMPLE_RATE,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                Math.max(minBuffer, chunkSamples * 2 * 2));
+        } catch (SecurityException e) {
+            throw new IOException("Microphone permission not granted", e);
+        }
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            releaseRecorder();
+            throw new IOException("Failed to initialize AudioRecord");
+        }
+
+        try {
+            wavWriter = new WavFileWriter(outputFile, PCM_SAMPLE_RATE, 1, chunkSamples);
+            audioRecord.startRecording();
+        } catch (IOException | IllegalStateException e) {
+            Log.e(TAG, "Failed to start recording", e);
+            releaseRecorder();
+            outputFile.delete();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+
+        capturing = true;
+        isRecording = true;
+        final AudioRecord record = audioRecord;
+        final WavFileWriter writer = wavWriter;
+        captureThread = new Thread(() -> captureLoop(record, writer, chunkSamples), "AudioRecorder-pcm");
+        captureThread.start();
+    }
+
+    private void captureLoop(AudioRecord record, WavFileWriter writer, int chunkSamples) {
+        short[] chunk = new short[chunkSamples];
+        while (capturing) {
+            int read = record.read(chunk, 0, chunk.length);
+            if (read <= 0) {
+                if (read < 0) {
+                    Log.e(TAG, "AudioRecord read failed: " + read);
+                    break;
+                }
+                continue;
+            }
+            try {
+                writer.write(chunk, 0, read);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to write PCM chunk", e);
+                break;
+            }
+            int peak = 0;
+            for (int i = 0; i < read; i++) {
+                peak = Math.max(peak, Math.abs(chunk[i]));
+            }
+            lastPeak = peak;
+            for (PcmListener listener : pcmListeners) {
+                listener.onPcmChunk(chunk, read);
+            }
+        }
+    }
+
+    private void stopPcmRecording() {
+        capturing = false;
+        if (audioRecord != null) {
+            try {
+                audioRecord.stop();
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "Error stopping AudioRecord", e);
+            }
+        }
+        if (captureThread != null) {
+            // stop() ends the blocking read; the writer is closed only once the thread is done with it
+            boolean interrupted = false;
+            while (captureThread.isAlive()) {
+                try {
+                    captureThread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            captureThread = null;
+        }
+        releaseRecorder();
+        isRecording = false;
+        lastPeak = 0;
+    }
+
     private void releaseRecorder() {
         if (mediaRecorder != null) {
             try {
@@ -114,5 +261,18 @@ public class AudioRecorder {
             }
             mediaRecorder = null;
         }
+        if (audioRecord != null) {
+            audioRecord.release();
+            audioRecord = null;
+        }
+        if (wavWriter != null) {
+            try {
+                // Patches the WAV header with the final length
+                wavWriter.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error finalizing WAV file", e);
+            }
+            wavWriter = null;
+        }
     }
 } 
\ No newline at end of file
@@ -0,0 +1,183 @@
+package com.mtkresearch.breezeapp.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming polyphase resampler for mono float PCM.
+ *
+ * The rate change is reduced to L/M (up by L, down by M) and a Kaiser windowed sinc
+ * low-pass is split into L phases, so each output sample costs one short dot product.
+ * Filter banks are built once per rate pair and shared. An instance keeps the input
+ * history between calls, so audio can be fed in arbitrary chunks, and writes into the
+ * caller's buffer without allocating.
+ *
+ * Instances are not thread-safe; use one per stream.
+ */
+public class AudioResampler {
+    private static final int TAPS_PER_PHASE = 48;   // At the lower of the two rates
+    private static final double ROLLOFF = 0.9;      // Cutoff relative to the lower Nyquist
+    private static final double KAISER_BETA = 8.0;  // ~80 dB stopband
+
+    private static final Map<Long, float[][]> FILTER_BANKS = new HashMap<>();
+
+    private final int inputRate;
+    private final int outputRate;
+    private final int up;
+    private final int down;
+    private final float[][] bank;
+    private final int taps;
+
+    // Most recent input samples, newest last, used for outputs that straddle chunks
+    private final float[] history;
+    // Position of the next output in the upsampled domain, relative to the current chunk
+    private long nextTime = 0;
+
+    public AudioResampler(int inputRate, int outputRate) {
+        if (inputRate <= 0 || outputRate <= 0) {
+            throw new IllegalArgumentException("Invalid sample rates: " + inputRate + " -> " + outputRate);
+        }
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        int g = gcd(inputRate, outputRate);
+        this.up = outputRate / g;
+        this.down = inputRate / g;
+        this.bank = up == down ? null : filterBank(inputRate, outputRate, up, down);
+        this.taps = bank == null ? 0 : bank[0].length;
+        this.history = new float[Math.max(0, taps - 1)];
+    }
+
+    public int getInputRate() {
+        return inputRate;
+    }
+
+    public int getOutputRate() {
+        return outputRate;
+    }
+
+    /** True when input and output rates match and {@link #process} only copies. */
+    public boolean isPassthrough() {
+        return bank == null;
+    }
+
+    /** Upper bound of the samples one {@link #process} call can write for the given input length. */
+    public int maxOutputSize(int inputLength) {
+        return (int) (((long) inputLength * up) / down) + 1;
+    }
+
+    /** Filter delay in output samples; the output lags the input by this much. */
+    public double getDelay() {
+        return bank == null ? 0 : (taps * up - 1) / 2.0 / down;
+    }
+
+    /**
+     * Resamples {@code length} samples from {@code in} and writes the result to {@code out}.
+     * {@code out} must have room for {@link #maxOutputSize(int)} samples from {@code outOffset}.
+     *
+     * @return the number of samples written
+     */
+    public int process(float[] in, int inOffset, int length, float[] out, int outOffset) {
+        if (bank == null) {
+            System.arraycopy(in, inOffset, out, outOffset, length);
+            return length;
+        }
+
+        int written = 0;
+        long t = nextTime;
+        int base;
+        while ((base = (int) (t / up)) < length) {
+            float[] coeffs = bank[(int) (t % up)];
+            // y = sum_k coeffs[k] * x[base - k]; indexes below zero come from history
+            int fromInput = Math.min(taps, base + 1);
+            float acc = 0f;
+            int x = inOffset + base;
+            for (int k = 0; k < fromInput; k++) {
+                acc += coeffs[k] * in[x - k];
+            }
+            int h = history.length - 1;
+            for (int k = fromInput; k < taps; k++) {
+                acc += coeffs[k] * history[h - (k - fromInput)];
+            }
+            out[outOffset + written++] = acc;
+            t += down;
+        }
+        nextTime = t - (long) length * up;
+        updateHistory(in, inOffset, length);
+        return written;
+    }
+
+    /** Clears the stream state so the next call starts a new signal. */
+    public void reset() {
+        Arrays.fill(history, 0f);
+        nextTime = 0;
+    }
+
+    private void updateHistory(float[] in, int inOffset, int length) {
+        int n = history.length;
+        if (n == 0) {
+            return;
+        }
+        if (length >= n) {
+            System.arraycopy(in, inOffset + length - n, history, 0, n);
+        } else {
+            System.arraycopy(history, length, history, 0, n - length);
+            System.arraycopy(in, inOffset, history, n - length, length);
+        }
+    }
+
+    private static float[][] filterBank(int inputRate, int outputRate, int up, int down) {
+        long key = ((long) inputRate << 32) | outputRate;
+        synchronized (FILTER_BANKS) {
+            float[][] cached = FILTER_BANKS.get(key);
+            if (cached == null) {
+                cached = designFilterBank(up, down);
+                FILTER_BANKS.put(key, cached);
+            }
+            return cached;
+        }
+    }
+
+    private static float[][] designFilterBank(int up, int down) {
+        // Prototype runs at the upsampled rate; its length scales with the larger factor
+        // so the transition band stays the same width relative to the lower rate.
+        int taps = (int) Math.ceil(TAPS_PER_PHASE * Math.max(1.0, (double) down / up));
+        int length = taps * up;
+        double cutoff = ROLLOFF * 0.5 / Math.max(up, down);
+        double center = (length - 1) / 2.0;
+        double norm = besselI0(KAISER_BETA);
+
+        float[][] bank = new float[up][taps];
+        for (int n = 0; n < length; n++) {
+            double m = n - center;
+            double sinc = m == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * m) / (Math.PI * m);
+            double r = m / center;
+            double window = besselI0(KAISER_BETA * Math.sqrt(Math.max(0, 1 - r * r))) / norm;
+            // Gain of `up` restores the amplitude lost to zero stuffing
+            bank[n % up][n / up] = (float) (up * sinc * window);
+        }
+        return bank;
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1, term = 1;
+        double half = x / 2;
+        for (int k = 1; k < 50; k++) {
+            term *= (half / k) * (half / k);
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -6,12 +6,17 @@ import java.util.List;
 import java.io.Serializable;
 
 public class ChatHistory implements Serializable {
+    // Pinned to the value computed for the original class so existing .dat files stay readable
+    private static final long serialVersionUID = -8839889071849703135L;
+
     private String id;
     private String title;
     private Date date;
     private List<ChatMessage> messages;
     private int promptId;
     private boolean isActive;
+    private transient int messageCount = -1;
+    private transient String lastSnippet;
 
     public ChatHistory(String id, String title, Date date, List<ChatMessage> messages) {
         this.id = id;
@@ -22,6 +27,32 @@ public class ChatHistory implements Serializable {
         this.isActive = false;
     }
 
+    /**
+     * Creates a summary from the history index. It carries no messages; load the full
+     * history by id before showing or saving it.
+     */
+    public ChatHistory(String id, String title, Date date, int messageCount, String lastSnippet) {
+        this.id = id;
+        this.title = title;
+        this.date = date;
+        this.messages = null;
+        this.messageCount = messageCount;
+        this.lastSnippet = lastSnippet;
+    }
+
+    /** False for index summaries, whose messages have not been read. */
+    public boolean isLoaded() {
+        return messages != null;
+    }
+
+    public int getMessageCount() {
+        return messages != null ? messages.size() : messageCount;
+    }
+
+    public String getLastSnippet() {
+        return lastSnippet;
+    }
+
     public String getId() {
         return id;
     }
@@ -35,7 +66,7 @@ public class ChatHistory implements Serializable {
     }
 
     public List<ChatMessage> getMessages() {
-        return new ArrayList<>(messages);
+        return messages != null ? new ArrayList<>(messages) : new ArrayList<>();
     }
 
     public void setTitle(String title) {
@@ -45,4 +76,16 @@ public class ChatHistory implements Serializable {
     public void updateMessages(List<ChatMessage> newMessages) {
         this.messages = new ArrayList<>(newMessages);
     }
+
+    /** Copies the history and its messages as they are now, for saving in the background. */
+    ChatHistory snapshot() {
+        List<ChatMessage> copies = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            copies.add(message.copy());
+        }
+        ChatHistory snapshot = new ChatHistory(id, title, date, copies);
+        snapshot.promptId = promptId;
+        snapshot.isActive = isActive;
+        return snapshot;
+    }
 } 
\ No newline at end of file
@@ -1,33 +1,70 @@
 package com.mtkresearch.breezeapp.utils;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import com.mtkresearch.breezeapp.R;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Lists chat histories grouped under month headers.
+ *
+ * Sorting, grouping and diffing against the shown list run on a background thread, so
+ * the drawer opens without rebinding every row; only rows that changed are updated.
+ */
 public class ChatHistoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     private static final int TYPE_HEADER = 0;
     private static final int TYPE_HISTORY = 1;
-    private List<Object> items = new ArrayList<>();
+    private static final Object PAYLOAD_SELECTION = new Object();
+
+    // Shared by all adapters; list building is cheap next to the diff that follows it
+    private static final ExecutorService LIST_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ChatHistoryList");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AsyncListDiffer<Row> differ = new AsyncListDiffer<>(
+        new AdapterListUpdateCallback(this),
+        new AsyncDifferConfig.Builder<>(new RowDiffCallback()).setBackgroundThreadExecutor(LIST_EXECUTOR).build());
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Only touched on LIST_EXECUTOR; formatting a month once per list instead of per row
+    private final Map<Integer, String> monthHeaders = new HashMap<>();
+    private final SimpleDateFormat monthFormat = new SimpleDateFormat("MMM yyyy", Locale.getDefault());
+    private final Calendar calendar = Calendar.getInstance();
+    private int listGeneration = 0;
     private OnHistoryClickListener listener;
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("MMM yyyy", Locale.getDefault());
-    private static final SimpleDateFormat dayFormat = new SimpleDateFormat("d", Locale.getDefault());
     private boolean isSelectionMode = false;
     private Set<String> selectedHistories = new HashSet<>();
     private OnSelectionChangeListener selectionChangeListener;
 
+    public ChatHistoryAdapter() {
+        setHasStableIds(true);
+    }
+
     public interface OnHistoryClickListener {
         void onHistoryClick(ChatHistory history);
     }
@@ -45,28 +82,80 @@ public class ChatHistoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
     }
 
     public void setHistories(List<ChatHistory> histories) {
-        // Sort histories by date in descending order (latest first)
-        Collections.sort(histories, (h1, h2) -> h2.getDate().compareTo(h1.getDate()));
-        
-        // Group histories by month
-        items.clear();
-        String currentMonth = "";
-        
-        for (ChatHistory history : histories) {
-            String month = dateFormat.format(history.getDate());
-            if (!month.equals(currentMonth)) {
-                items.add(month); // Add month header
-                currentMonth = month;
+        List<ChatHistory> sorted = new ArrayList<>(histories);
+        submitRows(() -> {
+            // Sort histories by date in descending order (latest first)
+            Collections.sort(sorted, (h1, h2) -> h2.getDate().compareTo(h1.getDate()));
+
+            // Group histories by month
+            List<Row> rows = new ArrayList<>(sorted.size() + 12);
+            int currentMonth = Integer.MIN_VALUE;
+            for (ChatHistory history : sorted) {
+                calendar.setTime(history.getDate());
+                int month = calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH);
+                if (month != currentMonth) {
+                    rows.add(Row.header(month, monthHeader(month, history)));
+                    currentMonth = month;
+                }
+                rows.add(Row.history(history, false));
             }
-            items.add(history);
+            return rows;
+        });
+    }
+
+    /**
+     * Shows search results in ranking order, without month headers, each with the
+     * matching text carried in its summary snippet.
+     */
+    public void setSearchResults(List<ChatHistory> results) {
+        List<ChatHistory> copy = new ArrayList<>(results);
+        submitRows(() -> {
+            List<Row> rows = new ArrayList<>(copy.size());
+            for (ChatHistory history : copy) {
+                rows.add(Row.history(history, true));
+            }
+            return rows;
+        });
+    }
+
+    private interface RowBuilder {
+        List<Row> build();
+    }
+
+    /** Builds rows in the background and hands them to the differ, dropping superseded lists. */
+    private void submitRows(RowBuilder builder) {
+        int generation = ++listGeneration;
+        LIST_EXECUTOR.execute(() -> {
+            List<Row> rows = builder.build();
+            mainHandler.post(() -> {
+                if (generation == listGeneration) {
+                    differ.submitList(rows);
+                }
+            });
+        });
+    }
+
+    private String monthHeader(int month, ChatHistory history) {
+        String header = monthHeaders.get(month);
+        if (header == null) {
+            header = monthFormat.format(history.getDate());
+            monthHeaders.put(month, header);
         }
-        
-        notifyDataSetChanged();
+        return header;
+    }
+
+    private List<Row> rows() {
+        return differ.getCurrentList();
     }
 
     @Override
     public int getItemViewType(int position) {
-        return items.get(position) instanceof String ? TYPE_HEADER : TYPE_HISTORY;
+        return rows().get(position).history == null ? TYPE_HEADER : TYPE_HISTORY;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return rows().get(position).stableId;
     }
 
     @NonNull
@@ -82,13 +171,26 @@ public class ChatHistoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
         }
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (holder instanceof HistoryViewHolder && payloads.contains(PAYLOAD_SELECTION)) {
+            // Only the selection changed; leave the text as it is
+            ChatHistory history = rows().get(position).history;
+            ((HistoryViewHolder) holder).checkBox.setVisibility(isSelectionMode ? View.VISIBLE : View.GONE);
+            ((HistoryViewHolder) holder).checkBox.setChecked(selectedHistories.contains(history.getId()));
+            return;
+        }
+        onBindViewHolder(holder, position);
+    }
+
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
+        Row row = rows().get(position);
         if (holder instanceof HeaderViewHolder) {
-            ((HeaderViewHolder) holder).bind((String) items.get(position));
+            ((HeaderViewHolder) holder).bind(row.header);
         } else if (holder instanceof HistoryViewHolder) {
-            ChatHistory history = (ChatHistory) items.get(position);
-            ((HistoryViewHolder) holder).bind(history);
+            ChatHistory history = row.history;
+            ((HistoryViewHolder) holder).bind(history, row.showSnippet);
             
             // Show/hide checkbox based on selection mode
             ((HistoryViewHolder) holder).checkBox.setVisibility(isSelectionMode ? View.VISIBLE : View.GONE);
@@ -98,7 +200,6 @@ public class ChatHistoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
             holder.itemView.setOnClickListener(v -> {
                 if (isSelectionMode) {
                     toggleSelection(history.getId());
-                    ((HistoryViewHolder) holder).checkBox.setChecked(selectedHistories.contains(history.getId()));
                 } else if (listener != null) {
                     // Add click feedback
                     v.setPressed(true);
@@ -123,7 +224,7 @@ public class ChatHistoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
 
     @Override
     public int getItemCount() {
-        return items.size();
+        return rows().size();
     }
 
     public void setSelectionMode(boolean enabled) {
@@ -134,7 +235,7 @@ public class ChatHistoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
                 selectionChangeListener.onSelectionChanged(0);
             }
         }
-        notifyDataSetChanged();
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
     }
 
     public boolean isSelectionMode() {
@@ -150,28 +251,85 @@ public class ChatHistoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
         if (selectionChangeListener != null) {
             selectionChangeListener.onSelectionChanged(selectedHistories.size());
         }
-        notifyDataSetChanged();
+        List<Row> rows = rows();
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i).history != null && rows.get(i).history.getId().equals(historyId)) {
+                notifyItemChanged(i, PAYLOAD_SELECTION);
+                break;
+            }
+        }
     }
 
     public void selectAll(boolean select) {
         selectedHistories.clear();
         if (select) {
-            for (Object item : items) {
-                if (item instanceof ChatHistory) {
-                    selectedHistories.add(((ChatHistory) item).getId());
+            for (Row row : rows()) {
+                if (row.history != null) {
+                    selectedHistories.add(row.history.getId());
                 }
             }
         }
         if (selectionChangeListener != null) {
             selectionChangeListener.onSelectionChanged(selectedHistories.size());
         }
-        notifyDataSetChanged();
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
     }
 
     public Set<String> getSelectedHistories() {
         return new HashSet<>(selectedHistories);
     }
 
+    /** A month header or a history entry, with an id that stays the same across lists. */
+    static final class Row {
+        final long stableId;
+        final String header;
+        final ChatHistory history;
+        final boolean showSnippet;
+
+        private Row(long stableId, String header, ChatHistory history, boolean showSnippet) {
+            this.stableId = stableId;
+            this.header = header;
+            this.history = history;
+            this.showSnippet = showSnippet;
+        }
+
+        static Row header(int month, String text) {
+            // Negative so header ids never collide with history ids
+            return new Row(-1L - month, text, null, false);
+        }
+
+        static Row history(ChatHistory history, boolean showSnippet) {
+            return new Row(stableId(history.getId()), null, history, showSnippet);
+        }
+
+        /** 64-bit FNV-1a hash of the id, kept non-negative. */
+        private static long stableId(String id) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < id.length(); i++) {
+                hash ^= id.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            return hash & Long.MAX_VALUE;
+        }
+    }
+
+    private static final class RowDiffCallback extends DiffUtil.ItemCallback<Row> {
+        @Override
+        public boolean areItemsTheSame(@NonNull Row oldRow, @NonNull Row newRow) {
+            return oldRow.stableId == newRow.stableId;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Row oldRow, @NonNull Row newRow) {
+            if (oldRow.history == null || newRow.history == null) {
+                return Objects.equals(oldRow.header, newRow.header);
+            }
+            return oldRow.showSnippet == newRow.showSnippet
+                && Objects.equals(oldRow.history.getTitle(), newRow.history.getTitle())
+                && (!newRow.showSnippet || Objects.equals(oldRow.history.getLastSnippet(), newRow.history.getLastSnippet()));
+        }
+    }
+
     static class HeaderViewHolder extends RecyclerView.ViewHolder {
         private final TextView monthText;
 
@@ -187,16 +345,22 @@ public class ChatHistoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
 
     static class HistoryViewHolder extends RecyclerView.ViewHolder {
         private final TextView titleView;
+        private final TextView snippetView;
         private final CheckBox checkBox;
 
         HistoryViewHolder(@NonNull View itemView) {
             super(itemView);
             titleView = itemView.findViewById(R.id.historyTitle);
+            snippetView = itemView.findViewById(R.id.historySnippet);
             checkBox = itemView.findViewById(R.id.historyCheckbox);
         }
 
-        void bind(ChatHistory history) {
+        void bind(ChatHistory history, boolean showSnippet) {
             titleView.setText(history.getTitle());
+            String snippet = history.getLastSnippet();
+            boolean hasSnippet = showSnippet && snippet != null && !snippet.isEmpty();
+            snippetView.setText(hasSnippet ? snippet : "");
+            snippetView.setVisibility(hasSnippet ? View.VISIBLE : View.GONE);
         }
     }
 } 
\ No newline at end of file
@@ -0,0 +1,428 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Log;
+import android.util.MalformedJsonException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Exports all conversations to a JSON Lines file and imports them back, one conversation
+ * at a time, so memory use does not grow with the size of the history.
+ *
+ * Each line holds one conversation. A gzip export compresses every line as its own gzip
+ * member, which standard tools read as one stream. Progress is checkpointed, and an export
+ * or import cut short, e.g. by the process being killed, continues from its last
+ * checkpoint via {@link #resumeInterrupted()}. The checkpoint is dropped when the operation
+ * fails in a way retrying cannot fix, or after {@link #MAX_RESUME_ATTEMPTS} resumes in a row
+ * without progress.
+ */
+public class ChatHistoryArchive {
+    private static final String TAG = "ChatHistoryArchive";
+    private static final String PREFS_NAME = "chat_archive";
+    private static final String KEY_MODE = "mode";
+    private static final String KEY_URI = "uri";
+    private static final String KEY_GZIP = "gzip";
+    private static final String KEY_DONE = "done";
+    private static final String KEY_OFFSET = "offset";
+    private static final String KEY_ATTEMPTS = "attempts";
+    private static final String MODE_EXPORT = "export";
+    private static final String MODE_IMPORT = "import";
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CHECKPOINT_INTERVAL = 50; // Conversations between checkpoints
+    private static final int MAX_RESUME_ATTEMPTS = 3;
+
+    private final Context context;
+    private final ChatHistoryManager historyManager;
+    private final SharedPreferences prefs;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+        r -> new Thread(r, "ChatArchive"));
+
+    public ChatHistoryArchive(Context context, ChatHistoryManager historyManager) {
+        this.context = context;
+        this.historyManager = historyManager;
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /** Writes every conversation to the file; completes with the number written. */
+    public CompletableFuture<Integer> exportTo(Uri uri, boolean gzip) {
+        return CompletableFuture.supplyAsync(() -> {
+            saveCheckpoint(MODE_EXPORT, uri, gzip, 0, 0);
+            return runExport(uri, gzip, 0, 0);
+        }, executor);
+    }
+
+    /**
+     * Reads conversations from the file, which may be gzip-compressed. Importing the file
+     * of an interrupted import again skips what was already imported.
+     */
+    public CompletableFuture<Integer> importFrom(Uri uri) {
+        return CompletableFuture.supplyAsync(() -> {
+            int done = isCheckpointFor(MODE_IMPORT, uri) ? prefs.getInt(KEY_DONE, 0) : 0;
+            saveCheckpoint(MODE_IMPORT, uri, false, done, 0);
+            return runImport(uri, done);
+        }, executor);
+    }
+
+    /** Continues an export or import that did not finish, or returns null if there is none. */
+    public CompletableFuture<Integer> resumeInterrupted() {
+        String mode = prefs.getString(KEY_MODE, null);
+        String uriString = prefs.getString(KEY_URI, null);
+        if (mode == null || uriString == null) {
+            return null;
+        }
+        int attempts = prefs.getInt(KEY_ATTEMPTS, 0);
+        if (attempts >= MAX_RESUME_ATTEMPTS) {
+            Log.w(TAG, "Giving up on the " + mode + " to " + uriString + " after " + attempts + " resumes");
+            clearCheckpoint();
+            return null;
+        }
+        prefs.edit().putInt(KEY_ATTEMPTS, attempts + 1).commit();
+        Uri uri = Uri.parse(uriString);
+        int done = prefs.getInt(KEY_DONE, 0);
+        Log.i(TAG, "Resuming " + mode + " after " + done + " conversations");
+        if (MODE_EXPORT.equals(mode)) {
+            boolean gzip = prefs.getBoolean(KEY_GZIP, false);
+            long offset = prefs.getLong(KEY_OFFSET, 0);
+            return CompletableFuture.supplyAsync(() -> runExport(uri, gzip, done, offset), executor);
+        }
+        return CompletableFuture.supplyAsync(() -> runImport(uri, done), executor);
+    }
+
+    /** True while a resumed operation is an export rather than an import. */
+    public boolean isInterruptedExport() {
+        return MODE_EXPORT.equals(prefs.getString(KEY_MODE, null));
+    }
+
+    public void close() {
+        executor.shutdown();
+    }
+
+    private int runExport(Uri uri, boolean gzip, int done, long offset) {
+        List<String> ids = new ArrayList<>();
+        for (ChatHistory summary : historyManager.loadHistorySummaries().join()) {
+            ids.add(summary.getId());
+        }
+        // A fixed order lets a resumed export continue where it stopped
+        Collections.sort(ids);
+
+        try (ParcelFileDescriptor pfd = openForExport(uri, offset);
+             FileOutputStream file = new FileOutputStream(pfd.getFileDescriptor())) {
+            FileChannel channel = file.getChannel();
+            // Drop anything written after the last checkpoint
+            channel.truncate(offset);
+            channel.position(offset);
+            OutputStream target = new FilterOutputStream(file) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush(); // The file stays open for the next conversation
+                }
+            };
+
+            int written = done;
+            for (int i = done; i < ids.size(); i++) {
+                ChatHistory history = historyManager.loadHistory(ids.get(i)).join();
+                if (history != null) {
+                    OutputStream out = gzip ? new GZIPOutputStream(target, BUFFER_SIZE) : target;
+                    try (BufferedWriter writer = new BufferedWriter(
+                            new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                        writeConversation(writer, history);
+                    }
+                    written++;
+                }
+                if ((i + 1) % CHECKPOINT_INTERVAL == 0) {
+                    pfd.getFileDescriptor().sync();
+                    saveCheckpoint(MODE_EXPORT, uri, gzip, i + 1, channel.position());
+                }
+            }
+            channel.truncate(channel.position());
+            pfd.getFileDescriptor().sync();
+            clearCheckpoint();
+            Log.i(TAG, "Exported " + written + " conversations");
+            return written;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error exporting chat histories", e);
+            if (isPermanent(e)) {
+                clearCheckpoint();
+            }
+            throw new IllegalStateException("Export failed", e);
+        }
+    }
+
+    /** Opens the file for writing, seekable if the provider allows it so the export can resume. */
+    private ParcelFileDescriptor openForExport(Uri uri, long offset) throws IOException {
+        ParcelFileDescriptor pfd = null;
+        try {
+            pfd = context.getContentResolver().openFileDescriptor(uri, "rw");
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            if (offset > 0) {
+                throw new IOException("Cannot reopen " + uri + " to resume", e);
+            }
+            Log.w(TAG, "Provider does not support rw, export cannot resume", e);
+        }
+        if (pfd == null) {
+            pfd = context.getContentResolver().openFileDescriptor(uri, "wt");
+        }
+        if (pfd == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        return pfd;
+    }
+
+    private int runImport(Uri uri, int done) {
+        int imported = 0;
+        try (InputStream raw = context.getContentResolver().openInputStream(uri)) {
+            if (raw == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            InputStream in = new LookaheadInputStream(raw, BUFFER_SIZE);
+            in.mark(2);
+            boolean gzip = in.read() == 0x1f && in.read() == 0x8b;
+            in.reset();
+            if (gzip) {
+                in = new GZIPInputStream(in, BUFFER_SIZE);
+            }
+
+            JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            reader.setLenient(true); // One top-level object per line
+            int position = 0;
+            while (reader.peek() != JsonToken.END_DOCUMENT) {
+                if (position < done) {
+                    reader.skipValue();
+                } else {
+                    ChatHistory history = readConversation(reader);
+                    if (history != null && historyManager.importHistory(history).join()) {
+                        imported++;
+                    }
+                    if ((position + 1) % CHECKPOINT_INTERVAL == 0) {
+                        historyManager.flush().join();
+                        saveCheckpoint(MODE_IMPORT, uri, false, position + 1, 0);
+                    }
+                }
+                position++;
+            }
+            historyManager.flush().join();
+            clearCheckpoint();
+            Log.i(TAG, "Imported " + imported + " conversations");
+            return imported;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error importing chat histories", e);
+            if (isPermanent(e)) {
+                clearCheckpoint();
+            }
+            throw new IllegalStateException("Import failed", e);
+        } finally {
+            if (imported > 0) {
+                historyManager.rebuildSearchIndex();
+            }
+        }
+    }
+
+    private static void writeConversation(BufferedWriter out, ChatHistory history) throws IOException {
+        // Not closed: that would close the file
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject();
+        json.name("v").value(FORMAT_VERSION);
+        json.name("id").value(history.getId());
+        json.name("title").value(history.getTitle());
+        json.name("date").value(history.getDate().getTime());
+        json.name("messages").beginArray();
+        for (ChatMessage message : history.getMessages()) {
+            json.beginObject();
+            json.name("text").value(message.getText());
+            json.name("user").value(message.isUser());
+            json.name("promptId").value(message.getPromptId());
+            if (message.getImageUriString() != null) {
+                json.name("image").value(message.getImageUriString());
+            }
+            if (message.getCustomTextColor() != 0) {
+                json.name("color").value(message.getCustomTextColor());
+            }
+            json.name("completed").value(message.isCompleted());
+            json.name("error").value(message.isError());
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+        json.flush();
+        out.write('\n');
+    }
+
+    /** Reads one conversation, or returns null if it lacks an id or is from a newer version. */
+    private static ChatHistory readConversation(JsonReader json) throws IOException {
+        String id = null;
+        String title = "";
+        long date = System.currentTimeMillis();
+        int version = FORMAT_VERSION;
+        List<ChatMessage> messages = new ArrayList<>();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "v":
+                    version = json.nextInt();
+                    break;
+                case "id":
+                    id = json.nextString();
+                    break;
+                case "title":
+                    title = json.nextString();
+                    break;
+                case "date":
+                    date = json.nextLong();
+                    break;
+                case "messages":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        messages.add(readMessage(json));
+                    }
+                    json.endArray();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        if (id == null || version > FORMAT_VERSION) {
+            Log.w(TAG, "Skipping unreadable conversation " + id);
+            return null;
+        }
+        return new ChatHistory(id, title, new Date(date), messages);
+    }
+
+    private static ChatMessage readMessage(JsonReader json) throws IOException {
+        String text = "";
+        boolean isUser = false;
+        int promptId = 0;
+        String image = null;
+        int color = 0;
+        boolean completed = true;
+        boolean error = false;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "text":
+                    text = json.nextString();
+                    break;
+                case "user":
+                    isUser = json.nextBoolean();
+                    break;
+                case "promptId":
+                    promptId = json.nextInt();
+                    break;
+                case "image":
+                    image = json.nextString();
+                    break;
+                case "color":
+                    color = json.nextInt();
+                    break;
+                case "completed":
+                    completed = json.nextBoolean();
+                    break;
+                case "error":
+                    error = json.nextBoolean();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        ChatMessage message = new ChatMessage(text, isUser, promptId);
+        message.setImageUriString(image);
+        message.setCustomTextColor(color);
+        message.setCompleted(completed);
+        message.setError(error);
+        return message;
+    }
+
+    /**
+     * Whether the failure will happen again on a retry: the file is gone or no longer
+     * accessible, or it is not an archive this version can read.
+     */
+    private static boolean isPermanent(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof FileNotFoundException || e instanceof SecurityException
+                    || e instanceof MalformedJsonException || e instanceof ZipException
+                    || e instanceof IllegalStateException || e instanceof IllegalArgumentException
+                    || e instanceof UnsupportedOperationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isCheckpointFor(String mode, Uri uri) {
+        return mode.equals(prefs.getString(KEY_MODE, null)) && uri.toString().equals(prefs.getString(KEY_URI, null));
+    }
+
+    private void saveCheckpoint(String mode, Uri uri, boolean gzip, int done, long offset) {
+        prefs.edit()
+            .putString(KEY_MODE, mode)
+            .putString(KEY_URI, uri.toString())
+            .putBoolean(KEY_GZIP, gzip)
+            .putInt(KEY_DONE, done)
+            .putLong(KEY_OFFSET, offset)
+            .putInt(KEY_ATTEMPTS, 0) // Progress was made
+            .commit();
+    }
+
+    private void clearCheckpoint() {
+        prefs.edit().clear().commit();
+    }
+
+    /**
+     * Buffered stream whose available() waits for the next byte instead of reporting 0.
+     * GZIPInputStream only looks for a following gzip member when bytes are available,
+     * which pipes from a content provider do not report ahead of time.
+     */
+    private static class LookaheadInputStream extends BufferedInputStream {
+        LookaheadInputStream(InputStream in, int size) {
+            super(in, size);
+        }
+
+        @Override
+        public synchronized int available() throws IOException {
+            int available = super.available();
+            if (available > 0) {
+                return available;
+            }
+            mark(1);
+            int next = read();
+            reset();
+            return next >= 0 ? 1 : 0;
+        }
+    }
+}
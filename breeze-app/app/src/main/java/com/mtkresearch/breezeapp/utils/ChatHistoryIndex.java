@@ -0,0 +1,266 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Compact index of the chat histories, so the history list can be shown without reading
+ * any messages.
+ *
+ * The file is a sequence of CRC-checked entries, each either a summary of one
+ * conversation or a removal; a later entry for the same id replaces an earlier one.
+ * Saves append one entry, reads map the file and keep the result in memory. The file is
+ * rewritten once replaced entries outnumber live ones.
+ */
+public class ChatHistoryIndex {
+    private static final String TAG = "ChatHistoryIndex";
+    public static final String INDEX_FILE = "history.idx";
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_REMOVE = 2;
+    private static final int FRAME_HEADER_SIZE = 8;
+    private static final int MAX_ENTRY_SIZE = 64 * 1024;
+    private static final int MAX_SNIPPET_LENGTH = 80;
+    private static final int COMPACT_MIN_ENTRIES = 32;
+
+    /** Summary of one conversation as shown in the history list. */
+    public static class Entry {
+        public final String id;
+        public final String title;
+        public final long date;
+        public final int messageCount;
+        public final String lastSnippet;
+        /** Length of the conversation log when indexed; a mismatch means the entry is stale. */
+        public final long logLength;
+
+        public Entry(String id, String title, long date, int messageCount, String lastSnippet, long logLength) {
+            this.id = id;
+            this.title = title;
+            this.date = date;
+            this.messageCount = messageCount;
+            this.lastSnippet = lastSnippet;
+            this.logLength = logLength;
+        }
+    }
+
+    private final File file;
+    private final CRC32 crc = new CRC32();
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    private final DataOutputStream payloadOut = new DataOutputStream(payload);
+
+    private Map<String, Entry> entries;
+    private int entryRecords;
+    private long validLength;
+
+    public ChatHistoryIndex(File directory) {
+        this.file = new File(directory, INDEX_FILE);
+    }
+
+    /** All live entries, in the order they were first indexed. */
+    public synchronized List<Entry> entries() {
+        ensureLoaded();
+        return new ArrayList<>(entries.values());
+    }
+
+    public synchronized Entry get(String id) {
+        ensureLoaded();
+        return entries.get(id);
+    }
+
+    public synchronized void put(ChatHistory history, long logLength) {
+        List<ChatMessage> messages = history.getMessages();
+        String snippet = "";
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i).hasContent()) {
+                snippet = truncate(messages.get(i).getText().trim(), MAX_SNIPPET_LENGTH);
+                break;
+            }
+        }
+        put(new Entry(history.getId(), history.getTitle(), history.getDate().getTime(),
+            messages.size(), snippet, logLength));
+    }
+
+    public synchronized void put(Entry entry) {
+        ensureLoaded();
+        entries.put(entry.id, entry);
+        try {
+            payload.reset();
+            payloadOut.writeByte(TYPE_PUT);
+            writeEntry(entry);
+            append();
+        } catch (IOException e) {
+            Log.e(TAG, "Error updating history index", e);
+        }
+    }
+
+    public synchronized void remove(String id) {
+        ensureLoaded();
+        if (entries.remove(id) == null) {
+            return;
+        }
+        try {
+            payload.reset();
+            payloadOut.writeByte(TYPE_REMOVE);
+            writeString(id);
+            append();
+        } catch (IOException e) {
+            Log.e(TAG, "Error updating history index", e);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (entries != null) {
+            return;
+        }
+        entries = new LinkedHashMap<>();
+        entryRecords = 0;
+        validLength = 0;
+        if (!file.isFile() || file.length() == 0) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.remaining() >= FRAME_HEADER_SIZE) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > MAX_ENTRY_SIZE || length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer body = buffer.slice();
+                body.limit(length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != checksum || !applyEntry(body)) {
+                    break;
+                }
+                buffer.position(start + FRAME_HEADER_SIZE + length);
+                entryRecords++;
+                validLength = buffer.position();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading history index", e);
+        }
+        if (validLength < file.length()) {
+            Log.w(TAG, "Ignoring " + (file.length() - validLength) + " corrupt bytes in history index");
+        }
+    }
+
+    private boolean applyEntry(ByteBuffer body) {
+        try {
+            byte type = body.get();
+            if (type == TYPE_PUT) {
+                Entry entry = new Entry(readString(body), readString(body), body.getLong(),
+                    body.getInt(), readString(body), body.getLong());
+                entries.remove(entry.id); // Keep the newest entries last
+                entries.put(entry.id, entry);
+                return true;
+            } else if (type == TYPE_REMOVE) {
+                entries.remove(readString(body));
+                return true;
+            }
+            return false;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void append() throws IOException {
+        if (entryRecords + 1 > COMPACT_MIN_ENTRIES && entryRecords + 1 > 2 * entries.size()) {
+            rewrite();
+            return;
+        }
+        byte[] body = payload.toByteArray();
+        ByteBuffer record = frame(body);
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Drop a torn tail left by a crash before appending after it
+            channel.truncate(validLength);
+            channel.position(validLength);
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        }
+        entryRecords++;
+        validLength += FRAME_HEADER_SIZE + body.length;
+    }
+
+    /** Writes only the live entries to a new file and swaps it in. */
+    private void rewrite() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        long length = 0;
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Entry entry : entries.values()) {
+                payload.reset();
+                payloadOut.writeByte(TYPE_PUT);
+                writeEntry(entry);
+                ByteBuffer record = frame(payload.toByteArray());
+                length += record.remaining();
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+            channel.force(true);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Failed to replace " + file.getName());
+        }
+        entryRecords = entries.size();
+        validLength = length;
+    }
+
+    private ByteBuffer frame(byte[] body) {
+        crc.reset();
+        crc.update(body, 0, body.length);
+        ByteBuffer record = ByteBuffer.allocate(FRAME_HEADER_SIZE + body.length);
+        record.putInt(body.length).putInt((int) crc.getValue()).put(body);
+        record.flip();
+        return record;
+    }
+
+    private void writeEntry(Entry entry) throws IOException {
+        writeString(entry.id);
+        writeString(entry.title);
+        payloadOut.writeLong(entry.date);
+        payloadOut.writeInt(entry.messageCount);
+        writeString(entry.lastSnippet);
+        payloadOut.writeLong(entry.logLength);
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        payloadOut.writeInt(bytes.length);
+        payloadOut.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String truncate(String text, int maxLength) {
+        return text.length() <= maxLength ? text : text.substring(0, maxLength - 1) + "…";
+    }
+}
@@ -3,20 +3,46 @@ package com.mtkresearch.breezeapp.utils;
 import android.content.Context;
 import android.util.Log;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ChatHistoryManager {
     private static final String TAG = "ChatHistoryManager";
     private static final String HISTORY_DIR = "chat_histories";
+    private static final String LEGACY_SUFFIX = ".dat";
+    private static final String SEARCH_DIR = "chat_search";
+    private static final int SEARCH_SNIPPET_LENGTH = 80;
     private final Context context;
+    private final ChatLogStore logStore;
+    private final ChatHistoryIndex historyIndex;
+    private final ChatSearchIndex searchIndex;
+    // Search index updates and queries run here, in order, off the main thread
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(
+        r -> new Thread(r, "ChatHistorySearch"));
+    private boolean searchIndexChecked; // Only touched on searchExecutor
+    // Log and history index I/O runs here, with repeated saves coalesced
+    private final ChatPersistenceWriter persistence;
     private ChatHistory currentActiveHistory;
 
     public ChatHistoryManager(Context context) {
         this.context = context;
         createHistoryDirectory();
+        File directory = new File(context.getFilesDir(), HISTORY_DIR);
+        this.logStore = new ChatLogStore(directory);
+        this.historyIndex = new ChatHistoryIndex(directory);
+        this.searchIndex = new ChatSearchIndex(new File(context.getFilesDir(), SEARCH_DIR));
+        this.persistence = new ChatPersistenceWriter(this::writeHistory, AppConstants.HISTORY_SAVE_DELAY_MS);
     }
 
     private void createHistoryDirectory() {
@@ -42,45 +68,338 @@ public class ChatHistoryManager {
         return history;
     }
 
+    /**
+     * Queues a snapshot of the history to be written in the background. Saves that follow
+     * each other quickly, e.g. while a response streams in, are written once.
+     */
     public void saveHistory(ChatHistory history) {
-        File file = new File(new File(context.getFilesDir(), HISTORY_DIR), history.getId() + ".dat");
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-            oos.writeObject(history);
+        if (!history.isLoaded()) {
+            Log.w(TAG, "Refusing to save unloaded history summary " + history.getId());
+            return;
+        }
+        persistence.save(history.snapshot());
+    }
+
+    /**
+     * Appends the messages added since the last write to the conversation's log.
+     * Histories still in the old serialized format are migrated on their first write.
+     */
+    private void writeHistory(ChatHistory history) {
+        writeHistory(history, true);
+    }
+
+    private void writeHistory(ChatHistory history, boolean updateSearch) {
+        try {
+            logStore.save(history);
+            historyIndex.put(history, logStore.length(history.getId()));
+            if (updateSearch) {
+                String id = history.getId();
+                List<String> texts = messageTexts(history);
+                runSearchTask(() -> searchIndex.update(id, texts));
+            }
+            File legacy = legacyFile(history.getId());
+            if (legacy.exists()) {
+                legacy.delete();
+            }
         } catch (IOException e) {
             Log.e(TAG, "Error saving chat history", e);
         }
     }
 
-    public List<ChatHistory> loadAllHistories() {
-        List<ChatHistory> histories = new ArrayList<>();
+    /**
+     * Reads every history with all of its messages. The history list should use
+     * {@link #loadHistorySummaries()} instead.
+     */
+    public CompletableFuture<List<ChatHistory>> loadAllHistories() {
+        return persistence.submit(() -> {
+            migrateLegacyHistories();
+            return logStore.loadAll();
+        });
+    }
+
+    /**
+     * Lists the histories from the index without reading any messages. Conversations
+     * whose log changed since they were indexed, e.g. after a crash, are re-indexed here.
+     */
+    public CompletableFuture<List<ChatHistory>> loadHistorySummaries() {
+        return persistence.submit(this::readHistorySummaries);
+    }
+
+    private List<ChatHistory> readHistorySummaries() {
+        migrateLegacyHistories();
         File directory = new File(context.getFilesDir(), HISTORY_DIR);
-        File[] files = directory.listFiles((dir, name) -> name.endsWith(".dat"));
-        
+        File[] logs = directory.listFiles((dir, name) -> name.endsWith(ChatLogStore.LOG_SUFFIX));
+        List<ChatHistory> summaries = new ArrayList<>();
+        Set<String> presentIds = new HashSet<>();
+
+        if (logs != null) {
+            for (File log : logs) {
+                String name = log.getName();
+                String id = name.substring(0, name.length() - ChatLogStore.LOG_SUFFIX.length());
+                ChatHistoryIndex.Entry entry = historyIndex.get(id);
+                if (entry == null || entry.logLength != log.length()) {
+                    ChatHistory history = logStore.load(id);
+                    if (history == null) {
+                        Log.w(TAG, "Deleting unreadable chat log: " + name);
+                        logStore.delete(id);
+                        continue;
+                    }
+                    historyIndex.put(history, logStore.length(id));
+                    entry = historyIndex.get(id);
+                }
+                presentIds.add(id);
+                summaries.add(new ChatHistory(entry.id, entry.title, new Date(entry.date),
+                    entry.messageCount, entry.lastSnippet));
+            }
+        }
+
+        for (ChatHistoryIndex.Entry entry : historyIndex.entries()) {
+            if (!presentIds.contains(entry.id)) {
+                historyIndex.remove(entry.id);
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * Stores an imported history without losing newer local messages. A stored history with
+     * the same id is replaced only if the import continues it, and kept if it already holds
+     * everything imported. If the two went on differently, the import is stored next to it
+     * under an id derived from the original, so importing the same file again finds it.
+     * Completes with whether anything was written. Search indexing is left to
+     * {@link #rebuildSearchIndex()} so a large import is not held back by it.
+     */
+    public CompletableFuture<Boolean> importHistory(ChatHistory history) {
+        return persistence.submit(() -> {
+            List<ChatMessage> imported = history.getMessages();
+            ChatHistory target = history;
+            List<ChatMessage> stored = storedMessages(history.getId());
+            if (stored != null && commonPrefix(stored, imported) < Math.min(stored.size(), imported.size())) {
+                String copyId = UUID.nameUUIDFromBytes(("import:" + history.getId()).getBytes(StandardCharsets.UTF_8))
+                    .toString();
+                Log.i(TAG, "History " + history.getId() + " differs from the imported one, importing it as " + copyId);
+                target = new ChatHistory(copyId, history.getTitle(), history.getDate(), imported);
+                stored = storedMessages(copyId);
+            }
+            if (stored != null && commonPrefix(stored, imported) == imported.size()) {
+                return false; // The stored history is the same or newer
+            }
+            writeHistory(target, false);
+            return true;
+        });
+    }
+
+    private List<ChatMessage> storedMessages(String historyId) {
+        ChatHistory stored = logStore.exists(historyId) ? logStore.load(historyId) : null;
+        return stored != null ? stored.getMessages() : null;
+    }
+
+    /** Number of leading messages the two lists have in common. */
+    private static int commonPrefix(List<ChatMessage> a, List<ChatMessage> b) {
+        int common = 0;
+        while (common < a.size() && common < b.size() && sameContent(a.get(common), b.get(common))) {
+            common++;
+        }
+        return common;
+    }
+
+    private static boolean sameContent(ChatMessage a, ChatMessage b) {
+        return a.isUser() == b.isUser() && a.isError() == b.isError() && a.getText().equals(b.getText())
+            && Objects.equals(a.getImageUriString(), b.getImageUriString());
+    }
+
+    /** Brings the search index up to date with the stored histories in the background. */
+    public void rebuildSearchIndex() {
+        runSearchTask(() -> {
+            searchIndexChecked = false;
+            ensureSearchIndexed();
+        });
+    }
+
+    /** Reads one history with its messages, or returns null if it no longer exists. */
+    public CompletableFuture<ChatHistory> loadHistory(String historyId) {
+        return persistence.submit(() -> logStore.load(historyId));
+    }
+
+    /**
+     * Finds the histories with messages matching the query, best match first. Each result
+     * is a summary whose snippet is the matching part of the best message.
+     */
+    public CompletableFuture<List<ChatHistory>> searchHistories(String query, int limit) {
+        // Writing queued saves first also queues their index updates ahead of the query
+        return persistence.flush().thenApplyAsync(ignored -> {
+            ensureSearchIndexed();
+            List<ChatHistory> results = new ArrayList<>();
+            Set<String> seen = new HashSet<>();
+            // Ask for extra hits since several can come from the same history
+            for (ChatSearchIndex.Result hit : searchIndex.search(query, limit * 4)) {
+                if (results.size() >= limit) {
+                    break;
+                }
+                if (!seen.add(hit.historyId)) {
+                    continue;
+                }
+                ChatHistoryIndex.Entry entry = historyIndex.get(hit.historyId);
+                // Only the record holding the matching message is read, not the whole history
+                String text = entry != null ? logStore.loadMessageText(hit.historyId, hit.messageIndex) : null;
+                if (text == null) {
+                    continue;
+                }
+                results.add(new ChatHistory(entry.id, entry.title, new Date(entry.date), entry.messageCount,
+                    ChatSearchIndex.snippet(text, query, SEARCH_SNIPPET_LENGTH)));
+            }
+            return results;
+        }, searchExecutor);
+    }
+
+    /**
+     * Finds messages from other conversations that match the query, for retrieval into a
+     * prompt. Each passage pairs the matching message with the other half of its exchange.
+     */
+    public CompletableFuture<List<ContextRetriever.Passage>> findPassages(String query, String excludeHistoryId, int limit) {
+        return persistence.flush().thenApplyAsync(ignored -> {
+            ensureSearchIndexed();
+            List<ContextRetriever.Passage> passages = new ArrayList<>();
+            Set<String> used = new HashSet<>();
+            // Hits cluster in few histories; read each of them once
+            Map<String, ChatHistory> histories = new HashMap<>();
+            for (ChatSearchIndex.Result hit : searchIndex.search(query, limit * 2)) {
+                if (passages.size() >= limit) {
+                    break;
+                }
+                if (hit.historyId.equals(excludeHistoryId)) {
+                    continue;
+                }
+                if (!histories.containsKey(hit.historyId)) {
+                    histories.put(hit.historyId, logStore.load(hit.historyId));
+                }
+                ChatHistory history = histories.get(hit.historyId);
+                if (history == null || hit.messageIndex >= history.getMessages().size()) {
+                    continue;
+                }
+                List<ChatMessage> messages = history.getMessages();
+                int question = messages.get(hit.messageIndex).isUser() ? hit.messageIndex : hit.messageIndex - 1;
+                // A question and its answer can both match; include the exchange once
+                if (!used.add(hit.historyId + "#" + question)) {
+                    continue;
+                }
+                StringBuilder text = new StringBuilder();
+                if (question >= 0 && messages.get(question).isUser()) {
+                    text.append("Q: ").append(messages.get(question).getText()).append('\n');
+                }
+                if (question + 1 < messages.size() && !messages.get(question + 1).isUser()) {
+                    text.append("A: ").append(messages.get(question + 1).getText());
+                }
+                passages.add(new ContextRetriever.Passage(history.getTitle(), text.toString().trim(), hit.score));
+            }
+            return passages;
+        }, searchExecutor);
+    }
+
+    /**
+     * Indexes histories saved before search existed or whose last update was lost, and
+     * drops deleted ones. Runs once, before the first query.
+     */
+    private void ensureSearchIndexed() {
+        if (searchIndexChecked) {
+            return;
+        }
+        searchIndexChecked = true;
+        Set<String> removed = searchIndex.indexedHistoryIds();
+        for (ChatHistoryIndex.Entry entry : historyIndex.entries()) {
+            removed.remove(entry.id);
+            if (searchIndex.indexedMessageCount(entry.id) != entry.messageCount) {
+                ChatHistory history = logStore.load(entry.id);
+                if (history != null) {
+                    searchIndex.update(entry.id, messageTexts(history));
+                }
+            }
+        }
+        for (String id : removed) {
+            searchIndex.remove(id);
+        }
+    }
+
+    private static List<String> messageTexts(ChatHistory history) {
+        List<String> texts = new ArrayList<>();
+        for (ChatMessage message : history.getMessages()) {
+            texts.add(message.getText());
+        }
+        return texts;
+    }
+
+    private void runSearchTask(Runnable task) {
+        if (!searchExecutor.isShutdown()) {
+            searchExecutor.execute(task);
+        }
+    }
+
+    /** Moves histories saved with Java serialization into the log format. */
+    private void migrateLegacyHistories() {
+        File directory = new File(context.getFilesDir(), HISTORY_DIR);
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(LEGACY_SUFFIX));
+
         if (files != null) {
             for (File file : files) {
+                ChatHistory history;
                 try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                    ChatHistory history = (ChatHistory) ois.readObject();
-                    histories.add(history);
+                    history = (ChatHistory) ois.readObject();
                 } catch (InvalidClassException e) {
                     // Handle version mismatch by deleting the corrupted file
                     Log.w(TAG, "Deleting incompatible chat history file: " + file.getName());
                     file.delete();
+                    continue;
                 } catch (IOException | ClassNotFoundException e) {
                     Log.e(TAG, "Error loading chat history from " + file.getName(), e);
                     // Delete corrupted files
                     file.delete();
+                    continue;
+                }
+                if (logStore.exists(history.getId())) {
+                    file.delete();
+                } else {
+                    writeHistory(history); // Removes the .dat file once the log is written
                 }
             }
         }
-        
-        return histories;
     }
 
-    public void deleteHistory(String historyId) {
-        File file = new File(new File(context.getFilesDir(), HISTORY_DIR), historyId + ".dat");
-        if (file.exists()) {
-            file.delete();
-        }
+    public CompletableFuture<Void> deleteHistory(String historyId) {
+        persistence.discard(historyId);
+        return persistence.submit(() -> {
+            logStore.delete(historyId);
+            historyIndex.remove(historyId);
+            runSearchTask(() -> searchIndex.remove(historyId));
+            File file = legacyFile(historyId);
+            if (file.exists()) {
+                file.delete();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Writes queued saves and forces them to disk in the background; call when the app
+     * leaves the foreground.
+     */
+    public CompletableFuture<Void> flush() {
+        return persistence.submit(() -> {
+            logStore.sync();
+            runSearchTask(searchIndex::sync);
+            return null;
+        });
+    }
+
+    /** Writes queued saves, waiting briefly for them, and releases the open files. */
+    public void close() {
+        persistence.close();
+        logStore.close();
+        runSearchTask(searchIndex::close);
+        searchExecutor.shutdown();
+    }
+
+    private File legacyFile(String historyId) {
+        return new File(new File(context.getFilesDir(), HISTORY_DIR), historyId + LEGACY_SUFFIX);
     }
 
     public void setCurrentActiveHistory(ChatHistory history) {
@@ -0,0 +1,782 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only chat history storage, one log file per conversation.
+ *
+ * Every record is framed as [int length][int crc32][byte type][payload], where length
+ * covers type and payload. A save only appends what changed since the previous save:
+ * new messages, a truncate marker when earlier messages were edited, and a meta record
+ * when the title changes. Loading replays the records and cuts the file back to the last
+ * valid record, so a crash mid-write loses at most the unfinished save. Logs are rewritten
+ * as a single snapshot once superseded records outnumber live ones.
+ *
+ * fsync is batched: appends are forced to disk at most once per {@link #SYNC_INTERVAL_MS},
+ * and {@link #sync()} forces whatever is still pending.
+ *
+ * Since format version 2, records use varint lengths and flag bits instead of fixed-width
+ * fields. Compaction writes the messages as snapshot records of about
+ * {@link #SNAPSHOT_CHUNK_SIZE} each, deflated as a whole, so a conversation compresses against
+ * itself; messages appended later are deflated one by one.
+ * Both use the preset dictionary of {@link ChatTextCompressor}.
+ */
+public class ChatLogStore {
+    private static final String TAG = "ChatLogStore";
+    public static final String LOG_SUFFIX = ".log";
+
+    private static final int FORMAT_VERSION = 2;
+    private static final byte TYPE_META = 1;
+    private static final byte TYPE_TRUNCATE = 3;
+    private static final byte TYPE_COMPACT_MESSAGE = 4;
+    private static final byte TYPE_SNAPSHOT = 5;
+
+    private static final int FLAG_USER = 1;
+    private static final int FLAG_COMPLETED = 1 << 1;
+    private static final int FLAG_ERROR = 1 << 2;
+    private static final int FLAG_COMPRESSED = 1 << 3;
+    private static final int FLAG_IMAGE = 1 << 4;
+    private static final int FLAG_TEXT_COLOR = 1 << 5;
+    private static final int FLAG_APPEND = 1 << 6; // Snapshot continues the previous one
+
+    private static final int FRAME_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    // Both bounds together keep every record the writer frames under MAX_RECORD_SIZE
+    private static final int SNAPSHOT_CHUNK_SIZE = 1024 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 8192; // Upper bound for decoding a snapshot
+    private static final int MAX_TEXT_SIZE = MAX_RECORD_SIZE / 2;
+    private static final int COMPACT_MIN_RECORDS = 64;
+    // A new log with this many messages, e.g. an import, is written as a snapshot at once
+    private static final int SNAPSHOT_MIN_MESSAGES = 8;
+    static final long SYNC_INTERVAL_MS = 1000;
+
+    /**
+     * The digest of a logged message, which version of the message object it was taken from,
+     * and where in the log the message is. Messages read from the log get their digest on first
+     * use, see {@link #digestOf}.
+     */
+    private static class LoggedMessage {
+        final ChatMessage source;
+        byte[] digest; // SHA-256
+        final long stableId;
+        final int revision;
+        final long position; // Of the record holding the message
+        final int slot; // Index of the message within that record
+
+        LoggedMessage(byte[] digest, ChatMessage message, long position, int slot) {
+            this(message, digest, message.getStableId(), message.getRevision(), position, slot);
+        }
+
+        private LoggedMessage(ChatMessage source, byte[] digest, long stableId, int revision, long position,
+                int slot) {
+            this.source = source;
+            this.digest = digest;
+            this.stableId = stableId;
+            this.revision = revision;
+            this.position = position;
+            this.slot = slot;
+        }
+
+        boolean isVersionOf(ChatMessage message) {
+            return stableId == message.getStableId() && revision == message.getRevision();
+        }
+
+        LoggedMessage at(long position, int slot) {
+            return new LoggedMessage(source, digest, stableId, revision, position, slot);
+        }
+    }
+
+    /** What the store knows about a log without re-reading it. */
+    private static class LogState {
+        final List<LoggedMessage> messages = new ArrayList<>();
+        String title;
+        long date;
+        int recordCount;
+        long length;
+    }
+
+    /** ByteArrayOutputStream whose content can be written without copying. */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    private final File directory;
+    private final Map<String, LogState> states = new HashMap<>();
+    private final RecordBuffer pending = new RecordBuffer();
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private final RecordBuffer payload = new RecordBuffer();
+    private final DataOutputStream payloadOut = new DataOutputStream(payload);
+    private final RecordBuffer snapshot = new RecordBuffer();
+    private final DataOutputStream snapshotOut = new DataOutputStream(snapshot);
+    private final RecordBuffer chunk = new RecordBuffer();
+    private final DataOutputStream chunkOut = new DataOutputStream(chunk);
+    private final RecordBuffer digestBuffer = new RecordBuffer();
+    private final DataOutputStream digestOut = new DataOutputStream(digestBuffer);
+    private final MessageDigest sha256 = newSha256();
+    private final CRC32 crc = new CRC32();
+    private final ChatTextCompressor compressor = new ChatTextCompressor();
+
+    private String openId;
+    private FileChannel openChannel;
+    private boolean syncPending = false;
+    private long lastSyncMs = 0;
+
+    public ChatLogStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Persists the history by appending the difference to what was last written for it.
+     */
+    public synchronized void save(ChatHistory history) throws IOException {
+        String id = history.getId();
+        LogState state = stateFor(id);
+        List<ChatMessage> messages = history.getMessages();
+
+        pending.reset();
+        int records = 0;
+        if (state.recordCount == 0 || !Objects.equals(state.title, history.getTitle())
+                || state.date != history.getDate().getTime()) {
+            appendMeta(history.getTitle(), history.getDate().getTime());
+            records++;
+        }
+
+        // Only messages changed since they were last seen are hashed again
+        LoggedMessage[] logged = new LoggedMessage[messages.size()];
+        int common = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            ChatMessage message = messages.get(i);
+            LoggedMessage previous = i < state.messages.size() ? state.messages.get(i) : null;
+            logged[i] = previous != null && previous.isVersionOf(message)
+                ? previous : new LoggedMessage(messageDigest(message), message, -1, 0);
+            if (common == i && previous != null
+                    && (previous == logged[i] || Arrays.equals(digestOf(previous), logged[i].digest))) {
+                common++;
+            }
+        }
+        if (common < state.messages.size()) {
+            appendTruncate(common);
+            records++;
+        }
+        for (int i = common; i < messages.size(); i++) {
+            logged[i] = logged[i].at(state.length + pending.size(), 0);
+            appendMessage(messages.get(i));
+            records++;
+        }
+        if (records == 0) {
+            return;
+        }
+
+        int totalRecords = state.recordCount + records;
+        if ((state.recordCount == 0 && messages.size() >= SNAPSHOT_MIN_MESSAGES)
+                || (totalRecords > COMPACT_MIN_RECORDS && totalRecords > 2 * (messages.size() + 1))) {
+            compact(id, history.getTitle(), history.getDate().getTime(), messages, logged);
+            return;
+        }
+
+        FileChannel channel = channelFor(id, state);
+        ByteBuffer bytes = pending.asByteBuffer();
+        int written = bytes.remaining();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+
+        state.messages.clear();
+        state.messages.addAll(Arrays.asList(logged));
+        state.title = history.getTitle();
+        state.date = history.getDate().getTime();
+        state.recordCount = totalRecords;
+        state.length += written;
+
+        syncPending = true;
+        long now = System.currentTimeMillis();
+        if (now - lastSyncMs >= SYNC_INTERVAL_MS) {
+            channel.force(false);
+            syncPending = false;
+            lastSyncMs = now;
+        }
+    }
+
+    /**
+     * Reads the text of one message, or returns null if the conversation has no such message.
+     * Once the log has been read or written, only the record holding the message is decoded.
+     */
+    public synchronized String loadMessageText(String id, int index) {
+        LogState state = states.get(id);
+        if (state == null) {
+            ChatHistory history = load(id);
+            List<ChatMessage> messages = history != null ? history.getMessages() : null;
+            return messages != null && index >= 0 && index < messages.size() ? messages.get(index).getText() : null;
+        }
+        if (index < 0 || index >= state.messages.size()) {
+            return null;
+        }
+        LoggedMessage logged = state.messages.get(index);
+        try (RandomAccessFile file = new RandomAccessFile(logFile(id), "r")) {
+            file.seek(logged.position);
+            int length = file.readInt();
+            int checksum = file.readInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE) {
+                throw new IOException("Bad record length " + length);
+            }
+            byte[] body = new byte[length];
+            file.readFully(body);
+            crc.reset();
+            crc.update(body, 0, length);
+            List<ChatMessage> messages = new ArrayList<>();
+            if ((int) crc.getValue() != checksum
+                    || !applyRecord(body, 0, length, logged.position, new LogState(), messages)
+                    || logged.slot >= messages.size()) {
+                throw new IOException("Unreadable record at " + logged.position);
+            }
+            return messages.get(logged.slot).getText();
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading message " + index + " of chat log " + id, e);
+            return null;
+        }
+    }
+
+    /** Reads one conversation, or returns null if it has no readable log. */
+    public synchronized ChatHistory load(String id) {
+        File file = logFile(id);
+        if (!file.isFile()) {
+            return null;
+        }
+        LogState state = new LogState();
+        ChatHistory history = readLog(id, file, state);
+        if (history != null) {
+            states.put(id, state);
+        }
+        return history;
+    }
+
+    public synchronized List<ChatHistory> loadAll() {
+        List<ChatHistory> histories = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(LOG_SUFFIX));
+        if (files == null) {
+            return histories;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            ChatHistory history = load(name.substring(0, name.length() - LOG_SUFFIX.length()));
+            if (history != null) {
+                histories.add(history);
+            } else {
+                Log.w(TAG, "Deleting unreadable chat log: " + name);
+                file.delete();
+            }
+        }
+        return histories;
+    }
+
+    /** Current length of the conversation's log in bytes, 0 if it has none. */
+    public synchronized long length(String id) {
+        LogState state = states.get(id);
+        return state != null ? state.length : logFile(id).length();
+    }
+
+    public synchronized boolean exists(String id) {
+        return logFile(id).isFile();
+    }
+
+    public synchronized void delete(String id) {
+        if (id.equals(openId)) {
+            closeOpenChannel();
+        }
+        states.remove(id);
+        File file = logFile(id);
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+
+    /** Forces appends that are still waiting for the batched fsync. */
+    public synchronized void sync() {
+        if (openChannel != null && syncPending) {
+            try {
+                openChannel.force(false);
+            } catch (IOException e) {
+                Log.e(TAG, "Error syncing chat log", e);
+            }
+            syncPending = false;
+            lastSyncMs = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized void close() {
+        closeOpenChannel();
+    }
+
+    private File logFile(String id) {
+        return new File(directory, id + LOG_SUFFIX);
+    }
+
+    private LogState stateFor(String id) {
+        LogState state = states.get(id);
+        if (state != null) {
+            return state;
+        }
+        state = new LogState();
+        File file = logFile(id);
+        if (file.isFile() && readLog(id, file, state) == null) {
+            // Nothing usable in it; start over
+            file.delete();
+            state = new LogState();
+        }
+        states.put(id, state);
+        return state;
+    }
+
+    private FileChannel channelFor(String id, LogState state) throws IOException {
+        if (id.equals(openId) && openChannel != null && openChannel.isOpen()) {
+            return openChannel;
+        }
+        closeOpenChannel();
+        FileChannel channel = FileChannel.open(logFile(id).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(state.length);
+        channel.position(state.length);
+        openId = id;
+        openChannel = channel;
+        return channel;
+    }
+
+    private void closeOpenChannel() {
+        if (openChannel == null) {
+            return;
+        }
+        try {
+            if (syncPending) {
+                openChannel.force(false);
+            }
+            openChannel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing chat log", e);
+        }
+        openChannel = null;
+        openId = null;
+        syncPending = false;
+    }
+
+    /** Rewrites the log as one meta record plus snapshots of the messages, then swaps it in. */
+    private void compact(String id, String title, long date, List<ChatMessage> messages, LoggedMessage[] logged)
+            throws IOException {
+        if (id.equals(openId)) {
+            closeOpenChannel();
+        }
+        pending.reset();
+        appendMeta(title, date);
+        int snapshots = appendSnapshot(messages, logged);
+
+        File target = logFile(id);
+        File temp = new File(directory, id + LOG_SUFFIX + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = pending.asByteBuffer();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Failed to replace " + target.getName());
+        }
+
+        LogState state = new LogState();
+        state.messages.addAll(Arrays.asList(logged));
+        state.title = title;
+        state.date = date;
+        state.recordCount = 1 + snapshots;
+        state.length = pending.size();
+        states.put(id, state);
+        Log.d(TAG, "Compacted chat log " + id + " to " + state.length + " bytes");
+    }
+
+    /**
+     * Reads the whole log with one read and decodes the records in place, since most logs are a
+     * single snapshot record of a few kilobytes.
+     */
+    private ChatHistory readLog(String id, File file, LogState state) {
+        List<ChatMessage> messages = new ArrayList<>();
+        long fileLength = 0;
+        int valid = 0;
+        int records = 0;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long size = in.length();
+            if (size > Integer.MAX_VALUE - FRAME_HEADER_SIZE) {
+                throw new IOException("Chat log too large: " + size);
+            }
+            fileLength = size;
+            byte[] log = new byte[(int) fileLength];
+            in.readFully(log);
+            ByteBuffer frames = ByteBuffer.wrap(log);
+            while (valid + FRAME_HEADER_SIZE <= log.length) {
+                int length = frames.getInt(valid);
+                int checksum = frames.getInt(valid + 4);
+                int start = valid + FRAME_HEADER_SIZE;
+                if (length <= 0 || length > MAX_RECORD_SIZE || length > log.length - start) {
+                    break;
+                }
+                crc.reset();
+                crc.update(log, start, length);
+                if ((int) crc.getValue() != checksum || !applyRecord(log, start, length, valid, state, messages)) {
+                    break;
+                }
+                valid = start + length;
+                records++;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading chat log " + file.getName(), e);
+        }
+
+        if (valid < fileLength) {
+            Log.w(TAG, "Recovering " + file.getName() + ": dropping " + (fileLength - valid) + " bytes");
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(valid);
+            } catch (IOException e) {
+                Log.e(TAG, "Error truncating chat log " + file.getName(), e);
+            }
+        }
+        if (state.title == null) {
+            return null;
+        }
+        state.recordCount = records;
+        state.length = valid;
+        return new ChatHistory(id, state.title, new Date(state.date), messages);
+    }
+
+    private boolean applyRecord(byte[] record, int offset, int length, long position, LogState state,
+            List<ChatMessage> messages) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, offset + 1, length - 1))) {
+            switch (record[offset]) {
+                case TYPE_META:
+                    int version = in.readInt();
+                    if (version != FORMAT_VERSION) {
+                        return false;
+                    }
+                    String title = readVarString(in);
+                    long date = in.readLong();
+                    state.title = title;
+                    state.date = date;
+                    return true;
+                case TYPE_COMPACT_MESSAGE:
+                    ChatMessage message = readCompactMessage(in);
+                    messages.add(message);
+                    state.messages.add(new LoggedMessage(null, message, position, 0));
+                    return true;
+                case TYPE_SNAPSHOT:
+                    readSnapshot(in, position, state, messages);
+                    return true;
+                case TYPE_TRUNCATE:
+                    int keep = in.readInt();
+                    if (keep < 0 || keep > messages.size()) {
+                        return false;
+                    }
+                    messages.subList(keep, messages.size()).clear();
+                    state.messages.subList(keep, state.messages.size()).clear();
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void appendMeta(String title, long date) throws IOException {
+        payload.reset();
+        payloadOut.writeByte(TYPE_META);
+        payloadOut.writeInt(FORMAT_VERSION);
+        writeVarString(payloadOut, title != null ? title : "");
+        payloadOut.writeLong(date);
+        frameRecord();
+    }
+
+    private void appendTruncate(int keep) throws IOException {
+        payload.reset();
+        payloadOut.writeByte(TYPE_TRUNCATE);
+        payloadOut.writeInt(keep);
+        frameRecord();
+    }
+
+    private void appendMessage(ChatMessage message) throws IOException {
+        payload.reset();
+        payloadOut.writeByte(TYPE_COMPACT_MESSAGE);
+        writeCompactMessage(payloadOut, message, true);
+        frameRecord();
+    }
+
+    /**
+     * Writes the messages as records of [flags][varint raw length][data], data optionally
+     * deflated. A record takes messages until it holds {@link #SNAPSHOT_CHUNK_SIZE} bytes;
+     * the ones after the first are flagged to append to it. Moves each entry of logged to where
+     * its message was written, and returns the number of records.
+     */
+    private int appendSnapshot(List<ChatMessage> messages, LoggedMessage[] logged) throws IOException {
+        int start = 0;
+        int records = 0;
+        do {
+            chunk.reset();
+            int end = start;
+            while (end < messages.size() && chunk.size() < SNAPSHOT_CHUNK_SIZE) {
+                writeCompactMessage(chunkOut, messages.get(end++), false);
+            }
+            chunkOut.flush();
+            snapshot.reset();
+            writeVarint(snapshotOut, end - start);
+            snapshotOut.write(chunk.asByteBuffer().array(), 0, chunk.size());
+            snapshotOut.flush();
+            int rawLength = snapshot.size();
+            int compressedLength = compressor.compress(snapshot.asByteBuffer().array(), rawLength);
+
+            payload.reset();
+            payloadOut.writeByte(TYPE_SNAPSHOT);
+            payloadOut.writeByte((compressedLength >= 0 ? FLAG_COMPRESSED : 0) | (start > 0 ? FLAG_APPEND : 0));
+            writeVarint(payloadOut, rawLength);
+            if (compressedLength >= 0) {
+                payloadOut.write(compressor.output(), 0, compressedLength);
+            } else {
+                payloadOut.write(snapshot.asByteBuffer().array(), 0, rawLength);
+            }
+            for (int i = start; i < end; i++) {
+                logged[i] = logged[i].at(pending.size(), i - start);
+            }
+            frameRecord();
+            records++;
+            start = end;
+        } while (start < messages.size());
+        return records;
+    }
+
+    /** Decodes a snapshot record, inflating it as a stream rather than into one buffer. */
+    private void readSnapshot(DataInputStream in, long position, LogState state, List<ChatMessage> messages)
+            throws IOException {
+        int flags = in.readUnsignedByte();
+        int rawLength = readLength(in);
+        DataInputStream data = in;
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            // Most snapshots are a few kilobytes, so the buffers are sized to the record
+            int inputSize = Math.max(1, Math.min(in.available(), STREAM_BUFFER_SIZE));
+            int outputSize = Math.max(1, Math.min(rawLength, STREAM_BUFFER_SIZE));
+            data = new DataInputStream(new BufferedInputStream(compressor.inflating(in, inputSize), outputSize));
+        }
+        int count = readLength(data);
+        List<ChatMessage> restored = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            restored.add(readCompactMessage(data));
+        }
+        // Only change the state once the whole record decoded
+        if ((flags & FLAG_APPEND) == 0) {
+            messages.clear();
+            state.messages.clear();
+        }
+        messages.addAll(restored);
+        for (int i = 0; i < restored.size(); i++) {
+            state.messages.add(new LoggedMessage(null, restored.get(i), position, i));
+        }
+    }
+
+    private void writeCompactMessage(DataOutputStream out, ChatMessage message, boolean compressText)
+            throws IOException {
+        byte[] text = loggedText(message);
+        int compressedLength = compressText ? compressor.compress(text, text.length) : -1;
+        String imageUri = message.getImageUriString();
+
+        int flags = 0;
+        if (message.isUser()) flags |= FLAG_USER;
+        if (message.isCompleted()) flags |= FLAG_COMPLETED;
+        if (message.isError()) flags |= FLAG_ERROR;
+        if (compressedLength >= 0) flags |= FLAG_COMPRESSED;
+        if (imageUri != null) flags |= FLAG_IMAGE;
+        if (message.getCustomTextColor() != 0) flags |= FLAG_TEXT_COLOR;
+
+        out.writeByte(flags);
+        writeVarint(out, (message.getPromptId() << 1) ^ (message.getPromptId() >> 31));
+        if ((flags & FLAG_TEXT_COLOR) != 0) {
+            out.writeInt(message.getCustomTextColor());
+        }
+        writeVarint(out, text.length);
+        if (compressedLength >= 0) {
+            writeVarint(out, compressedLength);
+            out.write(compressor.output(), 0, compressedLength);
+        } else {
+            out.write(text);
+        }
+        if (imageUri != null) {
+            writeVarString(out, imageUri);
+        }
+    }
+
+    private void frameRecord() throws IOException {
+        payloadOut.flush();
+        crc.reset();
+        ByteBuffer body = payload.asByteBuffer();
+        if (body.limit() > MAX_RECORD_SIZE) {
+            // The reader would take it for a torn write and cut the log there
+            throw new IOException("Record of " + body.limit() + " bytes exceeds " + MAX_RECORD_SIZE);
+        }
+        crc.update(body.array(), 0, body.limit());
+        pendingOut.writeInt(body.limit());
+        pendingOut.writeInt((int) crc.getValue());
+        pendingOut.write(body.array(), 0, body.limit());
+        pendingOut.flush();
+    }
+
+    private ChatMessage readCompactMessage(DataInputStream in) throws IOException {
+        int flags = in.readUnsignedByte();
+        int zigzag = readVarint(in);
+        int promptId = (zigzag >>> 1) ^ -(zigzag & 1);
+        int textColor = (flags & FLAG_TEXT_COLOR) != 0 ? in.readInt() : 0;
+        int textLength = readLength(in);
+        String text;
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            byte[] compressed = new byte[readLength(in)];
+            in.readFully(compressed);
+            text = compressor.decompress(compressed, 0, compressed.length, textLength);
+        } else {
+            byte[] bytes = new byte[textLength];
+            in.readFully(bytes);
+            text = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        ChatMessage message = new ChatMessage(text, (flags & FLAG_USER) != 0, promptId);
+        message.setImageUriString((flags & FLAG_IMAGE) != 0 ? readVarString(in) : null);
+        message.setCustomTextColor(textColor);
+        message.setCompleted((flags & FLAG_COMPLETED) != 0);
+        message.setError((flags & FLAG_ERROR) != 0);
+        return message;
+    }
+
+    /**
+     * The digest of a logged message. A message read from the log is only hashed when a save has
+     * to compare it, and only while its object still holds what was read; after that it is
+     * treated as changed.
+     */
+    private byte[] digestOf(LoggedMessage logged) {
+        if (logged.digest == null && logged.isVersionOf(logged.source)) {
+            logged.digest = messageDigest(logged.source);
+        }
+        return logged.digest;
+    }
+
+    /**
+     * Identifies a message's content for telling which messages changed since the last save.
+     * A strong digest, since a collision would silently keep an edit out of the log.
+     */
+    private byte[] messageDigest(ChatMessage message) {
+        try {
+            digestBuffer.reset();
+            digestOut.writeBoolean(message.isUser());
+            digestOut.writeInt(message.getPromptId());
+            byte[] text = loggedText(message);
+            writeVarint(digestOut, text.length);
+            digestOut.write(text);
+            String imageUri = message.getImageUriString();
+            digestOut.writeBoolean(imageUri != null);
+            if (imageUri != null) {
+                writeVarString(digestOut, imageUri);
+            }
+            digestOut.writeInt(message.getCustomTextColor());
+            digestOut.writeBoolean(message.isCompleted());
+            digestOut.writeBoolean(message.isError());
+            digestOut.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // In-memory stream
+        }
+        sha256.reset();
+        sha256.update(digestBuffer.asByteBuffer());
+        return sha256.digest();
+    }
+
+    /**
+     * The UTF-8 text of a message as it is logged: anything past {@link #MAX_TEXT_SIZE} is cut at a
+     * character boundary, so one runaway message cannot stop its conversation from being saved.
+     */
+    private static byte[] loggedText(ChatMessage message) {
+        byte[] text = message.getText().getBytes(StandardCharsets.UTF_8);
+        if (text.length <= MAX_TEXT_SIZE) {
+            return text;
+        }
+        int end = MAX_TEXT_SIZE;
+        while ((text[end] & 0xC0) == 0x80) {
+            end--; // Don't split a multi-byte character
+        }
+        Log.w(TAG, "Truncating message of " + text.length + " bytes to " + end);
+        return Arrays.copyOf(text, end);
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Required on every platform
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new EOFException("Malformed varint");
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = readVarint(in);
+        if (length < 0 || length > MAX_RECORD_SIZE) {
+            throw new EOFException("Bad length: " + length);
+        }
+        return length;
+    }
+
+    private static void writeVarString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readVarString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -3,6 +3,8 @@ package com.mtkresearch.breezeapp.utils;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.MediaStore;
 import android.util.Log;
 import android.widget.Toast;
@@ -20,6 +22,7 @@ public class ChatMediaHandler {
     private final AudioRecorder audioRecorder;
     private String currentPhotoPath;
     private boolean isRecording = false;
+    private AttachmentIndex attachmentIndex;
 
     public ChatMediaHandler(Context context) {
         this.context = context;
@@ -89,9 +92,27 @@ public class ChatMediaHandler {
         return isRecording;
     }
 
+    public void addPcmListener(AudioRecorder.PcmListener listener) {
+        audioRecorder.addPcmListener(listener);
+    }
+
+    public void removePcmListener(AudioRecorder.PcmListener listener) {
+        audioRecorder.removePcmListener(listener);
+    }
+
     public ChatMessage handleSelectedFile(Uri fileUri) {
         try {
             String fileName = FileUtils.getFileName(context, fileUri);
+            if (attachmentIndex != null
+                    && AttachmentIndex.isIndexable(context.getContentResolver().getType(fileUri), fileName)) {
+                // Make the file's text available to retrieval for later prompts
+                attachmentIndex.ingest(fileUri, fileName).thenAccept(chunks -> {
+                    if (chunks > 0) {
+                        new Handler(Looper.getMainLooper()).post(() -> Toast.makeText(context,
+                            context.getString(R.string.attachment_indexed, fileName), Toast.LENGTH_SHORT).show());
+                    }
+                });
+            }
             return new ChatMessage("Attached file: " + fileName, true);
         } catch (Exception e) {
             Log.e(TAG, "Failed to process file", e);
@@ -100,6 +121,10 @@ public class ChatMediaHandler {
         }
     }
 
+    public void setAttachmentIndex(AttachmentIndex attachmentIndex) {
+        this.attachmentIndex = attachmentIndex;
+    }
+
     public void release() {
         if (audioRecorder != null) {
             audioRecorder.stopRecording();
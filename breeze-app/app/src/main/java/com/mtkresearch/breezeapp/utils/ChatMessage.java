@@ -7,8 +7,12 @@ import androidx.annotation.Nullable;
 import com.mtkresearch.breezeapp.R;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ChatMessage implements Serializable {
+    // Pinned to the value computed for the original class so existing .dat files stay readable
+    private static final long serialVersionUID = -3493884737270812779L;
+
     private String text;
     private final boolean isUser;
     private transient Uri imageUri; // Mark as transient since Uri is not serializable
@@ -17,6 +21,10 @@ public class ChatMessage implements Serializable {
     private int customTextColor = 0;
     private boolean isCompleted = true; // Default to true since most messages are completed
     private boolean isError = false; // Flag to indicate if this message is an error response
+    private transient long stableId; // Assigned on first use; identifies the message in lists
+    private transient int revision; // Bumped on every change, so unchanged messages are cheap to detect
+
+    private static final AtomicLong nextStableId = new AtomicLong();
 
     public ChatMessage(@NonNull String text, boolean isUser) {
         this(text, isUser, 0);
@@ -35,6 +43,7 @@ public class ChatMessage implements Serializable {
 
     public void updateText(@Nullable String newText) {
         this.text = newText != null ? newText : "";
+        revision++;
     }
 
     public boolean hasText() {
@@ -56,6 +65,17 @@ public class ChatMessage implements Serializable {
     public void setImageUri(@Nullable Uri imageUri) {
         this.imageUri = imageUri;
         this.imageUriString = imageUri != null ? imageUri.toString() : null;
+        revision++;
+    }
+
+    String getImageUriString() {
+        return imageUriString;
+    }
+
+    void setImageUriString(@Nullable String uriString) {
+        this.imageUriString = uriString;
+        this.imageUri = null;
+        revision++;
     }
 
     public boolean hasImage() {
@@ -68,6 +88,7 @@ public class ChatMessage implements Serializable {
 
     public void setPromptId(int promptId) {
         this.promptId = promptId;
+        revision++;
     }
 
     public boolean hasContent() {
@@ -76,6 +97,7 @@ public class ChatMessage implements Serializable {
 
     public void setCustomTextColor(int color) {
         this.customTextColor = color;
+        revision++;
     }
 
     public int getCustomTextColor() {
@@ -88,6 +110,7 @@ public class ChatMessage implements Serializable {
 
     public void setCompleted(boolean completed) {
         this.isCompleted = completed;
+        revision++;
     }
 
     /**
@@ -96,6 +119,7 @@ public class ChatMessage implements Serializable {
      */
     public void setError(boolean isError) {
         this.isError = isError;
+        revision++;
     }
 
     /**
@@ -106,6 +130,35 @@ public class ChatMessage implements Serializable {
         return isError;
     }
 
+    /** An id unique to this message object for as long as the process runs. */
+    long getStableId() {
+        if (stableId == 0) {
+            stableId = nextStableId.incrementAndGet();
+        }
+        return stableId;
+    }
+
+    /** Changes with every edit of the message; together with the stable id it names a version. */
+    int getRevision() {
+        return revision;
+    }
+
+    /**
+     * Copies the message so it can be saved while the original keeps changing. The copy keeps
+     * the stable id and revision, so it stands for the same version of the message.
+     */
+    ChatMessage copy() {
+        ChatMessage copy = new ChatMessage(getText(), isUser, promptId);
+        copy.stableId = getStableId();
+        copy.revision = revision;
+        copy.imageUri = imageUri;
+        copy.imageUriString = imageUriString;
+        copy.customTextColor = customTextColor;
+        copy.isCompleted = isCompleted;
+        copy.isError = isError;
+        return copy;
+    }
+
     @Override
     public String toString() {
         return "ChatMessage{" +
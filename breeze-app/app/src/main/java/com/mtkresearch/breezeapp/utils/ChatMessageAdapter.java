@@ -12,7 +12,9 @@ import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.constraintlayout.widget.ConstraintLayout;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import com.mtkresearch.breezeapp.R;
 
@@ -22,15 +24,26 @@ import java.util.List;
 /**
  * Adapter for displaying chat messages in a RecyclerView.
  * Handles only UI representation of messages.
+ *
+ * A restored conversation shows only its latest {@link AppConstants#MESSAGE_PAGE_SIZE}
+ * messages; earlier ones are added a page at a time by {@link #loadOlderMessages()} as the
+ * user scrolls up, so long conversations open without binding every message.
  */
 public class ChatMessageAdapter extends RecyclerView.Adapter<ChatMessageAdapter.MessageViewHolder> {
     private static final String TAG = "ChatMessageAdapter";
     private final List<ChatMessage> messages = new ArrayList<>();
+    // Messages before the shown ones, oldest first, not yet added to the list
+    private List<ChatMessage> olderMessages = new ArrayList<>();
     private final Handler handler = new Handler(Looper.getMainLooper());
     private OnSpeakerClickListener speakerClickListener;
     private OnMessageLongClickListener messageLongClickListener;
     private OnFeedbackClickListener feedbackClickListener;
     private boolean ttsEnabled = AppConstants.TTS_ENABLED;  // Default to AppConstants value
+    private ThumbnailCache thumbnailCache;
+
+    public ChatMessageAdapter() {
+        setHasStableIds(true);
+    }
 
     public interface OnSpeakerClickListener {
         void onSpeakerClick(String messageText, int position);
@@ -52,19 +65,55 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<ChatMessageAdapter.
         this.messageLongClickListener = listener;
     }
 
+    public void setThumbnailCache(ThumbnailCache thumbnailCache) {
+        this.thumbnailCache = thumbnailCache;
+    }
+
     public void setFeedbackClickListener(OnFeedbackClickListener listener) {
         this.feedbackClickListener = listener;
     }
 
     public void setTTSEnabled(boolean enabled) {
         this.ttsEnabled = enabled;
-        notifyDataSetChanged();  // Refresh all items to update speaker icon visibility
+        notifyItemRangeChanged(0, messages.size());  // Refresh all items to update speaker icon visibility
     }
 
+    /**
+     * Shows the latest page of the given messages; the rest become available through
+     * {@link #loadOlderMessages()}. Only rows that differ from the current list are rebound.
+     */
     public void setMessages(List<ChatMessage> newMessages) {
+        int start = Math.max(0, newMessages.size() - AppConstants.MESSAGE_PAGE_SIZE);
+        List<ChatMessage> page = new ArrayList<>(newMessages.subList(start, newMessages.size()));
+        olderMessages = new ArrayList<>(newMessages.subList(0, start));
+
+        if (messages.isEmpty()) {
+            messages.addAll(page);
+            notifyItemRangeInserted(0, page.size());
+            return;
+        }
+        // At most one page on each side, so this stays cheap on the main thread
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new MessageDiffCallback(new ArrayList<>(messages), page));
         messages.clear();
-        messages.addAll(newMessages);
-        notifyDataSetChanged();
+        messages.addAll(page);
+        diff.dispatchUpdatesTo(this);
+    }
+
+    public boolean hasOlderMessages() {
+        return !olderMessages.isEmpty();
+    }
+
+    /** Adds the page of messages before the shown ones to the top of the list; returns how many. */
+    public int loadOlderMessages() {
+        int count = Math.min(AppConstants.MESSAGE_PAGE_SIZE, olderMessages.size());
+        if (count == 0) {
+            return 0;
+        }
+        List<ChatMessage> page = olderMessages.subList(olderMessages.size() - count, olderMessages.size());
+        messages.addAll(0, page);
+        page.clear();
+        notifyItemRangeInserted(0, count);
+        return count;
     }
 
     public void addMessage(ChatMessage message) {
@@ -81,14 +130,22 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<ChatMessageAdapter.
     }
 
     public void clearMessages() {
+        int count = messages.size();
         messages.clear();
-        notifyDataSetChanged();
+        olderMessages = new ArrayList<>();
+        notifyItemRangeRemoved(0, count);
     }
 
+    /** The messages currently in the list, which omits older ones not loaded yet. */
     public List<ChatMessage> getMessages() {
         return messages;
     }
 
+    @Nullable
+    public ChatMessage getMessage(int position) {
+        return position >= 0 && position < messages.size() ? messages.get(position) : null;
+    }
+
     public void setMessageTextColor(int position, int color) {
         if (position >= 0 && position < messages.size()) {
             messages.get(position).setCustomTextColor(color);
@@ -96,6 +153,22 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<ChatMessageAdapter.
         }
     }
 
+    /** Changes the text color of the message wherever it now is in the list. */
+    public void setMessageTextColor(ChatMessage message, int color) {
+        message.setCustomTextColor(color);
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) == message) {
+                notifyItemChanged(i);
+                break;
+            }
+        }
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return messages.get(position).getStableId();
+    }
+
     @Override
     public int getItemViewType(int position) {
         return messages.get(position).isUser() ? 0 : 1; // 0 for user, 1 for AI
@@ -126,9 +199,11 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<ChatMessageAdapter.
         holder.messageText.setTextIsSelectable(true);
         
         // Set long click listener
+        // Positions shift as older messages are added above, so look them up on click
         holder.itemView.setOnLongClickListener(v -> {
-            if (messageLongClickListener != null) {
-                return messageLongClickListener.onMessageLongClick(message, position);
+            int current = holder.getBindingAdapterPosition();
+            if (messageLongClickListener != null && current != RecyclerView.NO_POSITION) {
+                return messageLongClickListener.onMessageLongClick(message, current);
             }
             return false;
         });
@@ -155,7 +230,7 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<ChatMessageAdapter.
         }
 
         holder.messageBubble.setLayoutParams(params);
-        setupImageAndSpeakerButtons(holder, message, position);
+        setupImageAndSpeakerButtons(holder, message);
     }
 
     private void setupUserMessage(MessageViewHolder holder, ConstraintLayout.LayoutParams params, ChatMessage message) {
@@ -216,9 +291,13 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<ChatMessageAdapter.
         });
     }
 
-    private void setupImageAndSpeakerButtons(MessageViewHolder holder, ChatMessage message, int position) {
+    private void setupImageAndSpeakerButtons(MessageViewHolder holder, ChatMessage message) {
         Uri imageUri = message.getImageUri();
-        if (imageUri != null) {
+        if (imageUri != null && thumbnailCache != null) {
+            holder.messageImage.setVisibility(View.VISIBLE);
+            // Decoded in the background; rebinding the same message reuses what is shown
+            thumbnailCache.load(imageUri, holder.messageImage, thumbnailSize(holder.messageImage));
+        } else if (imageUri != null) {
             Log.d(TAG, "Image URI present: " + imageUri);
             holder.messageImage.setVisibility(View.VISIBLE);
             try {
@@ -229,15 +308,35 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<ChatMessageAdapter.
                 holder.messageImage.setVisibility(View.GONE);
             }
         } else {
+            if (thumbnailCache != null) {
+                thumbnailCache.cancel(holder.messageImage);
+            }
+            holder.messageImage.setImageDrawable(null);
             holder.messageImage.setVisibility(View.GONE);
         }
 
-        setupSpeakerClickListeners(holder, message, position);
+        setupSpeakerClickListeners(holder, message);
+    }
+
+    private static int thumbnailSize(ImageView view) {
+        ViewGroup.LayoutParams params = view.getLayoutParams();
+        int size = params != null ? Math.max(params.width, params.height) : 0;
+        return size > 0 ? size : view.getResources().getDisplayMetrics().widthPixels / 2;
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull MessageViewHolder holder) {
+        super.onViewRecycled(holder);
+        if (thumbnailCache != null) {
+            thumbnailCache.cancel(holder.messageImage);
+            holder.messageImage.setImageDrawable(null);
+        }
     }
 
-    private void setupSpeakerClickListeners(MessageViewHolder holder, ChatMessage message, int position) {
+    private void setupSpeakerClickListeners(MessageViewHolder holder, ChatMessage message) {
         View.OnClickListener speakerListener = v -> {
-            if (speakerClickListener != null && message.hasText()) {
+            int position = holder.getBindingAdapterPosition();
+            if (speakerClickListener != null && message.hasText() && position != RecyclerView.NO_POSITION) {
                 speakerClickListener.onSpeakerClick(message.getText(), position);
             }
         };
@@ -256,6 +355,38 @@ public class ChatMessageAdapter extends RecyclerView.Adapter<ChatMessageAdapter.
         return messages.size();
     }
 
+    /** Matches messages by identity; a message's bubble is rebound only if what it shows changed. */
+    private static final class MessageDiffCallback extends DiffUtil.Callback {
+        private final List<ChatMessage> oldList;
+        private final List<ChatMessage> newList;
+
+        MessageDiffCallback(List<ChatMessage> oldList, List<ChatMessage> newList) {
+            this.oldList = oldList;
+            this.newList = newList;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return oldList.get(oldPosition).getStableId() == newList.get(newPosition).getStableId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            // The same object: any edit was already shown through notifyItemChanged
+            return true;
+        }
+    }
+
     static abstract class MessageViewHolder extends RecyclerView.ViewHolder {
         protected final TextView messageText;
         protected final LinearLayout messageBubble;
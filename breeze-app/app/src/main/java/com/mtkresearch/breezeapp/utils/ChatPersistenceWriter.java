@@ -0,0 +1,118 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Single background thread that owns the chat history disk I/O.
+ *
+ * Saves are queued as snapshots, and saves of the same conversation within the delay
+ * collapse into one write of the latest snapshot. Reads and deletes run on the same
+ * thread after the queued saves are written, so they always see the newest state.
+ */
+public class ChatPersistenceWriter {
+    private static final String TAG = "ChatPersistenceWriter";
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+
+    interface Writer {
+        void write(ChatHistory snapshot);
+    }
+
+    private final Writer writer;
+    private final long delayMs;
+    private final Map<String, ChatHistory> pending = new LinkedHashMap<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+        r -> new Thread(r, "ChatPersistence"));
+
+    ChatPersistenceWriter(Writer writer, long delayMs) {
+        this.writer = writer;
+        this.delayMs = delayMs;
+    }
+
+    /** Queues a snapshot, replacing one of the same conversation that is still waiting. */
+    void save(ChatHistory snapshot) {
+        String id = snapshot.getId();
+        boolean first;
+        synchronized (pending) {
+            first = pending.put(id, snapshot) == null;
+        }
+        if (first) {
+            try {
+                executor.schedule(() -> writePending(id), delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                synchronized (pending) {
+                    pending.remove(id);
+                }
+                Log.w(TAG, "Dropping save of " + id + " after close");
+            }
+        }
+    }
+
+    /** Forgets a queued save, e.g. because the conversation is being deleted. */
+    void discard(String id) {
+        synchronized (pending) {
+            pending.remove(id);
+        }
+    }
+
+    /** Runs the task on the persistence thread once the queued saves are written. */
+    <T> CompletableFuture<T> submit(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            writeAllPending();
+            return task.get();
+        }, executor);
+    }
+
+    /** Writes the queued saves now instead of after their delay. */
+    CompletableFuture<Void> flush() {
+        return CompletableFuture.runAsync(this::writeAllPending, executor);
+    }
+
+    /** Writes the queued saves and stops the thread, waiting briefly for it to finish. */
+    void close() {
+        try {
+            executor.execute(this::writeAllPending);
+        } catch (RejectedExecutionException e) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Chat history writes did not finish in " + CLOSE_TIMEOUT_MS + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writePending(String id) {
+        ChatHistory snapshot;
+        synchronized (pending) {
+            snapshot = pending.remove(id);
+        }
+        if (snapshot != null) {
+            writer.write(snapshot);
+        }
+    }
+
+    private void writeAllPending() {
+        List<ChatHistory> snapshots;
+        synchronized (pending) {
+            snapshots = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        for (ChatHistory snapshot : snapshots) {
+            writer.write(snapshot);
+        }
+    }
+}
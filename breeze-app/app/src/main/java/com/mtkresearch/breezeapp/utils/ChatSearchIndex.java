@@ -0,0 +1,969 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Full-text index over the messages of all chat histories, ranked with BM25.
+ *
+ * Each non-empty message is one document. New documents are tokenized into an in-memory
+ * delta whose text is also appended to a pending log, so nothing is lost on a crash.
+ * Once the delta holds {@link #FLUSH_DOCUMENTS} documents it is written out as an
+ * immutable {@link ChatSearchSegment}; segments are merged when there are too many,
+ * which also drops the postings of deleted documents and renumbers the live ones densely.
+ * A docs log records which message each document belongs to and which documents were
+ * deleted; it carries the generation of the numbering, which must match the manifest's.
+ *
+ * Not thread safe beyond its own locking; queries and updates may block each other for
+ * the duration of a segment flush, so call it off the main thread.
+ */
+public class ChatSearchIndex {
+    private static final String TAG = "ChatSearchIndex";
+    public static final String MANIFEST_FILE = "manifest";
+    public static final String DOCS_FILE = "docs.log";
+    public static final String PENDING_FILE = "pending.log";
+    private static final String SEGMENT_PREFIX = "segment_";
+
+    private static final int MANIFEST_MAGIC = 0x4353494D; // "CSIM"
+    private static final byte TYPE_ADD = 1;
+    private static final byte TYPE_DELETE = 2;
+    private static final byte TYPE_HISTORY = 3;
+    private static final byte TYPE_REMOVE_HISTORY = 4;
+    private static final byte TYPE_TEXT = 5;
+    private static final byte TYPE_GENERATION = 6;
+
+    static final int FLUSH_DOCUMENTS = 2048;
+    static final int MAX_SEGMENTS = 8;
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int DIGEST_SIZE = 32;
+
+    /** One matching message. */
+    public static class Result {
+        public final String historyId;
+        public final int messageIndex;
+        public final float score;
+
+        Result(String historyId, int messageIndex, float score) {
+            this.historyId = historyId;
+            this.messageIndex = messageIndex;
+            this.score = score;
+        }
+    }
+
+    /** Growable (docId, frequency) list used for the in-memory delta. */
+    private static final class Postings {
+        int[] data = new int[4];
+        int size;
+
+        void add(int docId, int frequency) {
+            if (size + 2 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size++] = docId;
+            data[size++] = frequency;
+        }
+    }
+
+    /** Message slots of one history; each holds a docId or -1 for an empty message. */
+    private static final class HistoryDocs {
+        int messageCount;
+        int[] docIds = new int[8];
+
+        int get(int messageIndex) {
+            return messageIndex < docIds.length ? docIds[messageIndex] : -1;
+        }
+
+        void set(int messageIndex, int docId) {
+            if (messageIndex >= docIds.length) {
+                int oldLength = docIds.length;
+                docIds = Arrays.copyOf(docIds, Math.max(messageIndex + 1, oldLength * 2));
+                Arrays.fill(docIds, oldLength, docIds.length, -1);
+            }
+            docIds[messageIndex] = docId;
+        }
+
+        HistoryDocs() {
+            Arrays.fill(docIds, -1);
+        }
+    }
+
+    private final File directory;
+    private final RecordLog docsLog;
+    private final RecordLog pendingLog;
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    private final DataOutputStream payloadOut = new DataOutputStream(payload);
+    private final MessageDigest sha256 = newSha256();
+
+    // Document table, indexed by docId
+    private String[] docHistory = new String[1024];
+    private int[] docMessage = new int[1024];
+    private byte[][] docDigest = new byte[1024][]; // SHA-256 of the text
+    private int[] docLength = new int[1024];
+    private final BitSet liveDocs = new BitSet();
+    private final Map<String, HistoryDocs> histories = new HashMap<>();
+    private int nextDocId;
+    private int liveCount;
+    private long totalLength;
+
+    private final List<ChatSearchSegment> segments = new ArrayList<>();
+    private int nextSegmentNumber;
+    /** Documents below this id are in the segments, the rest only in the delta. */
+    private int segmentWatermark;
+    private Map<String, Postings> delta = new HashMap<>();
+    private int deltaDocuments;
+    /** Bumped whenever documents are renumbered; the manifest and docs log must agree on it. */
+    private int generation;
+    private int docsGeneration;
+
+    private float[] scores = new float[0];
+    private boolean opened;
+
+    public ChatSearchIndex(File directory) {
+        this.directory = directory;
+        this.docsLog = new RecordLog(new File(directory, DOCS_FILE));
+        this.pendingLog = new RecordLog(new File(directory, PENDING_FILE));
+    }
+
+    /** Number of messages the history had when it was last indexed, or -1 if it was never indexed. */
+    public synchronized int indexedMessageCount(String historyId) {
+        ensureOpen();
+        HistoryDocs docs = histories.get(historyId);
+        return docs != null ? docs.messageCount : -1;
+    }
+
+    public synchronized Set<String> indexedHistoryIds() {
+        ensureOpen();
+        return new HashSet<>(histories.keySet());
+    }
+
+    /**
+     * Brings the history's documents up to date with its messages. Messages whose text is
+     * unchanged keep their documents, so saving a conversation after a new reply only
+     * indexes the new messages.
+     */
+    public synchronized void update(String historyId, List<String> messageTexts) {
+        ensureOpen();
+        HistoryDocs docs = histories.get(historyId);
+        boolean known = docs != null;
+        if (!known) {
+            docs = new HistoryDocs();
+            histories.put(historyId, docs);
+        }
+        try {
+            int oldCount = docs.messageCount;
+            int newCount = messageTexts.size();
+            for (int i = newCount; i < oldCount; i++) {
+                deleteDocument(docs, i);
+            }
+            for (int i = 0; i < newCount; i++) {
+                String text = messageTexts.get(i);
+                boolean empty = text == null || text.trim().isEmpty();
+                int docId = docs.get(i);
+                byte[] digest = empty ? null : digest(text);
+                if (docId >= 0 && !empty && Arrays.equals(docDigest[docId], digest)) {
+                    continue;
+                }
+                deleteDocument(docs, i);
+                if (!empty) {
+                    addDocument(historyId, docs, i, text, digest);
+                }
+            }
+            if (!known || oldCount != newCount) {
+                docs.messageCount = newCount;
+                payload.reset();
+                payloadOut.writeByte(TYPE_HISTORY);
+                writeString(historyId);
+                payloadOut.writeInt(newCount);
+                docsLog.append(payload);
+            }
+            if (deltaDocuments >= FLUSH_DOCUMENTS) {
+                flushDelta();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error updating search index for " + historyId, e);
+        }
+    }
+
+    public synchronized void remove(String historyId) {
+        ensureOpen();
+        HistoryDocs docs = histories.remove(historyId);
+        if (docs == null) {
+            return;
+        }
+        for (int i = 0; i < docs.docIds.length; i++) {
+            int docId = docs.docIds[i];
+            if (docId >= 0) {
+                markDeleted(docId);
+            }
+        }
+        try {
+            payload.reset();
+            payloadOut.writeByte(TYPE_REMOVE_HISTORY);
+            writeString(historyId);
+            docsLog.append(payload);
+        } catch (IOException e) {
+            Log.e(TAG, "Error removing " + historyId + " from search index", e);
+        }
+    }
+
+    /**
+     * Returns the best matching messages for the query, highest score first. A query term
+     * that is a single CJK character matches every bigram starting with it.
+     */
+    public synchronized List<Result> search(String query, int limit) {
+        ensureOpen();
+        Set<String> terms = new LinkedHashSet<>(SearchTokenizer.tokenize(query));
+        if (terms.isEmpty() || liveCount == 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+        if (scores.length < nextDocId) {
+            scores = new float[Math.max(nextDocId, scores.length * 2)];
+        }
+        float averageLength = Math.max(1f, (float) totalLength / liveCount);
+        BitSet touched = new BitSet(nextDocId);
+
+        for (String term : terms) {
+            boolean prefix = SearchTokenizer.isCjkUnigram(term);
+            byte[] key = ChatSearchSegment.encode(term);
+            for (ChatSearchSegment segment : segments) {
+                segment.findTerms(key, prefix, termIndex -> {
+                    float idf = idf(segment.docFrequency(termIndex));
+                    segment.postings(termIndex, (docId, frequency) ->
+                        score(docId, frequency, idf, averageLength, touched));
+                });
+            }
+            if (!prefix) {
+                scoreDelta(delta.get(term), averageLength, touched);
+                continue;
+            }
+            for (Map.Entry<String, Postings> entry : delta.entrySet()) {
+                if (entry.getKey().startsWith(term)) {
+                    scoreDelta(entry.getValue(), averageLength, touched);
+                }
+            }
+        }
+
+        PriorityQueue<Result> best = new PriorityQueue<>(limit + 1, (a, b) -> Float.compare(a.score, b.score));
+        for (int docId = touched.nextSetBit(0); docId >= 0; docId = touched.nextSetBit(docId + 1)) {
+            float score = scores[docId];
+            scores[docId] = 0f;
+            if (best.size() < limit || score > best.peek().score) {
+                best.add(new Result(docHistory[docId], docMessage[docId], score));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        }
+        List<Result> results = new ArrayList<>(best);
+        results.sort((a, b) -> Float.compare(b.score, a.score));
+        return results;
+    }
+
+    /** Writes the in-memory delta to a segment and forces the logs to disk. */
+    public synchronized void flush() {
+        ensureOpen();
+        try {
+            if (deltaDocuments > 0) {
+                flushDelta();
+            }
+            docsLog.sync();
+            pendingLog.sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error flushing search index", e);
+        }
+    }
+
+    /** Forces the logs to disk without writing a segment; the delta is rebuilt from them on open. */
+    public synchronized void sync() {
+        try {
+            docsLog.sync();
+            pendingLog.sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error syncing search index", e);
+        }
+    }
+
+    public synchronized void close() {
+        docsLog.close();
+        pendingLog.close();
+    }
+
+    /**
+     * Cuts a window of about maxLength characters out of text around the first place the
+     * query matches, or from the start if it does not match.
+     */
+    public static String snippet(String text, String query, int maxLength) {
+        if (text == null) {
+            return "";
+        }
+        Set<String> terms = new HashSet<>(SearchTokenizer.tokenize(query));
+        int[] match = {-1};
+        SearchTokenizer.tokenize(text, (term, start, end) -> {
+            if (match[0] >= 0) {
+                return;
+            }
+            for (String queryTerm : terms) {
+                if (term.equals(queryTerm)
+                        || (SearchTokenizer.isCjkUnigram(queryTerm) && term.startsWith(queryTerm))) {
+                    match[0] = start;
+                    return;
+                }
+            }
+        });
+        int start = match[0] < 0 ? 0 : Math.max(0, match[0] - maxLength / 3);
+        int end = Math.min(text.length(), start + maxLength);
+        StringBuilder snippet = new StringBuilder();
+        if (start > 0) {
+            snippet.append('…');
+        }
+        snippet.append(text, start, end);
+        if (end < text.length()) {
+            snippet.append('…');
+        }
+        return snippet.toString().replace('\n', ' ').trim();
+    }
+
+    private float idf(int documentFrequency) {
+        return (float) Math.log(1 + (liveCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    private void scoreDelta(Postings postings, float averageLength, BitSet touched) {
+        if (postings == null) {
+            return;
+        }
+        float idf = idf(postings.size / 2);
+        for (int i = 0; i < postings.size; i += 2) {
+            score(postings.data[i], postings.data[i + 1], idf, averageLength, touched);
+        }
+    }
+
+    private void score(int docId, int frequency, float idf, float averageLength, BitSet touched) {
+        if (!liveDocs.get(docId)) {
+            return;
+        }
+        float norm = K1 * (1 - B + B * docLength[docId] / averageLength);
+        scores[docId] += idf * frequency * (K1 + 1) / (frequency + norm);
+        touched.set(docId);
+    }
+
+    private void addDocument(String historyId, HistoryDocs docs, int messageIndex, String text, byte[] digest)
+            throws IOException {
+        int docId = nextDocId++;
+        int length = indexText(docId, text);
+
+        // The text goes first: a document without its text is skipped when replaying
+        payload.reset();
+        payloadOut.writeByte(TYPE_TEXT);
+        payloadOut.writeInt(docId);
+        writeString(text);
+        pendingLog.append(payload);
+
+        payload.reset();
+        payloadOut.writeByte(TYPE_ADD);
+        payloadOut.writeInt(docId);
+        writeString(historyId);
+        payloadOut.writeInt(messageIndex);
+        payloadOut.write(digest);
+        payloadOut.writeInt(length);
+        docsLog.append(payload);
+
+        putDocument(docId, historyId, messageIndex, digest, length);
+        docs.set(messageIndex, docId);
+    }
+
+    private void deleteDocument(HistoryDocs docs, int messageIndex) throws IOException {
+        int docId = docs.get(messageIndex);
+        if (docId < 0) {
+            return;
+        }
+        docs.set(messageIndex, -1);
+        markDeleted(docId);
+        payload.reset();
+        payloadOut.writeByte(TYPE_DELETE);
+        payloadOut.writeInt(docId);
+        docsLog.append(payload);
+    }
+
+    /** Adds the text's terms to the delta and returns its length in terms. */
+    private int indexText(int docId, String text) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        SearchTokenizer.tokenize(text, (term, start, end) -> frequencies.merge(term, 1, Integer::sum));
+        int length = 0;
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            Postings postings = delta.get(entry.getKey());
+            if (postings == null) {
+                postings = new Postings();
+                delta.put(entry.getKey(), postings);
+            }
+            postings.add(docId, entry.getValue());
+            length += entry.getValue();
+        }
+        deltaDocuments++;
+        return length;
+    }
+
+    private void putDocument(int docId, String historyId, int messageIndex, byte[] digest, int length) {
+        if (docId >= docHistory.length) {
+            int capacity = Math.max(docId + 1, docHistory.length * 2);
+            docHistory = Arrays.copyOf(docHistory, capacity);
+            docMessage = Arrays.copyOf(docMessage, capacity);
+            docDigest = Arrays.copyOf(docDigest, capacity);
+            docLength = Arrays.copyOf(docLength, capacity);
+        }
+        if (liveDocs.get(docId)) {
+            return;
+        }
+        docHistory[docId] = historyId;
+        docMessage[docId] = messageIndex;
+        docDigest[docId] = digest;
+        docLength[docId] = length;
+        liveDocs.set(docId);
+        liveCount++;
+        totalLength += length;
+        nextDocId = Math.max(nextDocId, docId + 1);
+    }
+
+    private void markDeleted(int docId) {
+        if (liveDocs.get(docId)) {
+            liveDocs.clear(docId);
+            liveCount--;
+            totalLength -= docLength[docId];
+        }
+    }
+
+    private void ensureOpen() {
+        if (opened) {
+            return;
+        }
+        opened = true;
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        Set<String> segmentNames = readManifest();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX));
+        if (files != null) {
+            for (File file : files) {
+                if (!segmentNames.contains(file.getName())) {
+                    file.delete(); // Left behind by an interrupted flush or merge
+                }
+            }
+        }
+        docsLog.replay(this::applyDocRecord);
+        if (docsGeneration != generation) {
+            // A merge renumbered the documents but did not get to write its manifest
+            Log.w(TAG, "Discarding search index with docs generation " + docsGeneration
+                + " and manifest generation " + generation);
+            discard();
+            return;
+        }
+        nextDocId = Math.max(nextDocId, segmentWatermark);
+        pendingLog.replay(body -> {
+            if (body.get() != TYPE_TEXT) {
+                return false;
+            }
+            int docId = body.getInt();
+            String text = readString(body);
+            nextDocId = Math.max(nextDocId, docId + 1); // Never reuse the id of an orphaned text
+            // Only documents not yet in a segment and still live need their terms again
+            if (docId >= segmentWatermark && liveDocs.get(docId)) {
+                indexText(docId, text);
+            }
+            return true;
+        });
+        Log.d(TAG, "Opened search index: " + liveCount + " documents, "
+            + segments.size() + " segments, " + deltaDocuments + " pending");
+    }
+
+    private boolean applyDocRecord(ByteBuffer body) {
+        byte type = body.get();
+        if (type == TYPE_ADD) {
+            int docId = body.getInt();
+            String historyId = readString(body).intern();
+            int messageIndex = body.getInt();
+            byte[] digest = new byte[DIGEST_SIZE];
+            body.get(digest);
+            int length = body.getInt();
+            if (docId < 0 || messageIndex < 0) {
+                return false;
+            }
+            HistoryDocs docs = histories.get(historyId);
+            if (docs == null) {
+                docs = new HistoryDocs();
+                histories.put(historyId, docs);
+            }
+            putDocument(docId, historyId, messageIndex, digest, length);
+            docs.set(messageIndex, docId);
+            return true;
+        } else if (type == TYPE_DELETE) {
+            int docId = body.getInt();
+            if (docId < 0) {
+                return false;
+            }
+            if (docId < docHistory.length && liveDocs.get(docId)) {
+                HistoryDocs docs = histories.get(docHistory[docId]);
+                if (docs != null && docs.get(docMessage[docId]) == docId) {
+                    docs.set(docMessage[docId], -1);
+                }
+                markDeleted(docId);
+            }
+            return true;
+        } else if (type == TYPE_HISTORY) {
+            String historyId = readString(body).intern();
+            HistoryDocs docs = histories.get(historyId);
+            if (docs == null) {
+                docs = new HistoryDocs();
+                histories.put(historyId, docs);
+            }
+            docs.messageCount = body.getInt();
+            return true;
+        } else if (type == TYPE_GENERATION) {
+            docsGeneration = body.getInt();
+            return true;
+        } else if (type == TYPE_REMOVE_HISTORY) {
+            HistoryDocs docs = histories.remove(readString(body));
+            if (docs != null) {
+                for (int docId : docs.docIds) {
+                    if (docId >= 0) {
+                        markDeleted(docId);
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /** Writes the delta to a new segment, merging all segments once there are too many. */
+    private void flushDelta() throws IOException {
+        List<Map.Entry<byte[], Postings>> sorted = new ArrayList<>(delta.size());
+        for (Map.Entry<String, Postings> entry : delta.entrySet()) {
+            sorted.add(new AbstractMap.SimpleEntry<>(
+                ChatSearchSegment.encode(entry.getKey()), entry.getValue()));
+        }
+        sorted.sort((a, b) -> ChatSearchSegment.compareTerms(a.getKey(), b.getKey()));
+
+        File segmentFile = new File(directory, SEGMENT_PREFIX + nextSegmentNumber);
+        try (ChatSearchSegment.Writer writer = new ChatSearchSegment.Writer(segmentFile)) {
+            for (Map.Entry<byte[], Postings> entry : sorted) {
+                writer.startTerm(entry.getKey());
+                Postings postings = entry.getValue();
+                for (int i = 0; i < postings.size; i += 2) {
+                    if (liveDocs.get(postings.data[i])) {
+                        writer.addPosting(postings.data[i], postings.data[i + 1]);
+                    }
+                }
+            }
+            writer.finish();
+        }
+        nextSegmentNumber++;
+        segments.add(ChatSearchSegment.open(segmentFile));
+        segmentWatermark = nextDocId;
+        delta = new HashMap<>();
+        deltaDocuments = 0;
+
+        if (segments.size() <= MAX_SEGMENTS) {
+            writeManifest();
+            pendingLog.truncate();
+            return;
+        }
+
+        // The delta is empty now, so every document is in the segments being merged
+        int[] newIds = new int[nextDocId];
+        int live = 0;
+        for (int docId = 0; docId < nextDocId; docId++) {
+            newIds[docId] = liveDocs.get(docId) ? live++ : -1;
+        }
+        List<ChatSearchSegment> replaced = new ArrayList<>(segments);
+        ChatSearchSegment merged = merge(segments, newIds);
+        segments.clear();
+        segments.add(merged);
+        renumber(newIds, live);
+
+        // A crash before the manifest is written leaves the generations apart, and the
+        // index is rebuilt on open
+        generation++;
+        rewriteDocsLog();
+        pendingLog.truncate();
+        writeManifest();
+        for (ChatSearchSegment segment : replaced) {
+            segment.file.delete();
+        }
+    }
+
+    /**
+     * Merges segments whose docIds ascend in list order into one, dropping deleted documents
+     * and giving the live ones their new ids.
+     */
+    private ChatSearchSegment merge(List<ChatSearchSegment> sources, int[] newIds) throws IOException {
+        int count = sources.size();
+        int[] cursors = new int[count];
+        byte[][] heads = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            heads[i] = sources.get(i).termCount() > 0 ? sources.get(i).term(0) : null;
+        }
+        File mergedFile = new File(directory, SEGMENT_PREFIX + nextSegmentNumber);
+        try (ChatSearchSegment.Writer writer = new ChatSearchSegment.Writer(mergedFile)) {
+            while (true) {
+                byte[] smallest = null;
+                for (byte[] head : heads) {
+                    if (head != null && (smallest == null || ChatSearchSegment.compareTerms(head, smallest) < 0)) {
+                        smallest = head;
+                    }
+                }
+                if (smallest == null) {
+                    break;
+                }
+                writer.startTerm(smallest);
+                for (int i = 0; i < count; i++) {
+                    if (heads[i] == null || ChatSearchSegment.compareTerms(heads[i], smallest) != 0) {
+                        continue;
+                    }
+                    ChatSearchSegment source = sources.get(i);
+                    source.postings(cursors[i], (docId, frequency) -> {
+                        if (docId < newIds.length && newIds[docId] >= 0) {
+                            writer.addPosting(newIds[docId], frequency);
+                        }
+                    });
+                    cursors[i]++;
+                    heads[i] = cursors[i] < source.termCount() ? source.term(cursors[i]) : null;
+                }
+            }
+            writer.finish();
+        }
+        nextSegmentNumber++;
+        return ChatSearchSegment.open(mergedFile);
+    }
+
+    /** Moves the document table to the new ids, so it only holds live documents. */
+    private void renumber(int[] newIds, int live) {
+        int capacity = Math.max(1024, live);
+        String[] history = new String[capacity];
+        int[] message = new int[capacity];
+        byte[][] digest = new byte[capacity][];
+        int[] length = new int[capacity];
+        for (int docId = liveDocs.nextSetBit(0); docId >= 0; docId = liveDocs.nextSetBit(docId + 1)) {
+            int newId = newIds[docId];
+            history[newId] = docHistory[docId];
+            message[newId] = docMessage[docId];
+            digest[newId] = docDigest[docId];
+            length[newId] = docLength[docId];
+        }
+        docHistory = history;
+        docMessage = message;
+        docDigest = digest;
+        docLength = length;
+        for (HistoryDocs docs : histories.values()) {
+            for (int i = 0; i < docs.docIds.length; i++) {
+                if (docs.docIds[i] >= 0) {
+                    docs.docIds[i] = newIds[docs.docIds[i]];
+                }
+            }
+        }
+        liveDocs.clear();
+        liveDocs.set(0, live);
+        nextDocId = live;
+        segmentWatermark = live;
+        scores = new float[0];
+    }
+
+    /** Drops everything on disk and in memory, so every history is indexed again. */
+    private void discard() {
+        for (ChatSearchSegment segment : segments) {
+            segment.file.delete();
+        }
+        segments.clear();
+        histories.clear();
+        liveDocs.clear();
+        liveCount = 0;
+        totalLength = 0;
+        nextDocId = 0;
+        segmentWatermark = 0;
+        generation = 0;
+        docsGeneration = 0;
+        new File(directory, MANIFEST_FILE).delete();
+        try {
+            docsLog.truncate();
+            pendingLog.truncate();
+        } catch (IOException e) {
+            Log.e(TAG, "Error clearing search index", e);
+        }
+    }
+
+    /** Replaces the docs log with records for the live documents only. */
+    private void rewriteDocsLog() throws IOException {
+        List<ByteBuffer> records = new ArrayList<>();
+        payload.reset();
+        payloadOut.writeByte(TYPE_GENERATION);
+        payloadOut.writeInt(generation);
+        records.add(ByteBuffer.wrap(payload.toByteArray()));
+        for (Map.Entry<String, HistoryDocs> entry : histories.entrySet()) {
+            payload.reset();
+            payloadOut.writeByte(TYPE_HISTORY);
+            writeString(entry.getKey());
+            payloadOut.writeInt(entry.getValue().messageCount);
+            records.add(ByteBuffer.wrap(payload.toByteArray()));
+        }
+        for (int docId = liveDocs.nextSetBit(0); docId >= 0; docId = liveDocs.nextSetBit(docId + 1)) {
+            payload.reset();
+            payloadOut.writeByte(TYPE_ADD);
+            payloadOut.writeInt(docId);
+            writeString(docHistory[docId]);
+            payloadOut.writeInt(docMessage[docId]);
+            payloadOut.write(docDigest[docId]);
+            payloadOut.writeInt(docLength[docId]);
+            records.add(ByteBuffer.wrap(payload.toByteArray()));
+        }
+        docsLog.rewrite(records);
+    }
+
+    private Set<String> readManifest() {
+        Set<String> names = new HashSet<>();
+        File file = new File(directory, MANIFEST_FILE);
+        if (!file.isFile()) {
+            return names;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading
+            }
+            buffer.flip();
+            if (buffer.getInt() != MANIFEST_MAGIC) {
+                throw new IOException("Bad manifest");
+            }
+            int nextSegment = buffer.getInt();
+            int watermark = buffer.getInt();
+            int count = buffer.getInt();
+            List<ChatSearchSegment> opened = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String name = SEGMENT_PREFIX + buffer.getInt();
+                opened.add(ChatSearchSegment.open(new File(directory, name)));
+                names.add(name);
+            }
+            int manifestGeneration = buffer.getInt();
+            segments.addAll(opened);
+            nextSegmentNumber = nextSegment;
+            segmentWatermark = watermark;
+            generation = manifestGeneration;
+        } catch (IOException | BufferUnderflowException e) {
+            // The index is derived data: start over and let the histories be re-indexed
+            Log.w(TAG, "Discarding unreadable search index", e);
+            names.clear();
+            new File(directory, DOCS_FILE).delete();
+            new File(directory, PENDING_FILE).delete();
+            file.delete();
+        }
+        return names;
+    }
+
+    private void writeManifest() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(20 + 4 * segments.size());
+        buffer.putInt(MANIFEST_MAGIC).putInt(nextSegmentNumber).putInt(segmentWatermark).putInt(segments.size());
+        for (ChatSearchSegment segment : segments) {
+            buffer.putInt(Integer.parseInt(segment.file.getName().substring(SEGMENT_PREFIX.length())));
+        }
+        buffer.putInt(generation);
+        File file = new File(directory, MANIFEST_FILE);
+        File temp = new File(directory, MANIFEST_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(buffer.array());
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Failed to replace " + file.getName());
+        }
+    }
+
+    private byte[] digest(String text) {
+        sha256.reset();
+        return sha256.digest(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Required on every platform
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        payloadOut.writeInt(bytes.length);
+        payloadOut.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    interface RecordHandler {
+        /** Applies one record; returns false if it is malformed. */
+        boolean apply(ByteBuffer body);
+    }
+
+    /** Append-only file of CRC-checked records, truncated to its last valid record on replay. */
+    private static final class RecordLog {
+        private static final int FRAME_HEADER_SIZE = 8;
+        private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+        private final File file;
+        private final CRC32 crc = new CRC32();
+        private FileChannel channel;
+        private long length;
+
+        RecordLog(File file) {
+            this.file = file;
+        }
+
+        void replay(RecordHandler handler) {
+            length = 0;
+            if (file.isFile() && file.length() > 0) {
+                try (FileChannel read = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = read.map(FileChannel.MapMode.READ_ONLY, 0, read.size());
+                    while (buffer.remaining() >= FRAME_HEADER_SIZE) {
+                        int start = buffer.position();
+                        int size = buffer.getInt();
+                        int checksum = buffer.getInt();
+                        if (size <= 0 || size > MAX_RECORD_SIZE || size > buffer.remaining()) {
+                            break;
+                        }
+                        ByteBuffer body = buffer.slice();
+                        body.limit(size);
+                        crc.reset();
+                        crc.update(body.duplicate());
+                        if ((int) crc.getValue() != checksum || !applySafely(handler, body)) {
+                            break;
+                        }
+                        buffer.position(start + FRAME_HEADER_SIZE + size);
+                        length = buffer.position();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Error reading " + file.getName(), e);
+                }
+                if (length < file.length()) {
+                    Log.w(TAG, "Dropping " + (file.length() - length) + " corrupt bytes from " + file.getName());
+                }
+            }
+            try {
+                openChannel().truncate(length);
+            } catch (IOException e) {
+                Log.e(TAG, "Error opening " + file.getName(), e);
+            }
+        }
+
+        private static boolean applySafely(RecordHandler handler, ByteBuffer body) {
+            try {
+                return handler.apply(body);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                return false;
+            }
+        }
+
+        void append(ByteArrayOutputStream body) throws IOException {
+            ByteBuffer record = frame(body.toByteArray());
+            FileChannel out = openChannel();
+            out.position(length);
+            while (record.hasRemaining()) {
+                out.write(record);
+            }
+            length = out.position();
+        }
+
+        void truncate() throws IOException {
+            openChannel().truncate(0);
+            length = 0;
+        }
+
+        void rewrite(List<ByteBuffer> bodies) throws IOException {
+            File temp = new File(file.getPath() + ".tmp");
+            long written = 0;
+            try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (ByteBuffer body : bodies) {
+                    byte[] bytes = new byte[body.remaining()];
+                    body.get(bytes);
+                    ByteBuffer record = frame(bytes);
+                    written += record.remaining();
+                    while (record.hasRemaining()) {
+                        out.write(record);
+                    }
+                }
+                out.force(true);
+            }
+            close();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Failed to replace " + file.getName());
+            }
+            length = written;
+        }
+
+        void sync() throws IOException {
+            if (channel != null) {
+                channel.force(false);
+            }
+        }
+
+        void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing " + file.getName(), e);
+                }
+                channel = null;
+            }
+        }
+
+        private FileChannel openChannel() throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+            return channel;
+        }
+
+        private ByteBuffer frame(byte[] body) {
+            crc.reset();
+            crc.update(body, 0, body.length);
+            ByteBuffer record = ByteBuffer.allocate(FRAME_HEADER_SIZE + body.length);
+            record.putInt(body.length).putInt((int) crc.getValue()).put(body);
+            record.flip();
+            return record;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.mtkresearch.breezeapp.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Immutable, memory-mapped part of the chat search index.
+ *
+ * Layout: the postings of every term as (docId, term frequency) pairs in docId order,
+ * then the term dictionary sorted by UTF-8 bytes, then a table with the offset of each
+ * dictionary entry, then a footer. Lookups binary search the offset table, so opening a
+ * segment reads nothing but the footer.
+ */
+final class ChatSearchSegment {
+    private static final int MAGIC = 0x43535331; // "CSS1"
+    private static final int FOOTER_SIZE = 12;
+    private static final int POSTING_SIZE = 8;
+
+    interface PostingVisitor {
+        void visit(int docId, int frequency);
+    }
+
+    interface TermVisitor {
+        void visit(int termIndex);
+    }
+
+    final File file;
+    private final ByteBuffer buffer;
+    private final int termCount;
+    private final int tableOffset;
+
+    private ChatSearchSegment(File file, ByteBuffer buffer, int termCount, int tableOffset) {
+        this.file = file;
+        this.buffer = buffer;
+        this.termCount = termCount;
+        this.tableOffset = tableOffset;
+    }
+
+    static ChatSearchSegment open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < FOOTER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Bad segment size " + size + " for " + file.getName());
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int footer = (int) size - FOOTER_SIZE;
+            int termCount = buffer.getInt(footer);
+            int tableOffset = buffer.getInt(footer + 4);
+            if (buffer.getInt(footer + 8) != MAGIC || termCount < 0 || tableOffset < 0
+                    || (long) tableOffset + 4L * termCount != footer) {
+                throw new IOException("Corrupt segment " + file.getName());
+            }
+            return new ChatSearchSegment(file, buffer, termCount, tableOffset);
+        }
+    }
+
+    int termCount() {
+        return termCount;
+    }
+
+    byte[] term(int termIndex) {
+        int entry = entryOffset(termIndex);
+        byte[] term = new byte[buffer.getShort(entry) & 0xFFFF];
+        for (int i = 0; i < term.length; i++) {
+            term[i] = buffer.get(entry + 2 + i);
+        }
+        return term;
+    }
+
+    int docFrequency(int termIndex) {
+        int entry = entryOffset(termIndex);
+        return buffer.getInt(entry + 2 + (buffer.getShort(entry) & 0xFFFF));
+    }
+
+    void postings(int termIndex, PostingVisitor visitor) {
+        int entry = entryOffset(termIndex);
+        int termLength = buffer.getShort(entry) & 0xFFFF;
+        int count = buffer.getInt(entry + 2 + termLength);
+        int position = buffer.getInt(entry + 6 + termLength);
+        for (int i = 0; i < count; i++, position += POSTING_SIZE) {
+            visitor.visit(buffer.getInt(position), buffer.getInt(position + 4));
+        }
+    }
+
+    /** Visits the term equal to the given one, or every term starting with it if prefix is set. */
+    void findTerms(byte[] term, boolean prefix, TermVisitor visitor) {
+        int low = 0;
+        int high = termCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareAt(mid, term, false) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < termCount && compareAt(i, term, prefix) == 0; i++) {
+            visitor.visit(i);
+            if (!prefix) {
+                break;
+            }
+        }
+    }
+
+    /** Compares the term at termIndex with key; with prefix set only key's length is compared. */
+    private int compareAt(int termIndex, byte[] key, boolean prefix) {
+        int entry = entryOffset(termIndex);
+        int length = buffer.getShort(entry) & 0xFFFF;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int diff = (buffer.get(entry + 2 + i) & 0xFF) - (key[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        if (prefix && length >= key.length) {
+            return 0;
+        }
+        return length - key.length;
+    }
+
+    private int entryOffset(int termIndex) {
+        return buffer.getInt(tableOffset + 4 * termIndex);
+    }
+
+    static int compareTerms(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    static byte[] encode(String term) {
+        return term.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Streams a new segment to disk; terms must be added in {@link #compareTerms} order. */
+    static final class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+        private final DataOutputStream dictionaryOut = new DataOutputStream(dictionary);
+        private final ByteArrayOutputStream offsets = new ByteArrayOutputStream();
+        private final DataOutputStream offsetsOut = new DataOutputStream(offsets);
+        private final FileOutputStream file;
+        private int position;
+        private int termCount;
+        private int[] pendingDocs = new int[16];
+        private int[] pendingFrequencies = new int[16];
+        private int pendingCount;
+        private byte[] pendingTerm;
+
+        Writer(File target) throws IOException {
+            file = new FileOutputStream(target);
+            out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+        }
+
+        /** Starts the postings of a new term; an empty previous term is dropped. */
+        void startTerm(byte[] term) throws IOException {
+            finishTerm();
+            if (term.length > 0xFFFF) {
+                throw new IOException("Term too long: " + term.length);
+            }
+            pendingTerm = term;
+        }
+
+        void addPosting(int docId, int frequency) {
+            if (pendingCount == pendingDocs.length) {
+                pendingDocs = Arrays.copyOf(pendingDocs, pendingCount * 2);
+                pendingFrequencies = Arrays.copyOf(pendingFrequencies, pendingCount * 2);
+            }
+            pendingDocs[pendingCount] = docId;
+            pendingFrequencies[pendingCount] = frequency;
+            pendingCount++;
+        }
+
+        private void finishTerm() throws IOException {
+            if (pendingTerm != null && pendingCount > 0) {
+                int postingsOffset = position;
+                for (int i = 0; i < pendingCount; i++) {
+                    out.writeInt(pendingDocs[i]);
+                    out.writeInt(pendingFrequencies[i]);
+                }
+                advance((long) POSTING_SIZE * pendingCount);
+                offsetsOut.writeInt(dictionary.size()); // Rebased once the postings size is known
+                dictionaryOut.writeShort(pendingTerm.length);
+                dictionaryOut.write(pendingTerm);
+                dictionaryOut.writeInt(pendingCount);
+                dictionaryOut.writeInt(postingsOffset);
+                termCount++;
+            }
+            pendingTerm = null;
+            pendingCount = 0;
+        }
+
+        /** Writes the dictionary and footer and forces the file to disk. */
+        void finish() throws IOException {
+            finishTerm();
+            int dictionaryOffset = position;
+            dictionary.writeTo(out);
+            advance(dictionary.size());
+            int tableOffset = position;
+            ByteBuffer table = ByteBuffer.wrap(offsets.toByteArray());
+            while (table.hasRemaining()) {
+                out.writeInt(dictionaryOffset + table.getInt());
+            }
+            advance(4L * termCount);
+            out.writeInt(termCount);
+            out.writeInt(tableOffset);
+            out.writeInt(MAGIC);
+            out.flush();
+            file.getFD().sync();
+        }
+
+        private void advance(long bytes) throws IOException {
+            if (position + bytes > Integer.MAX_VALUE - FOOTER_SIZE) {
+                throw new IOException("Search segment too large");
+            }
+            position += (int) bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.mtkresearch.breezeapp.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Deflates chat text with a preset dictionary of common chat phrasing.
+ *
+ * A single message is too short for deflate to find much repetition on its own; the
+ * dictionary gives it typical Traditional Chinese and English text to refer back to, so
+ * even one paragraph shrinks. Not thread-safe; callers hold one instance per store.
+ */
+final class ChatTextCompressor {
+    /** Shorter texts are stored as they are. */
+    static final int MIN_COMPRESS_LENGTH = 48;
+
+    // Deflate favours recent dictionary bytes, so the most common phrasing comes last
+    private static final byte[] DICTIONARY = (
+        "Here is an example: ```java\npublic static void main(String[] args) {\n}\n```\n"
+            + "Step 1: Step 2: Step 3: First, Second, Third, Finally, In summary, For example, "
+            + "However, Therefore, In addition, Note that the following is a list of "
+            + "I'm sorry, but I can't help with that. Let me know if you have any other questions! "
+            + "Sure! Here are some suggestions: I hope this helps! Thank you for your question. "
+            + "Can you help me What is the difference between How do I Please explain "
+            + "例如：首先，其次，最後，總結來說，此外，因此，然而，需要注意的是，以下是一些建議："
+            + "1. 2. 3. **重點**：步驟一：步驟二：步驟三："
+            + "台灣 台北 高雄 台中 天氣 時間 地點 餐廳 推薦 旅遊 景點 交通 捷運 火車 "
+            + "很抱歉，我無法回答這個問題。如果您有其他問題，歡迎隨時詢問！"
+            + "希望這些資訊對您有幫助！如果還有其他問題，請隨時告訴我。"
+            + "請問您需要什麼幫助？請幫我 請問 可以 怎麼 什麼是 為什麼 如何 "
+            + "您好！我是您的AI助理，很高興為您服務。"
+            + "這是一個很好的問題。根據您提供的資訊，我建議您可以考慮以下幾點：\n\n"
+            + "1. **"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater inflater = new Inflater(true);
+    private byte[] output = new byte[4096];
+
+    /**
+     * Compresses the first length bytes of input. Returns the compressed size, readable
+     * from {@link #output()}, or -1 if compressing would not make the text smaller.
+     */
+    int compress(byte[] input, int length) {
+        if (length < MIN_COMPRESS_LENGTH) {
+            return -1;
+        }
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(input, 0, length);
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size >= length) {
+                return -1; // Already no smaller than the original
+            }
+            if (size == output.length) {
+                byte[] grown = new byte[output.length * 2];
+                System.arraycopy(output, 0, grown, 0, size);
+                output = grown;
+            }
+            size += deflater.deflate(output, size, output.length - size);
+        }
+        return size < length ? size : -1;
+    }
+
+    /** The bytes written by the last {@link #compress} call. */
+    byte[] output() {
+        return output;
+    }
+
+    /**
+     * Returns a stream that inflates what {@link #compress} wrote to the source. Only one
+     * such stream or {@link #decompress} call can be in use at a time.
+     */
+    InputStream inflating(InputStream source, int bufferSize) {
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        return new InflaterInputStream(source, inflater, bufferSize);
+    }
+
+    /** Inflates text that {@link #compress} produced from rawLength bytes. */
+    String decompress(byte[] data, int offset, int length, int rawLength) throws IOException {
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        inflater.setInput(data, offset, length);
+        byte[] text = new byte[rawLength];
+        int size = 0;
+        try {
+            while (size < rawLength) {
+                int inflated = inflater.inflate(text, size, rawLength - size);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                size += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed text", e);
+        }
+        if (size != rawLength) {
+            throw new IOException("Compressed text is " + size + " bytes, expected " + rawLength);
+        }
+        return new String(text, StandardCharsets.UTF_8);
+    }
+}
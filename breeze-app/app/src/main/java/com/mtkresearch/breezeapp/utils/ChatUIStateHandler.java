@@ -26,6 +26,11 @@ public class ChatUIStateHandler {
     private View.OnClickListener sendButtonListener;
     private View.OnClickListener voiceButtonListener;
     private View.OnClickListener attachButtonListener;
+    private InputTextListener inputTextListener;
+
+    public interface InputTextListener {
+        void onInputTextChanged(String text);
+    }
 
     public ChatUIStateHandler(ActivityChatBinding binding) {
         this.binding = binding;
@@ -170,7 +175,11 @@ public class ChatUIStateHandler {
             }
 
             @Override
-            public void afterTextChanged(Editable s) {}
+            public void afterTextChanged(Editable s) {
+                if (inputTextListener != null) {
+                    inputTextListener.onInputTextChanged(getCurrentInputText());
+                }
+            }
         };
 
         binding.messageInput.addTextChangedListener(textWatcher);
@@ -256,6 +265,10 @@ public class ChatUIStateHandler {
         }
     }
 
+    public void setInputTextListener(InputTextListener listener) {
+        this.inputTextListener = listener;
+    }
+
     public String getCurrentInputText() {
         return binding.expandedInput.getVisibility() == View.VISIBLE ?
             binding.messageInputExpanded.getText().toString() :
@@ -0,0 +1,128 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Finds passages from past conversations and attached files that are relevant to the
+ * message being written, for inclusion in the prompt.
+ *
+ * Lookups run on the indexes' own threads. Call {@link #prefetch} while the user types so
+ * that {@link #retrieveIfReady} at send time usually finds the answer ready; it never waits,
+ * so it is safe on the main thread.
+ */
+public class ContextRetriever {
+    private static final String TAG = "ContextRetriever";
+
+    /** A piece of retrieved text and where it came from. */
+    public static class Passage {
+        public final String source;
+        public final String text;
+        public final float score;
+
+        public Passage(String source, String text, float score) {
+            this.source = source;
+            this.text = text;
+            this.score = score;
+        }
+    }
+
+    private final ChatHistoryManager historyManager;
+    private final AttachmentIndex attachmentIndex;
+    private String pendingKey;
+    private CompletableFuture<List<Passage>> pending;
+
+    public ContextRetriever(ChatHistoryManager historyManager, AttachmentIndex attachmentIndex) {
+        this.historyManager = historyManager;
+        this.attachmentIndex = attachmentIndex;
+    }
+
+    /**
+     * Starts looking up passages for the query, skipping the conversation it belongs to.
+     * Repeating the last query returns the lookup already under way.
+     */
+    public synchronized CompletableFuture<List<Passage>> prefetch(String query, String excludeHistoryId) {
+        String trimmed = query != null ? query.trim() : "";
+        String key = keyFor(trimmed, excludeHistoryId);
+        if (pending != null && key.equals(pendingKey)) {
+            return pending;
+        }
+        pendingKey = key;
+        if (trimmed.isEmpty()) {
+            pending = CompletableFuture.completedFuture(Collections.emptyList());
+            return pending;
+        }
+        int limit = AppConstants.RAG_MAX_PASSAGES;
+        pending = historyManager.findPassages(trimmed, excludeHistoryId, limit)
+            .thenCombine(attachmentIndex.search(trimmed, limit), (fromChats, fromFiles) -> {
+                List<Passage> merged = new ArrayList<>(fromChats);
+                merged.addAll(fromFiles);
+                merged.sort((a, b) -> Float.compare(b.score, a.score));
+                return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+            });
+        return pending;
+    }
+
+    /**
+     * Returns the passages for the query, waiting at most timeoutMs for a lookup that is
+     * not finished yet. A slow lookup yields no passages rather than delaying the prompt.
+     */
+    public List<Passage> retrieve(String query, String excludeHistoryId, long timeoutMs) {
+        CompletableFuture<List<Passage>> future = prefetch(query, excludeHistoryId);
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.d(TAG, "Retrieval not ready after " + timeoutMs + "ms, continuing without context");
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Retrieval failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the passages of the last prefetch if it was for this query and has finished,
+     * and no passages otherwise. Never blocks.
+     */
+    public synchronized List<Passage> retrieveIfReady(String query, String excludeHistoryId) {
+        String key = keyFor(query != null ? query.trim() : "", excludeHistoryId);
+        if (pending == null || !key.equals(pendingKey) || !pending.isDone()) {
+            Log.d(TAG, "Retrieval not ready, continuing without context");
+            return Collections.emptyList();
+        }
+        try {
+            return pending.getNow(Collections.emptyList());
+        } catch (CompletionException | CancellationException e) {
+            Log.e(TAG, "Retrieval failed", e);
+            return Collections.emptyList();
+        }
+    }
+
+    private static String keyFor(String trimmedQuery, String excludeHistoryId) {
+        return excludeHistoryId + '\u0000' + trimmedQuery;
+    }
+
+    /** Keeps the best passages whose combined estimated size fits the token budget. */
+    public static List<Passage> fitToBudget(List<Passage> passages, int tokenBudget) {
+        List<Passage> selected = new ArrayList<>();
+        int used = 0;
+        for (Passage passage : passages) {
+            int tokens = TokenEstimator.estimateTokenCount(passage.text);
+            if (used + tokens <= tokenBudget) {
+                selected.add(passage);
+                used += tokens;
+            }
+        }
+        return selected;
+    }
+}
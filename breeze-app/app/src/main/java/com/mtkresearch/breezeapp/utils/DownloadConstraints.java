@@ -0,0 +1,63 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+
+import androidx.preference.PreferenceManager;
+
+/**
+ * Conditions a model download waits for: a network, unmetered if the user asked for it,
+ * a charger if the user asked for it, and room on disk for what is left plus some headroom.
+ */
+public final class DownloadConstraints {
+
+    /** What keeps a download from running, or NONE. */
+    public enum Blocker {
+        NONE,
+        NO_NETWORK,
+        METERED_NETWORK,
+        NOT_CHARGING,
+        LOW_STORAGE
+    }
+
+    private DownloadConstraints() {
+    }
+
+    public static boolean requiresUnmetered(Context context) {
+        return prefs(context).getBoolean(AppConstants.KEY_DOWNLOAD_UNMETERED_ONLY, false);
+    }
+
+    public static boolean requiresCharging(Context context) {
+        return prefs(context).getBoolean(AppConstants.KEY_DOWNLOAD_CHARGING_ONLY, false);
+    }
+
+    public static Blocker check(Context context, long bytesRemaining) {
+        ConnectivityManager connectivity = context.getSystemService(ConnectivityManager.class);
+        NetworkCapabilities capabilities = connectivity != null
+            ? connectivity.getNetworkCapabilities(connectivity.getActiveNetwork()) : null;
+        if (capabilities == null || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+            return Blocker.NO_NETWORK;
+        }
+        if (requiresUnmetered(context)
+                && !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)) {
+            return Blocker.METERED_NETWORK;
+        }
+        if (requiresCharging(context)) {
+            BatteryManager battery = context.getSystemService(BatteryManager.class);
+            if (battery != null && !battery.isCharging()) {
+                return Blocker.NOT_CHARGING;
+            }
+        }
+        if (context.getFilesDir().getUsableSpace() < bytesRemaining + AppConstants.MODEL_DOWNLOAD_STORAGE_HEADROOM_BYTES) {
+            return Blocker.LOW_STORAGE;
+        }
+        return Blocker.NONE;
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context);
+    }
+}
@@ -0,0 +1,161 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The model download in progress, kept on disk so it outlives the process.
+ *
+ * Holds the files of the bundle, which of them are finished and whether the user paused
+ * it. The bytes themselves live in the partial files next to each model, so this is all
+ * {@link ModelDownloadService} needs to pick a download up again after the app was killed.
+ */
+public final class DownloadJobJournal {
+    private static final String TAG = "DownloadJobJournal";
+    private static final String FILE_NAME = "download_job.json";
+
+    public final ModelDownloadDialog.DownloadMode mode;
+    public final List<AppConstants.DownloadFileInfo> files;
+    private final boolean[] completed;
+    private boolean paused;
+
+    public DownloadJobJournal(ModelDownloadDialog.DownloadMode mode, List<AppConstants.DownloadFileInfo> files) {
+        this(mode, files, new boolean[files.size()], false);
+    }
+
+    private DownloadJobJournal(ModelDownloadDialog.DownloadMode mode, List<AppConstants.DownloadFileInfo> files,
+                               boolean[] completed, boolean paused) {
+        this.mode = mode;
+        this.files = Collections.unmodifiableList(new ArrayList<>(files));
+        this.completed = completed;
+        this.paused = paused;
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    public synchronized void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    public synchronized void markCompleted(int fileIndex) {
+        completed[fileIndex] = true;
+    }
+
+    public synchronized boolean[] completedFiles() {
+        return completed.clone();
+    }
+
+    /** Bytes still to be written to disk, from what the partial files already hold. */
+    public long remainingBytes(Context context) {
+        return ModelDownloadJob.bytesToWrite(context, files, completedFiles());
+    }
+
+    /** Writes the journal, replacing the previous one atomically. */
+    public synchronized void save(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        File temp = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(toJson().toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Error writing download journal", e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Could not replace download journal");
+        }
+    }
+
+    /** The unfinished download, or null if there is none. */
+    public static DownloadJobJournal load(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            return fromJson(new JSONObject(new String(bytes, 0, read, StandardCharsets.UTF_8)));
+        } catch (IOException | JSONException | IllegalArgumentException e) {
+            Log.w(TAG, "Unreadable download journal, dropping it", e);
+            file.delete();
+            return null;
+        }
+    }
+
+    public static void delete(Context context) {
+        new File(context.getFilesDir(), FILE_NAME).delete();
+    }
+
+    private JSONObject toJson() throws JSONException {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < files.size(); i++) {
+            AppConstants.DownloadFileInfo file = files.get(i);
+            JSONObject entry = new JSONObject()
+                .put("url", file.url)
+                .put("fileName", file.fileName)
+                .put("displayName", file.displayName)
+                .put("fileType", file.fileType)
+                .put("fileSize", file.fileSize)
+                .put("modelId", file.modelId)
+                .put("completed", completed[i]);
+            if (file.digest != null) {
+                entry.put("digest", file.digest.toJson());
+            }
+            array.put(entry);
+        }
+        return new JSONObject()
+            .put("mode", mode.name())
+            .put("paused", paused)
+            .put("files", array);
+    }
+
+    private static DownloadJobJournal fromJson(JSONObject json) throws JSONException {
+        JSONArray array = json.getJSONArray("files");
+        List<AppConstants.DownloadFileInfo> files = new ArrayList<>();
+        boolean[] completed = new boolean[array.length()];
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject entry = array.getJSONObject(i);
+            files.add(new AppConstants.DownloadFileInfo(
+                entry.getString("url"),
+                entry.getString("fileName"),
+                optString(entry, "displayName"),
+                optString(entry, "fileType"),
+                entry.getLong("fileSize"),
+                optString(entry, "modelId"),
+                ModelFileDigest.fromJson(entry.optJSONObject("digest"))));
+            completed[i] = entry.optBoolean("completed");
+        }
+        return new DownloadJobJournal(ModelDownloadDialog.DownloadMode.valueOf(json.getString("mode")),
+            files, completed, json.optBoolean("paused"));
+    }
+
+    /** A string put() left out because it was null reads back as null. */
+    private static String optString(JSONObject entry, String key) throws JSONException {
+        return entry.isNull(key) ? null : entry.getString(key);
+    }
+}
@@ -0,0 +1,162 @@
+package com.mtkresearch.breezeapp.utils;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Progress of the files of one download.
+ *
+ * The download threads only store counters, without locks or posting anything, however
+ * fast the bytes arrive. A single ticker calls {@link #tick} at the UI rate, which turns
+ * the counters into throughput, and takes a {@link Snapshot} to publish. The throughput is
+ * an exponentially weighted moving average over about the smoothing time, so the ETA does
+ * not jump with every burst of a connection.
+ */
+public final class DownloadProgressTracker {
+    private final AtomicIntegerArray status;
+    private final AtomicLongArray downloaded;
+    private final AtomicLongArray total;
+    private final AtomicReferenceArray<String> errors;
+    private final AtomicLong reused = new AtomicLong();
+    private final long smoothingMs;
+
+    // Used by the ticker thread only
+    private long lastTickTime = -1;
+    private long lastTickBytes;
+    private double bytesPerSecond = -1;
+
+    public DownloadProgressTracker(int fileCount, long smoothingMs) {
+        this.status = new AtomicIntegerArray(fileCount);
+        this.downloaded = new AtomicLongArray(fileCount);
+        this.total = new AtomicLongArray(fileCount);
+        this.errors = new AtomicReferenceArray<>(fileCount);
+        this.smoothingMs = smoothingMs;
+    }
+
+    public int fileCount() {
+        return status.length();
+    }
+
+    public void setStatus(int fileIndex, int fileStatus, String error) {
+        errors.set(fileIndex, error);
+        status.set(fileIndex, fileStatus);
+        if (fileStatus == AppConstants.DOWNLOAD_STATUS_COMPLETED) {
+            downloaded.set(fileIndex, total.get(fileIndex));
+        }
+    }
+
+    /** totalBytes of 0 or less keeps the size known so far. */
+    public void setProgress(int fileIndex, long downloadedBytes, long totalBytes) {
+        if (totalBytes > 0) {
+            total.set(fileIndex, totalBytes);
+        }
+        downloaded.set(fileIndex, downloadedBytes);
+    }
+
+    /**
+     * Counts bytes taken from a local file: they are progress but not throughput, and would
+     * otherwise show as a burst of speed.
+     */
+    public void addReused(long bytes) {
+        reused.addAndGet(bytes);
+    }
+
+    /** Forgets the throughput, for a job that starts after a pause or a wait. */
+    public void restartRate() {
+        lastTickTime = -1;
+        bytesPerSecond = -1;
+    }
+
+    /** Folds the bytes since the previous tick into the throughput. */
+    public void tick(long nowMs) {
+        long bytes = sum(downloaded) - reused.get();
+        if (lastTickTime >= 0 && nowMs > lastTickTime) {
+            long elapsed = nowMs - lastTickTime;
+            // Bytes fetched again after a failed block make the count go back; that is no speed
+            double rate = Math.max(0, bytes - lastTickBytes) * 1000.0 / elapsed;
+            if (bytesPerSecond < 0) {
+                bytesPerSecond = rate;
+            } else {
+                double weight = 1 - Math.exp(-(double) elapsed / smoothingMs);
+                bytesPerSecond += weight * (rate - bytesPerSecond);
+            }
+        }
+        lastTickTime = nowMs;
+        lastTickBytes = bytes;
+    }
+
+    public Snapshot snapshot() {
+        int count = fileCount();
+        int[] fileStatus = new int[count];
+        long[] fileDownloaded = new long[count];
+        long[] fileTotal = new long[count];
+        String[] fileErrors = new String[count];
+        for (int i = 0; i < count; i++) {
+            fileStatus[i] = status.get(i);
+            fileDownloaded[i] = downloaded.get(i);
+            fileTotal[i] = total.get(i);
+            fileErrors[i] = errors.get(i);
+        }
+        return new Snapshot(fileStatus, fileDownloaded, fileTotal, fileErrors, (long) bytesPerSecond);
+    }
+
+    private static long sum(AtomicLongArray values) {
+        long sum = 0;
+        for (int i = 0; i < values.length(); i++) {
+            sum += values.get(i);
+        }
+        return sum;
+    }
+
+    /** The progress at one tick; never changes once taken. */
+    public static final class Snapshot {
+        private final int[] status;
+        private final long[] downloaded;
+        private final long[] total;
+        private final String[] errors;
+        public final long downloadedBytes;
+        public final long totalBytes;
+        public final long bytesPerSecond; // -1 until measured
+        public final long etaMs; // -1 while unknown
+
+        Snapshot(int[] status, long[] downloaded, long[] total, String[] errors, long bytesPerSecond) {
+            this.status = status;
+            this.downloaded = downloaded;
+            this.total = total;
+            this.errors = errors;
+            long downloadedSum = 0;
+            long totalSum = 0;
+            for (int i = 0; i < total.length; i++) {
+                downloadedSum += downloaded[i];
+                totalSum += total[i];
+            }
+            this.downloadedBytes = downloadedSum;
+            this.totalBytes = totalSum;
+            this.bytesPerSecond = bytesPerSecond;
+            this.etaMs = bytesPerSecond > 0 && totalSum > downloadedSum
+                ? (totalSum - downloadedSum) * 1000 / bytesPerSecond : -1;
+        }
+
+        public int fileCount() {
+            return status.length;
+        }
+
+        public int getFileStatus(int fileIndex) {
+            return status[fileIndex];
+        }
+
+        public long getFileDownloaded(int fileIndex) {
+            return downloaded[fileIndex];
+        }
+
+        public long getFileTotal(int fileIndex) {
+            return total[fileIndex];
+        }
+
+        public String getFileError(int fileIndex) {
+            return errors[fileIndex];
+        }
+    }
+}
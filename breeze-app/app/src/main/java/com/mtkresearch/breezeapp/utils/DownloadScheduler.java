@@ -0,0 +1,191 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Downloads the files of a model bundle in parallel.
+ *
+ * Files start smallest first, so configs and tokenizers are in place, and a broken URL is
+ * found, before the large shards are under way. All files share one connection budget:
+ * each running file holds one connection, and segmented downloads take extra connections
+ * from {@link #connectionBudget()} only while some are free. A failed file is retried with
+ * exponential backoff; once a file has used up its attempts the whole bundle stops, since
+ * a model is unusable without every file. An attempt that ends because of {@link #cancel()}
+ * is neither retried nor counted as a failure.
+ */
+public class DownloadScheduler {
+    private static final String TAG = "DownloadScheduler";
+
+    public interface FileTask {
+        /** Downloads the file at index, returning false if this attempt failed. */
+        boolean download(int index) throws InterruptedException;
+    }
+
+    public interface Listener {
+        void onRetryScheduled(int index, int attempt, long delayMs);
+        void onFailed(int index);
+    }
+
+    private final int maxParallelFiles;
+    private final int maxAttempts;
+    private final long baseBackoffMs;
+    private final Semaphore connections;
+    private final BandwidthLimiter bandwidth;
+    private volatile boolean aborted = false;
+    private volatile boolean cancelled = false;
+
+    public DownloadScheduler() {
+        this(AppConstants.MODEL_DOWNLOAD_PARALLEL_FILES, AppConstants.MODEL_DOWNLOAD_MAX_ATTEMPTS,
+            AppConstants.MODEL_DOWNLOAD_RETRY_BASE_MS, AppConstants.MODEL_DOWNLOAD_MAX_CONNECTIONS,
+            AppConstants.MODEL_DOWNLOAD_MAX_BYTES_PER_SEC);
+    }
+
+    public DownloadScheduler(int maxParallelFiles, int maxAttempts, long baseBackoffMs,
+                             int maxConnections, long maxBytesPerSecond) {
+        this.maxParallelFiles = maxParallelFiles;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMs = baseBackoffMs;
+        // Running files hold one connection each, so never fewer than the files in parallel
+        this.connections = new Semaphore(Math.max(maxConnections, maxParallelFiles));
+        this.bandwidth = new BandwidthLimiter(maxBytesPerSecond);
+    }
+
+    /** Connections beyond the one each running file holds; take with tryAcquire. */
+    public Semaphore connectionBudget() {
+        return connections;
+    }
+
+    public BandwidthLimiter bandwidthLimiter() {
+        return bandwidth;
+    }
+
+    /** Stops the files after their current attempt, without retrying or failing them. */
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            notifyAll(); // Cuts short any backoff
+        }
+    }
+
+    /** True once a file failed for good and the remaining files are being abandoned. */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Downloads every file, returning true if all of them succeeded. Blocks until running
+     * files have stopped.
+     */
+    public boolean run(List<Long> fileSizes, FileTask task, Listener listener) throws InterruptedException {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < fileSizes.size(); i++) {
+            order.add(i);
+        }
+        order.sort((a, b) -> Long.compare(fileSizes.get(a), fileSizes.get(b)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, maxParallelFiles),
+            r -> new Thread(r, "ModelDownload"));
+        List<Future<Boolean>> futures = new ArrayList<>();
+        try {
+            // The pool's queue is FIFO, so files start in size order
+            for (int index : order) {
+                futures.add(executor.submit(() -> runFile(index, task, listener)));
+            }
+            boolean allSucceeded = true;
+            for (Future<Boolean> future : futures) {
+                try {
+                    allSucceeded &= future.get();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Download task failed", e.getCause());
+                    aborted = true;
+                    allSucceeded = false;
+                }
+            }
+            return allSucceeded;
+        } catch (InterruptedException e) {
+            aborted = true;
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private boolean runFile(int index, FileTask task, Listener listener) throws InterruptedException {
+        for (int attempt = 1; !aborted && !cancelled; attempt++) {
+            connections.acquire();
+            boolean succeeded;
+            try {
+                succeeded = !aborted && !cancelled && task.download(index);
+            } finally {
+                connections.release();
+            }
+            if (succeeded) {
+                return true;
+            }
+            if (aborted || cancelled) {
+                break;
+            }
+            if (attempt >= maxAttempts) {
+                Log.w(TAG, "Giving up on file " + index + " after " + attempt + " attempts");
+                aborted = true;
+                listener.onFailed(index);
+                return false;
+            }
+            // Exponential backoff with jitter so parallel files do not retry in lockstep
+            long delay = (baseBackoffMs << (attempt - 1)) + ThreadLocalRandom.current().nextLong(baseBackoffMs / 2 + 1);
+            listener.onRetryScheduled(index, attempt, delay);
+            backoff(delay);
+        }
+        return false;
+    }
+
+    private void backoff(long delayMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + delayMs;
+        synchronized (this) {
+            long remaining;
+            while (!cancelled && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+        }
+    }
+
+    /** Token bucket shared by every download thread; a limit of 0 disables it. */
+    public static final class BandwidthLimiter {
+        private final long bytesPerSecond;
+        private long available;
+        private long lastRefill = System.nanoTime();
+
+        public BandwidthLimiter(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.available = bytesPerSecond;
+        }
+
+        /** Waits until the bytes just read fit within the limit. */
+        public void acquire(int bytes) throws InterruptedException {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                // At most one second of unused budget carries over
+                available = Math.min(bytesPerSecond, available + (now - lastRefill) * bytesPerSecond / 1_000_000_000L);
+                lastRefill = now;
+                available -= bytes;
+                waitNanos = available >= 0 ? 0 : -available * 1_000_000_000L / bytesPerSecond;
+            }
+            if (waitNanos > 0) {
+                Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Persists engine self-test results so a model that already passed is not re-tested
+ * on every start.
+ *
+ * A result is keyed by a fingerprint of the backend, the app and OS build, and each
+ * model file's size, mtime and a hash of its head and tail. Any change there, or a
+ * failure reported from real use, sends the engine through the full test again.
+ */
+public class EngineHealthRegistry {
+    private static final String TAG = "EngineHealthRegistry";
+    private static final String PREFS_NAME = "engine_health";
+    private static final String KEY_FINGERPRINT = ".fingerprint";
+    private static final String KEY_PASSED = ".passed";
+    private static final String KEY_VERIFIED_AT = ".verified_at";
+
+    public static final String ENGINE_ASR = "asr";
+    public static final String ENGINE_TTS = "tts";
+
+    /** Cached passes older than this are re-verified in the background when idle. */
+    public static final long REVERIFY_INTERVAL_MS = 7L * 24 * 60 * 60 * 1000;
+
+    private static final int HASH_SAMPLE_BYTES = 64 * 1024;
+
+    private final SharedPreferences prefs;
+    private final String buildKey;
+
+    public EngineHealthRegistry(Context context) {
+        Context appContext = context.getApplicationContext();
+        this.prefs = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.buildKey = appBuildKey(appContext) + "|" + Build.FINGERPRINT;
+    }
+
+    /**
+     * Builds the fingerprint for an engine. Files that do not exist are recorded as
+     * missing, so downloading them later also invalidates the cached result.
+     */
+    public String fingerprint(String backend, File... modelFiles) {
+        StringBuilder sb = new StringBuilder(backend).append('|').append(buildKey);
+        for (File file : modelFiles) {
+            sb.append('|').append(file.getName());
+            if (!file.isFile()) {
+                sb.append(":missing");
+                continue;
+            }
+            sb.append(':').append(file.length())
+              .append(':').append(file.lastModified())
+              .append(':').append(sampleHash(file));
+        }
+        return sb.toString();
+    }
+
+    /** True if the engine passed its self-test under exactly this fingerprint. */
+    public boolean hasPassed(String engine, String fingerprint) {
+        return prefs.getBoolean(engine + KEY_PASSED, false)
+            && fingerprint.equals(prefs.getString(engine + KEY_FINGERPRINT, null));
+    }
+
+    public void recordResult(String engine, String fingerprint, boolean passed) {
+        prefs.edit()
+            .putString(engine + KEY_FINGERPRINT, fingerprint)
+            .putBoolean(engine + KEY_PASSED, passed)
+            .putLong(engine + KEY_VERIFIED_AT, System.currentTimeMillis())
+            .apply();
+    }
+
+    /** Drops the cached pass after the engine failed in real use. */
+    public void invalidate(String engine) {
+        if (prefs.getBoolean(engine + KEY_PASSED, false)) {
+            Log.w(TAG, "Invalidating cached " + engine + " self-test result");
+            prefs.edit().putBoolean(engine + KEY_PASSED, false).apply();
+        }
+    }
+
+    public boolean isReverificationDue(String engine) {
+        long verifiedAt = prefs.getLong(engine + KEY_VERIFIED_AT, 0);
+        return System.currentTimeMillis() - verifiedAt > REVERIFY_INTERVAL_MS;
+    }
+
+    private static String appBuildKey(Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            // lastUpdateTime changes on reinstall, which also replaces bundled assets
+            return info.getLongVersionCode() + ":" + info.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * Hashes the first and last 64KB. Reading whole multi-hundred-MB models would cost
+     * more than the self-test it replaces; size and mtime cover the rest.
+     */
+    private static String sampleHash(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[HASH_SAMPLE_BYTES];
+            long length = raf.length();
+            int read = raf.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read > 0) {
+                digest.update(buffer, 0, read);
+            }
+            if (length > buffer.length) {
+                raf.seek(Math.max(buffer.length, length - buffer.length));
+                read = raf.read(buffer);
+                if (read > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            StringBuilder hex = new StringBuilder();
+            byte[] hash = digest.digest();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", hash[i]));
+            }
+            return hex.toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            Log.w(TAG, "Failed to hash " + file.getName(), e);
+            return "unreadable";
+        }
+    }
+}
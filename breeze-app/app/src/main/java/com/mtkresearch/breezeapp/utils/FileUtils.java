@@ -49,6 +49,6 @@ public class FileUtils {
         if (!recordingsDir.exists() || !recordingsDir.isDirectory()) {
             return new File[0];
         }
-        return recordingsDir.listFiles((dir, name) -> name.endsWith(".m4a"));
+        return recordingsDir.listFiles((dir, name) -> name.endsWith(".m4a") || name.endsWith(".wav"));
     }
 }
\ No newline at end of file
@@ -210,6 +210,17 @@ public class IntroDialog extends Dialog {
                             ", Storage requirement met: " + hasRequiredStorage);
     }
 
+    /** Called once the model download finished, so the requirements page reflects it. */
+    void onModelsDownloaded() {
+        checkSystemRequirements();
+        if (viewPager != null && viewPager.getAdapter() instanceof IntroPagerAdapter) {
+            ((IntroPagerAdapter) viewPager.getAdapter()).updateRequirementsPage(buildRequirementsDescription(getContext()));
+        }
+        if (btnNext != null) {
+            updateButtonState(getContext());
+        }
+    }
+
     private boolean meetsAllRequirements() {
         // return hasMinimumRam && hasRequiredStorage && hasRequiredModels;
         return hasMinimumRam && hasRequiredStorage;
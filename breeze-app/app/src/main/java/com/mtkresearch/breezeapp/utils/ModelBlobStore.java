@@ -0,0 +1,285 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Model files kept once per content, keyed by their SHA-256.
+ *
+ * Variants of a model share files such as the tokenizer, and often whole shards. Each
+ * verified file is kept as a blob under files/blobs/sha256, and the per-model directories
+ * hold hard links to it (symbolic links where hard links are not supported), so a file
+ * already on the device is linked instead of downloaded again. An index records which
+ * model files point at each blob; a blob is deleted with the last model that uses it, or
+ * once the last file linking to it was replaced by other content.
+ *
+ * Only files with a digest in the model list take part: without one there is no key to
+ * find the blob by before the download.
+ */
+public final class ModelBlobStore {
+    private static final String TAG = "ModelBlobStore";
+    private static final String BLOB_DIR = "blobs";
+    private static final String INDEX_FILE = "blob_refs.json";
+    private static final Object LOCK = new Object();
+
+    private ModelBlobStore() {}
+
+    /** True if the blob for file is already on the device. */
+    public static boolean contains(Context context, AppConstants.DownloadFileInfo file) {
+        File blob = blobFor(context, file);
+        return blob != null && blob.isFile();
+    }
+
+    /**
+     * Links the stored blob into the model directory as the file, if there is one.
+     *
+     * @return true if the file is now in place and need not be downloaded
+     */
+    public static boolean linkIfPresent(Context context, AppConstants.DownloadFileInfo file, File outputFile) {
+        synchronized (LOCK) {
+            File blob = blobFor(context, file);
+            if (blob == null || !blob.isFile()) {
+                return false;
+            }
+            JSONObject index = loadIndex(context);
+            if (index == null) {
+                return false;
+            }
+            try {
+                link(blob, outputFile);
+                replaceRef(context, index, file);
+                saveIndex(context, index);
+            } catch (IOException | JSONException | UnsupportedOperationException e) {
+                Log.w(TAG, "Could not link " + file.fileName + " from the store, downloading it", e);
+                return false;
+            }
+            Log.i(TAG, "Linked " + file.modelId + "/" + file.fileName + " from the store");
+            return true;
+        }
+    }
+
+    /**
+     * Takes a downloaded and verified file into the store. If the blob was already there the
+     * file is replaced by a link to it, freeing the duplicate.
+     */
+    public static void adopt(Context context, AppConstants.DownloadFileInfo file, File outputFile) {
+        File blob = blobFor(context, file);
+        if (blob == null) {
+            return;
+        }
+        synchronized (LOCK) {
+            JSONObject index = loadIndex(context);
+            if (index == null) {
+                return;
+            }
+            try {
+                if (blob.isFile()) {
+                    link(blob, outputFile);
+                } else {
+                    File dir = blob.getParentFile();
+                    if (!dir.exists() && !dir.mkdirs()) {
+                        throw new IOException("Failed to create " + dir.getPath());
+                    }
+                    File temp = new File(dir, blob.getName() + ".tmp");
+                    temp.delete();
+                    Files.createLink(temp.toPath(), outputFile.toPath());
+                    Files.move(temp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                }
+                replaceRef(context, index, file);
+                saveIndex(context, index);
+            } catch (IOException | JSONException | UnsupportedOperationException e) {
+                // The file stays where it is, just not shared
+                Log.w(TAG, "Could not add " + file.fileName + " to the store", e);
+            }
+        }
+    }
+
+    /** Deletes a model directory, and the blobs no other model links to. */
+    public static void deleteModel(Context context, String modelId) {
+        synchronized (LOCK) {
+            deleteRecursively(new File(new File(context.getFilesDir(), AppConstants.APP_MODEL_DIR), modelId));
+            releaseModel(context, modelId, fileName -> true);
+        }
+    }
+
+    /**
+     * Deletes oldDir, where an installed model was moved aside when a new version took its
+     * place, and the blobs only files the new version no longer has linked to.
+     */
+    public static void deleteReplaced(Context context, String modelId, File oldDir, Set<String> fileNames) {
+        synchronized (LOCK) {
+            deleteRecursively(oldDir);
+            releaseModel(context, modelId, fileName -> !fileNames.contains(fileName));
+        }
+    }
+
+    /** Drops the model's references to the files that match, and the blobs left unused. */
+    private static void releaseModel(Context context, String modelId, Predicate<String> released) {
+        JSONObject index = loadIndex(context);
+        if (index == null) {
+            // Without the references no blob is known to be unused
+            return;
+        }
+        String prefix = modelId + "/";
+        releaseRefs(context, index, ref -> ref.startsWith(prefix) && released.test(ref.substring(prefix.length())), null);
+        try {
+            saveIndex(context, index);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error writing blob references", e);
+        }
+    }
+
+    private static File blobFor(Context context, AppConstants.DownloadFileInfo file) {
+        if (file.digest == null || file.digest.sha256 == null || !file.digest.sha256.matches("[0-9a-fA-F]{64}")) {
+            return null;
+        }
+        return new File(blobDir(context), file.digest.sha256.toLowerCase());
+    }
+
+    private static File blobDir(Context context) {
+        return new File(new File(context.getFilesDir(), BLOB_DIR), "sha256");
+    }
+
+    private static String refName(AppConstants.DownloadFileInfo file) {
+        return file.modelId + "/" + file.fileName;
+    }
+
+    /** Points target at blob, replacing whatever target was in one step. */
+    private static void link(File blob, File target) throws IOException {
+        File temp = new File(target.getPath() + ".link");
+        temp.delete();
+        try {
+            Files.createLink(temp.toPath(), blob.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.createSymbolicLink(temp.toPath(), blob.toPath());
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Points the file's reference at its blob, freeing the blob it pointed at before if unused now. */
+    private static void replaceRef(Context context, JSONObject index, AppConstants.DownloadFileInfo file)
+            throws JSONException {
+        String ref = refName(file);
+        releaseRefs(context, index, ref::equals, file.digest.sha256.toLowerCase());
+        addRef(index, file.digest.sha256, ref);
+    }
+
+    /**
+     * Drops the references that match from every blob but keepDigest, and deletes the blobs
+     * left without references.
+     */
+    private static void releaseRefs(Context context, JSONObject index, Predicate<String> released,
+                                    String keepDigest) {
+        List<String> digests = new ArrayList<>();
+        for (Iterator<String> keys = index.keys(); keys.hasNext(); ) {
+            digests.add(keys.next());
+        }
+        for (String digest : digests) {
+            if (digest.equals(keepDigest)) {
+                continue;
+            }
+            JSONArray refs = index.optJSONArray(digest);
+            JSONArray kept = new JSONArray();
+            for (int i = 0; refs != null && i < refs.length(); i++) {
+                if (!released.test(refs.optString(i))) {
+                    kept.put(refs.optString(i));
+                }
+            }
+            if (kept.length() == 0) {
+                new File(blobDir(context), digest).delete();
+                index.remove(digest);
+                Log.i(TAG, "Deleted unused blob " + digest);
+            } else if (refs == null || kept.length() != refs.length()) {
+                try {
+                    index.put(digest, kept);
+                } catch (JSONException e) {
+                    Log.w(TAG, "Could not update references of " + digest, e);
+                }
+            }
+        }
+    }
+
+    private static void addRef(JSONObject index, String digest, String ref) throws JSONException {
+        String key = digest.toLowerCase();
+        JSONArray refs = index.optJSONArray(key);
+        if (refs == null) {
+            refs = new JSONArray();
+            index.put(key, refs);
+        }
+        for (int i = 0; i < refs.length(); i++) {
+            if (ref.equals(refs.optString(i))) {
+                return;
+            }
+        }
+        refs.put(ref);
+    }
+
+    /** The references by blob digest, empty before the first blob, or null if unreadable. */
+    private static JSONObject loadIndex(Context context) {
+        File file = new File(new File(context.getFilesDir(), BLOB_DIR), INDEX_FILE);
+        if (!file.exists()) {
+            return new JSONObject();
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            return new JSONObject(new String(bytes, 0, read, StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Unreadable blob references, not sharing files", e);
+            return null;
+        }
+    }
+
+    private static void saveIndex(Context context, JSONObject index) throws JSONException {
+        File dir = new File(context.getFilesDir(), BLOB_DIR);
+        dir.mkdirs();
+        File file = new File(dir, INDEX_FILE);
+        File temp = new File(dir, INDEX_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(index.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing blob references", e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Could not replace blob references");
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.isDirectory() && !Files.isSymbolicLink(file.toPath()) ? file.listFiles() : null;
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,541 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Installs models from a bundle file instead of downloading them, for provisioning devices
+ * without network.
+ *
+ * A bundle is a tar (optionally gzipped) or zip archive holding manifest.json and the model
+ * files as &lt;model id&gt;/&lt;file name&gt;. The manifest has the shape of the model list,
+ * with a SHA-256 in "digests" for every file:
+ *
+ * <pre>
+ * {"models": [{"id": "breeze2-3b-spin-250501-cpu", "urls": [...], "digests": {...}, ...}]}
+ * </pre>
+ *
+ * The archive is read once, front to back: each file is written to a staging directory while
+ * its hash is taken, so the manifest may come anywhere in it. Only when every file of every
+ * model matched its digest is each staged model directory renamed into place. The files then
+ * go into the {@link ModelBlobStore}, and the models are registered in one write of
+ * downloadedModelList.json. An installed model being replaced is first moved aside, and only
+ * deleted once its new version is in place.
+ */
+public final class ModelBundleImporter {
+    private static final String TAG = "ModelBundleImporter";
+    private static final String MANIFEST = "manifest.json";
+    private static final String STAGING_DIR = ".import";
+    private static final String REPLACED_DIR = ".replaced"; // In the staging directory
+    private static final int MAX_MANIFEST_BYTES = 4 * 1024 * 1024;
+    private static final int TAR_BLOCK = 512;
+    // What the app reads from an entry of downloadedModelList.json
+    private static final String[] REQUIRED_FIELDS = {"id", "backend", "ramGB", "model_entry_path"};
+
+    private ModelBundleImporter() {}
+
+    /** Imports the bundle at uri, e.g. picked with the storage access framework. */
+    public static List<String> importBundle(Context context, Uri uri) throws IOException {
+        InputStream in = context.getContentResolver().openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        try (InputStream stream = in) {
+            return importBundle(context, stream);
+        }
+    }
+
+    /**
+     * Imports the bundle read from in.
+     *
+     * @return the ids of the models now installed
+     * @throws IOException if the archive is unreadable or incomplete, or a file does not match
+     *                     its digest; nothing is installed then
+     */
+    public static List<String> importBundle(Context context, InputStream in) throws IOException {
+        File staging = new File(new File(context.getFilesDir(), AppConstants.APP_MODEL_DIR), STAGING_DIR);
+        deleteRecursively(staging);
+        if (!staging.mkdirs()) {
+            throw new IOException("Failed to create " + staging.getPath());
+        }
+        try {
+            Extraction extraction = new Extraction(staging);
+            readArchive(in, extraction);
+            if (extraction.manifest == null) {
+                throw new IOException("Bundle has no " + MANIFEST);
+            }
+            List<JSONObject> models = verify(extraction);
+            install(context, staging, models);
+            return modelIds(models);
+        } catch (JSONException e) {
+            throw new IOException("Invalid " + MANIFEST + ": " + e.getMessage(), e);
+        } finally {
+            deleteRecursively(staging);
+        }
+    }
+
+    /** Receives the regular files of the archive in order. */
+    private interface EntryVisitor {
+        void onEntry(String name, long size, InputStream data) throws IOException;
+    }
+
+    /** Stages the model files and keeps their hashes, and the manifest. */
+    private static final class Extraction implements EntryVisitor {
+        final File staging;
+        final Map<String, String> hashes = new HashMap<>(); // By entry name
+        JSONObject manifest;
+
+        Extraction(File staging) {
+            this.staging = staging;
+        }
+
+        @Override
+        public void onEntry(String name, long size, InputStream data) throws IOException {
+            if (name.equals(MANIFEST)) {
+                try {
+                    manifest = new JSONObject(new String(readSmall(data), StandardCharsets.UTF_8));
+                } catch (JSONException e) {
+                    throw new IOException("Invalid " + MANIFEST + ": " + e.getMessage(), e);
+                }
+                return;
+            }
+            if (name.indexOf('/') <= 0 || name.indexOf('/') != name.lastIndexOf('/')) {
+                Log.d(TAG, "Skipping " + name + ", not a model file");
+                return;
+            }
+            File target = new File(staging, name);
+            File dir = target.getParentFile();
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Failed to create " + dir.getPath());
+            }
+            hashes.put(name, writeHashed(data, size, target));
+            Log.d(TAG, "Extracted " + name + " (" + target.length() + " bytes)");
+        }
+    }
+
+    private static String writeHashed(InputStream data, long size, File target) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] array = new byte[AppConstants.MODEL_DOWNLOAD_BUFFER_SIZE];
+        ByteBuffer buffer = ModelFileWriter.allocateBuffer(array.length);
+        // A tar entry states its size, so the file is allocated before the first byte
+        try (ModelFileWriter writer = size >= 0 ? ModelFileWriter.open(target, size) : ModelFileWriter.append(target, false)) {
+            long written = 0;
+            int read;
+            while ((read = data.read(array)) != -1) {
+                sha256.update(array, 0, read);
+                buffer.clear();
+                buffer.put(array, 0, read).flip();
+                writer.append(buffer);
+                written += read;
+            }
+            if (size >= 0 && written != size) {
+                throw new IOException("Archive ends inside " + target.getName());
+            }
+            writer.sync();
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : sha256.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /** The models of the manifest, once each of their files was extracted and matched its digest. */
+    private static List<JSONObject> verify(Extraction extraction) throws JSONException, IOException {
+        JSONArray models = extraction.manifest.getJSONArray("models");
+        if (models.length() == 0) {
+            throw new IOException("Bundle lists no models");
+        }
+        List<JSONObject> verified = new ArrayList<>();
+        for (int i = 0; i < models.length(); i++) {
+            JSONObject model = models.getJSONObject(i);
+            for (String field : REQUIRED_FIELDS) {
+                model.getString(field);
+            }
+            String modelId = model.getString("id");
+            if (!isSafeName(modelId) || modelId.startsWith(".")) {
+                // Names with a dot first are the importer's own, like the staging directory
+                throw new IOException("Invalid model id: " + modelId);
+            }
+            JSONArray urls = model.getJSONArray("urls");
+            for (int j = 0; j < urls.length(); j++) {
+                String fileName = fileNameOf(urls.getString(j));
+                String entry = modelId + "/" + fileName;
+                ModelFileDigest digest = ModelFileDigest.fromModel(model, fileName);
+                if (digest == null || digest.sha256 == null) {
+                    throw new IOException("No SHA-256 for " + entry + " in " + MANIFEST);
+                }
+                String hash = extraction.hashes.get(entry);
+                if (hash == null) {
+                    throw new IOException("Bundle is missing " + entry);
+                }
+                if (!digest.sha256.equalsIgnoreCase(hash)) {
+                    throw new IOException("Checksum mismatch for " + entry);
+                }
+            }
+            verified.add(model);
+        }
+        return verified;
+    }
+
+    private static void install(Context context, File staging, List<JSONObject> models) throws JSONException, IOException {
+        File modelsDir = new File(context.getFilesDir(), AppConstants.APP_MODEL_DIR);
+        for (JSONObject model : models) {
+            String modelId = model.getString("id");
+            JSONArray urls = model.getJSONArray("urls");
+            Set<String> fileNames = new HashSet<>();
+            for (int j = 0; j < urls.length(); j++) {
+                fileNames.add(fileNameOf(urls.getString(j)));
+            }
+            File staged = new File(staging, modelId);
+            if (!staged.exists() && !staged.mkdirs()) {
+                throw new IOException("Failed to create " + staged.getPath());
+            }
+            File[] unlisted = staged.listFiles(file -> !fileNames.contains(file.getName()));
+            if (unlisted != null) {
+                for (File file : unlisted) {
+                    deleteRecursively(file);
+                }
+            }
+
+            File modelDir = new File(modelsDir, modelId);
+            File replaced = modelDir.exists() ? moveAside(modelDir, new File(new File(staging, REPLACED_DIR), modelId)) : null;
+            try {
+                // Same file system, so the move is a rename
+                Files.move(staged.toPath(), modelDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                if (replaced != null) {
+                    try {
+                        Files.move(replaced.toPath(), modelDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException restore) {
+                        e.addSuppressed(restore);
+                    }
+                }
+                throw e;
+            }
+
+            for (int j = 0; j < urls.length(); j++) {
+                String url = urls.getString(j);
+                String fileName = fileNameOf(url);
+                File outputFile = new File(modelDir, fileName);
+                AppConstants.DownloadFileInfo fileInfo = new AppConstants.DownloadFileInfo(url, fileName,
+                    modelId + "/" + fileName, AppConstants.FILE_TYPE_LLM, outputFile.length(), modelId,
+                    ModelFileDigest.fromModel(model, fileName));
+                ModelBlobStore.adopt(context, fileInfo, outputFile);
+            }
+            if (replaced != null) {
+                // Files only the old version had go with their blobs
+                ModelBlobStore.deleteReplaced(context, modelId, replaced, fileNames);
+            }
+            Log.i(TAG, "Installed model " + modelId);
+        }
+        ModelDownloadDialog.registerDownloadedModels(context, models);
+    }
+
+    /** Renames the installed model directory to target, out of the way of its new version. */
+    private static File moveAside(File modelDir, File target) throws IOException {
+        File dir = target.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir.getPath());
+        }
+        Files.move(modelDir.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    private static void readArchive(InputStream in, EntryVisitor visitor) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 64 * 1024);
+        byte[] head = peek(buffered, TAR_BLOCK);
+        if (head.length >= 2 && (head[0] & 0xff) == 0x1f && (head[1] & 0xff) == 0x8b) {
+            readArchive(new GZIPInputStream(buffered, 64 * 1024), visitor);
+        } else if (head.length >= 4 && head[0] == 'P' && head[1] == 'K' && head[2] == 3 && head[3] == 4) {
+            readZip(buffered, visitor);
+        } else if (head.length == TAR_BLOCK && new String(head, 257, 5, StandardCharsets.US_ASCII).equals("ustar")) {
+            readTar(buffered, visitor);
+        } else {
+            throw new IOException("Not a tar or zip model bundle");
+        }
+    }
+
+    private static void readZip(InputStream in, EntryVisitor visitor) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (!entry.isDirectory()) {
+                visitor.onEntry(entryName(entry.getName()), -1, new NonClosing(zip));
+            }
+            zip.closeEntry();
+        }
+    }
+
+    /** Reads ustar, with GNU long names and pax paths and sizes. */
+    private static void readTar(InputStream in, EntryVisitor visitor) throws IOException {
+        byte[] header = new byte[TAR_BLOCK];
+        String longName = null;
+        Map<String, String> pax = new HashMap<>();
+        while (readFully(in, header)) {
+            if (isZeroBlock(header)) {
+                return; // End of archive
+            }
+            char type = (char) header[156];
+            long size = pax.containsKey("size") ? Long.parseLong(pax.get("size")) : tarNumber(header, 124, 12);
+            String name = longName != null ? longName : pax.containsKey("path") ? pax.get("path") : tarName(header);
+            BoundedInputStream data = new BoundedInputStream(in, size);
+
+            if (type == 'L') {
+                longName = trimNul(new String(readSmall(data), StandardCharsets.UTF_8));
+            } else if (type == 'x') {
+                pax = parsePax(new String(readSmall(data), StandardCharsets.UTF_8));
+            } else {
+                if (type == '0' || type == '\0') {
+                    visitor.onEntry(entryName(name), size, data);
+                }
+                longName = null;
+                pax = new HashMap<>();
+            }
+            data.skipRest();
+            skipFully(in, (TAR_BLOCK - size % TAR_BLOCK) % TAR_BLOCK);
+        }
+        throw new IOException("Tar archive ends without its end marker");
+    }
+
+    private static String tarName(byte[] header) {
+        String name = trimNul(new String(header, 0, 100, StandardCharsets.UTF_8));
+        String prefix = trimNul(new String(header, 345, 155, StandardCharsets.UTF_8));
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    /** An octal field, or a base-256 one as written for files of 8 GB and more. */
+    private static long tarNumber(byte[] header, int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7f;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xff);
+            }
+            return value;
+        }
+        String octal = trimNul(new String(header, offset, length, StandardCharsets.US_ASCII)).trim();
+        try {
+            return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt tar header", e);
+        }
+    }
+
+    private static Map<String, String> parsePax(String records) {
+        Map<String, String> values = new HashMap<>();
+        for (String record : records.split("\n")) {
+            int space = record.indexOf(' ');
+            int equals = record.indexOf('=', space + 1);
+            if (space > 0 && equals > space) {
+                values.put(record.substring(space + 1, equals), record.substring(equals + 1));
+            }
+        }
+        return values;
+    }
+
+    /** The entry name without "./", refusing names that would leave the staging directory. */
+    private static String entryName(String name) throws IOException {
+        while (name.startsWith("./")) {
+            name = name.substring(2);
+        }
+        if (name.startsWith("/")) {
+            throw new IOException("Absolute path in bundle: " + name);
+        }
+        for (String part : name.split("/")) {
+            if (part.equals("..")) {
+                throw new IOException("Path leaves the bundle: " + name);
+            }
+        }
+        return name;
+    }
+
+    private static boolean isSafeName(String name) {
+        return !name.isEmpty() && !name.contains("/") && !name.equals(".") && !name.equals("..");
+    }
+
+    private static String fileNameOf(String url) throws IOException {
+        String fileName = url.substring(url.lastIndexOf('/') + 1);
+        int query = fileName.indexOf('?');
+        fileName = query > 0 ? fileName.substring(0, query) : fileName;
+        if (!isSafeName(fileName)) {
+            throw new IOException("Invalid file name in " + url);
+        }
+        return fileName;
+    }
+
+    private static List<String> modelIds(List<JSONObject> models) throws JSONException {
+        List<String> ids = new ArrayList<>();
+        for (JSONObject model : models) {
+            ids.add(model.getString("id"));
+        }
+        return ids;
+    }
+
+    private static byte[] peek(BufferedInputStream in, int length) throws IOException {
+        in.mark(length);
+        byte[] bytes = new byte[length];
+        int read = 0;
+        int count;
+        while (read < length && (count = in.read(bytes, read, length - read)) != -1) {
+            read += count;
+        }
+        in.reset();
+        byte[] head = new byte[read];
+        System.arraycopy(bytes, 0, head, 0, read);
+        return head;
+    }
+
+    private static byte[] readSmall(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+            if (out.size() > MAX_MANIFEST_BYTES) {
+                throw new IOException("Bundle metadata too large");
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean readFully(InputStream in, byte[] block) throws IOException {
+        int read = 0;
+        while (read < block.length) {
+            int count = in.read(block, read, block.length - read);
+            if (count < 0) {
+                if (read == 0) {
+                    return false;
+                }
+                throw new IOException("Tar archive ends inside a header");
+            }
+            read += count;
+        }
+        return true;
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("Tar archive ends inside an entry");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String trimNul(String value) {
+        int nul = value.indexOf('\0');
+        return nul >= 0 ? value.substring(0, nul) : value;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** The data of one tar entry. */
+    private static final class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Tar archive ends inside an entry");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = in.read(b, off, (int) Math.min(len, remaining));
+            if (count < 0) {
+                throw new IOException("Tar archive ends inside an entry");
+            }
+            remaining -= count;
+            return count;
+        }
+
+        void skipRest() throws IOException {
+            skipFully(in, remaining);
+            remaining = 0;
+        }
+
+        @Override
+        public void close() {
+            // The archive stays open for the next entry
+        }
+    }
+
+    /** Keeps a visitor from closing the zip stream. */
+    private static final class NonClosing extends FilterInputStream {
+        NonClosing(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An installed file a new model file can be assembled from.
+ *
+ * Releases of a model carry their date in the id (breeze2-3b-spin-250501-cpu, then
+ * breeze2-3b-spin-250630-cpu) and often change only a few layers. When the new file has
+ * block digests, the same-named file of the closest installed model is split into blocks of
+ * the same size, and every block of the new file found among them is copied locally by the
+ * {@link SegmentedDownloader} instead of fetched. Blocks are matched by digest, not position,
+ * so blocks that moved by whole blocks are found too.
+ */
+public final class ModelDeltaBase {
+    private static final String TAG = "ModelDeltaBase";
+
+    public final File file;
+    /** Offset in {@link #file} by the lower-case SHA-256 of the block there. */
+    public final Map<String, Long> blocks;
+
+    private ModelDeltaBase(File file, Map<String, Long> blocks) {
+        this.file = file;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Finds the base for target among the installed models, or returns null if target has no
+     * block digests or no installed file shares a block with it. May read the whole base file
+     * to hash it, when its model entry lists no block digests; call it off the main thread.
+     */
+    public static ModelDeltaBase find(Context context, AppConstants.DownloadFileInfo target) {
+        if (target.digest == null || !target.digest.hasBlocks()) {
+            return null;
+        }
+        try {
+            JSONObject baseModel = null;
+            File baseFile = null;
+            int bestScore = -1;
+            JSONArray models = ModelDownloadDialog.readDownloadedModels(context);
+            for (int i = 0; i < models.length(); i++) {
+                JSONObject model = models.getJSONObject(i);
+                String modelId = model.optString("id");
+                File file = new File(new File(new File(context.getFilesDir(), AppConstants.APP_MODEL_DIR), modelId),
+                    target.fileName);
+                if (modelId.equals(target.modelId) || !listsFile(model, target.fileName) || !file.isFile()) {
+                    continue;
+                }
+                // Releases of one model differ in the date near the end of the id
+                int score = commonPrefix(modelId, target.modelId);
+                if (score > bestScore) {
+                    bestScore = score;
+                    baseModel = model;
+                    baseFile = file;
+                }
+            }
+            if (baseFile == null) {
+                return null;
+            }
+
+            Map<String, Long> blocks = listedBlocks(ModelFileDigest.fromModel(baseModel, target.fileName),
+                target.digest.blockSize, baseFile.length());
+            if (blocks == null) {
+                Log.i(TAG, "Hashing " + baseFile + " to find the blocks it shares with " + target.modelId);
+                blocks = hashBlocks(baseFile, target.digest.blockSize);
+            }
+            int shared = 0;
+            for (int i = 0; i < target.digest.blockCount(); i++) {
+                if (blocks.containsKey(target.digest.blockDigest(i))) {
+                    shared++;
+                }
+            }
+            Log.i(TAG, baseFile + " shares " + shared + " of " + target.digest.blockCount()
+                + " blocks with " + target.modelId + "/" + target.fileName);
+            return shared > 0 ? new ModelDeltaBase(baseFile, blocks) : null;
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "No delta base for " + target.fileName + ", downloading it in full", e);
+            return null;
+        }
+    }
+
+    private static boolean listsFile(JSONObject model, String fileName) throws JSONException {
+        JSONArray urls = model.optJSONArray("urls");
+        for (int i = 0; urls != null && i < urls.length(); i++) {
+            String name = urls.getString(i);
+            name = name.substring(name.lastIndexOf('/') + 1);
+            int query = name.indexOf('?');
+            if ((query > 0 ? name.substring(0, query) : name).equals(fileName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** The block digests the model list gave for the base, or null if they are not of blockSize. */
+    private static Map<String, Long> listedBlocks(ModelFileDigest digest, long blockSize, long length) {
+        if (digest == null || digest.blockSize != blockSize || !digest.blocksFit(length)) {
+            return null;
+        }
+        Map<String, Long> blocks = new HashMap<>();
+        for (int i = digest.blockCount() - 1; i >= 0; i--) {
+            blocks.put(digest.blockDigest(i), i * blockSize); // The first of equal blocks wins
+        }
+        return blocks;
+    }
+
+    private static Map<String, Long> hashBlocks(File file, long blockSize) throws IOException {
+        Map<String, Long> blocks = new HashMap<>();
+        byte[] buffer = new byte[(int) Math.min(blockSize, AppConstants.MODEL_DOWNLOAD_BUFFER_SIZE)];
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            long offset = 0;
+            long inBlock = 0;
+            int count;
+            while ((count = in.read(buffer, 0, (int) Math.min(buffer.length, blockSize - inBlock))) != -1) {
+                sha256.update(buffer, 0, count);
+                inBlock += count;
+                if (inBlock == blockSize) {
+                    blocks.putIfAbsent(hex(sha256.digest()), offset);
+                    offset += blockSize;
+                    inBlock = 0;
+                }
+            }
+            if (inBlock > 0) {
+                blocks.putIfAbsent(hex(sha256.digest()), offset);
+            }
+        }
+        return blocks;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < length && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -3,10 +3,10 @@ package com.mtkresearch.breezeapp.utils;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
@@ -16,19 +16,15 @@ import android.widget.Toast;
 
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
-import androidx.viewpager2.widget.ViewPager2;
 
 import com.mtkresearch.breezeapp.R;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.Map;
 
 import android.app.ActivityManager;
@@ -42,6 +38,7 @@ import androidx.preference.PreferenceManager;
 
 public class ModelDownloadDialog extends Dialog {
     private static final String TAG = "ModelDownloadDialog";
+    private static final Object MODEL_LIST_LOCK = new Object();
 
     public enum DownloadMode {
         LLM,
@@ -61,9 +58,11 @@ public class ModelDownloadDialog extends Dialog {
     private Button retryButton;
     private RecyclerView fileRecyclerView;
     private FileDownloadAdapter fileAdapter;
-    private DownloadTask downloadTask;
+    private ModelDownloadService.Subscription downloadSubscription;
+    private ModelDownloadService.Phase downloadPhase = ModelDownloadService.Phase.IDLE;
+    private ModelDownloadService.State shownState; // Last state drawn, to skip unchanged rows
+    private boolean attached = false; // Showing a download of this dialog's mode
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
-    private AtomicBoolean isPaused = new AtomicBoolean(false);
     private List<AppConstants.DownloadFileInfo> downloadFiles = new ArrayList<>();
 
     public ModelDownloadDialog(Context context, IntroDialog parentDialog, DownloadMode mode) {
@@ -139,7 +138,7 @@ public class ModelDownloadDialog extends Dialog {
             String initialMessage = getContext().getString(
                 R.string.model_missing_message_variant, 
                 modelDisplayName,
-                getContext().getString(R.string.calculating_size));
+                knownTotalSize());
                 
             // Add quantization notice for small model
             ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
@@ -175,39 +174,32 @@ public class ModelDownloadDialog extends Dialog {
         cancelButton.setOnClickListener(v -> {
             Log.d(TAG, "Cancel button clicked - attempting to stop download");
             
-            // Properly cancel any running download task
-            if (downloadTask != null) {
-                // Set the cancellation flag first
-                downloadTask.isCancelled = true;
-                
-                // Then call AsyncTask's cancel method with interrupt flag
-                downloadTask.cancel(true);
+            // Stop the download service; the partial files are dropped with its journal
+            if (attached) {
+                ModelDownloadService.cancel(getContext());
                 
                 // Update UI immediately to provide feedback
                 statusText.setText(R.string.download_cancelled);
                 Toast.makeText(getContext(), R.string.download_cancelled, Toast.LENGTH_SHORT).show();
                 
-                Log.d(TAG, "Download task cancellation initiated");
+                Log.d(TAG, "Download cancellation requested");
             }
             
             // Dismiss the dialog
             dismiss();
         });
         pauseResumeButton.setOnClickListener(v -> {
-            if (downloadTask != null) {
-            if (isPaused.get()) {
-                // Resume download
-                isPaused.set(false);
-                pauseResumeButton.setText(R.string.pause);
-                statusText.setText(R.string.download_resuming);
-                synchronized (downloadTask) {
-                    downloadTask.notifyAll(); // Notify waiting threads to continue
-                }
-            } else {
-                // Pause download
-                isPaused.set(true);
-                pauseResumeButton.setText(R.string.resume);
-                statusText.setText(R.string.download_paused);
+            if (attached) {
+                if (downloadPhase == ModelDownloadService.Phase.PAUSED) {
+                    // Resume download
+                    ModelDownloadService.resume(getContext());
+                    pauseResumeButton.setText(R.string.pause);
+                    statusText.setText(R.string.download_resuming);
+                } else {
+                    // Pause download; the service stops it and keeps the partial files
+                    ModelDownloadService.pause(getContext());
+                    pauseResumeButton.setText(R.string.resume);
+                    statusText.setText(R.string.download_paused);
                 }
             }
         });
@@ -228,51 +220,65 @@ public class ModelDownloadDialog extends Dialog {
         setCancelable(false);
     }
 
-    private static File getModelDir(Context context, String modelId) {
-        if (context == null || modelId == null) return null;
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Follow the download service; a download already running is shown right away
+        downloadSubscription = ModelDownloadService.observe(getContext(), this::onDownloadStateChanged);
+    }
 
-        // Get base directory
-        File baseDir = new File(context.getFilesDir(), "models");
-        
-        // Create model-specific directory using model ID
-        File modelDir = new File(baseDir, modelId);
-        
-        // Create directories if they don't exist
-            if (!modelDir.exists() && !modelDir.mkdirs()) {
-            Log.e(TAG, "Failed to create model directory: " + modelDir.getPath());
-                return null;
+    @Override
+    protected void onStop() {
+        // The download keeps running in the service
+        if (downloadSubscription != null) {
+            downloadSubscription.close();
+            downloadSubscription = null;
         }
-
-        return modelDir;
+        super.onStop();
     }
 
     private void startDownload() {
-        // Get available space from the app's private storage
-        long availableSpaceMB = getContext().getFilesDir().getFreeSpace() / (1024 * 1024);
-        long requiredSpace = downloadMode == DownloadMode.TTS ? 125 : 8 * 1024; // 125MB for TTS, 8GB for LLM
+        // Prepare download file list
+        prepareDownloadFileList();
+        if (downloadFiles.isEmpty()) {
+            Toast.makeText(getContext(), R.string.error_preparing_download, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        // Every file is written at its full size, less what earlier attempts left behind
+        long availableSpaceMB = getContext().getFilesDir().getUsableSpace() / (1024 * 1024);
+        long requiredSpaceMB = (ModelDownloadJob.bytesToWrite(getContext(), downloadFiles,
+                new boolean[downloadFiles.size()]) + 1024 * 1024 - 1) / (1024 * 1024);
 
-        Log.d(TAG, String.format("Storage check - Available: %dMB, Required: %dMB", availableSpaceMB, requiredSpace));
+        Log.d(TAG, String.format("Storage check - Available: %dMB, Required: %dMB", availableSpaceMB, requiredSpaceMB));
 
-        if (availableSpaceMB < requiredSpace) {
-            if (downloadMode == DownloadMode.TTS) {
-                Toast.makeText(getContext(), getContext().getString(R.string.insufficient_storage_for_download_mb, requiredSpace),
+        if (availableSpaceMB < requiredSpaceMB) {
+            long missingMB = requiredSpaceMB - availableSpaceMB;
+            if (missingMB < 1024) {
+                Toast.makeText(getContext(), getContext().getString(R.string.insufficient_storage_for_download_mb, (int) missingMB),
                         Toast.LENGTH_LONG).show();
             } else {
-                Toast.makeText(getContext(), getContext().getString(R.string.insufficient_storage_for_download, requiredSpace / 1024),
+                Toast.makeText(getContext(), getContext().getString(R.string.insufficient_storage_for_download, (int) ((missingMB + 1023) / 1024)),
                         Toast.LENGTH_LONG).show();
             }
             dismiss();
             return;
         }
 
-        // Prepare download file list
-        prepareDownloadFileList();
-        if (downloadFiles.isEmpty()) {
-            Toast.makeText(getContext(), R.string.error_preparing_download, Toast.LENGTH_SHORT).show();
-            return;
-        }
+        showProgressUi();
 
-        // Update UI for download start
+        // Setup the files in the adapter
+        setAdapterFiles(downloadFiles);
+        
+        // Display initial status
+        statusText.setText(downloadMode == DownloadMode.TTS ? R.string.download_progress_tts : R.string.downloading);
+        
+        // Hand the download to the service, which outlives this dialog
+        attached = true;
+        ModelDownloadService.start(getContext(), downloadMode, new ArrayList<>(downloadFiles));
+    }
+
+    private void showProgressUi() {
         downloadButton.setEnabled(false);
         downloadButton.setAlpha(AppConstants.DISABLED_ALPHA);
         downloadButton.setVisibility(View.GONE); // Hide the download button completely
@@ -286,24 +292,170 @@ public class ModelDownloadDialog extends Dialog {
         overallProgressText.setText(R.string.overall_progress);
         fileListTitle.setText(R.string.model_files);
         pauseResumeButton.setText(R.string.pause);
-        
-        // Reset pause state
-        isPaused.set(false);
+    }
 
-        // Setup the files in the adapter
+    private void setAdapterFiles(List<AppConstants.DownloadFileInfo> files) {
         // Convert DownloadFileInfo objects to FileDownloadStatus objects
         List<FileDownloadAdapter.FileDownloadStatus> fileStatusList = new ArrayList<>();
-        for (AppConstants.DownloadFileInfo fileInfo : downloadFiles) {
+        for (AppConstants.DownloadFileInfo fileInfo : files) {
             fileStatusList.add(new FileDownloadAdapter.FileDownloadStatus(fileInfo));
         }
         fileAdapter.setFiles(fileStatusList);
+        shownState = null;
+    }
+
+    private void onDownloadStateChanged(ModelDownloadService.State state) {
+        if (state.mode != downloadMode || state.phase == ModelDownloadService.Phase.IDLE) {
+            return;
+        }
+        if (!attached) {
+            if (!state.isActive()) {
+                return; // A download that ended before this dialog opened
+            }
+            // Reopened while the download goes on in the background
+            attached = true;
+            downloadFiles.clear();
+            downloadFiles.addAll(state.files);
+            showProgressUi();
+            setAdapterFiles(downloadFiles);
+        }
+        ModelDownloadService.Phase previousPhase = downloadPhase;
+        downloadPhase = state.phase;
+
+        // Only rows that changed since the last tick are redrawn
+        ModelDownloadService.State previous = shownState;
+        shownState = state;
+        int count = Math.min(state.files.size(), fileAdapter.getItemCount());
+        for (int i = 0; i < count; i++) {
+            long total = state.getFileTotal(i);
+            long downloaded = state.getFileDownloaded(i);
+            int status = state.getFileStatus(i);
+            if (previous != null && previous.files == state.files && previous.getFileDownloaded(i) == downloaded
+                    && previous.getFileTotal(i) == total && previous.getFileStatus(i) == status) {
+                continue;
+            }
+            int progress = total > 0 ? (int) (downloaded * 100 / total) : 0;
+            fileAdapter.updateFileProgress(i, progress, downloaded, total);
+            fileAdapter.updateFileStatus(i, status, state.getFileError(i));
+        }
+
+        switch (state.phase) {
+            case COMPLETED:
+                if (previousPhase != state.phase) {
+                    onDownloadCompleted();
+                }
+                break;
+            case FAILED:
+                if (previousPhase != state.phase) {
+                    onDownloadFailed(state.errorMessage);
+                }
+                break;
+            case CANCELLED:
+                onDownloadCancelled();
+                break;
+            case WAITING:
+                pauseResumeButton.setText(R.string.pause);
+                statusText.setText(ModelDownloadService.waitingMessage(state.blocker));
+                break;
+            case PAUSED:
+                pauseResumeButton.setText(R.string.resume);
+                updateOverallProgress(state);
+                break;
+            default:
+                pauseResumeButton.setText(R.string.pause);
+                updateOverallProgress(state);
+        }
         
-        // Display initial status
-        statusText.setText(downloadMode == DownloadMode.TTS ? R.string.download_progress_tts : R.string.downloading);
+        // Ensure button stays disabled during download
+        if (state.isActive()) {
+            downloadButton.setEnabled(false);
+            downloadButton.setAlpha(AppConstants.DISABLED_ALPHA);
+        }
+    }
+
+    private void onDownloadCompleted() {
+        // Hide pause/resume button when download is complete
+        pauseResumeButton.setVisibility(View.GONE);
+        
+        // The service has saved the downloaded model list
+        statusText.setText(R.string.download_complete);
+        progressBar.setProgress(100);
+        
+        // Keep button disabled on success since download is complete
+        downloadButton.setEnabled(false);
+        downloadButton.setAlpha(AppConstants.DISABLED_ALPHA);
+        retryButton.setVisibility(View.GONE);
+        
+        // Update all file statuses to completed (in case any were missed)
+        for (int i = 0; i < fileAdapter.getItemCount(); i++) {
+            fileAdapter.updateFileStatus(i, AppConstants.DOWNLOAD_STATUS_COMPLETED);
+        }
+        
+        Toast.makeText(getContext(), R.string.download_complete, Toast.LENGTH_SHORT).show();
+        
+        // Recheck requirements to update status
+        if (parentDialog != null) {
+            parentDialog.onModelsDownloaded();
+        }
         
-        // Start download task
-        downloadTask = new DownloadTask();
-        downloadTask.execute();
+        // Dismiss after a short delay to show completion
+        mainHandler.postDelayed(() -> dismiss(), 2000);
+    }
+
+    private void onDownloadFailed(String error) {
+        pauseResumeButton.setVisibility(View.GONE);
+        attached = false;
+        
+        // Only re-enable button if download failed
+        downloadButton.setEnabled(true);
+        downloadButton.setAlpha(AppConstants.ENABLED_ALPHA);
+        
+        // Show retry button when download fails
+        retryButton.setVisibility(View.VISIBLE);
+        
+        // Check if any files were successfully downloaded
+        boolean anySuccess = false;
+        for (FileDownloadAdapter.FileDownloadStatus file : fileAdapter.getFiles()) {
+            if (file.getStatus() == AppConstants.DOWNLOAD_STATUS_COMPLETED) {
+                anySuccess = true;
+                break;
+            }
+        }
+        
+        // Display appropriate error message
+        String errorMessage = error != null ? 
+            error : 
+            getContext().getString(R.string.error_all_download_attempts_failed);
+            
+        if (downloadMode == DownloadMode.TTS) {
+            statusText.setText(getContext().getString(R.string.download_failed_tts, ""));
+        } else {
+            statusText.setText(getContext().getString(R.string.download_failed, ""));
+        }
+        
+        // Show toast with more details
+        String toastMessage = anySuccess ?
+            getContext().getString(R.string.download_partially_complete) :
+            getContext().getString(R.string.error_downloading_model, errorMessage);
+            
+        Toast.makeText(getContext(), toastMessage, Toast.LENGTH_LONG).show();
+    }
+
+    private void onDownloadCancelled() {
+        Log.d(TAG, "Download cancelled - updating UI");
+        attached = false;
+        
+        // Update UI to show cancellation (in case dialog isn't dismissed yet)
+        statusText.setText(R.string.download_cancelled);
+        progressBar.setProgress(0);
+        
+        // Update file statuses to show cancellation
+        for (int i = 0; i < fileAdapter.getItemCount(); i++) {
+            FileDownloadAdapter.FileDownloadStatus status = fileAdapter.getItem(i);
+            if (status != null && status.getStatus() != AppConstants.DOWNLOAD_STATUS_COMPLETED) {
+                fileAdapter.updateFileStatus(i, AppConstants.DOWNLOAD_STATUS_FAILED, "Download cancelled");
+            }
+        }
     }
     
     private void prepareDownloadFileList() {
@@ -326,7 +478,8 @@ public class ModelDownloadDialog extends Dialog {
                             modelId + "/" + fileName,
                             AppConstants.FILE_TYPE_LLM,
                             estimateFileSize(url),
-                            modelId
+                            modelId,
+                            ModelFileDigest.fromModel(model, fileName)
                         ));
                     }
                 }
@@ -380,7 +533,7 @@ public class ModelDownloadDialog extends Dialog {
             String initialMessage = getContext().getString(
                 R.string.model_missing_message_variant, 
                 modelDisplayName,
-                getContext().getString(R.string.calculating_size));
+                knownTotalSize());
                 
             // Add quantization notice for small model
             ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
@@ -395,68 +548,43 @@ public class ModelDownloadDialog extends Dialog {
             Log.d(TAG, "Set initial dialog message while fetching total file sizes for all model files");
         }
         
-        // Create a background thread for network operations
+        // Sizes from earlier visits are already in the list; only stale ones go to the network
+        Context context = getContext();
+        List<AppConstants.DownloadFileInfo> files = new ArrayList<>(downloadFiles);
         new Thread(() -> {
-            boolean allSizesUpdated = true;
-            long totalSize = 0;
-            
-            // Log the files in the download list for debugging
-            Log.d(TAG, "Beginning to fetch sizes for " + downloadFiles.size() + " files:");
-            for (AppConstants.DownloadFileInfo info : downloadFiles) {
-                Log.d(TAG, " - " + info.fileName + " (initial size: " + info.fileSize + " bytes)");
+            List<String> urls = new ArrayList<>();
+            for (AppConstants.DownloadFileInfo info : files) {
+                urls.add(info.url);
             }
-            
+            Map<String, ModelFileProber.Metadata> metadata = ModelFileProber.probeAll(context, urls);
+
             // Get actual file sizes for all files
-            for (int i = 0; i < downloadFiles.size(); i++) {
-                AppConstants.DownloadFileInfo fileInfo = downloadFiles.get(i);
-                
-                try {
-                    // Get the actual file size from server
-                    long actualSize = getFileSizeFromHeadRequest(fileInfo.url);
-                    
-                    // If we got a valid size
-                    if (actualSize > 0) {
-                        // Create new DownloadFileInfo with updated size
-                        AppConstants.DownloadFileInfo updatedInfo = new AppConstants.DownloadFileInfo(
-                            fileInfo.url,
-                            fileInfo.fileName,
-                            fileInfo.displayName,
-                            fileInfo.fileType,
-                            actualSize,
-                            fileInfo.modelId
-                        );
-                        
-                        // Update the list
-                        downloadFiles.set(i, updatedInfo);
-                        
-                        // Update the file size in the adapter
-                        if (fileAdapter != null) {
-                            int finalI = i;
-                            long finalActualSize = actualSize;
-                            mainHandler.post(() -> {
-                                fileAdapter.updateFileProgress(finalI, 0, 0, finalActualSize);
-                            });
-                        }
-                        
-                        totalSize += actualSize;
-                        Log.d(TAG, "Updated file size for " + fileInfo.fileName + ": " + formatFileSize(actualSize));
-                    } else {
-                        // If we couldn't get the actual size, use the estimate
-                        totalSize += fileInfo.fileSize;
-                        allSizesUpdated = false;
-                        Log.w(TAG, "Could not get actual file size for " + fileInfo.fileName + ", using estimate: " + formatFileSize(fileInfo.fileSize));
-                    }
-                } catch (Exception e) {
-                    totalSize += fileInfo.fileSize; // Use estimate on error
-                    allSizesUpdated = false;
-                    Log.e(TAG, "Error getting file size for " + fileInfo.fileName, e);
-                }
+            List<AppConstants.DownloadFileInfo> updatedFiles = new ArrayList<>();
+            long totalSize = 0;
+            for (AppConstants.DownloadFileInfo fileInfo : files) {
+                ModelFileProber.Metadata fileMetadata = metadata.get(fileInfo.url);
+                if (fileMetadata == null) {
+                    Log.w(TAG, "Could not get actual file size for " + fileInfo.fileName + ", using estimate: " + formatFileSize(fileInfo.fileSize));
+                } else if (fileMetadata.size != fileInfo.fileSize) {
+                    // Create new DownloadFileInfo with updated size
+                    fileInfo = new AppConstants.DownloadFileInfo(
+                        fileInfo.url,
+                        fileInfo.fileName,
+                        fileInfo.displayName,
+                        fileInfo.fileType,
+                        fileMetadata.size,
+                        fileInfo.modelId,
+                        fileInfo.digest
+                    );
+                }
+                updatedFiles.add(fileInfo);
+                totalSize += fileInfo.fileSize;
             }
-            
+
             // Calculate and log the total size
             double sizeInGb = totalSize / (1000.0 * 1000.0 * 1000.0);
             Log.d(TAG, String.format("Final confirmed TOTAL size: %.2f GB (%d bytes) from %d files", 
-                sizeInGb, totalSize, downloadFiles.size()));
+                sizeInGb, totalSize, files.size()));
             
             // Format the total size for display
             String formattedTotalSize = formatFileSize(totalSize);
@@ -464,6 +592,11 @@ public class ModelDownloadDialog extends Dialog {
             
             // Update UI on main thread with the total size
             mainHandler.post(() -> {
+                if (!attached) {
+                    downloadFiles.clear();
+                    downloadFiles.addAll(updatedFiles);
+                }
+
                 // Get the TextView
                 if (messageText != null && downloadMode != DownloadMode.TTS) {
                     // Re-get the model display name to ensure consistency
@@ -507,8 +640,8 @@ public class ModelDownloadDialog extends Dialog {
                         finalFormattedTotalSize + " for model: " + modelDisplayName);
                 }
                 
-                // Update file adapter with accurate sizes
-                if (fileAdapter != null) {
+                // Update file adapter with accurate sizes, unless a download already fills it
+                if (fileAdapter != null && !attached) {
                     List<FileDownloadAdapter.FileDownloadStatus> statusList = new ArrayList<>();
                     for (AppConstants.DownloadFileInfo info : downloadFiles) {
                         FileDownloadAdapter.FileDownloadStatus status = new FileDownloadAdapter.FileDownloadStatus(info);
@@ -520,6 +653,21 @@ public class ModelDownloadDialog extends Dialog {
         }).start();
     }
     
+    /**
+     * The total size as far as earlier HEAD requests know it, so repeat visits show it at once
+     */
+    private String knownTotalSize() {
+        long totalSize = 0;
+        for (AppConstants.DownloadFileInfo info : downloadFiles) {
+            ModelFileProber.Metadata metadata = ModelFileProber.peek(info.url);
+            if (metadata == null) {
+                return getContext().getString(R.string.calculating_size);
+            }
+            totalSize += metadata.size;
+        }
+        return totalSize > 0 ? formatFileSize(totalSize) : getContext().getString(R.string.calculating_size);
+    }
+
     /**
      * Format file size to human-readable format
      */
@@ -536,6 +684,101 @@ public class ModelDownloadDialog extends Dialog {
         return String.format("%.2f %s", size / Math.pow(1000, digitGroups), AppConstants.FILE_SIZE_UNITS[digitGroups]);
     }
     
+    /**
+     * Adds models whose files are in place to downloadedModelList.json, replacing entries
+     * with the same id, and selects the first of them if the selected model is not installed.
+     */
+    public static void registerDownloadedModels(Context context, List<JSONObject> models) throws IOException {
+        synchronized (MODEL_LIST_LOCK) {
+            try {
+                List<String> newIds = new ArrayList<>();
+                for (JSONObject model : models) {
+                    newIds.add(model.getString("id"));
+                }
+                JSONArray modelsArray = new JSONArray();
+                JSONArray previous = readDownloadedModels(context);
+                for (int i = 0; i < previous.length(); i++) {
+                    JSONObject model = previous.getJSONObject(i);
+                    if (!newIds.contains(model.optString("id"))) {
+                        modelsArray.put(model);
+                    }
+                }
+                List<String> installedIds = new ArrayList<>();
+                for (int i = 0; i < modelsArray.length(); i++) {
+                    installedIds.add(modelsArray.getJSONObject(i).optString("id"));
+                }
+                for (JSONObject model : models) {
+                    modelsArray.put(model);
+                }
+                installedIds.addAll(newIds);
+
+                JSONObject downloadedModels = new JSONObject();
+                downloadedModels.put("models", modelsArray);
+                writeDownloadedModels(context, downloadedModels);
+
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+                if (!newIds.isEmpty() && !installedIds.contains(prefs.getString("llm_model_id", ""))) {
+                    prefs.edit().putString("llm_model_id", newIds.get(0)).apply();
+                    Log.i(TAG, "Set default model in preferences: " + newIds.get(0));
+                }
+            } catch (JSONException e) {
+                throw new IOException("Error registering downloaded models", e);
+            }
+        }
+    }
+
+    /** The models in downloadedModelList.json, empty if there is none or it is unreadable. */
+    static JSONArray readDownloadedModels(Context context) {
+        File file = new File(context.getFilesDir(), "downloadedModelList.json");
+        if (!file.exists()) {
+            return new JSONArray();
+        }
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            JSONArray models = new JSONObject(new String(bytes, 0, read, StandardCharsets.UTF_8)).optJSONArray("models");
+            return models != null ? models : new JSONArray();
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Unreadable downloaded model list", e);
+            return new JSONArray();
+        }
+    }
+
+    private static boolean hasAllFiles(Context context, JSONObject model) throws JSONException {
+        File modelDir = new File(new File(context.getFilesDir(), AppConstants.APP_MODEL_DIR), model.getString("id"));
+        JSONArray urls = model.getJSONArray("urls");
+        for (int j = 0; j < urls.length(); j++) {
+            File modelFile = new File(modelDir, getFileNameFromUrl(urls.getString(j)));
+            if (!modelFile.exists() || modelFile.length() == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Replaces downloadedModelList.json in one step, so readers never see half a list. */
+    private static void writeDownloadedModels(Context context, JSONObject downloadedModels) throws IOException, JSONException {
+        File file = new File(context.getFilesDir(), "downloadedModelList.json");
+        File temp = new File(context.getFilesDir(), "downloadedModelList.json.tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            fos.write(downloadedModels.toString(2).getBytes(StandardCharsets.UTF_8));
+            fos.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file.getAbsolutePath());
+        }
+        Log.i(TAG, "Successfully wrote downloaded model list to " + file.getAbsolutePath() +
+                 " with " + downloadedModels.getJSONArray("models").length() + " models");
+    }
+
     private static String getFileNameFromUrl(String url) {
         String[] parts = url.split("/");
         String lastPart = parts[parts.length - 1];
@@ -545,23 +788,17 @@ public class ModelDownloadDialog extends Dialog {
     
     /**
      * Estimates or retrieves the file size for a given URL.
-     * First tries to get the size from the server using a HEAD request.
-     * Falls back to approximate sizes if that fails.
+     * Uses the size from the last HEAD request if there was one, without waiting for the network.
+     * Falls back to approximate sizes otherwise; fetchFileSizesAsync corrects them.
      */
     private long estimateFileSize(String url) {
-        // Try to get the actual size from server via HEAD request first
-        // This is always the preferred method to ensure accurate size display
-        long size = getFileSizeFromHeadRequest(url);
-        if (size > 0) {
-            Log.d(TAG, "Using actual file size from HEAD request: " + formatFileSize(size) + " for " + url);
-            return size;
+        ModelFileProber.Metadata metadata = ModelFileProber.peek(url);
+        if (metadata != null) {
+            Log.d(TAG, "Using cached file size: " + formatFileSize(metadata.size) + " for " + url);
+            return metadata.size;
         }
 
-        // If HEAD request failed, use reasonable fallback estimates
-        // These are only used if the network request fails
-        Log.d(TAG, "HEAD request failed, using fallback file size estimate for " + url);
-        
-        // Fallback estimates only if server request fails
+        // Fallback estimates until the server has answered once
         if (url.contains("tokenizer")) {
             Log.d(TAG, "Using fallback size for tokenizer");
             return 2_500_000L; // ~2.5MB estimate for tokenizer
@@ -579,699 +816,34 @@ public class ModelDownloadDialog extends Dialog {
             return 50_000_000L; // 50MB default conservative estimate
         }
     }
-    
-    /**
-     * Makes a HEAD request to get the file size from Content-Length header.
-     * Handles redirects and retries with proper error reporting.
-     * 
-     * @param urlString URL to check
-     * @return file size in bytes, or -1 if unable to determine
-     */
-    private long getFileSizeFromHeadRequest(String urlString) {
-        HttpURLConnection connection = null;
-        try {
-            // Extract filename from URL for more helpful logging
-            String fileName = urlString.substring(urlString.lastIndexOf('/') + 1);
-            if (fileName.contains("?")) {
-                fileName = fileName.substring(0, fileName.indexOf('?'));
-            }
-            
-            URL url = new URL(urlString);
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("HEAD");
-            connection.setConnectTimeout(5000); // 5 second timeout for network conditions
-            connection.setReadTimeout(5000);
-            
-            // Set common headers for better compatibility
-            for (String[] header : AppConstants.DOWNLOAD_HEADERS) {
-                connection.setRequestProperty(header[0], header[1]);
-            }
-            
-            // Add a user agent to avoid server restrictions
-            connection.setRequestProperty("User-Agent", "Mozilla/5.0 (Android) BreezeApp");
-            
-            int responseCode = connection.getResponseCode();
-            Log.d(TAG, "HEAD request for " + fileName + " responded with code: " + responseCode);
-            
-            // Handle redirects manually if needed
-            if (responseCode == HttpURLConnection.HTTP_MOVED_TEMP || 
-                responseCode == HttpURLConnection.HTTP_MOVED_PERM || 
-                responseCode == HttpURLConnection.HTTP_SEE_OTHER) {
-                
-                String redirectUrl = connection.getHeaderField("Location");
-                if (redirectUrl != null) {
-                    connection.disconnect();
-                    Log.d(TAG, "Following redirect to: " + redirectUrl);
-                    return getFileSizeFromHeadRequest(redirectUrl);
-                }
-            }
-            
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                long contentLength = connection.getContentLengthLong();
-                
-                // Log all relevant headers for debugging
-                Map<String, List<String>> headers = connection.getHeaderFields();
-                StringBuilder headerLog = new StringBuilder("Response headers for ").append(fileName).append(":\n");
-                for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
-                    if (entry.getKey() != null) {
-                        headerLog.append(" - ").append(entry.getKey()).append(": ")
-                                 .append(String.join(", ", entry.getValue())).append("\n");
-                    }
-                }
-                Log.d(TAG, headerLog.toString());
-                
-                if (contentLength > 0) {
-                    Log.d(TAG, "Content-Length for " + fileName + ": " + contentLength + " bytes (" + 
-                          formatFileSize(contentLength) + ")");
-                    return contentLength;
-                } else {
-                    Log.w(TAG, "Server didn't provide Content-Length header for " + fileName);
-                }
-            } else {
-                Log.w(TAG, "HEAD request failed with response code: " + responseCode + " for " + fileName);
-            }
-        } catch (Exception e) {
-            Log.w(TAG, "Failed to get file size from HEAD request: " + e.getMessage());
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
-        }
-        return -1;
-    }
-
-    private class DownloadTask extends AsyncTask<Void, Integer, Boolean> {
-        private Exception error;
-        private volatile boolean isCancelled = false;
-
-        public DownloadTask() {
-        }
-
-        public boolean isDownloadCancelled() {
-            return super.isCancelled() || isCancelled;
-        }
-        
-        @Override
-        protected Boolean doInBackground(Void... params) {
-            boolean allFilesDownloaded = true;
-            
-            // Process each file in the download list
-            for (int i = 0; i < downloadFiles.size(); i++) {
-                AppConstants.DownloadFileInfo fileInfo = downloadFiles.get(i);
-                final int fileIndex = i;
-                
-                // Update UI to show which file is being downloaded
-                mainHandler.post(() -> {
-                    statusText.setText(getContext().getString(R.string.downloading_file, fileInfo.displayName));
-                    fileAdapter.updateFileStatus(fileIndex, AppConstants.DOWNLOAD_STATUS_IN_PROGRESS);
-                });
-                
-                if (!downloadFile(fileInfo, fileIndex)) {
-                    allFilesDownloaded = false;
-                    
-                    // Try alternative URL if available (for LLM models)
-                    if (downloadMode == DownloadMode.LLM && AppConstants.FILE_TYPE_LLM.equals(fileInfo.fileType)) {
-                        // Loop through alternative URLs
-                        for (int j = 2; j < AppConstants.MODEL_DOWNLOAD_URLS.length; j++) {
-                            AppConstants.DownloadFileInfo alternativeFile = new AppConstants.DownloadFileInfo(
-                                AppConstants.MODEL_DOWNLOAD_URLS[j],
-                                fileInfo.fileName,
-                                fileInfo.displayName + " (Alternative Source)",
-                                fileInfo.fileType,
-                                fileInfo.fileSize,
-                                fileInfo.modelId
-                            );
-                            
-                            if (downloadFile(alternativeFile, fileIndex)) {
-                                allFilesDownloaded = true;
-                                break;
-                            }
-                            
-                            if (isCancelled()) {
-                                return false;
-                            }
-                        }
-                    }
-                    
-                    // If still unsuccessful, mark as failed and continue to next file
-                    if (!allFilesDownloaded) {
-                        final String errorMsg = error != null ? error.getMessage() : "Unknown error";
-                        mainHandler.post(() -> {
-                            fileAdapter.updateFileStatus(fileIndex, AppConstants.DOWNLOAD_STATUS_FAILED, errorMsg);
-                        });
-                    }
-                }
-                
-                if (isCancelled()) {
-                    return false;
-                }
-            }
-            
-            return allFilesDownloaded;
-        }
-        
-        private boolean downloadFile(AppConstants.DownloadFileInfo fileInfo, int fileIndex) {
-            InputStream input = null;
-            FileOutputStream output = null;
-            HttpURLConnection connection = null;
-
-            try {
-                // Check model ID first
-                if (fileInfo.modelId == null) {
-                    throw new IOException("Model ID is null for file: " + fileInfo.fileName);
-                }
-
-                // Check for cancellation at the start
-                if (isDownloadCancelled()) {
-                    // Only log if verbose logging is enabled
-                    if (AppConstants.ENABLE_DOWNLOAD_VERBOSE_LOGGING) {
-                        Log.d(TAG, "Download cancelled before starting file: " + fileInfo.fileName);
-                    }
-                    return false;
-                }
-                
-                // Check available storage space first
-                long availableSpace = getContext().getFilesDir().getFreeSpace() / (1024 * 1024); // Convert to MB
-                long requiredSpace = Math.max(fileInfo.fileSize / (1024 * 1024), 100); // At least 100MB or file size in MB
-                
-                // Only log if verbose logging is enabled
-                if (AppConstants.ENABLE_DOWNLOAD_VERBOSE_LOGGING) {
-                Log.d(TAG, String.format("Download attempt - URL: %s, File: %s, Available: %dMB, Required: %dMB",
-                    fileInfo.url, fileInfo.fileName, availableSpace, requiredSpace));
-                }
-
-                if (availableSpace < requiredSpace) {
-                    throw new IOException("Insufficient storage space. Need " + requiredSpace + "MB free.");
-                }
-
-                // Get model directory using the model ID
-                File modelDir = getModelDir(getContext(), fileInfo.modelId);
-                if (modelDir == null) {
-                    throw new IOException("Failed to create directory for model: " + fileInfo.modelId);
-                }
-
-                // Setup files
-                File outputFile = new File(modelDir, fileInfo.fileName);
-                File tempFile = new File(modelDir, fileInfo.fileName + AppConstants.MODEL_DOWNLOAD_TEMP_EXTENSION);
-                long existingLength = 0;
-
-                // Check for cancellation before network operations
-                if (isDownloadCancelled()) {
-                    // Only log if verbose logging is enabled
-                    if (AppConstants.ENABLE_DOWNLOAD_VERBOSE_LOGGING) {
-                        Log.d(TAG, "Download cancelled before establishing connection: " + fileInfo.fileName);
-                    }
-                    return false;
-                }
-
-                // Check for existing temporary file
-                if (tempFile.exists()) {
-                    existingLength = tempFile.length();
-                    Log.i(TAG, "Found existing partial download: " + existingLength + " bytes");
-                    
-                    // Update UI with existing progress
-                    if (fileInfo.fileSize > 0 && existingLength > 0) {
-                        final int progress = (int) (existingLength * 100 / fileInfo.fileSize);
-                        final long downloadedBytes = existingLength;
-                        mainHandler.post(() -> {
-                            fileAdapter.updateFileProgress(fileIndex, progress, downloadedBytes);
-                        });
-                    }
-                }
 
-                URL url = new URL(fileInfo.url);
-                connection = (HttpURLConnection) url.openConnection();
-                
-                // Set all required headers
-                for (String[] header : AppConstants.DOWNLOAD_HEADERS) {
-                    connection.setRequestProperty(header[0], header[1]);
-                }
-
-                // Add Range header if we have partial file
-                if (existingLength > 0) {
-                    connection.setRequestProperty("Range", "bytes=" + existingLength + "-");
-                    Log.d(TAG, "Resuming download from byte " + existingLength);
-                }
-                
-                // Set timeouts
-                connection.setConnectTimeout((int) AppConstants.MODEL_DOWNLOAD_TIMEOUT_MS);
-                connection.setReadTimeout((int) AppConstants.MODEL_DOWNLOAD_TIMEOUT_MS);
-                
-                // Connect to the URL
-                connection.connect();
-                
-                // Handle redirects
-                int responseCode = connection.getResponseCode();
-                if (responseCode == HttpURLConnection.HTTP_MOVED_TEMP || 
-                    responseCode == HttpURLConnection.HTTP_MOVED_PERM || 
-                    responseCode == HttpURLConnection.HTTP_SEE_OTHER) {
-                    
-                    String redirectUrl = connection.getHeaderField("Location");
-                    if (redirectUrl == null) {
-                        Log.w(TAG, "Redirect URL is null for " + fileInfo.url);
-                        return false;
-                    }
-                    
-                    connection.disconnect();
-                    url = new URL(redirectUrl);
-                    connection = (HttpURLConnection) url.openConnection();
-                    
-                    // Set headers again for redirected URL
-                    for (String[] header : AppConstants.DOWNLOAD_HEADERS) {
-                        connection.setRequestProperty(header[0], header[1]);
-                    }
-                    if (existingLength > 0) {
-                        connection.setRequestProperty("Range", "bytes=" + existingLength + "-");
-                    }
-                    connection.setConnectTimeout((int) AppConstants.MODEL_DOWNLOAD_TIMEOUT_MS);
-                    connection.setReadTimeout((int) AppConstants.MODEL_DOWNLOAD_TIMEOUT_MS);
-                    connection.connect();
-                    
-                    responseCode = connection.getResponseCode();
-                }
-
-                // Check if range request was accepted
-                boolean isResuming = (responseCode == HttpURLConnection.HTTP_PARTIAL);
-                if (!isResuming && responseCode != HttpURLConnection.HTTP_OK) {
-                    String errorMessage = "";
-                    try {
-                        errorMessage = connection.getResponseMessage();
-                        try (InputStream errorStream = connection.getErrorStream()) {
-                            if (errorStream != null) {
-                                byte[] errorBytes = new byte[1024];
-                                int bytesRead = errorStream.read(errorBytes);
-                                if (bytesRead > 0) {
-                                    errorMessage += " - " + new String(errorBytes, 0, bytesRead);
-                                }
-                            }
-                        }
-                    } catch (IOException e) {
-                        errorMessage = e.getMessage();
-                    }
-                    Log.w(TAG, String.format("Failed to download from %s: HTTP %d %s", 
-                        fileInfo.url, responseCode, errorMessage));
-                    return false;
-                }
-
-                // Get the file length
-                long fileLength = connection.getContentLengthLong();
-                if (isResuming) {
-                    String contentRange = connection.getHeaderField("Content-Range");
-                    if (contentRange != null) {
-                        String[] parts = contentRange.split("/");
-                        if (parts.length == 2) {
-                            try {
-                            fileLength = Long.parseLong(parts[1]);
-                                Log.d(TAG, "Content-Range total size: " + ModelDownloadDialog.this.formatFileSize(fileLength));
-                            } catch (NumberFormatException e) {
-                                Log.e(TAG, "Failed to parse Content-Range: " + contentRange, e);
-                            }
-                        }
-                    }
-                }
-                
-                // Log content length information for debugging
-                Log.d(TAG, String.format("Content-Length: %d, Estimated Size: %d, Resuming: %b", 
-                      fileLength, fileInfo.fileSize, isResuming));
-                
-                // Always update the file size if content length is available
-                if (fileLength > 0) {
-                    final long updatedSize = fileLength;
-                    final long finalExistingLength = existingLength; // Make existingLength final for lambda
-                    Log.d(TAG, "Updating file size for " + fileInfo.fileName + " from " + 
-                          ModelDownloadDialog.this.formatFileSize(fileInfo.fileSize) + " to " + ModelDownloadDialog.this.formatFileSize(updatedSize));
-                    mainHandler.post(() -> {
-                        // Use the actual file length for progress calculation
-                        int progressPercent = (int) (finalExistingLength * 100 / updatedSize);
-                        fileAdapter.updateFileProgress(fileIndex, progressPercent, finalExistingLength, updatedSize);
-                        // Force update overall progress to reflect the new file size
-                        updateOverallProgress();
-                    });
-                } else if (fileLength <= 0) {
-                    // If content length is not provided, use the estimated size
-                    fileLength = fileInfo.fileSize;
-                    Log.w(TAG, "No Content-Length header, using estimated size: " + ModelDownloadDialog.this.formatFileSize(fileLength));
-                }
-                
-                input = connection.getInputStream();
-                
-                // Open output in append mode if resuming
-                output = new FileOutputStream(tempFile, isResuming);
-
-                byte[] data = new byte[AppConstants.MODEL_DOWNLOAD_BUFFER_SIZE];
-                long total = existingLength;
-                int count;
-                int lastProgress = 0;
-                long lastUIUpdateTime = System.currentTimeMillis();
-
-                while ((count = input.read(data)) != -1) {
-                    // Handle pause/resume
-                    while (isPaused.get() && !isDownloadCancelled()) {
-                        try {
-                            // Update UI to show paused status periodically
-                            long currentTime = System.currentTimeMillis();
-                            if (currentTime - lastUIUpdateTime > 500) { // Update UI every 500ms while paused
-                                lastUIUpdateTime = currentTime;
-                                final int fileProgress = (int) (total * 100 / fileLength);
-                                final long downloadedBytes = total;
-                                final long actualFileLength = fileLength;
-                                mainHandler.post(() -> {
-                                    fileAdapter.updateFileStatus(fileIndex, AppConstants.DOWNLOAD_STATUS_PAUSED);
-                                    fileAdapter.updateFileProgress(fileIndex, fileProgress, downloadedBytes, actualFileLength);
-                                    updateOverallProgress();
-                                });
-                            }
-                            
-                            synchronized (downloadTask) {
-                                downloadTask.wait(500); // Wait until resumed or every 500ms to check for cancel
-                            }
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            break;
-                        }
-                        
-                        // High priority cancellation check inside pause loop
-                        if (isDownloadCancelled()) {
-                            Log.d(TAG, "Download cancelled while paused for file: " + fileInfo.fileName);
-                            return false;
-                        }
-                    }
-                    
-                    // If just resumed, update status to downloading
-                    if (!isPaused.get() && !isDownloadCancelled()) {
-                        mainHandler.post(() -> {
-                            fileAdapter.updateFileStatus(fileIndex, AppConstants.DOWNLOAD_STATUS_IN_PROGRESS);
-                        });
-                    }
-                    
-                    // High priority cancellation check
-                    if (isDownloadCancelled()) {
-                        Log.d(TAG, "Download cancelled during download loop for: " + fileInfo.fileName);
-                        try {
-                        input.close();
-                        output.close();
-                        } catch (IOException e) {
-                            Log.w(TAG, "Error closing streams during cancellation: " + e.getMessage());
-                        }
-                        // Important: Don't delete the temp file so download can be resumed later
-                        Log.d(TAG, "Preserving temp file for future resume: " + tempFile.getPath());
-                        return false;
-                    }
-                    
-                    total += count;
-                    output.write(data, 0, count);
-
-                    if (fileLength > 0) {
-                        int fileProgress = (int) (total * 100 / fileLength);
-                        long currentTime = System.currentTimeMillis();
-                        
-                        // Update progress in UI if it has changed significantly or enough time has passed
-                        if (fileProgress > lastProgress || currentTime - lastUIUpdateTime > 1000) {
-                            final int progress = fileProgress;
-                            final long downloadedBytes = total;
-                            final long actualFileLength = fileLength; // Use actual file length from server
-                            mainHandler.post(() -> {
-                                fileAdapter.updateFileProgress(fileIndex, progress, downloadedBytes, actualFileLength);
-                                // Also update overall progress
-                                updateOverallProgress();
-                            });
-                            lastProgress = fileProgress;
-                            lastUIUpdateTime = currentTime;
-                        }
-                    }
-                }
-
-                // Close streams before moving file
-                output.close();
-                output = null;
-                input.close();
-                input = null;
-
-                // Verify the downloaded file
-                if (!tempFile.exists()) {
-                    throw new IOException("Download failed - temporary file missing");
-                }
 
-                // Move temp file to final location
-                if (!tempFile.renameTo(outputFile)) {
-                    throw new IOException("Failed to move temporary file to final location");
-                }
-
-                // Update file status to complete
-                mainHandler.post(() -> {
-                    fileAdapter.updateFileStatus(fileIndex, AppConstants.DOWNLOAD_STATUS_COMPLETED);
-                    updateOverallProgress();
-                });
-
-                // Log successful download
-                Log.i(TAG, "Successfully downloaded " + fileInfo.fileName + " from " + fileInfo.url);
-                return true;
-
-            } catch (Exception e) {
-                error = e;
-                Log.e(TAG, "Error downloading from " + fileInfo.url + ": " + e.getMessage(), e);
-                return false;
-            } finally {
-                try {
-                    if (output != null) output.close();
-                    if (input != null) input.close();
-                } catch (IOException ignored) {
-                }
-                if (connection != null) connection.disconnect();
-            }
-        }
-
-        /**
-         * Updates the overall progress in the UI based on individual file progress
-         */
-        private void updateOverallProgress() {
-            // Skip detailed logging if verbose logging is disabled
-            if (!AppConstants.ENABLE_DOWNLOAD_VERBOSE_LOGGING) {
-                // Still calculate progress but skip logging
-            long totalSize = 0;
-            long totalDownloaded = 0;
-            boolean allComplete = true;
-            
-            List<FileDownloadAdapter.FileDownloadStatus> files = fileAdapter.getFiles();
-                for (int i = 0; i < files.size(); i++) {
-                    FileDownloadAdapter.FileDownloadStatus file = files.get(i);
-                    long fileSize = file.getTotalBytes();
-                    long fileDownloaded = file.getDownloadedBytes();
-                    
-                    totalSize += fileSize;
-                    totalDownloaded += fileDownloaded;
-                
-                if (file.getStatus() != AppConstants.DOWNLOAD_STATUS_COMPLETED) {
-                    allComplete = false;
-                }
-            }
-            
-                // Calculate overall progress based on total downloaded bytes and total size
-                int overallProgress = 0;
-                if (totalSize > 0) {
-                    overallProgress = (int) (totalDownloaded * 100 / totalSize);
-                }
-                
-            progressBar.setProgress(overallProgress);
-            
-            // Update status message based on download state
-            if (isPaused.get()) {
-                statusText.setText(R.string.download_paused);
-            } else if (allComplete) {
-                statusText.setText(R.string.download_complete);
-            } else {
-                // Format downloaded/total size
-                    String downloadedStr = ModelDownloadDialog.this.formatFileSize(totalDownloaded);
-                    String totalStr = ModelDownloadDialog.this.formatFileSize(totalSize);
-                statusText.setText(downloadedStr + " / " + totalStr + " ("+overallProgress+"%)" );
-            }
-                return;
-            }
-            
-            // Full verbose logging below this point
-            long totalSize = 0;
-            long totalDownloaded = 0;
-            boolean allComplete = true;
-            
-            // Log individual files details
-            Log.d(TAG, "--- Calculating overall progress ---");
-            List<FileDownloadAdapter.FileDownloadStatus> files = fileAdapter.getFiles();
-            for (int i = 0; i < files.size(); i++) {
-                FileDownloadAdapter.FileDownloadStatus file = files.get(i);
-                long fileSize = file.getTotalBytes();
-                long fileDownloaded = file.getDownloadedBytes();
-                
-                // Add logging for debugging
-                Log.d(TAG, String.format("File %d: %s - Size: %s (%d bytes), Downloaded: %s (%d bytes), Status: %d", 
-                      i+1,
-                      file.getFileInfo().fileName,
-                      ModelDownloadDialog.this.formatFileSize(fileSize),
-                      fileSize,
-                      ModelDownloadDialog.this.formatFileSize(fileDownloaded),
-                      fileDownloaded,
-                      file.getStatus()));
-                
-                totalSize += fileSize;
-                totalDownloaded += fileDownloaded;
-                
-                if (file.getStatus() != AppConstants.DOWNLOAD_STATUS_COMPLETED) {
-                    allComplete = false;
-                }
-            }
-            
-            // Log total download progress
-            Log.d(TAG, String.format("Overall - Total size: %s (%d bytes), Total downloaded: %s (%d bytes), Files: %d", 
-                  ModelDownloadDialog.this.formatFileSize(totalSize),
-                  totalSize,
-                  ModelDownloadDialog.this.formatFileSize(totalDownloaded),
-                  totalDownloaded,
-                  files.size()));
-            
-            // Calculate overall progress based on total downloaded bytes and total size
-            int overallProgress = 0;
-            if (totalSize > 0) {
-                overallProgress = (int) (totalDownloaded * 100 / totalSize);
-            }
-            
-            progressBar.setProgress(overallProgress);
-            
-            // Update status message based on download state
-            if (isPaused.get()) {
-                statusText.setText(R.string.download_paused);
-            } else if (allComplete) {
-                statusText.setText(R.string.download_complete);
-            } else {
-                // Format downloaded/total size
-                String downloadedStr = ModelDownloadDialog.this.formatFileSize(totalDownloaded);
-                String totalStr = ModelDownloadDialog.this.formatFileSize(totalSize);
-                
-                // Log the exact values that will be displayed
-                Log.d(TAG, String.format("Progress display: %s / %s (%d%%)", downloadedStr, totalStr, overallProgress));
-                
-                statusText.setText(downloadedStr + " / " + totalStr + " ("+overallProgress+"%)" );
-            }
+    /**
+     * Updates the overall progress in the UI from the totals, speed and ETA of the state
+     */
+    private void updateOverallProgress(ModelDownloadService.State state) {
+        long totalSize = state.getTotalBytes();
+        long totalDownloaded = state.getDownloadedBytes();
+        int overallProgress = totalSize > 0 ? (int) (totalDownloaded * 100 / totalSize) : 0;
+
+        if (AppConstants.ENABLE_DOWNLOAD_VERBOSE_LOGGING) {
+            Log.d(TAG, String.format("Overall - Total size: %d bytes, Downloaded: %d bytes, Speed: %d B/s, ETA: %d ms",
+                  totalSize, totalDownloaded, state.getBytesPerSecond(), state.getEtaMs()));
         }
 
-        @Override
-        protected void onProgressUpdate(Integer... values) {
-            progressBar.setProgress(values[0]);
-            // We don't need to update statusText here as it's handled by updateOverallProgress
-            
-            // Ensure button stays disabled during download
-            downloadButton.setEnabled(false);
-            downloadButton.setAlpha(AppConstants.DISABLED_ALPHA);
-        }
+        progressBar.setProgress(overallProgress);
 
-        @Override
-        protected void onPostExecute(Boolean success) {
-            // Hide pause/resume button when download is complete
-            pauseResumeButton.setVisibility(View.GONE);
-            
-            if (success) {
-                // Save the downloaded model list
-                JSONObject filteredModelList = ModelFilter.readFilteredModelList(getContext());
-                if (filteredModelList != null) {
-                    saveDownloadedModelList(getContext(), filteredModelList);
-                }
-                statusText.setText(R.string.download_complete);
-                progressBar.setProgress(100);
-                
-                // Keep button disabled on success since download is complete
-                downloadButton.setEnabled(false);
-                downloadButton.setAlpha(AppConstants.DISABLED_ALPHA);
-                retryButton.setVisibility(View.GONE);
-                
-                // Update all file statuses to completed (in case any were missed)
-                for (int i = 0; i < fileAdapter.getItemCount(); i++) {
-                    fileAdapter.updateFileStatus(i, AppConstants.DOWNLOAD_STATUS_COMPLETED);
-                }
-                
-                Toast.makeText(getContext(), R.string.download_complete, Toast.LENGTH_SHORT).show();
-                
-                // Ensure we recheck system requirements before dismissing
-                if (getContext() instanceof android.app.Activity) {
-                    android.app.Activity activity = (android.app.Activity) getContext();
-                    activity.runOnUiThread(() -> {
-                        // Recheck requirements to update status
-                        if (getOwnerActivity() instanceof android.app.Activity) {
-                            android.app.Activity ownerActivity = getOwnerActivity();
-                            android.view.View currentFocus = ownerActivity.getCurrentFocus();
-                            if (currentFocus instanceof ViewPager2) {
-                                ViewPager2 viewPager = (ViewPager2) currentFocus;
-                                if (viewPager.getAdapter() instanceof IntroDialog.IntroPagerAdapter) {
-                                    IntroDialog.IntroPagerAdapter adapter = 
-                                        (IntroDialog.IntroPagerAdapter) viewPager.getAdapter();
-                                    adapter.updateRequirementsPage(
-                                        parentDialog.buildRequirementsDescription(getContext()));
-                                }
-                            }
-                        }
-                    });
-                }
-                
-                // Dismiss after a short delay to show completion
-                mainHandler.postDelayed(() -> dismiss(), 2000);
-            } else {
-                // Only re-enable button if download failed
-                downloadButton.setEnabled(true);
-                downloadButton.setAlpha(AppConstants.ENABLED_ALPHA);
-                
-                // Show retry button when download fails
-                retryButton.setVisibility(View.VISIBLE);
-                
-                // Check if any files were successfully downloaded
-                boolean anySuccess = false;
-                for (FileDownloadAdapter.FileDownloadStatus file : fileAdapter.getFiles()) {
-                    if (file.getStatus() == AppConstants.DOWNLOAD_STATUS_COMPLETED) {
-                        anySuccess = true;
-                        break;
-                    }
-                }
-                
-                // Display appropriate error message
-                String errorMessage = error != null ? 
-                    error.getMessage() : 
-                    getContext().getString(R.string.error_all_download_attempts_failed);
-                    
-                if (downloadMode == DownloadMode.TTS) {
-                    statusText.setText(getContext().getString(R.string.download_failed_tts, ""));
-                } else {
-                    statusText.setText(getContext().getString(R.string.download_failed, ""));
-                }
-                
-                // Show toast with more details
-                String toastMessage = anySuccess ?
-                    getContext().getString(R.string.download_partially_complete) :
-                    getContext().getString(R.string.error_downloading_model, errorMessage);
-                    
-                Toast.makeText(getContext(), toastMessage, Toast.LENGTH_LONG).show();
-            }
+        // Update status message based on download state
+        if (downloadPhase == ModelDownloadService.Phase.PAUSED) {
+            statusText.setText(R.string.download_paused);
+            return;
         }
-
-        @Override
-        protected void onCancelled() {
-            Log.d(TAG, "Download task onCancelled called - performing cleanup");
-            
-            // Ensure our cancellation flag is set
-            isCancelled = true;
-            
-            // Update UI to show cancellation (in case dialog isn't dismissed yet)
-            mainHandler.post(() -> {
-                statusText.setText(R.string.download_cancelled);
-                progressBar.setProgress(0);
-                
-                // Update file statuses to show cancellation
-                for (int i = 0; i < fileAdapter.getItemCount(); i++) {
-                    FileDownloadAdapter.FileDownloadStatus status = fileAdapter.getItem(i);
-                    if (status != null && status.getStatus() != AppConstants.DOWNLOAD_STATUS_COMPLETED) {
-                        fileAdapter.updateFileStatus(i, AppConstants.DOWNLOAD_STATUS_FAILED, "Download cancelled");
-                    }
-                }
-            });
-            
-            // Let the parent class handle any additional cleanup
-            super.onCancelled();
+        String text = formatFileSize(totalDownloaded) + " / " + formatFileSize(totalSize) + " (" + overallProgress + "%)";
+        if (state.getBytesPerSecond() > 0 && state.getEtaMs() >= 0) {
+            text += " · " + getContext().getString(R.string.download_speed_eta,
+                formatFileSize(state.getBytesPerSecond()), DateUtils.formatElapsedTime(state.getEtaMs() / 1000));
         }
+        statusText.setText(text);
     }
 
     /**
@@ -1285,6 +857,12 @@ public class ModelDownloadDialog extends Dialog {
     }
 
     public static void saveDownloadedModelList(Context context, JSONObject filteredModelList) {
+        synchronized (MODEL_LIST_LOCK) {
+            saveDownloadedModelListLocked(context, filteredModelList);
+        }
+    }
+
+    private static void saveDownloadedModelListLocked(Context context, JSONObject filteredModelList) {
         try {
             JSONObject downloadedModels = new JSONObject();
             JSONArray modelsArray = new JSONArray();
@@ -1297,7 +875,7 @@ public class ModelDownloadDialog extends Dialog {
                     String modelId = model.getString("id");
                     
                     // Get the model directory
-                    File modelDir = getModelDir(context, modelId);
+                    File modelDir = ModelDownloadJob.getModelDir(context, modelId);
                     if (modelDir == null) {
                         Log.e(TAG, "Failed to get model directory for model: " + modelId);
                         continue;
@@ -1337,16 +915,18 @@ public class ModelDownloadDialog extends Dialog {
                 }
             }
 
-            downloadedModels.put("models", modelsArray);
-
-            // Write to file
-            File file = new File(context.getFilesDir(), "downloadedModelList.json");
-            try (FileOutputStream fos = new FileOutputStream(file)) {
-                fos.write(downloadedModels.toString(2).getBytes(StandardCharsets.UTF_8));
-                Log.i(TAG, "Successfully wrote downloaded model list to " + file.getAbsolutePath() + 
-                         " with " + modelsArray.length() + " models");
+            // Keep models registered before, e.g. imported from a bundle, while their files are there
+            JSONArray previous = readDownloadedModels(context);
+            for (int i = 0; i < previous.length(); i++) {
+                JSONObject model = previous.getJSONObject(i);
+                if (!modelIds.contains(model.optString("id")) && hasAllFiles(context, model)) {
+                    modelsArray.put(model);
+                }
             }
 
+            downloadedModels.put("models", modelsArray);
+            writeDownloadedModels(context, downloadedModels);
+
             // Update preferences with the downloaded models
             if (!modelIds.isEmpty()) {
                 // 使用 AppConstants 的 getAvailableRamGB 取得可用記憶體
@@ -0,0 +1,585 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Downloads the files of one model bundle, without any UI.
+ *
+ * {@link #run()} blocks the calling thread until every file is in place, a file failed for
+ * good, or the job was cancelled. Partial files are kept on cancel, so pausing is cancelling
+ * and a later job for the same files resumes them. Progress and status changes go to the
+ * {@link Callback} from the download threads.
+ */
+public class ModelDownloadJob {
+    private static final String TAG = "ModelDownloadJob";
+
+    /** Progress is reported for every chunk read, so implementations must be cheap. */
+    public interface Callback {
+        void onFileStatus(int fileIndex, int status, String errorMessage);
+        void onFileProgress(int fileIndex, long downloadedBytes, long totalBytes);
+        /** Bytes of the file copied from an installed release instead of downloaded. */
+        void onFileReused(int fileIndex, long bytes);
+    }
+
+    private final Context context;
+    private final ModelDownloadDialog.DownloadMode downloadMode;
+    private final List<AppConstants.DownloadFileInfo> downloadFiles;
+    private final boolean[] completed;
+    private final Callback callback;
+    private final DownloadScheduler scheduler = new DownloadScheduler();
+    private volatile boolean cancelled = false;
+    private volatile Exception error;
+
+    /** completed marks files an earlier job already finished; they are not fetched again. */
+    public ModelDownloadJob(Context context, ModelDownloadDialog.DownloadMode mode,
+                            List<AppConstants.DownloadFileInfo> files, boolean[] completed, Callback callback) {
+        this.context = context.getApplicationContext();
+        this.downloadMode = mode;
+        this.downloadFiles = files;
+        this.completed = completed;
+        this.callback = callback;
+    }
+
+    /** Downloads every file, returning true if all of them are in place. */
+    public boolean run() {
+        // Files download in parallel, smallest first, sharing one connection budget
+        List<Long> fileSizes = new ArrayList<>();
+        for (int i = 0; i < downloadFiles.size(); i++) {
+            fileSizes.add(completed[i] ? 0 : downloadFiles.get(i).fileSize);
+        }
+
+        // Fail before the first byte rather than when the disk fills up halfway
+        long needed = bytesToWrite(context, downloadFiles, completed);
+        long usable = context.getFilesDir().getUsableSpace();
+        if (needed > usable) {
+            error = new IOException("Insufficient storage space. Need "
+                + (needed - usable + 1024 * 1024 - 1) / (1024 * 1024) + "MB more.");
+            Log.e(TAG, error.getMessage() + " (" + needed + " bytes to write, " + usable + " usable)");
+            return false;
+        }
+
+        try {
+            return scheduler.run(fileSizes, this::downloadWithFallbacks, new DownloadScheduler.Listener() {
+                @Override
+                public void onRetryScheduled(int fileIndex, int attempt, long delayMs) {
+                    Log.w(TAG, "Retrying " + downloadFiles.get(fileIndex).fileName + " in " + delayMs + " ms");
+                    callback.onFileStatus(fileIndex, AppConstants.DOWNLOAD_STATUS_PENDING, null);
+                }
+
+                @Override
+                public void onFailed(int fileIndex) {
+                    String errorMsg = error != null ? error.getMessage() : "Unknown error";
+                    callback.onFileStatus(fileIndex, AppConstants.DOWNLOAD_STATUS_FAILED, errorMsg);
+                }
+            }) && !cancelled;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Stops the downloads soon after; the partial files stay for a later job. */
+    public void cancel() {
+        cancelled = true;
+        scheduler.cancel();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** The last error a file failed with, or null. */
+    public Exception getError() {
+        return error;
+    }
+
+    private boolean isDownloadCancelled() {
+        // A file that failed for good stops the rest of the bundle too
+        return cancelled || scheduler.isAborted();
+    }
+
+    /**
+     * Bytes the unfinished files still add on disk. A partial file already holds its length,
+     * which for a segmented download is the whole file, allocated when it started.
+     */
+    public static long bytesToWrite(Context context, List<AppConstants.DownloadFileInfo> files, boolean[] completed) {
+        long needed = 0;
+        for (int i = 0; i < files.size(); i++) {
+            AppConstants.DownloadFileInfo file = files.get(i);
+            if (completed[i] || ModelBlobStore.contains(context, file)) {
+                continue;
+            }
+            File modelDir = getModelDir(context, file.modelId);
+            long written = modelDir != null
+                ? new File(modelDir, file.fileName + AppConstants.MODEL_DOWNLOAD_TEMP_EXTENSION).length() : 0;
+            needed += Math.max(0, file.fileSize - written);
+        }
+        return needed;
+    }
+
+    static File getModelDir(Context context, String modelId) {
+        if (context == null || modelId == null) return null;
+
+        // Get base directory
+        File baseDir = new File(context.getFilesDir(), "models");
+        
+        // Create model-specific directory using model ID
+        File modelDir = new File(baseDir, modelId);
+        
+        // Create directories if they don't exist
+        if (!modelDir.exists() && !modelDir.mkdirs()) {
+            Log.e(TAG, "Failed to create model directory: " + modelDir.getPath());
+            return null;
+        }
+
+        return modelDir;
+    }
+
+    private boolean downloadWithFallbacks(int fileIndex) {
+        if (completed[fileIndex]) {
+            callback.onFileStatus(fileIndex, AppConstants.DOWNLOAD_STATUS_COMPLETED, null);
+            return true;
+        }
+        AppConstants.DownloadFileInfo fileInfo = withServerDigest(downloadFiles.get(fileIndex));
+        if (linkFromStore(fileInfo)) {
+            callback.onFileStatus(fileIndex, AppConstants.DOWNLOAD_STATUS_COMPLETED, null);
+            return true;
+        }
+        callback.onFileStatus(fileIndex, AppConstants.DOWNLOAD_STATUS_IN_PROGRESS, null);
+
+        if (downloadFile(fileInfo, fileIndex)) {
+            return true;
+        }
+
+        // Try alternative URL if available (for LLM models)
+        if (downloadMode == ModelDownloadDialog.DownloadMode.LLM && AppConstants.FILE_TYPE_LLM.equals(fileInfo.fileType)) {
+            // Loop through alternative URLs
+            for (int j = 2; j < AppConstants.MODEL_DOWNLOAD_URLS.length; j++) {
+                AppConstants.DownloadFileInfo alternativeFile = new AppConstants.DownloadFileInfo(
+                    AppConstants.MODEL_DOWNLOAD_URLS[j],
+                    fileInfo.fileName,
+                    fileInfo.displayName + " (Alternative Source)",
+                    fileInfo.fileType,
+                    fileInfo.fileSize,
+                    fileInfo.modelId,
+                    fileInfo.digest
+                );
+
+                if (downloadFile(alternativeFile, fileIndex)) {
+                    return true;
+                }
+
+                if (isDownloadCancelled()) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * The file with the SHA-256 the server gives for it when the model list has no digest.
+     * Probes again unless the answer is fresh, so the digest is that of the file served now.
+     */
+    private AppConstants.DownloadFileInfo withServerDigest(AppConstants.DownloadFileInfo fileInfo) {
+        if (fileInfo.digest != null) {
+            return fileInfo;
+        }
+        ModelFileProber.Metadata metadata = ModelFileProber.probeAll(context,
+            Collections.singletonList(fileInfo.url)).get(fileInfo.url);
+        if (metadata == null || metadata.sha256 == null || !metadata.isFresh(System.currentTimeMillis())) {
+            return fileInfo;
+        }
+        return new AppConstants.DownloadFileInfo(fileInfo.url, fileInfo.fileName, fileInfo.displayName,
+            fileInfo.fileType, fileInfo.fileSize, fileInfo.modelId, new ModelFileDigest(metadata.sha256, 0, null));
+    }
+
+    /** Puts the file in place from the blob store when another model already has it. */
+    private boolean linkFromStore(AppConstants.DownloadFileInfo fileInfo) {
+        File modelDir = getModelDir(context, fileInfo.modelId);
+        if (modelDir == null || !ModelBlobStore.linkIfPresent(context, fileInfo, new File(modelDir, fileInfo.fileName))) {
+            return false;
+        }
+        File tempFile = new File(modelDir, fileInfo.fileName + AppConstants.MODEL_DOWNLOAD_TEMP_EXTENSION);
+        tempFile.delete();
+        new File(tempFile.getPath() + AppConstants.MODEL_DOWNLOAD_HASH_EXTENSION).delete();
+        new File(tempFile.getPath() + SegmentedDownloader.JOURNAL_EXTENSION).delete();
+        return true;
+    }
+
+    private boolean downloadFile(AppConstants.DownloadFileInfo fileInfo, int fileIndex) {
+        InputStream input = null;
+        ModelFileWriter output = null;
+        HttpURLConnection connection = null;
+        String sourceUrl = fileInfo.url;
+
+        try {
+            // Check model ID first
+            if (fileInfo.modelId == null) {
+                throw new IOException("Model ID is null for file: " + fileInfo.fileName);
+            }
+
+            // Check for cancellation at the start
+            if (isDownloadCancelled()) {
+                // Only log if verbose logging is enabled
+                if (AppConstants.ENABLE_DOWNLOAD_VERBOSE_LOGGING) {
+                    Log.d(TAG, "Download cancelled before starting file: " + fileInfo.fileName);
+                }
+                return false;
+            }
+            
+            // Only log if verbose logging is enabled
+            if (AppConstants.ENABLE_DOWNLOAD_VERBOSE_LOGGING) {
+                Log.d(TAG, String.format("Download attempt - URL: %s, File: %s", fileInfo.url, fileInfo.fileName));
+            }
+
+            // Get model directory using the model ID
+            File modelDir = getModelDir(context, fileInfo.modelId);
+            if (modelDir == null) {
+                throw new IOException("Failed to create directory for model: " + fileInfo.modelId);
+            }
+
+            // Setup files
+            File outputFile = new File(modelDir, fileInfo.fileName);
+            File tempFile = new File(modelDir, fileInfo.fileName + AppConstants.MODEL_DOWNLOAD_TEMP_EXTENSION);
+            long existingLength = 0;
+
+            // Where the dialog's size probe was redirected to, skipping that hop while it is fresh
+            sourceUrl = ModelFileProber.resolve(context, fileInfo.url);
+
+            // Check for cancellation before network operations
+            if (isDownloadCancelled()) {
+                // Only log if verbose logging is enabled
+                if (AppConstants.ENABLE_DOWNLOAD_VERBOSE_LOGGING) {
+                    Log.d(TAG, "Download cancelled before establishing connection: " + fileInfo.fileName);
+                }
+                return false;
+            }
+
+            // Check for existing temporary file
+            if (tempFile.exists()) {
+                existingLength = tempFile.length();
+                Log.i(TAG, "Found existing partial download: " + existingLength + " bytes");
+                
+                // Report existing progress
+                if (fileInfo.fileSize > 0 && existingLength > 0) {
+                    callback.onFileProgress(fileIndex, existingLength, fileInfo.fileSize);
+                }
+            }
+
+            // Large files are fetched over several connections when the server serves ranges
+            if (fileInfo.fileSize >= AppConstants.MODEL_DOWNLOAD_SEGMENTED_MIN_SIZE) {
+                SegmentedDownloader.Result result = downloadSegmented(fileInfo, sourceUrl, fileIndex, tempFile);
+                if (result == SegmentedDownloader.Result.CANCELLED) {
+                    Log.d(TAG, "Preserving temp file for future resume: " + tempFile.getPath());
+                    return false;
+                }
+                if (result == SegmentedDownloader.Result.COMPLETED) {
+                    return finishDownload(fileInfo, fileIndex, tempFile, outputFile);
+                }
+                // No range support: continue with a single connection
+            }
+
+            // A segment journal means the temp file has holes, so it is no prefix; once this
+            // path truncates or rewrites the file the journal must go, or a segmented attempt
+            // would trust it
+            File journal = new File(tempFile.getPath() + SegmentedDownloader.JOURNAL_EXTENSION);
+            if (journal.exists()) {
+                existingLength = 0;
+            }
+
+            // The hash follows the bytes in the temp file and is saved alongside it
+            File hashFile = new File(tempFile.getPath() + AppConstants.MODEL_DOWNLOAD_HASH_EXTENSION);
+            ResumableSha256 hash = null;
+            if (fileInfo.digest != null) {
+                hash = ResumableSha256.loadFrom(hashFile);
+                if (hash != null && hash.count() <= existingLength) {
+                    // Bytes written after the last checkpoint are fetched again
+                    journal.delete();
+                    existingLength = truncate(tempFile, hash.count());
+                } else {
+                    hash = new ResumableSha256();
+                    if (existingLength > 0) {
+                        // Left by a download without a digest: hash it once
+                        hashPrefix(tempFile, existingLength, hash);
+                    }
+                }
+            }
+
+            URL url = new URL(sourceUrl);
+            connection = (HttpURLConnection) url.openConnection();
+            
+            // Set all required headers
+            for (String[] header : AppConstants.DOWNLOAD_HEADERS) {
+                connection.setRequestProperty(header[0], header[1]);
+            }
+
+            // Add Range header if we have partial file
+            if (existingLength > 0) {
+                connection.setRequestProperty("Range", "bytes=" + existingLength + "-");
+                Log.d(TAG, "Resuming download from byte " + existingLength);
+            }
+            
+            // Set timeouts
+            connection.setConnectTimeout((int) AppConstants.MODEL_DOWNLOAD_TIMEOUT_MS);
+            connection.setReadTimeout((int) AppConstants.MODEL_DOWNLOAD_TIMEOUT_MS);
+            
+            // Connect to the URL
+            connection.connect();
+            
+            // Handle redirects
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_MOVED_TEMP || 
+                responseCode == HttpURLConnection.HTTP_MOVED_PERM || 
+                responseCode == HttpURLConnection.HTTP_SEE_OTHER) {
+                
+                String redirectUrl = connection.getHeaderField("Location");
+                if (redirectUrl == null) {
+                    Log.w(TAG, "Redirect URL is null for " + fileInfo.url);
+                    return false;
+                }
+                
+                connection.disconnect();
+                url = new URL(redirectUrl);
+                connection = (HttpURLConnection) url.openConnection();
+                
+                // Set headers again for redirected URL
+                for (String[] header : AppConstants.DOWNLOAD_HEADERS) {
+                    connection.setRequestProperty(header[0], header[1]);
+                }
+                if (existingLength > 0) {
+                    connection.setRequestProperty("Range", "bytes=" + existingLength + "-");
+                }
+                connection.setConnectTimeout((int) AppConstants.MODEL_DOWNLOAD_TIMEOUT_MS);
+                connection.setReadTimeout((int) AppConstants.MODEL_DOWNLOAD_TIMEOUT_MS);
+                connection.connect();
+                
+                responseCode = connection.getResponseCode();
+            }
+
+            // Check if range request was accepted
+            boolean isResuming = (responseCode == HttpURLConnection.HTTP_PARTIAL);
+            if (!isResuming && responseCode != HttpURLConnection.HTTP_OK) {
+                String errorMessage = "";
+                try {
+                    errorMessage = connection.getResponseMessage();
+                    try (InputStream errorStream = connection.getErrorStream()) {
+                        if (errorStream != null) {
+                            byte[] errorBytes = new byte[1024];
+                            int bytesRead = errorStream.read(errorBytes);
+                            if (bytesRead > 0) {
+                                errorMessage += " - " + new String(errorBytes, 0, bytesRead);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    errorMessage = e.getMessage();
+                }
+                Log.w(TAG, String.format("Failed to download from %s: HTTP %d %s", 
+                    fileInfo.url, responseCode, errorMessage));
+                return false;
+            }
+
+            // Get the file length
+            long fileLength = connection.getContentLengthLong();
+            if (isResuming) {
+                String contentRange = connection.getHeaderField("Content-Range");
+                if (contentRange != null) {
+                    String[] parts = contentRange.split("/");
+                    if (parts.length == 2) {
+                        try {
+                        fileLength = Long.parseLong(parts[1]);
+                            Log.d(TAG, "Content-Range total size: " + fileLength);
+                        } catch (NumberFormatException e) {
+                            Log.e(TAG, "Failed to parse Content-Range: " + contentRange, e);
+                        }
+                    }
+                }
+            }
+            
+            // Log content length information for debugging
+            Log.d(TAG, String.format("Content-Length: %d, Estimated Size: %d, Resuming: %b", 
+                  fileLength, fileInfo.fileSize, isResuming));
+            
+            // Always update the file size if content length is available
+            if (fileLength > 0) {
+                Log.d(TAG, "Updating file size for " + fileInfo.fileName + " from " + 
+                      fileInfo.fileSize + " to " + fileLength + " bytes");
+                // Use the actual file length for progress calculation
+                callback.onFileProgress(fileIndex, existingLength, fileLength);
+            } else if (fileLength <= 0) {
+                // If content length is not provided, use the estimated size
+                fileLength = fileInfo.fileSize;
+                Log.w(TAG, "No Content-Length header, using estimated size: " + fileLength + " bytes");
+            }
+            
+            input = connection.getInputStream();
+            
+            // Open output in append mode if resuming
+            journal.delete();
+            output = ModelFileWriter.append(tempFile, isResuming);
+            if (hash != null && !isResuming) {
+                hash.reset();
+            }
+            long lastCheckpoint = existingLength;
+
+            byte[] data = new byte[AppConstants.MODEL_DOWNLOAD_BUFFER_SIZE];
+            ByteBuffer buffer = ModelFileWriter.allocateBuffer(data.length);
+            long total = existingLength;
+            int count;
+
+            while ((count = input.read(data)) != -1) {
+                // High priority cancellation check
+                if (isDownloadCancelled()) {
+                    Log.d(TAG, "Download cancelled during download loop for: " + fileInfo.fileName);
+                    try {
+                    input.close();
+                    output.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "Error closing streams during cancellation: " + e.getMessage());
+                    }
+                    // Important: Don't delete the temp file so download can be resumed later
+                    Log.d(TAG, "Preserving temp file for future resume: " + tempFile.getPath());
+                    return false;
+                }
+                
+                scheduler.bandwidthLimiter().acquire(count);
+                total += count;
+                buffer.clear();
+                buffer.put(data, 0, count).flip();
+                output.append(buffer);
+                if (hash != null) {
+                    hash.update(data, 0, count);
+                    if (total - lastCheckpoint >= AppConstants.MODEL_DOWNLOAD_HASH_CHECKPOINT_BYTES) {
+                        // The saved hash must never cover bytes that are not on disk yet
+                        output.sync();
+                        hash.saveTo(hashFile);
+                        lastCheckpoint = total;
+                    }
+                }
+
+                if (fileLength > 0) {
+                    // Only stores counters; the UI samples them at its own rate
+                    callback.onFileProgress(fileIndex, total, fileLength);
+                }
+            }
+
+            // Close streams before moving file
+            output.close();
+            output = null;
+            input.close();
+            input = null;
+
+            if (hash != null && !fileInfo.digest.matches(hash)) {
+                // Without ranges nothing but the whole file can be fetched again
+                tempFile.delete();
+                hashFile.delete();
+                throw new IOException("Checksum mismatch for " + fileInfo.fileName);
+            }
+
+            return finishDownload(fileInfo, fileIndex, tempFile, outputFile);
+
+        } catch (Exception e) {
+            error = e;
+            Log.e(TAG, "Error downloading from " + sourceUrl + ": " + e.getMessage(), e);
+            if (!sourceUrl.equals(fileInfo.url)) {
+                // The signed redirect target may have expired; the next attempt starts over
+                ModelFileProber.forget(context, fileInfo.url);
+            }
+            return false;
+        } finally {
+            try {
+                if (output != null) output.close();
+                if (input != null) input.close();
+            } catch (IOException ignored) {
+            }
+            if (connection != null) connection.disconnect();
+        }
+    }
+
+    private SegmentedDownloader.Result downloadSegmented(AppConstants.DownloadFileInfo fileInfo, String sourceUrl,
+                                                        int fileIndex, File tempFile) throws IOException {
+        SegmentedDownloader.Control control = new SegmentedDownloader.Control() {
+            @Override
+            public boolean isPaused() {
+                return false; // Pausing stops the job
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return isDownloadCancelled();
+            }
+        };
+        SegmentedDownloader downloader = new SegmentedDownloader()
+            .setConnectionBudget(scheduler.connectionBudget())
+            .setBandwidthLimiter(scheduler.bandwidthLimiter())
+            .setDigest(fileInfo.digest);
+        if (!tempFile.exists()) {
+            // An update of an installed model only fetches the blocks that changed
+            ModelDeltaBase base = ModelDeltaBase.find(context, fileInfo);
+            if (base != null) {
+                downloader.setBase(base.file, base.blocks, bytes -> callback.onFileReused(fileIndex, bytes));
+            }
+        }
+        return downloader.download(sourceUrl, tempFile, control, (downloaded, total) -> {
+            callback.onFileProgress(fileIndex, downloaded, total);
+        });
+    }
+
+    private boolean finishDownload(AppConstants.DownloadFileInfo fileInfo, int fileIndex,
+                                   File tempFile, File outputFile) throws IOException {
+        // Verify the downloaded file
+        if (!tempFile.exists()) {
+            throw new IOException("Download failed - temporary file missing");
+        }
+
+        // Move temp file to final location
+        if (!tempFile.renameTo(outputFile)) {
+            throw new IOException("Failed to move temporary file to final location");
+        }
+        new File(tempFile.getPath() + AppConstants.MODEL_DOWNLOAD_HASH_EXTENSION).delete();
+        if (fileInfo.digest != null) {
+            // Verified against its digest, so other models can link it instead of downloading
+            ModelBlobStore.adopt(context, fileInfo, outputFile);
+        }
+
+        callback.onFileStatus(fileIndex, AppConstants.DOWNLOAD_STATUS_COMPLETED, null);
+
+        // Log successful download
+        Log.i(TAG, "Successfully downloaded " + fileInfo.fileName + " from " + fileInfo.url);
+        return true;
+    }
+
+    private long truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+        return length;
+    }
+
+    private void hashPrefix(File file, long length, ResumableSha256 hash) throws IOException {
+        byte[] data = new byte[AppConstants.MODEL_DOWNLOAD_BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            long remaining = length;
+            int count;
+            while (remaining > 0 && (count = in.read(data, 0, (int) Math.min(data.length, remaining))) != -1) {
+                hash.update(data, 0, count);
+                remaining -= count;
+            }
+        }
+    }
+}
+
@@ -0,0 +1,697 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.ServiceConnection;
+import android.content.pm.ServiceInfo;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.core.app.NotificationCompat;
+
+import com.mtkresearch.breezeapp.R;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Foreground service that runs the model download, so it survives the download screen
+ * and the app going to the background.
+ *
+ * The download in progress is kept in a {@link DownloadJobJournal}. Pausing stops the
+ * {@link ModelDownloadJob} and marks the journal; resuming, or the app starting again after
+ * the process was killed, runs a new job that continues from the partial files. While the
+ * {@link DownloadConstraints} are not met the service waits in the foreground and starts
+ * the job once they are. UIs follow the download with {@link #observe}.
+ */
+public class ModelDownloadService extends Service {
+    private static final String TAG = "ModelDownloadService";
+
+    private static final String ACTION_START = "com.mtkresearch.breezeapp.action.START_MODEL_DOWNLOAD";
+    private static final String ACTION_PAUSE = "com.mtkresearch.breezeapp.action.PAUSE_MODEL_DOWNLOAD";
+    private static final String ACTION_RESUME = "com.mtkresearch.breezeapp.action.RESUME_MODEL_DOWNLOAD";
+    private static final String ACTION_CANCEL = "com.mtkresearch.breezeapp.action.CANCEL_MODEL_DOWNLOAD";
+
+    private static final long PROGRESS_INTERVAL_MS = 250; // How often listeners get progress
+    private static final long RATE_SMOOTHING_MS = 5000;
+    private static final long NOTIFICATION_INTERVAL_MS = 1000;
+    private static final long STORAGE_RECHECK_MS = 60000; // Freed space sends no broadcast
+
+    public enum Phase {
+        IDLE,
+        RUNNING,
+        PAUSED,
+        WAITING,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    /** Why a running job was stopped before it finished. */
+    private enum StopReason {
+        PAUSE,
+        CONSTRAINT,
+        CANCEL,
+        TIMEOUT
+    }
+
+    /** Called on the main thread with every change of the download, and once on subscribing. */
+    public interface Listener {
+        void onDownloadStateChanged(State state);
+    }
+
+    /** A snapshot of the download. */
+    public static final class State {
+        public final Phase phase;
+        public final DownloadConstraints.Blocker blocker;
+        public final ModelDownloadDialog.DownloadMode mode; // null when idle
+        public final List<AppConstants.DownloadFileInfo> files;
+        public final String errorMessage;
+        private final DownloadProgressTracker.Snapshot progress;
+
+        State(Phase phase, DownloadConstraints.Blocker blocker, ModelDownloadDialog.DownloadMode mode,
+              List<AppConstants.DownloadFileInfo> files, DownloadProgressTracker.Snapshot progress,
+              String errorMessage) {
+            this.phase = phase;
+            this.blocker = blocker;
+            this.mode = mode;
+            this.files = files;
+            this.progress = progress;
+            this.errorMessage = errorMessage;
+        }
+
+        /** True while the download has not finished one way or the other. */
+        public boolean isActive() {
+            return phase == Phase.RUNNING || phase == Phase.PAUSED || phase == Phase.WAITING;
+        }
+
+        public int getFileStatus(int fileIndex) {
+            int status = progress.getFileStatus(fileIndex);
+            if (phase == Phase.PAUSED && status != AppConstants.DOWNLOAD_STATUS_COMPLETED) {
+                return AppConstants.DOWNLOAD_STATUS_PAUSED;
+            }
+            return status;
+        }
+
+        public long getFileDownloaded(int fileIndex) {
+            return progress.getFileDownloaded(fileIndex);
+        }
+
+        public long getFileTotal(int fileIndex) {
+            return progress.getFileTotal(fileIndex);
+        }
+
+        public String getFileError(int fileIndex) {
+            return progress.getFileError(fileIndex);
+        }
+
+        public long getTotalBytes() {
+            return progress.totalBytes;
+        }
+
+        public long getDownloadedBytes() {
+            return progress.downloadedBytes;
+        }
+
+        /** Smoothed download speed while running, otherwise -1. */
+        public long getBytesPerSecond() {
+            return phase == Phase.RUNNING ? progress.bytesPerSecond : -1;
+        }
+
+        /** Estimated time left while running, or -1 if not known. */
+        public long getEtaMs() {
+            return phase == Phase.RUNNING ? progress.etaMs : -1;
+        }
+    }
+
+    /** A listener attached to the service; close it when the UI goes away. */
+    public static final class Subscription implements ServiceConnection {
+        private final Context context;
+        private final Listener listener;
+        private ModelDownloadService service;
+        private boolean closed;
+
+        private Subscription(Context context, Listener listener) {
+            this.context = context;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            if (closed) {
+                return;
+            }
+            service = ((LocalBinder) binder).getService();
+            service.addListener(listener);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
+        }
+
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (service != null) {
+                service.removeListener(listener);
+                service = null;
+            }
+            context.unbindService(this);
+        }
+    }
+
+    private class LocalBinder extends Binder {
+        ModelDownloadService getService() {
+            return ModelDownloadService.this;
+        }
+    }
+
+    /** Starts downloading files, replacing any download that was left unfinished. */
+    public static void start(Context context, ModelDownloadDialog.DownloadMode mode,
+                             List<AppConstants.DownloadFileInfo> files) {
+        new DownloadJobJournal(mode, files).save(context);
+        context.startForegroundService(intent(context, ACTION_START));
+    }
+
+    /** Picks up a download the process died in the middle of; call it when the app starts. */
+    public static void resumePending(Context context) {
+        DownloadJobJournal journal = DownloadJobJournal.load(context);
+        if (journal != null && !journal.isPaused()) {
+            Log.d(TAG, "Resuming unfinished model download");
+            context.startForegroundService(intent(context, ACTION_START));
+        }
+    }
+
+    public static void pause(Context context) {
+        context.startService(intent(context, ACTION_PAUSE));
+    }
+
+    public static void resume(Context context) {
+        context.startForegroundService(intent(context, ACTION_RESUME));
+    }
+
+    public static void cancel(Context context) {
+        context.startService(intent(context, ACTION_CANCEL));
+    }
+
+    public static Subscription observe(Context context, Listener listener) {
+        Subscription subscription = new Subscription(context, listener);
+        context.bindService(new Intent(context, ModelDownloadService.class), subscription, Context.BIND_AUTO_CREATE);
+        return subscription;
+    }
+
+    private static Intent intent(Context context, String action) {
+        return new Intent(context, ModelDownloadService.class).setAction(action);
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final List<Listener> listeners = new ArrayList<>();
+
+    // Touched on the main thread only; the journal is also marked from the download threads
+    private volatile DownloadJobJournal journal;
+    private ModelDownloadJob job;
+    private StopReason stopReason;
+    private Phase phase = Phase.IDLE;
+    private DownloadConstraints.Blocker blocker = DownloadConstraints.Blocker.NONE;
+    private String errorMessage;
+    private boolean foreground;
+    private boolean watching;
+    private long lastNotificationTime;
+
+    // Written by the download threads, ticked and read on the main thread
+    private volatile DownloadProgressTracker progress = new DownloadProgressTracker(0, RATE_SMOOTHING_MS);
+
+    private final Runnable progressTicker = new Runnable() {
+        @Override
+        public void run() {
+            progress.tick(SystemClock.elapsedRealtime());
+            publishNow();
+            if (phase == Phase.RUNNING) {
+                mainHandler.postDelayed(this, PROGRESS_INTERVAL_MS);
+            }
+        }
+    };
+
+    private final ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(@NonNull Network network) {
+            evaluateConstraints();
+        }
+
+        @Override
+        public void onLost(@NonNull Network network) {
+            evaluateConstraints();
+        }
+
+        @Override
+        public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities capabilities) {
+            evaluateConstraints();
+        }
+    };
+
+    private final Runnable storageRecheck = this::evaluateConstraints;
+
+    private final BroadcastReceiver powerReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            evaluateConstraints();
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        NotificationChannel channel = new NotificationChannel(AppConstants.MODEL_DOWNLOAD_CHANNEL_ID,
+            getString(R.string.model_download_channel), NotificationManager.IMPORTANCE_LOW);
+        getSystemService(NotificationManager.class).createNotificationChannel(channel);
+
+        // A paused download is shown as such to whoever binds before it is resumed
+        DownloadJobJournal saved = DownloadJobJournal.load(this);
+        if (saved != null && saved.isPaused()) {
+            journal = saved;
+            resetFiles();
+            phase = Phase.PAUSED;
+        }
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // A sticky restart after the process was killed comes without an intent
+        String action = intent != null && intent.getAction() != null ? intent.getAction() : ACTION_START;
+        Log.d(TAG, "onStartCommand: " + action);
+        switch (action) {
+            case ACTION_START:
+                if (!enterForeground()) {
+                    break;
+                }
+                if (job != null) {
+                    break; // Already downloading
+                }
+                journal = DownloadJobJournal.load(this);
+                if (journal == null || journal.isPaused()) {
+                    // Nothing to do; a paused download waits for the user
+                    finish(journal == null ? Phase.IDLE : Phase.PAUSED, false);
+                    break;
+                }
+                resetFiles();
+                errorMessage = null;
+                startWatching();
+                evaluateConstraints();
+                break;
+            case ACTION_RESUME:
+                if (!enterForeground()) {
+                    break;
+                }
+                if (journal == null) {
+                    journal = DownloadJobJournal.load(this);
+                    if (journal == null) {
+                        finish(Phase.IDLE, false);
+                        break;
+                    }
+                    resetFiles();
+                }
+                journal.setPaused(false);
+                journal.save(this);
+                startWatching();
+                evaluateConstraints();
+                break;
+            case ACTION_PAUSE:
+                if (journal == null) {
+                    break;
+                }
+                journal.setPaused(true);
+                journal.save(this);
+                if (job != null) {
+                    stopJob(StopReason.PAUSE);
+                } else {
+                    onPaused();
+                }
+                break;
+            case ACTION_CANCEL:
+                if (job != null) {
+                    stopJob(StopReason.CANCEL);
+                } else {
+                    finish(Phase.CANCELLED, true);
+                }
+                break;
+            default:
+                Log.w(TAG, "Unknown action: " + action);
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public void onTimeout(int startId, int fgsType) {
+        // The system limits how long a data sync may run; the journal lets the next app start continue
+        Log.w(TAG, "Foreground time limit reached, stopping until the app starts again");
+        if (job != null) {
+            stopJob(StopReason.TIMEOUT);
+        } else {
+            leaveForeground(true);
+            stopSelf();
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        if (job != null) {
+            job.cancel();
+            job = null;
+        }
+        stopWatching();
+        executor.shutdown();
+        mainHandler.removeCallbacksAndMessages(null);
+        super.onDestroy();
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+        listener.onDownloadStateChanged(snapshot());
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Starts or stops the job depending on the constraints; called whenever one may have changed. */
+    private void evaluateConstraints() {
+        if (journal == null || journal.isPaused() || !foreground) {
+            return;
+        }
+        blocker = DownloadConstraints.check(this, journal.remainingBytes(this));
+        mainHandler.removeCallbacks(storageRecheck);
+        if (blocker == DownloadConstraints.Blocker.LOW_STORAGE) {
+            mainHandler.postDelayed(storageRecheck, STORAGE_RECHECK_MS);
+        }
+        if (blocker == DownloadConstraints.Blocker.NONE) {
+            if (job == null) {
+                startJob();
+            }
+        } else if (job != null) {
+            Log.d(TAG, "Stopping download until constraint is met: " + blocker);
+            stopJob(StopReason.CONSTRAINT);
+        } else if (phase != Phase.WAITING) {
+            phase = Phase.WAITING;
+            publishNow();
+        }
+    }
+
+    private void startJob() {
+        boolean[] completed = journal.completedFiles();
+        for (int i = 0; i < completed.length; i++) {
+            if (!completed[i]) {
+                progress.setStatus(i, AppConstants.DOWNLOAD_STATUS_PENDING, null);
+            }
+        }
+        ModelDownloadJob newJob = new ModelDownloadJob(this, journal.mode, journal.files, completed,
+            new JobCallback(progress));
+        job = newJob;
+        stopReason = null;
+        phase = Phase.RUNNING;
+        progress.restartRate();
+        mainHandler.removeCallbacks(progressTicker);
+        progressTicker.run();
+        executor.execute(() -> {
+            boolean success = newJob.run();
+            mainHandler.post(() -> onJobFinished(newJob, success));
+        });
+    }
+
+    private void stopJob(StopReason reason) {
+        stopReason = reason;
+        job.cancel();
+    }
+
+    private void onJobFinished(ModelDownloadJob finishedJob, boolean success) {
+        if (finishedJob != job) {
+            return;
+        }
+        job = null;
+        StopReason reason = stopReason;
+        stopReason = null;
+
+        if (success) {
+            ModelDownloadDialog.saveDownloadedModelList(this, ModelFilter.readFilteredModelList(this));
+            finish(Phase.COMPLETED, true);
+        } else if (reason == StopReason.PAUSE) {
+            if (journal != null && !journal.isPaused()) {
+                // Resumed while the job was still stopping
+                evaluateConstraints();
+            } else {
+                onPaused();
+            }
+        } else if (reason == StopReason.CANCEL) {
+            finish(Phase.CANCELLED, true);
+        } else if (reason == StopReason.TIMEOUT) {
+            leaveForeground(true);
+            stopSelf();
+        } else if (reason == StopReason.CONSTRAINT) {
+            phase = Phase.WAITING;
+            publishNow();
+            evaluateConstraints();
+        } else {
+            // Losing the network fails the connections before the callback arrives; wait for it instead
+            blocker = DownloadConstraints.check(this, journal.remainingBytes(this));
+            if (blocker != DownloadConstraints.Blocker.NONE) {
+                phase = Phase.WAITING;
+                publishNow();
+                evaluateConstraints();
+                return;
+            }
+            Exception error = finishedJob.getError();
+            errorMessage = error != null ? error.getMessage() : null;
+            finish(Phase.FAILED, true);
+        }
+    }
+
+    private void onPaused() {
+        phase = Phase.PAUSED;
+        publishNow();
+        // The notification stays so the user can resume from it
+        leaveForeground(false);
+        stopWatching();
+        stopSelf();
+    }
+
+    /** Ends the service in phase; dropJournal forgets the download for good. */
+    private void finish(Phase endPhase, boolean dropJournal) {
+        phase = endPhase;
+        publishNow();
+        if (dropJournal) {
+            DownloadJobJournal.delete(this);
+            journal = null;
+        }
+        leaveForeground(endPhase != Phase.PAUSED);
+        if (endPhase != Phase.PAUSED) {
+            // Out of the foreground, a paused download's notification is detached and stays otherwise
+            getSystemService(NotificationManager.class).cancel(AppConstants.MODEL_DOWNLOAD_NOTIFICATION_ID);
+        }
+        if (endPhase == Phase.COMPLETED) {
+            getSystemService(NotificationManager.class).notify(AppConstants.MODEL_DOWNLOAD_NOTIFICATION_ID,
+                buildNotification());
+        }
+        stopWatching();
+        stopSelf();
+    }
+
+    private boolean enterForeground() {
+        if (foreground) {
+            return true;
+        }
+        try {
+            startForeground(AppConstants.MODEL_DOWNLOAD_NOTIFICATION_ID, buildNotification(),
+                ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+            foreground = true;
+        } catch (IllegalStateException e) {
+            // Includes ForegroundServiceStartNotAllowedException; the next app start tries again
+            Log.w(TAG, "Could not start download in the foreground", e);
+            stopSelf();
+        }
+        return foreground;
+    }
+
+    private void leaveForeground(boolean removeNotification) {
+        if (foreground) {
+            if (!removeNotification) {
+                getSystemService(NotificationManager.class).notify(AppConstants.MODEL_DOWNLOAD_NOTIFICATION_ID,
+                    buildNotification());
+            }
+            stopForeground(removeNotification ? STOP_FOREGROUND_REMOVE : STOP_FOREGROUND_DETACH);
+            foreground = false;
+        }
+    }
+
+    private void startWatching() {
+        if (watching) {
+            return;
+        }
+        watching = true;
+        getSystemService(ConnectivityManager.class).registerDefaultNetworkCallback(networkCallback, mainHandler);
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(BatteryManager.ACTION_CHARGING);
+        filter.addAction(BatteryManager.ACTION_DISCHARGING);
+        registerReceiver(powerReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
+    }
+
+    private void stopWatching() {
+        if (!watching) {
+            return;
+        }
+        watching = false;
+        getSystemService(ConnectivityManager.class).unregisterNetworkCallback(networkCallback);
+        unregisterReceiver(powerReceiver);
+        mainHandler.removeCallbacks(storageRecheck);
+    }
+
+    /** Sizes the per-file state for the files of the journal. */
+    private void resetFiles() {
+        int count = journal.files.size();
+        boolean[] completed = journal.completedFiles();
+        DownloadProgressTracker tracker = new DownloadProgressTracker(count, RATE_SMOOTHING_MS);
+        for (int i = 0; i < count; i++) {
+            tracker.setProgress(i, 0, journal.files.get(i).fileSize);
+            tracker.setStatus(i, completed[i]
+                ? AppConstants.DOWNLOAD_STATUS_COMPLETED : AppConstants.DOWNLOAD_STATUS_PENDING, null);
+        }
+        progress = tracker;
+    }
+
+    private State snapshot() {
+        return new State(phase, blocker, journal != null ? journal.mode : null,
+            journal != null ? journal.files : new ArrayList<>(), progress.snapshot(), errorMessage);
+    }
+
+    private void publishNow() {
+        State state = snapshot();
+        for (Listener listener : new ArrayList<>(listeners)) {
+            listener.onDownloadStateChanged(state);
+        }
+        long now = System.currentTimeMillis();
+        if (foreground && (phase != Phase.RUNNING || now - lastNotificationTime >= NOTIFICATION_INTERVAL_MS)) {
+            lastNotificationTime = now;
+            getSystemService(NotificationManager.class).notify(AppConstants.MODEL_DOWNLOAD_NOTIFICATION_ID,
+                buildNotification());
+        }
+    }
+
+    private Notification buildNotification() {
+        State state = snapshot();
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, AppConstants.MODEL_DOWNLOAD_CHANNEL_ID)
+            .setSmallIcon(R.drawable.ic_arrow_down)
+            .setContentTitle(getString(R.string.download_notification_title))
+            .setOnlyAlertOnce(true)
+            .setSilent(true);
+
+        Intent launch = getPackageManager().getLaunchIntentForPackage(getPackageName());
+        if (launch != null) {
+            builder.setContentIntent(PendingIntent.getActivity(this, 0, launch, PendingIntent.FLAG_IMMUTABLE));
+        }
+
+        long total = state.getTotalBytes();
+        int percent = total > 0 ? (int) (state.getDownloadedBytes() * 100 / total) : 0;
+        switch (state.phase) {
+            case COMPLETED:
+                return builder.setContentText(getString(R.string.download_complete))
+                    .setAutoCancel(true)
+                    .build();
+            case PAUSED:
+                builder.setContentText(getString(R.string.download_paused))
+                    .setProgress(100, percent, false)
+                    .addAction(0, getString(R.string.resume), PendingIntent.getForegroundService(this, 1,
+                        intent(this, ACTION_RESUME), PendingIntent.FLAG_IMMUTABLE));
+                break;
+            case WAITING:
+                builder.setContentText(getString(waitingMessage(state.blocker)))
+                    .setProgress(100, percent, false)
+                    .setOngoing(true);
+                break;
+            default:
+                builder.setContentText(percent + "%")
+                    .setProgress(100, percent, total <= 0)
+                    .setOngoing(true)
+                    .addAction(0, getString(R.string.pause), PendingIntent.getService(this, 2,
+                        intent(this, ACTION_PAUSE), PendingIntent.FLAG_IMMUTABLE));
+        }
+        return builder.addAction(0, getString(R.string.cancel), PendingIntent.getService(this, 3,
+                intent(this, ACTION_CANCEL), PendingIntent.FLAG_IMMUTABLE))
+            .build();
+    }
+
+    /** The string explaining why a download is waiting for blocker. */
+    public static int waitingMessage(DownloadConstraints.Blocker blocker) {
+        switch (blocker) {
+            case METERED_NETWORK:
+                return R.string.download_waiting_unmetered;
+            case NOT_CHARGING:
+                return R.string.download_waiting_charging;
+            case LOW_STORAGE:
+                return R.string.download_waiting_storage;
+            default:
+                return R.string.download_waiting_network;
+        }
+    }
+
+    /**
+     * Receives the job's progress on the download threads. It only updates the tracker; the
+     * ticker publishes it.
+     */
+    private class JobCallback implements ModelDownloadJob.Callback {
+        private final DownloadProgressTracker tracker;
+
+        JobCallback(DownloadProgressTracker tracker) {
+            this.tracker = tracker;
+        }
+
+        @Override
+        public void onFileStatus(int fileIndex, int status, String error) {
+            tracker.setStatus(fileIndex, status, error);
+            if (status == AppConstants.DOWNLOAD_STATUS_COMPLETED) {
+                // Saved right away so a resumed download skips the file
+                DownloadJobJournal current = journal;
+                if (current != null) {
+                    current.markCompleted(fileIndex);
+                    current.save(ModelDownloadService.this);
+                }
+            }
+        }
+
+        @Override
+        public void onFileProgress(int fileIndex, long downloadedBytes, long totalBytes) {
+            tracker.setProgress(fileIndex, downloadedBytes, totalBytes);
+        }
+
+        @Override
+        public void onFileReused(int fileIndex, long bytes) {
+            tracker.addReused(bytes);
+        }
+    }
+}
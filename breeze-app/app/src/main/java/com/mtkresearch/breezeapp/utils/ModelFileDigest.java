@@ -0,0 +1,103 @@
+package com.mtkresearch.breezeapp.utils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * Expected SHA-256 of a model file, from the "digests" object of its model list entry:
+ *
+ * <pre>
+ * "digests": {
+ *   "llama3_2-4096.pte": {
+ *     "sha256": "9f86d0...",
+ *     "block_size": 16777216,
+ *     "blocks": ["2c26b4...", "fcde2b...", ...]
+ *   }
+ * }
+ * </pre>
+ *
+ * The block digests are optional. With them a corrupt block is found, and fetched again,
+ * as soon as it is written; with the file digest alone a mismatch means the whole file.
+ * A file the list gives no digest for is checked against the SHA-256 the server reports,
+ * see {@link ModelFileProber.Metadata#sha256}.
+ */
+public final class ModelFileDigest {
+    public final String sha256;
+    public final long blockSize; // 0 without block digests
+    private final String[] blocks;
+
+    public ModelFileDigest(String sha256, long blockSize, String[] blocks) {
+        this.sha256 = sha256;
+        this.blockSize = blocks != null && blocks.length > 0 ? blockSize : 0;
+        this.blocks = blocks;
+    }
+
+    /** The digest listed for fileName in a model entry, or null if there is none. */
+    public static ModelFileDigest fromModel(JSONObject model, String fileName) {
+        JSONObject digests = model.optJSONObject("digests");
+        return fromJson(digests != null ? digests.optJSONObject(fileName) : null);
+    }
+
+    /** Reads one entry of the "digests" object, or returns null for none. */
+    public static ModelFileDigest fromJson(JSONObject entry) {
+        if (entry == null) {
+            return null;
+        }
+        String sha256 = entry.optString("sha256", null);
+        JSONArray blockArray = entry.optJSONArray("blocks");
+        long blockSize = entry.optLong("block_size", 0);
+        String[] blocks = null;
+        if (blockArray != null && blockSize > 0) {
+            blocks = new String[blockArray.length()];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = blockArray.optString(i);
+            }
+        }
+        if (sha256 == null && blocks == null) {
+            return null;
+        }
+        return new ModelFileDigest(sha256, blockSize, blocks);
+    }
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject entry = new JSONObject();
+        if (sha256 != null) {
+            entry.put("sha256", sha256);
+        }
+        if (hasBlocks()) {
+            entry.put("block_size", blockSize);
+            entry.put("blocks", new JSONArray(Arrays.asList(blocks)));
+        }
+        return entry;
+    }
+
+    public boolean hasBlocks() {
+        return blockSize > 0;
+    }
+
+    /** True if the blocks cover a file of this length, one digest per block. */
+    public boolean blocksFit(long length) {
+        return hasBlocks() && (length + blockSize - 1) / blockSize == blocks.length;
+    }
+
+    /** True if hash, taken over the whole file, matches; also true when no file digest is listed. */
+    public boolean matches(ResumableSha256 hash) {
+        return sha256 == null || sha256.equalsIgnoreCase(hash.hexDigest());
+    }
+
+    public boolean blockMatches(int index, ResumableSha256 hash) {
+        return blocks[index].equalsIgnoreCase(hash.hexDigest());
+    }
+
+    public int blockCount() {
+        return hasBlocks() ? blocks.length : 0;
+    }
+
+    /** The SHA-256 of block index, in lower case. */
+    public String blockDigest(int index) {
+        return blocks[index].toLowerCase();
+    }
+}
@@ -0,0 +1,339 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Size and location of model files on the server, from HEAD requests.
+ *
+ * {@link #probeAll} sends the requests for a whole file list at once, a few at a time, and
+ * keeps the answers in a cache file. The download dialog shows the cached sizes as soon as
+ * it opens and probes again only what is older than {@link AppConstants#MODEL_METADATA_TTL_MS}.
+ * Each answer also records where the redirects led, so a download started soon after goes
+ * straight there with {@link #resolve}. The cache file is read once into memory, by
+ * {@link #preload} or the first lookup off the main thread, and written back only when an
+ * answer changes.
+ *
+ * Hugging Face answers for a file kept in LFS with a redirect whose X-Linked-Etag header is
+ * the file's SHA-256. It is recorded as {@link Metadata#sha256}, so a download can be
+ * verified even when the model list gives no digest.
+ */
+public final class ModelFileProber {
+    private static final String TAG = "ModelFileProber";
+    private static final String FILE_NAME = "file_metadata.json";
+    private static final int MAX_REDIRECTS = 5;
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-fA-F]{64}");
+    private static final Object LOCK = new Object();
+
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ModelFileProber");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The cache file's contents once read; null until then. Written under LOCK.
+    private static volatile Map<String, Metadata> memory;
+
+    private ModelFileProber() {}
+
+    /** What a HEAD request found for one URL. */
+    public static final class Metadata {
+        public final long size;
+        public final String etag; // null if the server sent none
+        public final String lastModified; // null if the server sent none
+        public final String finalUrl;
+        public final String sha256; // From X-Linked-Etag; null if the server sent none
+        public final long checkedAt;
+
+        Metadata(long size, String etag, String lastModified, String finalUrl, String sha256, long checkedAt) {
+            this.size = size;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.finalUrl = finalUrl;
+            this.sha256 = sha256;
+            this.checkedAt = checkedAt;
+        }
+
+        public boolean isFresh(long now) {
+            return now >= checkedAt && now - checkedAt < AppConstants.MODEL_METADATA_TTL_MS;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("size", size);
+            if (etag != null) {
+                json.put("etag", etag);
+            }
+            if (lastModified != null) {
+                json.put("last_modified", lastModified);
+            }
+            json.put("final_url", finalUrl);
+            if (sha256 != null) {
+                json.put("sha256", sha256);
+            }
+            json.put("checked_at", checkedAt);
+            return json;
+        }
+
+        static Metadata fromJson(JSONObject json) throws JSONException {
+            return new Metadata(json.getLong("size"), json.optString("etag", null),
+                json.optString("last_modified", null), json.getString("final_url"), json.optString("sha256", null),
+                json.getLong("checked_at"));
+        }
+    }
+
+    /** Reads the cache into memory on a background thread, so that {@link #peek} finds it. */
+    public static void preload(Context context) {
+        LOADER.execute(() -> memory(context));
+    }
+
+    /**
+     * The last answer for url however old, or null if it was never probed. Reads the cache
+     * file if it is not in memory yet; call it off the main thread.
+     */
+    public static Metadata cached(Context context, String url) {
+        return memory(context).get(url);
+    }
+
+    /**
+     * The last answer for url if the cache is in memory already, else null. Never touches the
+     * disk, so the main thread may call it.
+     */
+    public static Metadata peek(String url) {
+        Map<String, Metadata> cache = memory;
+        return cache != null ? cache.get(url) : null;
+    }
+
+    /** Where to download url from: the redirect target while it is fresh, else url itself. */
+    public static String resolve(Context context, String url) {
+        Metadata metadata = cached(context, url);
+        if (metadata != null && metadata.isFresh(System.currentTimeMillis())) {
+            return metadata.finalUrl;
+        }
+        return url;
+    }
+
+    /** Drops what is known about url, e.g. after its redirect target stopped working. */
+    public static void forget(Context context, String url) {
+        synchronized (LOCK) {
+            Map<String, Metadata> cache = memory(context);
+            if (cache.remove(url) != null) {
+                save(context, cache);
+            }
+        }
+    }
+
+    /**
+     * Probes the URLs that have no fresh answer, several at once, and returns the answers for
+     * all of them. A URL the server did not answer keeps its stale entry, or is left out.
+     * Blocks; call it off the main thread.
+     */
+    public static Map<String, Metadata> probeAll(Context context, List<String> urls) {
+        Map<String, Metadata> results = new HashMap<>();
+        List<String> stale = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        Map<String, Metadata> known = memory(context);
+        for (String url : new LinkedHashSet<>(urls)) {
+            Metadata metadata = known.get(url);
+            if (metadata != null) {
+                results.put(url, metadata);
+            }
+            if (metadata == null || !metadata.isFresh(now)) {
+                stale.add(url);
+            }
+        }
+        if (stale.isEmpty()) {
+            return results;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(stale.size(), AppConstants.MODEL_METADATA_PROBE_THREADS));
+        Map<String, Metadata> probed = new HashMap<>();
+        try {
+            List<Future<Metadata>> futures = new ArrayList<>();
+            for (String url : stale) {
+                futures.add(pool.submit((Callable<Metadata>) () -> head(url)));
+            }
+            for (int i = 0; i < stale.size(); i++) {
+                try {
+                    Metadata metadata = futures.get(i).get();
+                    if (metadata != null) {
+                        probed.put(stale.get(i), metadata);
+                    }
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Probe failed for " + stale.get(i), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (!probed.isEmpty()) {
+            synchronized (LOCK) {
+                Map<String, Metadata> cache = memory(context);
+                for (Map.Entry<String, Metadata> entry : probed.entrySet()) {
+                    Metadata previous = cache.get(entry.getKey());
+                    if (previous != null && previous.etag != null && !previous.etag.equals(entry.getValue().etag)) {
+                        Log.i(TAG, "File changed on the server: " + entry.getKey());
+                    }
+                    cache.put(entry.getKey(), entry.getValue());
+                }
+                save(context, cache);
+            }
+            results.putAll(probed);
+        }
+        Log.d(TAG, "Probed " + probed.size() + " of " + stale.size() + " URLs without a fresh answer");
+        return results;
+    }
+
+    /** One HEAD request, following redirects by hand to learn where they end. */
+    private static Metadata head(String urlString) throws IOException {
+        URL url = new URL(urlString);
+        String sha256 = null;
+        for (int hop = 0; hop <= MAX_REDIRECTS; hop++) {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            try {
+                connection.setInstanceFollowRedirects(false);
+                connection.setRequestMethod("HEAD");
+                connection.setConnectTimeout(AppConstants.MODEL_METADATA_TIMEOUT_MS);
+                connection.setReadTimeout(AppConstants.MODEL_METADATA_TIMEOUT_MS);
+                for (String[] header : AppConstants.DOWNLOAD_HEADERS) {
+                    connection.setRequestProperty(header[0], header[1]);
+                }
+
+                int code = connection.getResponseCode();
+                String linkedEtag = linkedSha256(connection.getHeaderField("X-Linked-Etag"));
+                if (linkedEtag != null) {
+                    sha256 = linkedEtag;
+                }
+                if (code >= 300 && code < 400 && code != HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    String location = connection.getHeaderField("Location");
+                    if (location == null) {
+                        return null;
+                    }
+                    url = new URL(url, location); // Location may be relative
+                    continue;
+                }
+                if (code != HttpURLConnection.HTTP_OK) {
+                    Log.w(TAG, "HEAD request answered with HTTP " + code + " for " + urlString);
+                    return null;
+                }
+                long size = connection.getContentLengthLong();
+                if (size <= 0) {
+                    Log.w(TAG, "Server didn't provide Content-Length for " + urlString);
+                    return null;
+                }
+                return new Metadata(size, connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"), url.toString(), sha256, System.currentTimeMillis());
+            } finally {
+                connection.disconnect();
+            }
+        }
+        Log.w(TAG, "Too many redirects for " + urlString);
+        return null;
+    }
+
+    /** The SHA-256 in an X-Linked-Etag header, in lower case, or null if it holds none. */
+    static String linkedSha256(String header) {
+        if (header == null) {
+            return null;
+        }
+        String value = header.trim();
+        if (value.startsWith("W/")) {
+            return null; // A weak tag does not name the bytes
+        }
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        return SHA256.matcher(value).matches() ? value.toLowerCase() : null;
+    }
+
+    /** The cache in memory, read from the file on first use. */
+    private static Map<String, Metadata> memory(Context context) {
+        Map<String, Metadata> cache = memory;
+        if (cache == null) {
+            synchronized (LOCK) {
+                cache = memory;
+                if (cache == null) {
+                    cache = new ConcurrentHashMap<>(load(context));
+                    memory = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    private static Map<String, Metadata> load(Context context) {
+        Map<String, Metadata> cache = new HashMap<>();
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return cache;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            JSONObject json = new JSONObject(new String(bytes, 0, read, StandardCharsets.UTF_8));
+            for (Iterator<String> keys = json.keys(); keys.hasNext(); ) {
+                String url = keys.next();
+                cache.put(url, Metadata.fromJson(json.getJSONObject(url)));
+            }
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Unreadable file metadata cache, dropping it", e);
+            file.delete();
+            cache.clear();
+        }
+        return cache;
+    }
+
+    private static void save(Context context, Map<String, Metadata> cache) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        File temp = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            JSONObject json = new JSONObject();
+            for (Map.Entry<String, Metadata> entry : cache.entrySet()) {
+                json.put(entry.getKey(), entry.getValue().toJson());
+            }
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Error writing file metadata cache", e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Could not replace file metadata cache");
+        }
+    }
+}
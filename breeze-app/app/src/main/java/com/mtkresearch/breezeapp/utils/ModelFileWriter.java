@@ -0,0 +1,167 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes a downloaded model file through a {@link FileChannel}.
+ *
+ * {@link #open} reserves the whole file with fallocate before the first byte arrives, so a
+ * full disk shows at the start rather than hours in, and the file system can lay the file
+ * out in one piece; segments written out of order then fill blocks that are already in
+ * place, and the model loader maps one contiguous file. Written data is flushed every few
+ * megabytes, so a download of several gigabytes leaves clean pages the system can drop
+ * instead of a backlog of dirty ones. The flush runs on a thread of its own, so the threads
+ * reading from the network never wait on the disk.
+ */
+public final class ModelFileWriter implements Closeable {
+    private static final String TAG = "ModelFileWriter";
+
+    /** Reserves length bytes of file from offset on. */
+    public interface SpaceReserver {
+        void reserve(RandomAccessFile file, long offset, long length) throws ErrnoException, IOException;
+    }
+
+    private static final SpaceReserver FALLOCATE =
+        (file, offset, length) -> Os.posix_fallocate(file.getFD(), offset, length);
+    private static volatile SpaceReserver spaceReserver = FALLOCATE;
+
+    private static final ExecutorService WRITE_BEHIND = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ModelFileSync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long writeBehindBytes;
+    private final AtomicLong unsynced = new AtomicLong();
+    private final AtomicBoolean syncQueued = new AtomicBoolean();
+
+    private ModelFileWriter(RandomAccessFile file, long writeBehindBytes) {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.writeBehindBytes = writeBehindBytes;
+    }
+
+    /** Opens file for positional writes, allocated to exactly length bytes. */
+    public static ModelFileWriter open(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long current = raf.length();
+            if (current > length) {
+                raf.setLength(length);
+            } else if (current < length) {
+                preallocate(raf, current, length);
+            }
+            return new ModelFileWriter(raf, AppConstants.MODEL_DOWNLOAD_WRITE_BEHIND_BYTES);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens file for appending, keeping what it holds if resume is set. Nothing is reserved,
+     * since the length of an appended file is how far it got.
+     */
+    public static ModelFileWriter append(File file, boolean resume) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        if (!resume) {
+            raf.setLength(0);
+        }
+        raf.seek(raf.length());
+        return new ModelFileWriter(raf, AppConstants.MODEL_DOWNLOAD_WRITE_BEHIND_BYTES);
+    }
+
+    /**
+     * Replaces how {@link #open} reserves space, e.g. where there is no native Os as in local
+     * tests; null restores fallocate.
+     */
+    public static void setSpaceReserver(SpaceReserver reserver) {
+        spaceReserver = reserver != null ? reserver : FALLOCATE;
+    }
+
+    /** A buffer the channel writes from without copying it first. */
+    public static ByteBuffer allocateBuffer(int capacity) {
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    public FileChannel channel() {
+        return channel;
+    }
+
+    /** Writes all of src at position; safe to call from several threads. */
+    public void write(ByteBuffer src, long position) throws IOException {
+        int length = src.remaining();
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+        written(length);
+    }
+
+    /** Writes all of src at the end of what was appended so far. */
+    public void append(ByteBuffer src) throws IOException {
+        int length = src.remaining();
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+        written(length);
+    }
+
+    /** Puts everything written so far on disk. */
+    public void sync() throws IOException {
+        unsynced.set(0);
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private void written(int length) {
+        if (unsynced.addAndGet(length) >= writeBehindBytes && syncQueued.compareAndSet(false, true)) {
+            WRITE_BEHIND.execute(() -> {
+                try {
+                    if (channel.isOpen()) {
+                        sync();
+                    }
+                } catch (IOException e) {
+                    // Closed meanwhile; whoever closed it synced what mattered
+                    Log.d(TAG, "Write-behind flush skipped: " + e);
+                } finally {
+                    syncQueued.set(false);
+                }
+            });
+        }
+    }
+
+    private static void preallocate(RandomAccessFile raf, long from, long length) throws IOException {
+        try {
+            spaceReserver.reserve(raf, from, length - from);
+            return;
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.ENOSPC) {
+                throw new IOException("Insufficient storage space. Need "
+                    + (length - from) / (1024 * 1024) + "MB free.", e);
+            }
+            // Some file systems cannot reserve space; the file is still written in place
+            Log.w(TAG, "fallocate not supported, extending the file instead: " + e.getMessage());
+        }
+        raf.setLength(length);
+    }
+}
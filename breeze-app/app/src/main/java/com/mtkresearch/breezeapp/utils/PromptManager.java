@@ -27,9 +27,19 @@ public class PromptManager {
      * Formats a complete prompt including system instructions, conversation history, and user input.
      */
     public static String formatCompletePrompt(String userMessage, List<ChatMessage> conversationHistory, ModelType modelType) {
+        return formatCompletePrompt(userMessage, conversationHistory, new ArrayList<>(), modelType);
+    }
+
+    /**
+     * Formats a complete prompt with passages retrieved from past conversations and attached
+     * files appended to the system instructions.
+     */
+    public static String formatCompletePrompt(String userMessage, List<ChatMessage> conversationHistory,
+                                              List<ContextRetriever.Passage> passages, ModelType modelType) {
         // 1. Get system prompt with template
         String systemPrompt = PromptFormat.getSystemPromptTemplate(modelType)
-                .replace(PromptFormat.SYSTEM_PLACEHOLDER, PromptFormat.DEFAULT_SYSTEM_PROMPT);
+                .replace(PromptFormat.SYSTEM_PLACEHOLDER,
+                        PromptFormat.DEFAULT_SYSTEM_PROMPT + formatRetrievedContext(passages));
                 
         // 2. Get conversation history
         String history = getFormattedConversationHistory(conversationHistory, modelType);
@@ -42,6 +52,17 @@ public class PromptManager {
         return systemPrompt + history + userPrompt;
     }
     
+    private static String formatRetrievedContext(List<ContextRetriever.Passage> passages) {
+        if (passages == null || passages.isEmpty()) {
+            return "";
+        }
+        StringBuilder context = new StringBuilder("\n\n").append(AppConstants.RETRIEVED_CONTEXT_PROMPT);
+        for (ContextRetriever.Passage passage : passages) {
+            context.append("\n\n[").append(passage.source).append("]\n").append(passage.text);
+        }
+        return context.toString();
+    }
+
     /**
      * Formats the conversation history with proper turn structure and lookback window.
      */
@@ -0,0 +1,213 @@
+package com.mtkresearch.breezeapp.utils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * SHA-256 whose running state can be saved and restored.
+ *
+ * {@link java.security.MessageDigest} cannot be persisted, so a multi-gigabyte download
+ * resumed after the app was killed would have to hash everything it already wrote a second
+ * time. This class keeps the same state in plain fields instead, so it is checkpointed with
+ * the partial file and the hash continues where the bytes continue.
+ */
+public final class ResumableSha256 {
+    private static final int STATE_MAGIC = 0x53484132; // "SHA2"
+
+    private static final int[] K = {
+        0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+        0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+        0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+        0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+        0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+        0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+        0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+        0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private final int[] h = new int[8];
+    private final byte[] buffer = new byte[64];
+    private final int[] w = new int[64];
+    private long count; // Bytes hashed so far
+
+    public ResumableSha256() {
+        reset();
+    }
+
+    public void reset() {
+        h[0] = 0x6a09e667;
+        h[1] = 0xbb67ae85;
+        h[2] = 0x3c6ef372;
+        h[3] = 0xa54ff53a;
+        h[4] = 0x510e527f;
+        h[5] = 0x9b05688c;
+        h[6] = 0x1f83d9ab;
+        h[7] = 0x5be0cd19;
+        count = 0;
+    }
+
+    /** How many bytes have gone into the hash. */
+    public long count() {
+        return count;
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        int buffered = (int) (count & 63);
+        count += length;
+        if (buffered > 0) {
+            int take = Math.min(64 - buffered, length);
+            System.arraycopy(data, offset, buffer, buffered, take);
+            offset += take;
+            length -= take;
+            if (buffered + take < 64) {
+                return;
+            }
+            compress(buffer, 0);
+        }
+        while (length >= 64) {
+            compress(data, offset);
+            offset += 64;
+            length -= 64;
+        }
+        System.arraycopy(data, offset, buffer, 0, length);
+    }
+
+    /** The digest of everything so far; the hash can keep going afterwards. */
+    public byte[] digest() {
+        ResumableSha256 last = copy();
+        int buffered = (int) (count & 63);
+        byte[] padding = new byte[buffered < 56 ? 64 - buffered : 128 - buffered];
+        padding[0] = (byte) 0x80;
+        long bits = count << 3;
+        for (int i = 0; i < 8; i++) {
+            padding[padding.length - 1 - i] = (byte) (bits >>> (8 * i));
+        }
+        last.update(padding, 0, padding.length);
+        byte[] out = new byte[32];
+        for (int i = 0; i < 8; i++) {
+            out[4 * i] = (byte) (last.h[i] >>> 24);
+            out[4 * i + 1] = (byte) (last.h[i] >>> 16);
+            out[4 * i + 2] = (byte) (last.h[i] >>> 8);
+            out[4 * i + 3] = (byte) last.h[i];
+        }
+        return out;
+    }
+
+    public String hexDigest() {
+        byte[] digest = digest();
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    public ResumableSha256 copy() {
+        ResumableSha256 copy = new ResumableSha256();
+        System.arraycopy(h, 0, copy.h, 0, 8);
+        System.arraycopy(buffer, 0, copy.buffer, 0, 64);
+        copy.count = count;
+        return copy;
+    }
+
+    /** Continues from the state of other, e.g. one just read back. */
+    public void restore(ResumableSha256 other) {
+        System.arraycopy(other.h, 0, h, 0, 8);
+        System.arraycopy(other.buffer, 0, buffer, 0, 64);
+        count = other.count;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(STATE_MAGIC);
+        out.writeLong(count);
+        for (int word : h) {
+            out.writeInt(word);
+        }
+        out.write(buffer, 0, (int) (count & 63));
+    }
+
+    public static ResumableSha256 readFrom(DataInput in) throws IOException {
+        if (in.readInt() != STATE_MAGIC) {
+            throw new IOException("Not a saved hash state");
+        }
+        ResumableSha256 hash = new ResumableSha256();
+        hash.count = in.readLong();
+        if (hash.count < 0) {
+            throw new IOException("Corrupt hash state");
+        }
+        for (int i = 0; i < 8; i++) {
+            hash.h[i] = in.readInt();
+        }
+        in.readFully(hash.buffer, 0, (int) (hash.count & 63));
+        return hash;
+    }
+
+    /** Saves the state to file, replacing it atomically. */
+    public void saveTo(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(fileOut)) {
+            writeTo(out);
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /** The state saved in file, or null if there is none or it cannot be read. */
+    public static ResumableSha256 loadFrom(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return readFrom(in);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void compress(byte[] block, int offset) {
+        for (int i = 0; i < 16; i++) {
+            int p = offset + 4 * i;
+            w[i] = (block[p] << 24) | ((block[p + 1] & 0xff) << 16) | ((block[p + 2] & 0xff) << 8) | (block[p + 3] & 0xff);
+        }
+        for (int i = 16; i < 64; i++) {
+            int s0 = Integer.rotateRight(w[i - 15], 7) ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+            int s1 = Integer.rotateRight(w[i - 2], 17) ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+        int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], hh = h[7];
+        for (int i = 0; i < 64; i++) {
+            int t1 = hh + (Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25))
+                + ((e & f) ^ (~e & g)) + K[i] + w[i];
+            int t2 = (Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22))
+                + ((a & b) ^ (a & c) ^ (b & c));
+            hh = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+        h[0] += a;
+        h[1] += b;
+        h[2] += c;
+        h[3] += d;
+        h[4] += e;
+        h[5] += f;
+        h[6] += g;
+        h[7] += hh;
+    }
+}
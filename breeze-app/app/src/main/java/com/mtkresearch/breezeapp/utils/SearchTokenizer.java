@@ -0,0 +1,93 @@
+package com.mtkresearch.breezeapp.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits text into search terms.
+ *
+ * Runs of Han, kana and Hangul characters are indexed as overlapping character bigrams
+ * (a lone character stays a unigram), since Chinese has no word separators. Runs of
+ * other letters and digits become lowercase words. Everything else separates terms.
+ */
+public final class SearchTokenizer {
+    public static final int MAX_WORD_LENGTH = 32;
+
+    public interface TermSink {
+        /** Receives a term and its character range [start, end) in the source text. */
+        void accept(String term, int start, int end);
+    }
+
+    private SearchTokenizer() {}
+
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        tokenize(text, (term, start, end) -> terms.add(term));
+        return terms;
+    }
+
+    public static void tokenize(String text, TermSink sink) {
+        if (text == null) {
+            return;
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int cp = text.codePointAt(i);
+            if (isCjk(cp)) {
+                i = emitCjkRun(text, i, sink);
+            } else if (Character.isLetterOrDigit(cp)) {
+                int start = i;
+                while (i < length) {
+                    int c = text.codePointAt(i);
+                    if (isCjk(c) || !Character.isLetterOrDigit(c)) {
+                        break;
+                    }
+                    i += Character.charCount(c);
+                }
+                String word = text.substring(start, i).toLowerCase(Locale.ROOT);
+                if (word.length() > MAX_WORD_LENGTH) {
+                    word = word.substring(0, MAX_WORD_LENGTH);
+                }
+                sink.accept(word, start, i);
+            } else {
+                i += Character.charCount(cp);
+            }
+        }
+    }
+
+    /** True if the term is a single CJK character, which queries expand to matching bigrams. */
+    public static boolean isCjkUnigram(String term) {
+        return !term.isEmpty() && term.codePointCount(0, term.length()) == 1 && isCjk(term.codePointAt(0));
+    }
+
+    private static int emitCjkRun(String text, int start, TermSink sink) {
+        int length = text.length();
+        int prevStart = start;
+        int i = start + Character.charCount(text.codePointAt(start));
+        if (i >= length || !isCjk(text.codePointAt(i))) {
+            sink.accept(text.substring(start, i), start, i);
+            return i;
+        }
+        while (i < length) {
+            int cp = text.codePointAt(i);
+            if (!isCjk(cp)) {
+                break;
+            }
+            int next = i + Character.charCount(cp);
+            sink.accept(text.substring(prevStart, next), prevStart, next);
+            prevStart = i;
+            i = next;
+        }
+        return i;
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+            || script == Character.UnicodeScript.HIRAGANA
+            || script == Character.UnicodeScript.KATAKANA
+            || script == Character.UnicodeScript.HANGUL;
+    }
+}
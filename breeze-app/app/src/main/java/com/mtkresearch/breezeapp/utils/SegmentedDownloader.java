@@ -0,0 +1,716 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Downloads one file over several HTTP connections at once.
+ *
+ * The file is allocated in full up front and split into fixed-size segments that workers
+ * fetch with Range requests and write in place through a {@link ModelFileWriter}. How far
+ * each segment got is kept in a journal next to the partial file, so an interrupted
+ * download resumes without refetching finished bytes. The number of connections starts
+ * small and grows while each added connection still raises throughput.
+ *
+ * With a {@link ModelFileDigest} the download is verified as it goes. Block digests make
+ * segments line up with blocks; each worker hashes its block while writing it and fetches
+ * it again on a mismatch. Without them the file hash follows the contiguous written prefix,
+ * reading back bytes that are still in the page cache, so it is done with the last byte.
+ * Hash states are kept in the journal, so a resumed download never hashes bytes twice.
+ *
+ * With block digests and a {@link #setBase base file}, such as an earlier release of the same
+ * file, every block whose digest the base also has is copied from it before the first
+ * request, so only the changed blocks are fetched.
+ */
+public class SegmentedDownloader {
+    private static final String TAG = "SegmentedDownloader";
+    static final String JOURNAL_EXTENSION = ".segments";
+    private static final int JOURNAL_MAGIC = 0x42535347; // "BSSG"
+    private static final int JOURNAL_VERSION = 2;
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+    private static final long TICK_MS = 250;
+    private static final long JOURNAL_INTERVAL_MS = 2000;
+    private static final long ADAPT_INTERVAL_MS = 3000;
+    private static final double MIN_GAIN = 1.10; // A new connection must add 10% throughput
+    private static final int MAX_RETRIES = 3;
+    private static final long MAX_HASH_PER_TICK = 32L * 1024 * 1024;
+
+    /** What became of a download. */
+    public enum Result {
+        COMPLETED,
+        CANCELLED,
+        /** The server does not serve byte ranges; nothing was written. */
+        UNSUPPORTED
+    }
+
+    public interface Control {
+        boolean isPaused();
+        boolean isCancelled();
+    }
+
+    public interface ProgressListener {
+        /** Called from the downloading thread a few times a second. */
+        void onProgress(long downloadedBytes, long totalBytes);
+    }
+
+    public interface ReuseListener {
+        /** Called once bytes were copied from the base file; they count as downloaded from then on. */
+        void onReused(long bytes);
+    }
+
+    private long segmentSize;
+    private final int initialConnections;
+    private final int maxConnections;
+    private final String[][] headers;
+    private Semaphore connectionBudget;
+    private DownloadScheduler.BandwidthLimiter bandwidthLimiter;
+    private ModelFileDigest digest;
+    private File baseFile;
+    private Map<String, Long> baseBlocks;
+    private ReuseListener reuseListener;
+
+    public SegmentedDownloader() {
+        this(AppConstants.MODEL_DOWNLOAD_SEGMENT_SIZE, AppConstants.MODEL_DOWNLOAD_INITIAL_CONNECTIONS,
+            AppConstants.MODEL_DOWNLOAD_MAX_CONNECTIONS, AppConstants.DOWNLOAD_HEADERS);
+    }
+
+    public SegmentedDownloader(long segmentSize, int initialConnections, int maxConnections, String[][] headers) {
+        this.segmentSize = segmentSize;
+        this.initialConnections = Math.max(1, Math.min(initialConnections, maxConnections));
+        this.maxConnections = maxConnections;
+        this.headers = headers;
+    }
+
+    /**
+     * Shares connections with other downloads: the first connection is always opened, and
+     * each further one only if a permit is free, returned when that connection ends.
+     */
+    public SegmentedDownloader setConnectionBudget(Semaphore budget) {
+        this.connectionBudget = budget;
+        return this;
+    }
+
+    public SegmentedDownloader setBandwidthLimiter(DownloadScheduler.BandwidthLimiter limiter) {
+        this.bandwidthLimiter = limiter;
+        return this;
+    }
+
+    /** Verifies the file against digest; with block digests, segments become the blocks. */
+    public SegmentedDownloader setDigest(ModelFileDigest digest) {
+        this.digest = digest;
+        if (digest != null && digest.hasBlocks()) {
+            this.segmentSize = digest.blockSize;
+        }
+        return this;
+    }
+
+    /**
+     * Takes blocks from baseFile instead of fetching them, for a new download verified by
+     * block digests.
+     *
+     * @param blocks offset in baseFile by the lower-case SHA-256 of the block there
+     */
+    public SegmentedDownloader setBase(File baseFile, Map<String, Long> blocks, ReuseListener listener) {
+        this.baseFile = baseFile;
+        this.baseBlocks = blocks;
+        this.reuseListener = listener;
+        return this;
+    }
+
+    /**
+     * A byte range of the file and how much of it has been written. The position and the
+     * block hash change together under the segment's lock.
+     */
+    private static final class Segment {
+        final int index;
+        final long start;
+        final long end; // Exclusive
+        final AtomicLong position;
+        ResumableSha256 hash; // Of start..position, when blocks are verified
+
+        Segment(int index, long start, long end, long position) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.position = new AtomicLong(position);
+        }
+
+        boolean isDone() {
+            return position.get() >= end;
+        }
+    }
+
+    /** The server's answer to a one-byte Range request. */
+    private static final class Probe {
+        final URL url;
+        final long length;
+
+        Probe(URL url, long length) {
+            this.url = url;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Downloads url into partFile, resuming from its journal if there is one. A partial file
+     * without a journal, left by a single-connection download, is taken as its first bytes.
+     */
+    public Result download(String url, File partFile, Control control, ProgressListener listener) throws IOException {
+        Probe probe = probe(new URL(url));
+        if (probe == null) {
+            return Result.UNSUPPORTED;
+        }
+        File journal = new File(partFile.getPath() + JOURNAL_EXTENSION);
+        boolean verifyBlocks = digest != null && digest.blocksFit(probe.length);
+        if (digest != null && digest.hasBlocks() && !verifyBlocks) {
+            Log.w(TAG, "Block digests do not fit " + probe.length + " bytes, checking the file digest only");
+        }
+        ResumableSha256 fileHash = digest != null && digest.sha256 != null && !verifyBlocks ? new ResumableSha256() : null;
+        List<Segment> segments = readJournal(journal, partFile, probe.length, fileHash);
+        boolean fresh = segments == null;
+        if (segments == null) {
+            // A partial file with a journal from another layout has holes; only a plain one is a prefix
+            long prefix = partFile.exists() && !journal.exists() ? Math.min(partFile.length(), probe.length) : 0;
+            segments = split(probe.length, prefix);
+            if (fileHash != null) {
+                fileHash.reset();
+            }
+        } else if (!verifyBlocks) {
+            for (Segment segment : segments) {
+                segment.hash = null; // Saved when the manifest still listed block digests
+            }
+        }
+
+        if (fresh) {
+            // Before the file is allocated: at full length without a journal it would pass for a finished
+            // prefix, and a stale journal would pass the new file off as downloaded
+            writeJournal(journal, null, probe.length, segments, fileHash);
+        }
+        try (ModelFileWriter writer = ModelFileWriter.open(partFile, probe.length)) {
+            FileChannel channel = writer.channel();
+            if (verifyBlocks && fresh && baseFile != null) {
+                long reused = copyFromBase(writer, segments);
+                if (reused > 0) {
+                    writeJournal(journal, channel, probe.length, segments, fileHash);
+                    if (reuseListener != null) {
+                        reuseListener.onReused(reused);
+                    }
+                }
+            }
+            if (verifyBlocks) {
+                restoreBlockHashes(channel, segments);
+            }
+            Result result = run(probe, segments, writer, journal, fileHash, control, listener);
+            if (result == Result.COMPLETED) {
+                channel.force(false);
+                if (fileHash != null && !verifyFile(channel, fileHash)) {
+                    // Nothing tells which bytes are wrong, so the next attempt starts over
+                    channel.truncate(0);
+                    journal.delete();
+                    throw new IOException("Checksum mismatch for " + partFile.getName());
+                }
+                if (journal.exists() && !journal.delete()) {
+                    Log.w(TAG, "Could not delete " + journal);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Copies the blocks the base file also has into place, checking each against its digest
+     * as it is read, and returns how many bytes were copied.
+     */
+    private long copyFromBase(ModelFileWriter writer, List<Segment> segments) throws IOException {
+        long copied = 0;
+        int blocks = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try (FileChannel base = new FileInputStream(baseFile).getChannel()) {
+            long baseLength = base.size();
+            for (Segment segment : segments) {
+                Long offset = baseBlocks.get(digest.blockDigest(segment.index));
+                long length = segment.end - segment.start;
+                if (offset == null || segment.position.get() != segment.start || offset + length > baseLength) {
+                    continue;
+                }
+                ResumableSha256 hash = new ResumableSha256();
+                long position = 0;
+                while (position < length) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), length - position));
+                    int read = base.read(buffer, offset + position);
+                    if (read < 0) {
+                        throw new IOException("Base file ends at byte " + (offset + position));
+                    }
+                    hash.update(buffer.array(), 0, read);
+                    buffer.flip();
+                    writer.write(buffer, segment.start + position);
+                    position += read;
+                }
+                if (!digest.blockMatches(segment.index, hash)) {
+                    Log.w(TAG, "Block at " + offset + " of " + baseFile.getName() + " is not what it was listed as");
+                    continue; // Fetched like the others; the copied bytes get overwritten
+                }
+                synchronized (segment) {
+                    segment.hash = hash;
+                    segment.position.set(segment.end);
+                }
+                copied += length;
+                blocks++;
+            }
+        }
+        Log.i(TAG, "Reused " + blocks + " of " + segments.size() + " blocks (" + copied + " bytes) from " + baseFile);
+        return copied;
+    }
+
+    /** Gives each unfinished block a hash, hashing from disk what an earlier run wrote without one. */
+    private void restoreBlockHashes(FileChannel channel, List<Segment> segments) throws IOException {
+        for (Segment segment : segments) {
+            if (segment.hash == null || segment.hash.count() != segment.position.get() - segment.start) {
+                segment.hash = new ResumableSha256();
+                hashRange(channel, segment.start, segment.position.get(), segment.hash);
+            }
+            if (segment.isDone() && !digest.blockMatches(segment.index, segment.hash)) {
+                Log.w(TAG, "Block " + segment.index + " on disk is corrupt, fetching it again");
+                segment.hash.reset();
+                segment.position.set(segment.start);
+            }
+        }
+    }
+
+    private boolean verifyFile(FileChannel channel, ResumableSha256 fileHash) throws IOException {
+        hashRange(channel, fileHash.count(), channel.size(), fileHash);
+        return digest.matches(fileHash);
+    }
+
+    /** Feeds bytes start..end of the file to hash. */
+    private static void hashRange(FileChannel channel, long start, long end, ResumableSha256 hash) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        long position = start;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Partial file ends at byte " + position);
+            }
+            hash.update(buffer.array(), 0, read);
+            position += read;
+        }
+    }
+
+    /** Hashes on from where fileHash stopped, up to the end of the contiguous written prefix. */
+    private static void advanceFileHash(FileChannel channel, List<Segment> segments, ResumableSha256 fileHash)
+            throws IOException {
+        long prefix = 0;
+        for (Segment segment : segments) {
+            prefix = segment.position.get();
+            if (!segment.isDone()) {
+                break;
+            }
+        }
+        long from = fileHash.count();
+        hashRange(channel, from, Math.min(prefix, from + MAX_HASH_PER_TICK), fileHash);
+    }
+
+    private List<Segment> split(long length, long donePrefix) {
+        List<Segment> segments = new ArrayList<>();
+        for (long start = 0; start < length; start += segmentSize) {
+            long end = Math.min(start + segmentSize, length);
+            segments.add(new Segment(segments.size(), start, end, Math.max(start, Math.min(end, donePrefix))));
+        }
+        return segments;
+    }
+
+    private Result run(Probe probe, List<Segment> segments, ModelFileWriter writer, File journal,
+                       ResumableSha256 fileHash, Control outer, ProgressListener listener) throws IOException {
+        FileChannel channel = writer.channel();
+        // Workers are stopped through this flag, never interrupted: an interrupt during a
+        // write closes the FileChannel for every worker
+        AtomicInteger stopped = new AtomicInteger();
+        Control control = new Control() {
+            @Override
+            public boolean isPaused() {
+                return outer.isPaused();
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return stopped.get() != 0 || outer.isCancelled();
+            }
+        };
+        ConcurrentLinkedQueue<Segment> pending = new ConcurrentLinkedQueue<>();
+        for (Segment segment : segments) {
+            if (!segment.isDone()) {
+                pending.add(segment);
+            }
+        }
+        AtomicInteger target = new AtomicInteger(initialConnections);
+        AtomicInteger active = new AtomicInteger();
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        ExecutorService workers = Executors.newFixedThreadPool(maxConnections, r -> new Thread(r, "SegmentWorker"));
+
+        try {
+            long lastJournal = System.currentTimeMillis();
+            long lastAdapt = lastJournal;
+            long bytesAtAdapt = downloaded(segments);
+            double lastRate = 0;
+            boolean growing = true;
+
+            while (true) {
+                // Start workers up to the target; each takes segments until none are left
+                while (active.get() < target.get() && !pending.isEmpty() && failure.get() == null) {
+                    boolean borrowed = active.get() > 0 && connectionBudget != null;
+                    if (borrowed && !connectionBudget.tryAcquire()) {
+                        break; // Other downloads use the spare connections
+                    }
+                    active.incrementAndGet();
+                    workers.execute(() -> {
+                        try {
+                            work(probe, pending, writer, control, target, active);
+                        } catch (IOException e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            active.decrementAndGet();
+                            if (borrowed) {
+                                connectionBudget.release();
+                            }
+                        }
+                    });
+                }
+
+                long done = downloaded(segments);
+                if (listener != null) {
+                    listener.onProgress(done, probe.length);
+                }
+                if (done >= probe.length) {
+                    return Result.COMPLETED;
+                }
+                if (failure.get() != null || control.isCancelled()) {
+                    break;
+                }
+                if (active.get() == 0 && pending.isEmpty() && downloaded(segments) < probe.length) {
+                    throw new IOException("Segments ended before the file was complete");
+                }
+
+                if (fileHash != null) {
+                    advanceFileHash(channel, segments, fileHash);
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastJournal >= JOURNAL_INTERVAL_MS) {
+                    writeJournal(journal, channel, probe.length, segments, fileHash);
+                    lastJournal = now;
+                }
+                if (control.isPaused()) {
+                    // Measure throughput from the resume on
+                    lastAdapt = now;
+                    bytesAtAdapt = done;
+                } else if (now - lastAdapt >= ADAPT_INTERVAL_MS) {
+                    double rate = (done - bytesAtAdapt) * 1000.0 / (now - lastAdapt);
+                    // Keep adding connections while the previous one paid off
+                    if (growing && target.get() < maxConnections && rate > lastRate * MIN_GAIN) {
+                        target.incrementAndGet();
+                    } else if (growing && lastRate > 0 && rate <= lastRate * MIN_GAIN) {
+                        growing = false;
+                        target.set(Math.max(1, target.get() - 1));
+                        Log.d(TAG, "Settled on " + target.get() + " connections");
+                    }
+                    lastRate = rate;
+                    lastAdapt = now;
+                    bytesAtAdapt = done;
+                }
+                sleep(TICK_MS);
+            }
+        } finally {
+            // Wait for workers so the journal records everything they wrote
+            target.set(0);
+            stopped.set(1);
+            workers.shutdown();
+            awaitQuietly(workers);
+            if (downloaded(segments) < probe.length) {
+                writeJournal(journal, channel, probe.length, segments, fileHash);
+            }
+        }
+
+        IOException error = failure.get();
+        if (error != null) {
+            throw error;
+        }
+        return Result.CANCELLED;
+    }
+
+    private void work(Probe probe, ConcurrentLinkedQueue<Segment> pending, ModelFileWriter writer,
+                      Control control, AtomicInteger target, AtomicInteger active) throws IOException {
+        byte[] array = new byte[READ_BUFFER_SIZE];
+        ByteBuffer buffer = ModelFileWriter.allocateBuffer(READ_BUFFER_SIZE);
+        Segment segment;
+        while ((segment = pending.poll()) != null) {
+            int attempt = 0;
+            while (!segment.isDone()) {
+                if (control.isCancelled() || Thread.currentThread().isInterrupted()) {
+                    pending.add(segment);
+                    return;
+                }
+                try {
+                    fetch(probe.url, segment, writer, array, buffer, control);
+                    if (segment.isDone() && !verifyBlock(segment)) {
+                        throw new IOException("Block " + segment.index + " failed verification");
+                    }
+                    attempt = 0;
+                } catch (IOException e) {
+                    if (++attempt > MAX_RETRIES || control.isCancelled()) {
+                        pending.add(segment);
+                        throw e;
+                    }
+                    Log.w(TAG, "Retrying segment at " + segment.position.get() + ": " + e.getMessage());
+                    sleep(500L << attempt);
+                }
+            }
+            // Fewer connections were asked for; leave the rest to the other workers
+            if (active.get() > target.get()) {
+                return;
+            }
+        }
+    }
+
+    /** Checks a finished block; a corrupt one is reset so it is fetched again. */
+    private boolean verifyBlock(Segment segment) {
+        synchronized (segment) {
+            if (segment.hash == null || digest.blockMatches(segment.index, segment.hash)) {
+                return true;
+            }
+            Log.w(TAG, "Block " + segment.index + " does not match its digest");
+            segment.hash.reset();
+            segment.position.set(segment.start);
+            return false;
+        }
+    }
+
+    private void fetch(URL url, Segment segment, ModelFileWriter writer, byte[] array, ByteBuffer buffer,
+                       Control control) throws IOException {
+        long position = segment.position.get();
+        HttpURLConnection connection = open(url, position, segment.end - 1);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Range request answered with HTTP " + connection.getResponseCode());
+            }
+            try (InputStream in = connection.getInputStream()) {
+                while (position < segment.end) {
+                    while (control.isPaused() && !control.isCancelled()) {
+                        sleep(TICK_MS);
+                    }
+                    if (control.isCancelled()) {
+                        return;
+                    }
+                    int want = (int) Math.min(array.length, segment.end - position);
+                    int read = in.read(array, 0, want);
+                    if (read < 0) {
+                        throw new IOException("Connection closed at byte " + position);
+                    }
+                    if (bandwidthLimiter != null) {
+                        try {
+                            bandwidthLimiter.acquire(read);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    buffer.clear();
+                    buffer.put(array, 0, read).flip();
+                    writer.write(buffer, position);
+                    position += read;
+                    synchronized (segment) {
+                        if (segment.hash != null) {
+                            segment.hash.update(array, 0, read);
+                        }
+                        segment.position.set(position);
+                    }
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /** Asks for the first byte; returns null if the server ignores ranges or gives no length. */
+    private Probe probe(URL url) throws IOException {
+        HttpURLConnection connection = open(url, 0, 0);
+        try {
+            int code = connection.getResponseCode();
+            String contentRange = connection.getHeaderField("Content-Range");
+            if (code != HttpURLConnection.HTTP_PARTIAL || contentRange == null) {
+                Log.d(TAG, "No range support (HTTP " + code + ") for " + url);
+                return null;
+            }
+            int slash = contentRange.lastIndexOf('/');
+            long length;
+            try {
+                length = Long.parseLong(contentRange.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                return null; // Length given as "*"
+            }
+            // Later requests go straight to where redirects led
+            return length > 0 ? new Probe(connection.getURL(), length) : null;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(URL url, long first, long last) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        for (String[] header : headers) {
+            connection.setRequestProperty(header[0], header[1]);
+        }
+        connection.setRequestProperty("Range", "bytes=" + first + "-" + last);
+        connection.setConnectTimeout((int) AppConstants.MODEL_DOWNLOAD_CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout((int) AppConstants.MODEL_DOWNLOAD_CONNECT_TIMEOUT_MS);
+        connection.setInstanceFollowRedirects(true);
+        return connection;
+    }
+
+    private static long downloaded(List<Segment> segments) {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.position.get() - segment.start;
+        }
+        return total;
+    }
+
+    private void writeJournal(File journal, FileChannel channel, long length, List<Segment> segments,
+                              ResumableSha256 fileHash) {
+        File temp = new File(journal.getPath() + ".tmp");
+        long[] positions = new long[segments.size()];
+        ResumableSha256[] hashes = new ResumableSha256[segments.size()];
+        for (int i = 0; i < positions.length; i++) {
+            Segment segment = segments.get(i);
+            synchronized (segment) {
+                positions[i] = segment.position.get();
+                hashes[i] = segment.hash != null ? segment.hash.copy() : null;
+            }
+        }
+        try {
+            // Positions are taken first: the journal must never claim bytes not yet on disk
+            if (channel != null) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not sync partial download", e);
+            return;
+        }
+        try (FileOutputStream fileOut = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(JOURNAL_MAGIC);
+            out.writeInt(JOURNAL_VERSION);
+            out.writeLong(length);
+            out.writeLong(segmentSize);
+            out.writeInt(segments.size());
+            for (long position : positions) {
+                out.writeLong(position);
+            }
+            out.writeBoolean(fileHash != null);
+            if (fileHash != null) {
+                fileHash.writeTo(out);
+            }
+            for (ResumableSha256 hash : hashes) {
+                out.writeBoolean(hash != null);
+                if (hash != null) {
+                    hash.writeTo(out);
+                }
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write download journal", e);
+            return;
+        }
+        if (!temp.renameTo(journal)) {
+            Log.w(TAG, "Could not replace download journal " + journal);
+        }
+    }
+
+    /**
+     * Reads the segments of an earlier attempt, or null if there is none for this length.
+     * The saved file hash, if any, is loaded into fileHash.
+     */
+    private List<Segment> readJournal(File journal, File partFile, long length, ResumableSha256 fileHash) {
+        if (!journal.exists()) {
+            return null;
+        }
+        if (!partFile.isFile() || partFile.length() != length) {
+            // Deleted, or truncated by a single-connection attempt: the positions describe nothing
+            Log.i(TAG, "Download journal does not match " + partFile.getName() + ", starting over");
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(journal))) {
+            if (in.readInt() != JOURNAL_MAGIC || in.readInt() != JOURNAL_VERSION
+                    || in.readLong() != length || in.readLong() != segmentSize) {
+                Log.i(TAG, "Download journal does not match the file, starting over");
+                return null;
+            }
+            List<Segment> segments = split(length, 0);
+            if (in.readInt() != segments.size()) {
+                return null;
+            }
+            List<Segment> restored = new ArrayList<>(segments.size());
+            for (Segment segment : segments) {
+                long position = in.readLong();
+                if (position < segment.start || position > segment.end) {
+                    return null;
+                }
+                restored.add(new Segment(segment.index, segment.start, segment.end, position));
+            }
+            if (in.readBoolean()) {
+                ResumableSha256 saved = ResumableSha256.readFrom(in);
+                if (fileHash != null) {
+                    fileHash.restore(saved);
+                }
+            }
+            for (Segment segment : restored) {
+                if (in.readBoolean()) {
+                    segment.hash = ResumableSha256.readFrom(in);
+                }
+            }
+            return restored;
+        } catch (IOException e) {
+            Log.w(TAG, "Unreadable download journal, starting over", e);
+            return null;
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitQuietly(ExecutorService executor) {
+        try {
+            executor.awaitTermination(AppConstants.MODEL_DOWNLOAD_CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
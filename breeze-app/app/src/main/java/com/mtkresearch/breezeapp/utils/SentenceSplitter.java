@@ -0,0 +1,90 @@
+package com.mtkresearch.breezeapp.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts a streamed LLM response into sentences that can be handed to TTS one by one.
+ *
+ * Chinese sentence punctuation ends a sentence immediately; Latin '.', '!' and '?'
+ * only when followed by whitespace, so decimals and abbreviations inside a token
+ * stream are not split early. Very long runs without an ending are cut at a comma
+ * to keep the time to first audio short.
+ */
+public class SentenceSplitter {
+    private static final int MIN_SENTENCE_LENGTH = 4;
+    private static final int MAX_SENTENCE_LENGTH = 80;
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    /**
+     * Appends a token and returns the sentences it completed, in order.
+     */
+    public List<String> append(String token) {
+        List<String> sentences = new ArrayList<>();
+        if (token == null || token.isEmpty()) {
+            return sentences;
+        }
+        buffer.append(token);
+
+        int start = 0;
+        for (int i = 0; i < buffer.length(); i++) {
+            char c = buffer.charAt(i);
+            int end = -1;
+            if (isCjkTerminator(c) || c == '\n') {
+                end = i + 1;
+            } else if (isLatinTerminator(c) && i + 1 < buffer.length()
+                    && Character.isWhitespace(buffer.charAt(i + 1))) {
+                end = i + 1;
+            } else if (i - start >= MAX_SENTENCE_LENGTH && isPause(c)) {
+                end = i + 1;
+            }
+            if (end > 0 && emit(buffer.substring(start, end), sentences)) {
+                start = end;
+            }
+        }
+        buffer.delete(0, start);
+        return sentences;
+    }
+
+    /**
+     * Returns whatever is left once generation has finished, or null if nothing is.
+     */
+    public String flush() {
+        String rest = buffer.toString().trim();
+        buffer.setLength(0);
+        return rest.isEmpty() ? null : rest;
+    }
+
+    public void reset() {
+        buffer.setLength(0);
+    }
+
+    private static boolean emit(String candidate, List<String> sentences) {
+        String sentence = candidate.trim();
+        if (sentence.isEmpty()) {
+            return true; // Drop stray separators
+        }
+        if (sentence.length() < MIN_SENTENCE_LENGTH) {
+            return false; // Too short to be worth a TTS call, merge with what follows
+        }
+        sentences.add(sentence);
+        return true;
+    }
+
+    static boolean isSentenceEnd(char c) {
+        return isCjkTerminator(c) || isLatinTerminator(c);
+    }
+
+    private static boolean isCjkTerminator(char c) {
+        return c == '。' || c == '！' || c == '？' || c == '；' || c == '…';
+    }
+
+    private static boolean isLatinTerminator(char c) {
+        return c == '.' || c == '!' || c == '?' || c == ';';
+    }
+
+    private static boolean isPause(char c) {
+        return c == '，' || c == ',' || c == '、' || c == '：' || c == ':';
+    }
+}
@@ -33,12 +33,17 @@ import static com.mtkresearch.breezeapp.utils.AppConstants.TOP_P_STEP_SIZE;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
+import android.widget.Toast;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.preference.EditTextPreference;
 import androidx.preference.ListPreference;
+import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.SeekBarPreference;
 import androidx.preference.PreferenceManager;
@@ -52,6 +57,7 @@ import java.util.Set;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.util.Map;
 import java.util.HashMap;
@@ -74,6 +80,10 @@ public class SettingsFragment extends PreferenceFragmentCompat implements Shared
     private SeekBarPreference topPPreference;
     private ListPreference modelIdPreference;
     
+    // Picks a model bundle to import; any type, as devices label tar files inconsistently
+    private final ActivityResultLauncher<String[]> importBundleLauncher =
+        registerForActivityResult(new ActivityResultContracts.OpenDocument(), this::importModelBundle);
+    
     // Track when we're programmatically changing values
     private boolean isInternalUpdate = false;
     
@@ -319,6 +329,37 @@ public class SettingsFragment extends PreferenceFragmentCompat implements Shared
         
         modelIdPreference = findPreference("llm_model_id");
         updateModelIdList();
+
+        Preference importBundlePreference = findPreference("import_model_bundle");
+        if (importBundlePreference != null) {
+            importBundlePreference.setOnPreferenceClickListener(preference -> {
+                importBundleLauncher.launch(new String[] {"*/*"});
+                return true;
+            });
+        }
+    }
+    
+    private void importModelBundle(Uri uri) {
+        if (uri == null) {
+            return; // Nothing picked
+        }
+        Context context = requireContext().getApplicationContext();
+        Toast.makeText(context, R.string.import_model_bundle_started, Toast.LENGTH_SHORT).show();
+        new Thread(() -> {
+            String message;
+            try {
+                List<String> modelIds = ModelBundleImporter.importBundle(context, uri);
+                message = context.getString(R.string.import_model_bundle_done, String.join(", ", modelIds));
+            } catch (IOException e) {
+                Log.e(TAG, "Model bundle import failed", e);
+                message = context.getString(R.string.import_model_bundle_failed, e.getMessage());
+            }
+            String result = message;
+            handler.post(() -> {
+                Toast.makeText(context, result, Toast.LENGTH_LONG).show();
+                updateModelIdList();
+            });
+        }, "ModelBundleImport").start();
     }
     
     @Override
@@ -0,0 +1,75 @@
+package com.mtkresearch.breezeapp.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits streamed text into chunks of roughly a fixed token size for retrieval, without
+ * holding more than one chunk in memory. Chunks end at a paragraph break where possible,
+ * then at the end of a sentence, then at whitespace.
+ */
+public final class TextChunker {
+
+    public interface ChunkSink {
+        /** Receives the next chunk; return false to stop reading. */
+        boolean accept(String chunk);
+    }
+
+    private TextChunker() {}
+
+    public static void chunk(Reader reader, int maxTokens, ChunkSink sink) throws IOException {
+        StringBuilder current = new StringBuilder();
+        double tokens = 0;
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                char c = buffer[i];
+                if (c == '\r') {
+                    continue;
+                }
+                current.append(c);
+                tokens += TokenEstimator.estimateCharTokens(c);
+                if (tokens >= maxTokens) {
+                    int cut = findBreak(current);
+                    if (!emit(current.substring(0, cut), sink)) {
+                        return;
+                    }
+                    current.delete(0, cut);
+                    tokens = 0;
+                    for (int j = 0; j < current.length(); j++) {
+                        tokens += TokenEstimator.estimateCharTokens(current.charAt(j));
+                    }
+                }
+            }
+        }
+        emit(current.toString(), sink);
+    }
+
+    /** Finds where to end the chunk, searching back no further than its middle. */
+    private static int findBreak(CharSequence text) {
+        int length = text.length();
+        int floor = length / 2;
+        for (int i = length - 1; i > floor; i--) {
+            if (text.charAt(i) == '\n' && text.charAt(i - 1) == '\n') {
+                return i + 1;
+            }
+        }
+        for (int i = length - 1; i > floor; i--) {
+            if (SentenceSplitter.isSentenceEnd(text.charAt(i)) || text.charAt(i) == '\n') {
+                return i + 1;
+            }
+        }
+        for (int i = length - 1; i > floor; i--) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+    private static boolean emit(String chunk, ChunkSink sink) {
+        String trimmed = chunk.trim();
+        return trimmed.isEmpty() || sink.accept(trimmed);
+    }
+}
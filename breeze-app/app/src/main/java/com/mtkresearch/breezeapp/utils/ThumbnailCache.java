@@ -0,0 +1,326 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads downsampled images for message bubbles.
+ *
+ * Thumbnails are decoded off the main thread with {@code inSampleSize} and kept in two
+ * tiers: a memory LRU bounded by bitmap bytes, and a disk cache of compressed thumbnails
+ * so a full-resolution photo is decoded at most once. Bitmaps evicted from memory that no
+ * view is showing are reused for later decodes. All public methods are for the main thread.
+ */
+public class ThumbnailCache {
+    private static final String TAG = "ThumbnailCache";
+    private static final String DIR_NAME = "thumbnails";
+    private static final int MAX_MEMORY_BYTES = 32 * 1024 * 1024;
+    private static final long MAX_DISK_BYTES = 64L * 1024 * 1024;
+    private static final int DISK_QUALITY = 85;
+    private static final int POOL_SIZE = 6;
+    private static final int DECODE_THREADS = 2;
+
+    private final Context context;
+    private final File directory;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newFixedThreadPool(DECODE_THREADS, r -> {
+        Thread thread = new Thread(r, "Thumbnail");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    final LruCache<String, Bitmap> memory; // Package-private for tests
+    // Guarded by itself; decode threads take from it, eviction on the main thread adds to it
+    private final List<Bitmap> reusable = new ArrayList<>();
+    // What each view shows or is loading; views are dropped once they are collected
+    private final Map<ImageView, Request> requests = new WeakHashMap<>();
+    private long diskBytesWritten = 0;
+    private boolean closed = false;
+
+    private static final class Request {
+        final String key;
+        Bitmap shown;
+        Future<?> task;
+
+        Request(String key) {
+            this.key = key;
+        }
+    }
+
+    public ThumbnailCache(Context context) {
+        this(context, (int) Math.min(MAX_MEMORY_BYTES, Runtime.getRuntime().maxMemory() / 8));
+    }
+
+    ThumbnailCache(Context context, int maxBytes) {
+        this.context = context.getApplicationContext();
+        this.directory = new File(context.getCacheDir(), DIR_NAME);
+        this.memory = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (evicted && !isShown(oldValue)) {
+                    recycleLater(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Shows the image in the view, scaled down to about the view's size. A request made
+     * earlier for the same view is cancelled.
+     */
+    public void load(Uri uri, ImageView view, int sizePx) {
+        String key = uri + "@" + sizePx;
+        Request current = requests.get(view);
+        if (current != null && current.key.equals(key) && (current.shown != null || current.task != null)) {
+            return; // Already showing or loading it, e.g. when a streaming message rebinds
+        }
+        cancel(view);
+
+        Request request = new Request(key);
+        requests.put(view, request);
+        Bitmap cached = memory.get(key);
+        if (cached != null) {
+            request.shown = cached;
+            view.setImageBitmap(cached);
+            return;
+        }
+        view.setImageDrawable(null);
+        if (closed) {
+            return;
+        }
+        request.task = executor.submit(() -> {
+            Bitmap bitmap = loadThumbnail(uri, key, sizePx);
+            if (bitmap == null) {
+                return;
+            }
+            mainHandler.post(() -> {
+                if (closed) {
+                    return;
+                }
+                memory.put(key, bitmap);
+                if (requests.get(view) != request) {
+                    return; // Recycled for another message meanwhile
+                }
+                request.task = null;
+                request.shown = bitmap;
+                view.setImageBitmap(bitmap);
+            });
+        });
+    }
+
+    /** Stops loading into the view, e.g. when its row is recycled. */
+    public void cancel(ImageView view) {
+        Request request = requests.remove(view);
+        if (request != null && request.task != null) {
+            request.task.cancel(true);
+        }
+    }
+
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        requests.clear();
+        memory.evictAll();
+        synchronized (reusable) {
+            reusable.clear();
+        }
+    }
+
+    private boolean isShown(Bitmap bitmap) {
+        for (Request request : requests.values()) {
+            if (request.shown == bitmap) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void recycleLater(Bitmap bitmap) {
+        if (!bitmap.isMutable()) {
+            return;
+        }
+        synchronized (reusable) {
+            if (reusable.size() >= POOL_SIZE) {
+                reusable.remove(0);
+            }
+            reusable.add(bitmap);
+        }
+    }
+
+    /** Takes a pooled bitmap large enough to decode into with these options, if there is one. */
+    Bitmap takeReusable(BitmapFactory.Options options) {
+        int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        long needed = (long) width * height * 4; // ARGB_8888
+        synchronized (reusable) {
+            Iterator<Bitmap> it = reusable.iterator();
+            while (it.hasNext()) {
+                Bitmap candidate = it.next();
+                if (candidate.getAllocationByteCount() >= needed) {
+                    it.remove();
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Bitmap loadThumbnail(Uri uri, String key, int sizePx) {
+        File file = new File(directory, diskName(key));
+        if (file.exists()) {
+            Bitmap bitmap = decode(() -> new FileInputStream(file), sizePx);
+            if (bitmap != null) {
+                file.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+            file.delete();
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            return null;
+        }
+
+        Bitmap bitmap = decode(() -> context.getContentResolver().openInputStream(uri), sizePx);
+        if (bitmap != null && !Thread.currentThread().isInterrupted()) {
+            writeToDisk(bitmap, file);
+        }
+        return bitmap;
+    }
+
+    private interface StreamSource {
+        InputStream open() throws IOException;
+    }
+
+    private Bitmap decode(StreamSource source, int sizePx) {
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            try (InputStream in = source.open()) {
+                if (in == null) {
+                    return null;
+                }
+                BitmapFactory.decodeStream(in, null, options);
+            }
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize(options.outWidth, options.outHeight, sizePx);
+            options.inMutable = true;
+            options.inBitmap = takeReusable(options);
+            try (InputStream in = source.open()) {
+                return BitmapFactory.decodeStream(in, null, options);
+            } catch (IllegalArgumentException e) {
+                // The pooled bitmap did not fit after all; decode into a new one
+                options.inBitmap = null;
+                try (InputStream in = source.open()) {
+                    return BitmapFactory.decodeStream(in, null, options);
+                }
+            }
+        } catch (IOException | SecurityException e) {
+            Log.w(TAG, "Error decoding thumbnail", e);
+            return null;
+        }
+    }
+
+    /** Largest power of two that keeps the shorter side at least sizePx. */
+    static int sampleSize(int width, int height, int sizePx) {
+        int sample = 1;
+        int shorter = Math.min(width, height);
+        while (shorter / (sample * 2) >= sizePx) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    private void writeToDisk(Bitmap bitmap, File file) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+        File temp = new File(directory, file.getName() + ".tmp");
+        Bitmap.CompressFormat format = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+            ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.JPEG;
+        try (OutputStream out = new FileOutputStream(temp)) {
+            bitmap.compress(format, DISK_QUALITY, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Error writing thumbnail", e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+        synchronized (this) {
+            diskBytesWritten += file.length();
+            if (diskBytesWritten < MAX_DISK_BYTES / 8) {
+                return;
+            }
+            diskBytesWritten = 0;
+        }
+        trimDisk();
+    }
+
+    /** Deletes the least recently used thumbnails once the directory is over its limit. */
+    private void trimDisk() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File f : files) {
+            total += f.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File f : files) {
+            if (total <= MAX_DISK_BYTES * 3 / 4) {
+                break;
+            }
+            long length = f.length();
+            if (f.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private static String diskName(String key) {
+        // 64-bit FNV-1a; the URI and size never need to be read back from the name
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return Long.toHexString(hash);
+    }
+}
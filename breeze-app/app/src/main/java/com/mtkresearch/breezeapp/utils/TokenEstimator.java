@@ -47,4 +47,18 @@ public class TokenEstimator {
 
         return totalTokens;
     }
+
+    /**
+     * Estimated tokens contributed by a single character, using the same heuristics as
+     * {@link #estimateTokenCount(String)} but without rounding or overhead. Lets callers
+     * track the size of text as it streams in.
+     */
+    public static double estimateCharTokens(char c) {
+        if (c <= 0x007F) {
+            return 0.25;
+        } else if (c >= 0x4E00 && c <= 0x9FFF) {
+            return 2;
+        }
+        return 1.5;
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,158 @@
+package com.mtkresearch.breezeapp.utils;
+
+/**
+ * Energy based speech onset detector fed with per-frame audio levels in dB.
+ *
+ * Levels are only compared relative to tracked floors, so both dBFS values and the
+ * platform recognizer's rmsdB scale work. While TTS playback is active the threshold
+ * is raised above the measured echo level and more consecutive frames are required,
+ * so the assistant's own voice leaking into the microphone does not count as speech.
+ */
+public class VoiceActivityDetector {
+    public static final float DEFAULT_ONSET_MARGIN_DB = 10f;    // Above the noise floor
+    public static final float DEFAULT_PLAYBACK_MARGIN_DB = 8f;  // Above the echo level during playback
+    public static final int DEFAULT_ONSET_FRAMES = 2;
+    public static final int DEFAULT_PLAYBACK_ONSET_FRAMES = 3;
+    public static final long PLAYBACK_SETTLE_MS = 300;          // Echo path settles after playback starts
+
+    private static final int RELEASE_FRAMES = 5;
+    private static final float FLOOR_RISE_RATE = 0.02f;
+    private static final float ECHO_TRACK_RATE = 0.2f;
+    private static final float ECHO_DECAY_DB = 0.5f;
+
+    private final float onsetMarginDb;
+    private final float playbackMarginDb;
+    private final int onsetFrames;
+    private final int playbackOnsetFrames;
+
+    private float noiseFloorDb = Float.NaN;
+    private float echoLevelDb = Float.NaN;
+    private boolean playbackActive = false;
+    private long playbackStartMs = 0;
+
+    private int framesAbove = 0;
+    private int framesBelow = 0;
+    private boolean speaking = false;
+    private long candidateStartMs = 0;
+    private long onsetStartMs = 0;
+
+    public VoiceActivityDetector() {
+        this(DEFAULT_ONSET_MARGIN_DB, DEFAULT_PLAYBACK_MARGIN_DB,
+            DEFAULT_ONSET_FRAMES, DEFAULT_PLAYBACK_ONSET_FRAMES);
+    }
+
+    public VoiceActivityDetector(float onsetMarginDb, float playbackMarginDb,
+                                 int onsetFrames, int playbackOnsetFrames) {
+        this.onsetMarginDb = onsetMarginDb;
+        this.playbackMarginDb = playbackMarginDb;
+        this.onsetFrames = Math.max(1, onsetFrames);
+        this.playbackOnsetFrames = Math.max(1, playbackOnsetFrames);
+    }
+
+    /**
+     * Marks the start or end of assistant playback. The echo estimate is kept across
+     * sentences so consecutive utterances do not need to settle again.
+     */
+    public void setPlaybackActive(boolean active, long nowMs) {
+        if (active && !playbackActive) {
+            playbackStartMs = nowMs;
+            framesAbove = 0;
+        }
+        playbackActive = active;
+    }
+
+    public boolean isPlaybackActive() {
+        return playbackActive;
+    }
+
+    /**
+     * Feeds one frame level.
+     *
+     * @return true exactly once per utterance, on the frame where speech onset is confirmed
+     */
+    public boolean process(float levelDb, long nowMs) {
+        if (Float.isNaN(levelDb) || Float.isInfinite(levelDb)) {
+            return false;
+        }
+        if (Float.isNaN(noiseFloorDb)) {
+            noiseFloorDb = levelDb;
+        }
+
+        boolean settling = playbackActive && nowMs - playbackStartMs < PLAYBACK_SETTLE_MS;
+        float threshold = currentThreshold();
+        boolean above = !settling && levelDb >= threshold;
+
+        if (playbackActive && (settling || !above)) {
+            trackEcho(levelDb);
+        }
+
+        if (above) {
+            if (framesAbove == 0) {
+                candidateStartMs = nowMs;
+            }
+            framesAbove++;
+            framesBelow = 0;
+            int required = playbackActive ? playbackOnsetFrames : onsetFrames;
+            if (!speaking && framesAbove >= required) {
+                speaking = true;
+                onsetStartMs = candidateStartMs;
+                return true;
+            }
+        } else {
+            framesAbove = 0;
+            if (!playbackActive) {
+                trackNoiseFloor(levelDb);
+            }
+            if (speaking && ++framesBelow >= RELEASE_FRAMES) {
+                speaking = false;
+                framesBelow = 0;
+            }
+        }
+        return false;
+    }
+
+    /** Current detection threshold in the same unit as the fed levels. */
+    public float currentThreshold() {
+        float threshold = noiseFloorDb + onsetMarginDb;
+        if (playbackActive && !Float.isNaN(echoLevelDb)) {
+            threshold = Math.max(threshold, echoLevelDb + playbackMarginDb);
+        }
+        return threshold;
+    }
+
+    public boolean isSpeaking() {
+        return speaking;
+    }
+
+    /** Timestamp of the first frame of the last confirmed onset. */
+    public long getOnsetStartMs() {
+        return onsetStartMs;
+    }
+
+    public void reset() {
+        noiseFloorDb = Float.NaN;
+        echoLevelDb = Float.NaN;
+        playbackActive = false;
+        framesAbove = 0;
+        framesBelow = 0;
+        speaking = false;
+    }
+
+    private void trackNoiseFloor(float levelDb) {
+        if (levelDb < noiseFloorDb) {
+            noiseFloorDb = levelDb;
+        } else {
+            noiseFloorDb += (levelDb - noiseFloorDb) * FLOOR_RISE_RATE;
+        }
+    }
+
+    private void trackEcho(float levelDb) {
+        if (Float.isNaN(echoLevelDb) || levelDb > echoLevelDb) {
+            // Follow echo peaks quickly so loud syllables of the assistant do not trigger
+            echoLevelDb = Float.isNaN(echoLevelDb) ? levelDb
+                : echoLevelDb + (levelDb - echoLevelDb) * ECHO_TRACK_RATE * 3;
+        } else {
+            echoLevelDb = Math.max(levelDb, echoLevelDb - ECHO_DECAY_DB);
+        }
+    }
+}
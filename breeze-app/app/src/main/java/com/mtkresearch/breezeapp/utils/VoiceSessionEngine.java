@@ -0,0 +1,392 @@
+package com.mtkresearch.breezeapp.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.mtkresearch.breezeapp.service.ASREngineService;
+import com.mtkresearch.breezeapp.service.LLMEngineService;
+import com.mtkresearch.breezeapp.service.TTSEngineService;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands-free voice conversation: streaming ASR -> LLM -> sentence level TTS.
+ *
+ * All pipeline events (ASR results, microphone levels, LLM tokens, finished sentences)
+ * are serialized on one event thread; TTS playback runs on its own thread so a blocking
+ * speak() never delays barge-in detection. The microphone stays open while the
+ * assistant speaks and a {@link VoiceActivityDetector} with an echo-aware threshold
+ * watches it: confirmed user speech stops playback and cancels generation. Every turn
+ * carries an id so late callbacks of a cancelled turn are dropped.
+ *
+ * Listener callbacks are delivered on the main thread.
+ */
+public class VoiceSessionEngine {
+    private static final String TAG = "VoiceSessionEngine";
+    private static final long MAX_SENTENCE_PLAYBACK_MS = 30000;
+    private static final long LISTEN_RESTART_DELAY_MS = 200;
+
+    public enum State { IDLE, LISTENING, THINKING, SPEAKING }
+
+    public enum Stage {
+        ASR,                // First partial result to final transcript
+        LLM_FIRST_TOKEN,    // Final transcript to first generated token
+        FIRST_SENTENCE,     // Final transcript to first sentence handed to TTS
+        TTS_SENTENCE,       // Synthesis and playback of one sentence
+        TURN,               // Final transcript to end of the spoken answer
+        BARGE_IN            // First speech frame to playback and generation stopped
+    }
+
+    public interface Listener {
+        void onStateChanged(State state);
+        void onUserTranscript(String text, boolean isFinal);
+        void onAssistantText(String text, boolean isFinal);
+        void onBargeIn();
+        void onStageLatency(Stage stage, long latencyMs);
+        void onError(String message);
+    }
+
+    public interface PromptBuilder {
+        /** Called on the main thread, after the final transcript was delivered to the listener */
+        String buildPrompt(String userText);
+    }
+
+    private final ASREngineService asrService;
+    private final LLMEngineService llmService;
+    private final TTSEngineService ttsService;
+    private final LLMInferenceParams params;
+    private final PromptBuilder promptBuilder;
+    private final Listener listener;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService eventExecutor = Executors.newSingleThreadExecutor(
+        r -> new Thread(r, "voice-session-events"));
+    private final ExecutorService ttsExecutor = Executors.newSingleThreadExecutor(
+        r -> new Thread(r, "voice-session-tts"));
+
+    private final AtomicInteger turnId = new AtomicInteger();
+    private final VoiceActivityDetector vad = new VoiceActivityDetector();
+    private final SentenceSplitter splitter = new SentenceSplitter();
+
+    // Event thread state
+    private volatile boolean active = false;
+    private State state = State.IDLE;
+    private final StringBuilder assistantText = new StringBuilder();
+    private long utteranceStartMs = 0;
+    private long turnStartMs = 0;
+    private boolean receivedFirstToken = false;
+    private boolean spokeFirstSentence = false;
+    private boolean generationDone = false;
+    private int pendingSentences = 0;
+    private volatile CompletableFuture<Boolean> currentSpeech;
+
+    public VoiceSessionEngine(ASREngineService asrService, LLMEngineService llmService,
+                              TTSEngineService ttsService, LLMInferenceParams params,
+                              PromptBuilder promptBuilder, Listener listener) {
+        this.asrService = asrService;
+        this.llmService = llmService;
+        this.ttsService = ttsService;
+        this.params = params;
+        this.promptBuilder = promptBuilder;
+        this.listener = listener;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public void start() {
+        runOnEventThread(() -> {
+            if (active) return;
+            active = true;
+            vad.reset();
+            asrService.setEchoCancellationEnabled(true);
+            asrService.setAudioLevelListener(level -> runOnEventThread(() -> onAudioLevel((float) level)));
+            startListening();
+            setState(State.LISTENING);
+        });
+    }
+
+    public void stop() {
+        runOnEventThread(() -> {
+            if (!active) return;
+            active = false;
+            turnId.incrementAndGet();
+            asrService.setAudioLevelListener(null);
+            asrService.stopListening();
+            interruptOutput();
+            setState(State.IDLE);
+        });
+    }
+
+    /** Stops the session and its worker threads; the engine cannot be restarted afterwards. */
+    public void release() {
+        stop();
+        runOnEventThread(() -> {
+            eventExecutor.shutdown();
+            ttsExecutor.shutdownNow();
+        });
+    }
+
+    private void startListening() {
+        if (!active || asrService.isListening()) return;
+        asrService.startListening(result -> runOnEventThread(() -> onAsrResult(result)));
+    }
+
+    // region ASR
+
+    private void onAsrResult(String result) {
+        if (!active || result == null) return;
+
+        if (result.startsWith("Error: ")) {
+            // No match / speech timeout end a listening round on the default backend, just listen again
+            Log.d(TAG, "ASR round ended: " + result);
+            restartListeningLater();
+            return;
+        }
+        if (result.equals("Ready for speech...")) {
+            return;
+        }
+
+        boolean isPartial = result.startsWith("Partial: ");
+        String text = isPartial ? result.substring(9) : result;
+        if (state == State.SPEAKING) {
+            // Without a barge-in this is the assistant's own voice picked up by the microphone
+            Log.d(TAG, "Ignoring ASR result during playback: " + text);
+            if (!isPartial) restartListeningLater();
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (utteranceStartMs == 0) {
+            utteranceStartMs = now;
+        }
+        if (isPartial) {
+            postToListener(() -> listener.onUserTranscript(text, false));
+            return;
+        }
+
+        reportLatency(Stage.ASR, now - utteranceStartMs);
+        utteranceStartMs = 0;
+        restartListeningLater();
+        if (!text.trim().isEmpty()) {
+            startTurn(text.trim(), now);
+        }
+    }
+
+    private void restartListeningLater() {
+        // The default backend stops after each result, the CPU backend keeps its stream open
+        mainHandler.postDelayed(() -> runOnEventThread(this::startListening), LISTEN_RESTART_DELAY_MS);
+    }
+
+    private void onAudioLevel(float levelDb) {
+        if (!active) return;
+        long now = System.currentTimeMillis();
+        if (vad.process(levelDb, now) && (state == State.SPEAKING || state == State.THINKING)) {
+            bargeIn();
+        }
+    }
+
+    // endregion
+
+    // region Turn pipeline
+
+    private void startTurn(String userText, long transcriptMs) {
+        if (state == State.THINKING || state == State.SPEAKING) {
+            interruptOutput();
+        }
+        int turn = turnId.incrementAndGet();
+        turnStartMs = transcriptMs;
+        assistantText.setLength(0);
+        splitter.reset();
+        receivedFirstToken = false;
+        spokeFirstSentence = false;
+        generationDone = false;
+        pendingSentences = 0;
+        setState(State.THINKING);
+
+        CompletableFuture
+            .supplyAsync(() -> {
+                listener.onUserTranscript(userText, true);
+                return promptBuilder.buildPrompt(userText);
+            }, mainHandler::post)
+            .thenAcceptAsync(prompt -> generate(turn, prompt), eventExecutor)
+            .exceptionally(throwable -> {
+                Log.e(TAG, "Failed to start turn", throwable);
+                postToListener(() -> listener.onError(throwable.getMessage()));
+                return null;
+            });
+    }
+
+    private void generate(int turn, String prompt) {
+        if (turn != turnId.get()) return;
+        llmService.generateStreamingResponse(prompt, params,
+                token -> runOnEventThread(() -> onToken(turn, token)))
+            .whenCompleteAsync((response, throwable) -> onGenerationDone(turn, response, throwable), eventExecutor);
+    }
+
+    private void onToken(int turn, String token) {
+        if (turn != turnId.get() || token == null || token.isEmpty()) return;
+        if (!receivedFirstToken) {
+            receivedFirstToken = true;
+            reportLatency(Stage.LLM_FIRST_TOKEN, System.currentTimeMillis() - turnStartMs);
+        }
+        assistantText.append(token);
+        String text = assistantText.toString();
+        postToListener(() -> listener.onAssistantText(text, false));
+
+        List<String> sentences = splitter.append(token);
+        for (String sentence : sentences) {
+            enqueueSentence(turn, sentence);
+        }
+    }
+
+    private void onGenerationDone(int turn, String response, Throwable throwable) {
+        if (turn != turnId.get()) return;
+        generationDone = true;
+        if (throwable != null) {
+            Log.e(TAG, "Generation failed", throwable);
+            postToListener(() -> listener.onError(throwable.getMessage()));
+        }
+        String rest = splitter.flush();
+        if (rest != null) {
+            enqueueSentence(turn, rest);
+        }
+        String text = assistantText.length() > 0 ? assistantText.toString()
+            : (response != null ? response.trim() : "");
+        postToListener(() -> listener.onAssistantText(text, true));
+        if (pendingSentences == 0) {
+            finishTurn();
+        }
+    }
+
+    private void enqueueSentence(int turn, String sentence) {
+        if (!spokeFirstSentence) {
+            spokeFirstSentence = true;
+            reportLatency(Stage.FIRST_SENTENCE, System.currentTimeMillis() - turnStartMs);
+        }
+        pendingSentences++;
+        ttsExecutor.execute(() -> speakSentence(turn, sentence));
+    }
+
+    /** Runs on the TTS thread, one sentence at a time */
+    private void speakSentence(int turn, String sentence) {
+        if (turn != turnId.get()) {
+            runOnEventThread(() -> onSentenceDone(turn, 0));
+            return;
+        }
+        runOnEventThread(() -> {
+            if (turn != turnId.get()) return;
+            vad.setPlaybackActive(true, System.currentTimeMillis());
+            setState(State.SPEAKING);
+        });
+
+        long start = System.currentTimeMillis();
+        try {
+            CompletableFuture<Boolean> speech = ttsService.speak(sentence);
+            currentSpeech = speech;
+            if (turn != turnId.get()) {
+                // A barge-in while speak() was starting found no playback to cancel
+                ttsService.stopSpeaking();
+                speech.complete(false);
+            }
+            speech.get(MAX_SENTENCE_PLAYBACK_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.w(TAG, "Sentence playback failed: " + e.getMessage());
+        } finally {
+            currentSpeech = null;
+        }
+        long duration = System.currentTimeMillis() - start;
+        runOnEventThread(() -> onSentenceDone(turn, duration));
+    }
+
+    private void onSentenceDone(int turn, long durationMs) {
+        if (turn != turnId.get()) return;
+        pendingSentences--;
+        reportLatency(Stage.TTS_SENTENCE, durationMs);
+        if (pendingSentences > 0) return;
+
+        vad.setPlaybackActive(false, System.currentTimeMillis());
+        if (generationDone) {
+            finishTurn();
+        } else {
+            setState(State.THINKING);
+        }
+    }
+
+    private void finishTurn() {
+        reportLatency(Stage.TURN, System.currentTimeMillis() - turnStartMs);
+        setState(State.LISTENING);
+        startListening();
+    }
+
+    // endregion
+
+    // region Barge-in
+
+    private void bargeIn() {
+        Log.d(TAG, "Barge-in detected in state " + state);
+        interruptOutput();
+        utteranceStartMs = vad.getOnsetStartMs();
+        reportLatency(Stage.BARGE_IN, System.currentTimeMillis() - vad.getOnsetStartMs());
+        postToListener(listener::onBargeIn);
+        setState(State.LISTENING);
+        startListening();
+    }
+
+    /** Invalidates the running turn and stops generation and playback without waiting. */
+    private void interruptOutput() {
+        turnId.incrementAndGet();
+        splitter.reset();
+        pendingSentences = 0;
+        vad.setPlaybackActive(false, System.currentTimeMillis());
+        try {
+            llmService.stopGeneration();
+        } catch (Exception e) {
+            Log.w(TAG, "Error stopping generation", e);
+        }
+        try {
+            ttsService.stopSpeaking();
+        } catch (Exception e) {
+            Log.w(TAG, "Error stopping playback", e);
+        }
+        CompletableFuture<Boolean> speech = currentSpeech;
+        if (speech != null) {
+            speech.complete(false); // Unblock the TTS thread immediately
+        }
+    }
+
+    // endregion
+
+    private void setState(State newState) {
+        if (state == newState) return;
+        state = newState;
+        postToListener(() -> listener.onStateChanged(newState));
+    }
+
+    private void reportLatency(Stage stage, long latencyMs) {
+        Log.d(TAG, "Latency " + stage + ": " + latencyMs + "ms");
+        postToListener(() -> listener.onStageLatency(stage, latencyMs));
+    }
+
+    private void runOnEventThread(Runnable event) {
+        try {
+            eventExecutor.execute(event);
+        } catch (RejectedExecutionException e) {
+            // Late service callbacks may still arrive after release()
+        }
+    }
+
+    private void postToListener(Runnable callback) {
+        mainHandler.post(callback);
+    }
+}
@@ -0,0 +1,113 @@
+package com.mtkresearch.breezeapp.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams 16-bit PCM to a WAV file.
+ *
+ * The 44 byte header is written up front with zero sizes and patched in place on
+ * {@link #close()}, so samples go straight to disk without being kept in memory.
+ * A file left behind by a crash still has a valid header layout; only the sizes are 0.
+ */
+public class WavFileWriter implements Closeable {
+    public static final int HEADER_SIZE = 44;
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    private final FileChannel channel;
+    private final int sampleRate;
+    private final int channels;
+    private final ByteBuffer buffer;
+    private final ShortBuffer samplesView;
+    private long dataBytes = 0;
+    private boolean closed = false;
+
+    public WavFileWriter(File file, int sampleRate, int channels, int maxSamplesPerWrite) throws IOException {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocateDirect(Math.max(HEADER_SIZE, maxSamplesPerWrite * BYTES_PER_SAMPLE))
+            .order(ByteOrder.LITTLE_ENDIAN);
+        this.samplesView = buffer.asShortBuffer();
+        try {
+            writeHeader(0);
+            channel.position(HEADER_SIZE);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends samples. {@code length} must not exceed the {@code maxSamplesPerWrite}
+     * given to the constructor.
+     */
+    public void write(short[] samples, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Writer is closed");
+        }
+        samplesView.clear();
+        samplesView.put(samples, offset, length);
+        buffer.clear();
+        buffer.limit(length * BYTES_PER_SAMPLE);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        dataBytes += (long) length * BYTES_PER_SAMPLE;
+    }
+
+    public long getDataBytes() {
+        return dataBytes;
+    }
+
+    public long getDurationMs() {
+        return dataBytes * 1000 / ((long) sampleRate * channels * BYTES_PER_SAMPLE);
+    }
+
+    /** Patches the header with the final sizes and closes the file. */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeHeader(dataBytes);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeHeader(long dataSize) throws IOException {
+        // RIFF sizes are 32 bit; clamp rather than wrap for very long recordings
+        long data = Math.min(dataSize, 0xFFFFFFFFL - 36);
+        int byteRate = sampleRate * channels * BYTES_PER_SAMPLE;
+
+        buffer.clear();
+        buffer.put(new byte[]{'R', 'I', 'F', 'F'});
+        buffer.putInt((int) (36 + data)); // Unsigned in the file
+        buffer.put(new byte[]{'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+        buffer.putInt(16);                                   // PCM fmt chunk size
+        buffer.putShort((short) 1);                          // PCM
+        buffer.putShort((short) channels);
+        buffer.putInt(sampleRate);
+        buffer.putInt(byteRate);
+        buffer.putShort((short) (channels * BYTES_PER_SAMPLE)); // Block align
+        buffer.putShort((short) (BYTES_PER_SAMPLE * 8));
+        buffer.put(new byte[]{'d', 'a', 't', 'a'});
+        buffer.putInt((int) data);
+        buffer.flip();
+
+        long position = 0;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -6,8 +6,10 @@ import android.content.pm.PackageManager
 import android.media.AudioFormat
 import android.media.AudioRecord
 import android.media.MediaRecorder
+import android.media.audiofx.AcousticEchoCanceler
 import android.util.Log
 import androidx.core.app.ActivityCompat
+import com.mtkresearch.breezeapp.utils.AudioResampler
 import kotlin.concurrent.thread
 
 class SherpaASR(private val context: Context) {
@@ -22,10 +24,23 @@ class SherpaASR(private val context: Context) {
         fun onError(error: String)
     }
 
+    fun interface AudioLevelListener {
+        /** Called on the recording thread with the RMS level of each 100ms frame in dBFS */
+        fun onAudioLevel(levelDb: Float)
+    }
+
     private var recognizer: OnlineRecognizer? = null
     private var audioRecord: AudioRecord? = null
     private var recordingThread: Thread? = null
     private var listener: ASRListener? = null
+    private var echoCanceler: AcousticEchoCanceler? = null
+    private var pcmStream: OnlineStream? = null
+
+    @Volatile
+    var audioLevelListener: AudioLevelListener? = null
+
+    /** Attach the platform echo canceler to the microphone, applied on the next recognition start */
+    var echoCancellationEnabled = false
 
     private val audioSource = MediaRecorder.AudioSource.MIC
     private val channelConfig = AudioFormat.CHANNEL_IN_MONO
@@ -59,10 +74,41 @@ class SherpaASR(private val context: Context) {
         Log.i(TAG, "Started recording")
     }
 
+    /**
+     * Recognizes 16kHz PCM captured by someone else and handed in with [acceptPcm],
+     * instead of opening the microphone. Ends with [stopRecognition].
+     */
+    @Synchronized
+    fun startPcmRecognition(listener: ASRListener) {
+        if (isRecording || pcmStream != null) return
+        if (recognizer == null) {
+            initModel()
+        }
+        this.listener = listener
+        pcmStream = recognizer?.createStream()
+        Log.i(TAG, "Started recognizing external PCM")
+    }
+
+    /** Feeds one captured chunk, on the capturing thread */
+    @Synchronized
+    fun acceptPcm(samples: ShortArray, length: Int) {
+        val stream = pcmStream ?: return
+        decodeChunk(stream, FloatArray(length) { samples[it] / 32768.0f })
+    }
+
+    @Synchronized
+    private fun releasePcmStream() {
+        pcmStream?.release()
+        pcmStream = null
+    }
+
     fun stopRecognition() {
+        releasePcmStream()
         if (!isRecording) return
 
         isRecording = false
+        echoCanceler?.release()
+        echoCanceler = null
         audioRecord?.apply {
             stop()
             release()
@@ -88,39 +134,43 @@ class SherpaASR(private val context: Context) {
         while (isRecording) {
             val ret = audioRecord?.read(buffer, 0, buffer.size) ?: break
             if (ret > 0) {
-                val samples = FloatArray(ret) { buffer[it] / 32768.0f }
-                stream.acceptWaveform(samples, SAMPLE_RATE)
+                decodeChunk(stream, FloatArray(ret) { buffer[it] / 32768.0f })
+            }
+        }
+        stream.release()
+    }
 
-                while (recognizer?.isReady(stream) == true) {
-                    recognizer?.decode(stream)
-                }
+    private fun decodeChunk(stream: OnlineStream, samples: FloatArray) {
+        audioLevelListener?.onAudioLevel(rmsDb(samples))
+        stream.acceptWaveform(samples, SAMPLE_RATE)
 
-                val isEndpoint = recognizer?.isEndpoint(stream) == true
-                var text = recognizer?.getResult(stream)?.text ?: ""
+        while (recognizer?.isReady(stream) == true) {
+            recognizer?.decode(stream)
+        }
 
-                // Handle streaming paraformer
-                if (isEndpoint && recognizer?.config?.modelConfig?.paraformer?.encoder?.isNotBlank() == true) {
-                    val tailPaddings = FloatArray((0.8 * SAMPLE_RATE).toInt())
-                    stream.acceptWaveform(tailPaddings, SAMPLE_RATE)
-                    while (recognizer?.isReady(stream) == true) {
-                        recognizer?.decode(stream)
-                    }
-                    text = recognizer?.getResult(stream)?.text ?: ""
-                }
+        val isEndpoint = recognizer?.isEndpoint(stream) == true
+        var text = recognizer?.getResult(stream)?.text ?: ""
 
-                if (text.isNotBlank()) {
-                    listener?.onPartialResult(text)
-                }
+        // Handle streaming paraformer
+        if (isEndpoint && recognizer?.config?.modelConfig?.paraformer?.encoder?.isNotBlank() == true) {
+            val tailPaddings = FloatArray((0.8 * SAMPLE_RATE).toInt())
+            stream.acceptWaveform(tailPaddings, SAMPLE_RATE)
+            while (recognizer?.isReady(stream) == true) {
+                recognizer?.decode(stream)
+            }
+            text = recognizer?.getResult(stream)?.text ?: ""
+        }
 
-                if (isEndpoint) {
-                    recognizer?.reset(stream)
-                    if (text.isNotBlank()) {
-                        listener?.onFinalResult(text)
-                    }
-                }
+        if (text.isNotBlank()) {
+            listener?.onPartialResult(text)
+        }
+
+        if (isEndpoint) {
+            recognizer?.reset(stream)
+            if (text.isNotBlank()) {
+                listener?.onFinalResult(text)
             }
         }
-        stream.release()
     }
 
     private fun initMicrophone(): Boolean {
@@ -137,7 +187,19 @@ class SherpaASR(private val context: Context) {
             numBytes * 2 // a sample has two bytes as we are using 16-bit PCM
         )
 
-        return audioRecord?.state == AudioRecord.STATE_INITIALIZED
+        val initialized = audioRecord?.state == AudioRecord.STATE_INITIALIZED
+        if (initialized && echoCancellationEnabled && AcousticEchoCanceler.isAvailable()) {
+            echoCanceler = AcousticEchoCanceler.create(audioRecord!!.audioSessionId)?.apply { enabled = true }
+            Log.i(TAG, "Acoustic echo canceler attached: ${echoCanceler != null}")
+        }
+        return initialized
+    }
+
+    private fun rmsDb(samples: FloatArray): Float {
+        var sum = 0.0
+        for (s in samples) sum += s * s
+        val rms = Math.sqrt(sum / samples.size)
+        return (20 * Math.log10(rms.coerceAtLeast(1e-5))).toFloat()
     }
 
     private fun initModel() {
@@ -196,16 +258,27 @@ class SherpaASR(private val context: Context) {
 
         val stream = recognizer?.createStream() ?: return
         try {
-            // Process audio in chunks to simulate real-time processing
-            val chunkSize = (0.1 * SAMPLE_RATE).toInt() // 100ms chunks
+            // Process audio in chunks to simulate real-time processing. Other rates are
+            // resampled to the model rate here rather than per chunk in native code.
+            val chunkSize = (0.1 * waveData.sampleRate).toInt().coerceAtLeast(1) // 100ms chunks
             val samples = waveData.samples
+            val resampler = AudioResampler(waveData.sampleRate, SAMPLE_RATE)
+            val resampled = FloatArray(resampler.maxOutputSize(chunkSize))
+            // The native call takes a whole array, so reuse one of the exact length; whole
+            // chunks resample to the same count, only the last one differs
+            var waveform = FloatArray(0)
             var offset = 0
 
             while (offset < samples.size) {
                 val length = minOf(chunkSize, samples.size - offset)
-                val chunk = samples.copyOfRange(offset, offset + length)
-                
-                stream.acceptWaveform(chunk, waveData.sampleRate)
+                val count = resampler.process(samples, offset, length, resampled, 0)
+                if (count > 0) {
+                    if (waveform.size != count) {
+                        waveform = FloatArray(count)
+                    }
+                    System.arraycopy(resampled, 0, waveform, 0, count)
+                    stream.acceptWaveform(waveform, SAMPLE_RATE)
+                }
 
                 while (recognizer?.isReady(stream) == true) {
                     recognizer?.decode(stream)
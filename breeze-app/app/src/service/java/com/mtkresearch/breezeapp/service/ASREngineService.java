@@ -15,10 +15,12 @@ import android.util.Log;
 import androidx.core.content.ContextCompat;
 
 import com.k2fsa.sherpa.onnx.SherpaASR;
+import com.mtkresearch.breezeapp.utils.EngineHealthRegistry;
 
 import java.util.ArrayList;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
 import java.util.function.Supplier;
 
 public class ASREngineService extends BaseEngineService {
@@ -26,13 +28,17 @@ public class ASREngineService extends BaseEngineService {
     private static final String TEST_PHRASE = "with";
     private static final String TEST_AUDIO_PATH = "test_wavs/test_wavs_8k.wav";
     private static final int RECOGNITION_TIMEOUT = 10000; // 10 seconds
+    private static final long REVERIFY_DELAY_MS = 60000; // Let startup settle before re-testing
     
     private SpeechRecognizer speechRecognizer;
     private SherpaASR sherpaASR;
     private String backend = "none";
     private boolean isListening = false;
     private Consumer<String> currentCallback;
+    private volatile DoubleConsumer audioLevelListener;
+    private boolean echoCancellationEnabled = false;
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private EngineHealthRegistry healthRegistry;
 
     public class LocalBinder extends BaseEngineService.LocalBinder<ASREngineService> { }
 
@@ -43,6 +49,7 @@ public class ASREngineService extends BaseEngineService {
 
     @Override
     public CompletableFuture<Boolean> initialize() {
+        healthRegistry = new EngineHealthRegistry(this);
         return initializeBackends()
             .thenApply(success -> {
                 isInitialized = success;
@@ -67,7 +74,7 @@ public class ASREngineService extends BaseEngineService {
                 if (success) {
                     Log.d(TAG, "✅ " + backendName + " ASR initialized");
                     backend = backendName.toLowerCase();
-                    return testASREngine();
+                    return verifyASREngine();
                 }
                 Log.d(TAG, "❌ " + backendName + " ASR failed");
                 return CompletableFuture.completedFuture(false);
@@ -104,6 +111,41 @@ public class ASREngineService extends BaseEngineService {
         return CompletableFuture.completedFuture(isAvailable);
     }
 
+    /**
+     * Runs the self-test only when the backend or its model changed since the last pass,
+     * or a previous pass was invalidated by a failure in real use.
+     */
+    private CompletableFuture<Boolean> verifyASREngine() {
+        String fingerprint = healthRegistry.fingerprint(backend);
+        if (healthRegistry.hasPassed(EngineHealthRegistry.ENGINE_ASR, fingerprint)) {
+            Log.d(TAG, backend.toUpperCase() + " ASR self-test skipped, cached result is valid");
+            scheduleReverification(fingerprint);
+            return CompletableFuture.completedFuture(true);
+        }
+        return testASREngine().thenApply(success -> {
+            healthRegistry.recordResult(EngineHealthRegistry.ENGINE_ASR, fingerprint, success);
+            return success;
+        });
+    }
+
+    /**
+     * Re-tests an old cached pass in the background once the app is idle. Only the CPU
+     * backend is re-tested this way; the default backend test needs the microphone.
+     */
+    private void scheduleReverification(String fingerprint) {
+        if (!backend.equals("cpu")
+                || !healthRegistry.isReverificationDue(EngineHealthRegistry.ENGINE_ASR)) {
+            return;
+        }
+        mainHandler.postDelayed(() -> {
+            if (isListening || sherpaASR == null) {
+                return; // Busy, try again on the next start
+            }
+            CompletableFuture.runAsync(() -> testASREngine().thenAccept(success ->
+                healthRegistry.recordResult(EngineHealthRegistry.ENGINE_ASR, fingerprint, success)));
+        }, REVERIFY_DELAY_MS);
+    }
+
     private CompletableFuture<Boolean> testASREngine() {
         Log.d(TAG, "Testing " + backend + " ASR engine...");
         return (backend.equals("cpu") ? testCPUASR() : testDefaultASR())
@@ -188,12 +230,73 @@ public class ASREngineService extends BaseEngineService {
             }
         } catch (Exception e) {
             Log.e(TAG, "Error starting ASR", e);
+            healthRegistry.invalidate(EngineHealthRegistry.ENGINE_ASR);
             notifyError(callback, "Failed to start ASR");
         }
     }
 
+    /**
+     * Starts recognizing PCM captured elsewhere and fed through {@link #acceptPcm}, so a
+     * recording and ASR share one microphone. Only the CPU backend can take PCM.
+     *
+     * @return false if the backend needs the microphone itself; use startListening then
+     */
+    public boolean startListeningToPcm(Consumer<String> callback) {
+        if (!backend.equals("cpu")) {
+            return false;
+        }
+        if (!validateListeningPrerequisites(callback)) {
+            return true; // Already reported through the callback
+        }
+        DoubleConsumer levelListener = audioLevelListener;
+        sherpaASR.setAudioLevelListener(levelListener == null ? null : levelListener::accept);
+        sherpaASR.startPcmRecognition(createSherpaListener(callback));
+        isListening = true;
+        currentCallback = callback;
+        return true;
+    }
+
+    /** One chunk of 16 kHz mono PCM16 for {@link #startListeningToPcm}; ignored otherwise. */
+    public void acceptPcm(short[] samples, int length) {
+        if (isListening && backend.equals("cpu")) {
+            sherpaASR.acceptPcm(samples, length);
+        }
+    }
+
+    /**
+     * Receives the microphone level of every analysed frame while listening, in dB.
+     * The CPU backend reports dBFS, the default backend the recognizer's rmsdB scale.
+     */
+    public void setAudioLevelListener(DoubleConsumer listener) {
+        audioLevelListener = listener;
+        if (sherpaASR != null) {
+            sherpaASR.setAudioLevelListener(listener == null ? null : listener::accept);
+        }
+    }
+
+    /**
+     * Enables the platform acoustic echo canceler on the CPU backend microphone,
+     * used when listening while TTS is playing. Takes effect on the next start.
+     */
+    public void setEchoCancellationEnabled(boolean enabled) {
+        echoCancellationEnabled = enabled;
+    }
+
+    public boolean isListening() {
+        return isListening;
+    }
+
     private void startCPUListening(Consumer<String> callback) {
-        sherpaASR.startRecognition(new SherpaASR.ASRListener() {
+        sherpaASR.setEchoCancellationEnabled(echoCancellationEnabled);
+        DoubleConsumer levelListener = audioLevelListener;
+        sherpaASR.setAudioLevelListener(levelListener == null ? null : levelListener::accept);
+        sherpaASR.startRecognition(createSherpaListener(callback));
+        isListening = true;
+        currentCallback = callback;
+    }
+
+    private SherpaASR.ASRListener createSherpaListener(Consumer<String> callback) {
+        return new SherpaASR.ASRListener() {
             @Override
             public void onPartialResult(String text) {
                 callback.accept("Partial: " + text);
@@ -206,12 +309,11 @@ public class ASREngineService extends BaseEngineService {
 
             @Override
             public void onError(String error) {
+                healthRegistry.invalidate(EngineHealthRegistry.ENGINE_ASR);
                 notifyError(callback, error);
                 isListening = false;
             }
-        });
-        isListening = true;
-        currentCallback = callback;
+        };
     }
 
     private void startDefaultListening(Consumer<String> callback) {
@@ -242,15 +344,25 @@ public class ASREngineService extends BaseEngineService {
 
             @Override
             public void onError(int error) {
+                if (error == SpeechRecognizer.ERROR_AUDIO || error == SpeechRecognizer.ERROR_CLIENT) {
+                    healthRegistry.invalidate(EngineHealthRegistry.ENGINE_ASR);
+                }
                 notifyError(callback, getErrorMessage(error));
                 isListening = false;
             }
 
+            @Override
+            public void onRmsChanged(float rmsdB) {
+                DoubleConsumer levelListener = audioLevelListener;
+                if (levelListener != null) {
+                    levelListener.accept(rmsdB);
+                }
+            }
+
             // Required empty implementations
             @Override public void onBeginningOfSpeech() {}
             @Override public void onEndOfSpeech() {}
             @Override public void onBufferReceived(byte[] buffer) {}
-            @Override public void onRmsChanged(float rmsdB) {}
             @Override public void onEvent(int eventType, Bundle params) {}
         };
     }
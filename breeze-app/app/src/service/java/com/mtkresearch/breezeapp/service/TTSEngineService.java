@@ -13,6 +13,8 @@ import android.util.Log;
 import android.speech.tts.UtteranceProgressListener;
 
 import com.k2fsa.sherpa.onnx.SherpaTTS;
+import com.mtkresearch.breezeapp.utils.AppConstants;
+import com.mtkresearch.breezeapp.utils.EngineHealthRegistry;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -33,6 +35,7 @@ public class TTSEngineService extends BaseEngineService {
     private static final String TAG = "TTSEngineService";
     private static final long INIT_TIMEOUT_MS = 20000; // 20 seconds timeout
     private static final String TEST_TEXT = "Hello, this is a test.";
+    private static final long REVERIFY_DELAY_MS = 60000; // Let startup settle before re-testing
     
     // TTS components
     private TextToSpeech textToSpeech;
@@ -40,6 +43,8 @@ public class TTSEngineService extends BaseEngineService {
     private String backend = "none";
     private boolean isTextToSpeechInitialized = false;
     private AudioTrack audioTrack;
+    private EngineHealthRegistry healthRegistry;
+    private volatile boolean isSpeaking = false;
 
     public class LocalBinder extends BaseEngineService.LocalBinder<TTSEngineService> {
         private final WeakReference<TTSEngineService> serviceRef;
@@ -69,6 +74,7 @@ public class TTSEngineService extends BaseEngineService {
 
     @Override
     public CompletableFuture<Boolean> initialize() {
+        healthRegistry = new EngineHealthRegistry(this);
         return initializeBackends()
             .thenApply(success -> {
                 isInitialized = success;
@@ -93,7 +99,7 @@ public class TTSEngineService extends BaseEngineService {
                 if (success) {
                     Log.d(TAG, "✅ " + backendName + " TTS initialized");
                     backend = backendName.toLowerCase();
-                    return testTTSEngine();
+                    return verifyTTSEngine();
                 }
                 Log.d(TAG, "❌ " + backendName + " TTS failed");
                 return CompletableFuture.completedFuture(false);
@@ -192,6 +198,43 @@ public class TTSEngineService extends BaseEngineService {
         return future;
     }
 
+    /**
+     * Skips the synthesis self-test when this backend and model already passed it.
+     */
+    private CompletableFuture<Boolean> verifyTTSEngine() {
+        String fingerprint = healthFingerprint();
+        if (healthRegistry.hasPassed(EngineHealthRegistry.ENGINE_TTS, fingerprint)) {
+            Log.d(TAG, backend.toUpperCase() + " TTS self-test skipped, cached result is valid");
+            scheduleReverification(fingerprint);
+            return CompletableFuture.completedFuture(true);
+        }
+        return testTTSEngine().thenApply(success -> {
+            healthRegistry.recordResult(EngineHealthRegistry.ENGINE_TTS, fingerprint, success);
+            return success;
+        });
+    }
+
+    private String healthFingerprint() {
+        // Downloaded models live in app storage; bundled assets are covered by the app version
+        File modelDir = new File(new File(getFilesDir(), AppConstants.APP_MODEL_DIR), AppConstants.TTS_MODEL_DIR);
+        return healthRegistry.fingerprint(backend,
+            new File(modelDir, AppConstants.TTS_MODEL_FILE),
+            new File(modelDir, AppConstants.TTS_LEXICON_FILE));
+    }
+
+    private void scheduleReverification(String fingerprint) {
+        if (!healthRegistry.isReverificationDue(EngineHealthRegistry.ENGINE_TTS)) {
+            return;
+        }
+        new Handler(Looper.getMainLooper()).postDelayed(() -> {
+            if (isSpeaking) {
+                return; // Busy, try again on the next start
+            }
+            CompletableFuture.runAsync(() -> testTTSEngine().thenAccept(success ->
+                healthRegistry.recordResult(EngineHealthRegistry.ENGINE_TTS, fingerprint, success)));
+        }, REVERIFY_DELAY_MS);
+    }
+
     private CompletableFuture<Boolean> testTTSEngine() {
         CompletableFuture<Boolean> future = new CompletableFuture<>();
         try {
@@ -224,6 +267,8 @@ public class TTSEngineService extends BaseEngineService {
             return future;
         }
 
+        isSpeaking = true;
+        future.whenComplete((result, error) -> isSpeaking = false);
         try {
             switch (backend) {
                 case "mtk":
@@ -293,6 +338,7 @@ public class TTSEngineService extends BaseEngineService {
 
         } catch (Exception e) {
             Log.e(TAG, "Error in CPU TTS", e);
+            healthRegistry.invalidate(EngineHealthRegistry.ENGINE_TTS);
             releaseAudioTrack();
             future.completeExceptionally(e);
         }
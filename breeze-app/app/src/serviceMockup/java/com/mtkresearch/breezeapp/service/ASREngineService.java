@@ -5,6 +5,7 @@ import android.os.IBinder;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Executors;
@@ -61,6 +62,27 @@ public class ASREngineService extends BaseEngineService {
     }
 
 
+    public boolean startListeningToPcm(Consumer<String> callback) {
+        // The mockup only produces canned results, see startListening
+        return false;
+    }
+
+    public void acceptPcm(short[] samples, int length) {
+        // Nothing to recognize in the mockup
+    }
+
+    public void setAudioLevelListener(DoubleConsumer listener) {
+        // No microphone in the mockup, levels are never reported
+    }
+
+    public void setEchoCancellationEnabled(boolean enabled) {
+        // No microphone in the mockup
+    }
+
+    public boolean isListening() {
+        return scheduler != null;
+    }
+
     public void stopListening() {
         //TBD should join the thread of response callback
         if (callbackTask != null) {
@@ -0,0 +1,93 @@
+package com.mtkresearch.breezeapp
+
+import com.mtkresearch.breezeapp.utils.AudioResampler
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.PI
+import kotlin.math.log10
+import kotlin.math.sin
+
+class AudioResamplerUnitTest {
+
+    @Test
+    fun testUpsampleSnr() {
+        assertSnrAbove(8000, 16000, 1000.0, chunkSize = 160, minSnrDb = 80.0)
+        assertSnrAbove(8000, 16000, 3000.0, chunkSize = 333, minSnrDb = 80.0)
+    }
+
+    @Test
+    fun testDownsampleSnr() {
+        assertSnrAbove(48000, 16000, 1000.0, chunkSize = 480, minSnrDb = 80.0)
+        assertSnrAbove(44100, 16000, 1000.0, chunkSize = 1024, minSnrDb = 80.0)
+    }
+
+    @Test
+    fun testChunkBoundariesDoNotMatter() {
+        // Single-sample chunks exercise the history path on every output
+        assertSnrAbove(22050, 16000, 2500.0, chunkSize = 1, minSnrDb = 80.0)
+    }
+
+    @Test
+    fun testAliasRejection() {
+        // 12 kHz is above the 8 kHz output Nyquist and must be filtered out
+        val resampler = AudioResampler(48000, 16000)
+        val input = sine(48000, 12000.0, 48000)
+        val output = FloatArray(resampler.maxOutputSize(input.size))
+        val count = resampler.process(input, 0, input.size, output, 0)
+
+        var energy = 0.0
+        for (i in 200 until count - 200) energy += output[i] * output[i]
+        energy /= (count - 400)
+        val levelDb = 10 * log10(energy / (AMPLITUDE * AMPLITUDE / 2))
+        assertTrue("Alias level $levelDb dB", levelDb < -70)
+    }
+
+    @Test
+    fun testPassthrough() {
+        val resampler = AudioResampler(16000, 16000)
+        val input = sine(16000, 440.0, 1600)
+        val output = FloatArray(resampler.maxOutputSize(input.size))
+
+        assertTrue(resampler.isPassthrough)
+        assertEquals(input.size, resampler.process(input, 0, input.size, output, 0))
+        assertEquals(input.toList(), output.copyOf(input.size).toList())
+    }
+
+    private fun assertSnrAbove(inputRate: Int, outputRate: Int, frequency: Double, chunkSize: Int, minSnrDb: Double) {
+        val resampler = AudioResampler(inputRate, outputRate)
+        val input = sine(inputRate, frequency, inputRate * 2)
+        val output = FloatArray(resampler.maxOutputSize(input.size) + chunkSize)
+        val scratch = FloatArray(resampler.maxOutputSize(chunkSize))
+
+        var written = 0
+        var offset = 0
+        while (offset < input.size) {
+            val length = minOf(chunkSize, input.size - offset)
+            val count = resampler.process(input, offset, length, scratch, 0)
+            System.arraycopy(scratch, 0, output, written, count)
+            written += count
+            offset += length
+        }
+        assertEquals(input.size.toLong() * outputRate / inputRate, written.toLong())
+
+        // Compare against the ideal sine at the output rate, shifted by the filter delay
+        val delay = resampler.delay
+        var signal = 0.0
+        var error = 0.0
+        for (i in (delay + 200).toInt() until written - 200) {
+            val expected = AMPLITUDE * sin(2 * PI * frequency * (i - delay) / outputRate)
+            signal += expected * expected
+            error += (output[i] - expected) * (output[i] - expected)
+        }
+        val snrDb = 10 * log10(signal / error)
+        assertTrue("$inputRate -> $outputRate SNR $snrDb dB", snrDb > minSnrDb)
+    }
+
+    private fun sine(sampleRate: Int, frequency: Double, size: Int) =
+        FloatArray(size) { (AMPLITUDE * sin(2 * PI * frequency * it / sampleRate)).toFloat() }
+
+    companion object {
+        private const val AMPLITUDE = 0.5
+    }
+}
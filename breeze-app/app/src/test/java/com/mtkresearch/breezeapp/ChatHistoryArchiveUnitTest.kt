@@ -0,0 +1,156 @@
+package com.mtkresearch.breezeapp
+
+import android.content.Context
+import android.net.Uri
+import androidx.test.core.app.ApplicationProvider
+import com.mtkresearch.breezeapp.utils.ChatHistory
+import com.mtkresearch.breezeapp.utils.ChatHistoryArchive
+import com.mtkresearch.breezeapp.utils.ChatHistoryManager
+import com.mtkresearch.breezeapp.utils.ChatMessage
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.util.Date
+
+@RunWith(RobolectricTestRunner::class)
+class ChatHistoryArchiveUnitTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private lateinit var historyManager: ChatHistoryManager
+    private lateinit var archive: ChatHistoryArchive
+
+    @Before
+    fun setUp() {
+        historyManager = ChatHistoryManager(context)
+        archive = ChatHistoryArchive(context, historyManager)
+    }
+
+    @After
+    fun tearDown() {
+        archive.close()
+        historyManager.close()
+    }
+
+    private fun saveHistories(count: Int) {
+        (0 until count).forEach { i ->
+            val question = ChatMessage("Question $i about 台北", true, 1)
+            val answer = ChatMessage("Answer $i with \"quotes\"\nand a second line", false, 1)
+            answer.setCustomTextColor(0xFF112233.toInt())
+            historyManager.saveHistory(ChatHistory("chat-%03d".format(i), "Chat $i", Date(1000L + i), listOf(question, answer)))
+        }
+        historyManager.flush().join()
+    }
+
+    private fun deleteAll() {
+        historyManager.loadHistorySummaries().join().forEach { historyManager.deleteHistory(it.id).join() }
+    }
+
+    private fun exportFile(name: String): File = File(context.cacheDir, name).apply { createNewFile() }
+
+    @Test
+    fun testGzipExportImportsBack() {
+        saveHistories(120)
+        val file = exportFile("chats.jsonl.gz")
+        assertEquals(120, archive.exportTo(Uri.fromFile(file), true).join())
+        deleteAll()
+
+        assertEquals(120, archive.importFrom(Uri.fromFile(file)).join())
+        assertEquals(120, historyManager.loadHistorySummaries().join().size)
+        val history = historyManager.loadHistory("chat-077").join()
+        assertEquals("Chat 77", history.title)
+        assertEquals(1077L, history.date.time)
+        assertEquals("Answer 77 with \"quotes\"\nand a second line", history.messages[1].text)
+        assertEquals(0xFF112233.toInt(), history.messages[1].customTextColor)
+        assertEquals(1, historyManager.searchHistories("台北", 200).join().count { it.id == "chat-077" })
+    }
+
+    @Test
+    fun testExportReplacesExistingFileContent() {
+        saveHistories(3)
+        val file = exportFile("chats.jsonl")
+        file.writeText("x".repeat(100_000))
+
+        assertEquals(3, archive.exportTo(Uri.fromFile(file), false).join())
+        assertEquals(3, file.readLines().size)
+    }
+
+    @Test
+    fun testInterruptedImportResumesAfterCheckpoint() {
+        saveHistories(5)
+        val file = exportFile("chats.jsonl")
+        archive.exportTo(Uri.fromFile(file), false).join()
+        deleteAll()
+
+        // As if the first two conversations were imported before the app was killed
+        context.getSharedPreferences("chat_archive", Context.MODE_PRIVATE).edit()
+            .putString("mode", "import")
+            .putString("uri", Uri.fromFile(file).toString())
+            .putInt("done", 2)
+            .commit()
+
+        assertEquals(3, archive.resumeInterrupted()!!.join())
+        assertEquals(listOf("chat-002", "chat-003", "chat-004"),
+            historyManager.loadHistorySummaries().join().map { it.id }.sorted())
+        assertNull(archive.resumeInterrupted())
+    }
+
+    @Test
+    fun testImportKeepsNewerLocalConversations() {
+        saveHistories(3)
+        val file = exportFile("chats.jsonl")
+        archive.exportTo(Uri.fromFile(file), false).join()
+
+        // chat-000 went on locally, chat-001 went on differently, chat-002 lost its answer
+        val original = historyManager.loadHistory("chat-000").join().messages
+        historyManager.saveHistory(ChatHistory("chat-000", "Chat 0", Date(1000),
+            original + listOf(ChatMessage("Follow-up", true, 1), ChatMessage("More", false, 1))))
+        historyManager.saveHistory(ChatHistory("chat-001", "Chat 1", Date(1001),
+            listOf(historyManager.loadHistory("chat-001").join().messages[0], ChatMessage("Another answer", false, 1))))
+        historyManager.saveHistory(ChatHistory("chat-002", "Chat 2", Date(1002),
+            historyManager.loadHistory("chat-002").join().messages.take(1)))
+        historyManager.flush().join()
+
+        assertEquals(2, archive.importFrom(Uri.fromFile(file)).join())
+        assertEquals(4, historyManager.loadHistory("chat-000").join().messages.size)
+        assertEquals("Another answer", historyManager.loadHistory("chat-001").join().messages[1].text)
+        assertEquals(2, historyManager.loadHistory("chat-002").join().messages.size)
+        val summaries = historyManager.loadHistorySummaries().join()
+        assertEquals(4, summaries.size)
+        val copy = summaries.single { it.id !in setOf("chat-000", "chat-001", "chat-002") }
+        assertEquals("Answer 1 with \"quotes\"\nand a second line", historyManager.loadHistory(copy.id).join().messages[1].text)
+
+        // Importing the same file again finds everything already there
+        assertEquals(0, archive.importFrom(Uri.fromFile(file)).join())
+        assertEquals(4, historyManager.loadHistorySummaries().join().size)
+    }
+
+    @Test
+    fun testUnreadableImportDropsCheckpoint() {
+        val file = exportFile("broken.jsonl")
+        file.writeText("{\"id\":\"chat-000\",\"messages\":[]}\n[1, 2]\n")
+
+        assertTrue(runCatching { archive.importFrom(Uri.fromFile(file)).join() }.isFailure)
+        assertNull(archive.resumeInterrupted())
+    }
+
+    @Test
+    fun testResumeGivesUpAfterRepeatedAttempts() {
+        val file = exportFile("chats.jsonl")
+        // As if the import had been resumed and killed again three times
+        context.getSharedPreferences("chat_archive", Context.MODE_PRIVATE).edit()
+            .putString("mode", "import")
+            .putString("uri", Uri.fromFile(file).toString())
+            .putInt("done", 0)
+            .putInt("attempts", 3)
+            .commit()
+
+        assertNull(archive.resumeInterrupted())
+        assertNull(archive.resumeInterrupted())
+    }
+}
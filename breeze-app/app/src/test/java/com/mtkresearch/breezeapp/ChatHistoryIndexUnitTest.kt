@@ -0,0 +1,78 @@
+package com.mtkresearch.breezeapp
+
+import com.mtkresearch.breezeapp.utils.ChatHistory
+import com.mtkresearch.breezeapp.utils.ChatHistoryIndex
+import com.mtkresearch.breezeapp.utils.ChatMessage
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.nio.file.Files
+import java.util.Date
+
+@RunWith(RobolectricTestRunner::class)
+class ChatHistoryIndexUnitTest {
+
+    private lateinit var directory: File
+
+    @Before
+    fun setUp() {
+        directory = Files.createTempDirectory("chat_index").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    @Test
+    fun testEntriesSurviveReopen() {
+        val index = ChatHistoryIndex(directory)
+        repeat(300) { i ->
+            val messages = listOf(ChatMessage("q$i", true, 1), ChatMessage("answer $i", false, 1))
+            index.put(ChatHistory("id$i", "title $i", Date(i * 1000L), messages), 100L + i)
+        }
+        index.put(ChatHistory("id4", "renamed", Date(4000), listOf(ChatMessage("q4", true, 1))), 5)
+        index.remove("id7")
+
+        val reopened = ChatHistoryIndex(directory)
+        assertEquals(299, reopened.entries().size)
+        assertNull(reopened.get("id7"))
+        with(reopened.get("id4")) {
+            assertEquals("renamed", title)
+            assertEquals(1, messageCount)
+            assertEquals(5L, logLength)
+        }
+        assertEquals("answer 3", reopened.get("id3").lastSnippet)
+    }
+
+    @Test
+    fun testCorruptTailIsIgnoredAndOverwritten() {
+        val index = ChatHistoryIndex(directory)
+        index.put(ChatHistory("a", "first", Date(), listOf(ChatMessage("hi", true, 1))), 10)
+        val file = File(directory, ChatHistoryIndex.INDEX_FILE)
+        val validLength = file.length()
+        file.appendBytes(byteArrayOf(0, 0, 0, 9, 9))
+
+        val reopened = ChatHistoryIndex(directory)
+        assertEquals(1, reopened.entries().size)
+        reopened.put(ChatHistory("b", "second", Date(), listOf(ChatMessage("yo", true, 1))), 10)
+        assertTrue(file.length() > validLength)
+        assertEquals(listOf("a", "b"), ChatHistoryIndex(directory).entries().map { it.id })
+    }
+
+    @Test
+    fun testRewriteBoundsIndexSize() {
+        val index = ChatHistoryIndex(directory)
+        repeat(500) { i ->
+            index.put(ChatHistory("same", "title $i", Date(), listOf(ChatMessage("m", true, 1))), i.toLong())
+        }
+        assertTrue(File(directory, ChatHistoryIndex.INDEX_FILE).length() < 8192)
+        assertEquals("title 499", ChatHistoryIndex(directory).get("same").title)
+    }
+}
@@ -0,0 +1,117 @@
+package com.mtkresearch.breezeapp
+
+import com.mtkresearch.breezeapp.utils.ChatHistory
+import com.mtkresearch.breezeapp.utils.ChatLogStore
+import com.mtkresearch.breezeapp.utils.ChatMessage
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import java.nio.file.Files
+import java.util.Date
+import kotlin.random.Random
+
+/**
+ * Footprint and load time of chat logs against Java serialization, over 1000 synthetic
+ * conversations of mixed Traditional Chinese and English. Skipped unless CHAT_LOG_BENCHMARK is set:
+ *
+ *     CHAT_LOG_BENCHMARK=1 ./gradlew :app:testDebugUnitTest --tests '*ChatLogStoreBenchmark'
+ */
+@RunWith(RobolectricTestRunner::class)
+class ChatLogStoreBenchmark {
+
+    private lateinit var serializedDirectory: File
+    private lateinit var logDirectory: File
+
+    @Before
+    fun setUp() {
+        assumeTrue(System.getenv("CHAT_LOG_BENCHMARK") != null)
+        serializedDirectory = Files.createTempDirectory("chat_serialized").toFile()
+        logDirectory = Files.createTempDirectory("chat_logs").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        if (::serializedDirectory.isInitialized) serializedDirectory.deleteRecursively()
+        if (::logDirectory.isInitialized) logDirectory.deleteRecursively()
+    }
+
+    @Test
+    fun benchmarkFootprintAndLoadTime() {
+        val histories = corpus()
+        val messageCount = histories.sumOf { it.messages.size }
+        histories.forEach { history ->
+            ObjectOutputStream(File(serializedDirectory, history.id + ".dat").outputStream().buffered()).use {
+                it.writeObject(history)
+            }
+        }
+        ChatLogStore(logDirectory).apply {
+            histories.forEach { save(it) }
+            close()
+        }
+
+        var serializedNanos = Long.MAX_VALUE
+        var logNanos = Long.MAX_VALUE
+        repeat(ITERATIONS) {
+            var start = System.nanoTime()
+            val deserialized = serializedDirectory.listFiles()!!.sumOf { file ->
+                ObjectInputStream(file.inputStream().buffered()).use { (it.readObject() as ChatHistory).messages.size }
+            }
+            serializedNanos = minOf(serializedNanos, System.nanoTime() - start)
+
+            start = System.nanoTime()
+            val store = ChatLogStore(logDirectory)
+            val loaded = store.loadAll().sumOf { it.messages.size }
+            store.close()
+            logNanos = minOf(logNanos, System.nanoTime() - start)
+
+            assertEquals(messageCount, deserialized)
+            assertEquals(messageCount, loaded)
+        }
+
+        val serializedBytes = serializedDirectory.listFiles()!!.sumOf { it.length() }
+        val logBytes = logDirectory.listFiles()!!.sumOf { it.length() }
+        println("${histories.size} conversations, $messageCount messages")
+        println("Java serialization: ${serializedBytes / 1024} KB, load ${serializedNanos / 1_000_000} ms")
+        println("Chat log:           ${logBytes / 1024} KB, load ${logNanos / 1_000_000} ms")
+        assertTrue("Logs should be several times smaller", logBytes * 4 < serializedBytes)
+    }
+
+    private fun corpus(): List<ChatHistory> {
+        val random = Random(37)
+        return List(CONVERSATIONS) { c ->
+            val messages = List(4 + random.nextInt(20)) { i ->
+                val isUser = i % 2 == 0
+                val phrases = if (random.nextInt(3) == 0) ENGLISH else CHINESE
+                val sentences = if (isUser) 1 + random.nextInt(2) else 3 + random.nextInt(12)
+                val text = buildString { repeat(sentences) { append(phrases[random.nextInt(phrases.size)]) } }
+                ChatMessage(text, isUser, if (isUser) 0 else 1).apply { isCompleted = true }
+            }
+            ChatHistory("c$c", "對話 $c", Date(1_700_000_000_000L + c), messages)
+        }
+    }
+
+    companion object {
+        private const val CONVERSATIONS = 1000
+        private const val ITERATIONS = 40 // Best of, after the JIT has warmed up
+
+        private val CHINESE = listOf(
+            "好的，我來幫你整理一下。", "這個問題可以從幾個方面來看：", "首先，", "其次，",
+            "最後，建議你先確認需求再開始實作。", "台北今天的天氣晴朗，氣溫大約二十五度。",
+            "如果你有其他問題，歡迎隨時詢問。", "以下是步驟說明：", "請問你想了解哪一部分？",
+            "這段程式碼的功能是讀取檔案並計算總和。"
+        )
+        private val ENGLISH = listOf(
+            "Sure, here is a summary. ", "There are a few things to consider: ", "First, ", "Second, ",
+            "Finally, check the requirements before you start. ", "Let me know if you have more questions. ",
+            "Here are the steps: "
+        )
+    }
+}
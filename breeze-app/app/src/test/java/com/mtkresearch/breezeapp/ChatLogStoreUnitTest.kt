@@ -0,0 +1,199 @@
+package com.mtkresearch.breezeapp
+
+import com.mtkresearch.breezeapp.utils.ChatHistory
+import com.mtkresearch.breezeapp.utils.ChatLogStore
+import com.mtkresearch.breezeapp.utils.ChatMessage
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.nio.file.Files
+import java.util.Date
+
+@RunWith(RobolectricTestRunner::class)
+class ChatLogStoreUnitTest {
+
+    private lateinit var directory: File
+
+    @Before
+    fun setUp() {
+        directory = Files.createTempDirectory("chat_logs").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    @Test
+    fun testSaveAppendsOnlyNewMessages() {
+        val store = ChatLogStore(directory)
+        val messages = mutableListOf(ChatMessage("hi", true, 1), ChatMessage("hello there", false, 1))
+        val history = ChatHistory("abc", "hi", Date(1000), messages)
+        store.save(history)
+        val file = File(directory, "abc" + ChatLogStore.LOG_SUFFIX)
+        val firstLength = file.length()
+
+        messages.add(ChatMessage("more", true, 1))
+        history.updateMessages(messages)
+        store.save(history)
+        val secondLength = file.length()
+        assertTrue("Second save should only append", secondLength > firstLength && secondLength - firstLength < firstLength)
+
+        store.save(history)
+        assertEquals("Unchanged history should not be rewritten", secondLength, file.length())
+        store.close()
+
+        val loaded = ChatLogStore(directory).load("abc")
+        assertEquals("hi", loaded.title)
+        assertEquals(listOf("hi", "hello there", "more"), loaded.messages.map { it.text })
+    }
+
+    @Test
+    fun testEditedTailIsReplaced() {
+        val store = ChatLogStore(directory)
+        val messages = mutableListOf(ChatMessage("question", true, 1), ChatMessage("Thinking...", false, 1))
+        val history = ChatHistory("edit", "question", Date(), messages)
+        store.save(history)
+
+        messages[1].updateText("final answer")
+        history.updateMessages(messages)
+        store.save(history)
+        store.close()
+
+        assertEquals(listOf("question", "final answer"), ChatLogStore(directory).load("edit").messages.map { it.text })
+    }
+
+    @Test
+    fun testEditWithCollidingHashIsKept() {
+        val store = ChatLogStore(directory)
+        // "Aa" and "BB" have the same String.hashCode()
+        val messages = mutableListOf(ChatMessage("q", true, 1), ChatMessage("Aa", false, 1))
+        val history = ChatHistory("collide", "q", Date(), messages)
+        store.save(history)
+
+        messages[1].updateText("BB")
+        history.updateMessages(messages)
+        store.save(history)
+        store.close()
+
+        assertEquals(listOf("q", "BB"), ChatLogStore(directory).load("collide").messages.map { it.text })
+    }
+
+    @Test
+    fun testSnapshotLargerThanOneRecordSurvivesReload() {
+        val random = java.util.Random(1)
+        // Random text barely deflates, so the whole chat is well over the 16 MB record limit
+        val messages = List(24) { i ->
+            ChatMessage(String(CharArray(1_000_000) { '!' + random.nextInt(90) }), i % 2 == 0, i)
+        }
+        val store = ChatLogStore(directory)
+        store.save(ChatHistory("large", "large", Date(), messages))
+        store.close()
+
+        val loaded = ChatLogStore(directory).load("large")
+        assertEquals(messages.map { it.text }, loaded.messages.map { it.text })
+    }
+
+    @Test
+    fun testSingleMessageIsReadFromItsRecord() {
+        val store = ChatLogStore(directory)
+        val messages = MutableList(10) { ChatMessage("snapshot $it", it % 2 == 0, 1) }
+        val history = ChatHistory("one", "q", Date(), messages)
+        store.save(history)
+        messages.add(ChatMessage("appended", true, 1))
+        history.updateMessages(messages)
+        store.save(history)
+
+        assertEquals("snapshot 7", store.loadMessageText("one", 7))
+        assertEquals("appended", store.loadMessageText("one", 10))
+        assertEquals(null, store.loadMessageText("one", 11))
+        store.close()
+        assertEquals("snapshot 3", ChatLogStore(directory).loadMessageText("one", 3))
+    }
+
+    @Test
+    fun testOversizedMessageIsTruncatedAndLaterSavesSucceed() {
+        val store = ChatLogStore(directory)
+        // 3 bytes per character in UTF-8, so the cut lands inside a character unless it backs off
+        val messages = mutableListOf(ChatMessage("q", true, 1), ChatMessage("字".repeat(4_000_000), false, 1))
+        val history = ChatHistory("huge", "q", Date(), messages)
+        store.save(history)
+
+        messages.add(ChatMessage("still saved", true, 1))
+        history.updateMessages(messages)
+        store.save(history)
+        store.close()
+
+        val loaded = ChatLogStore(directory).load("huge").messages
+        assertEquals(listOf("q", "still saved"), listOf(loaded[0].text, loaded[2].text))
+        val truncated = loaded[1].text
+        assertTrue("Kept ${truncated.length} characters", truncated.length in 2_000_000 until 4_000_000)
+        assertEquals("字".repeat(truncated.length), truncated)
+    }
+
+    @Test
+    fun testTornWriteIsTruncatedOnLoad() {
+        val store = ChatLogStore(directory)
+        store.save(ChatHistory("torn", "t", Date(), listOf(ChatMessage("kept", true, 1))))
+        store.close()
+        val file = File(directory, "torn" + ChatLogStore.LOG_SUFFIX)
+        val validLength = file.length()
+
+        // Simulate a crash halfway through the next record
+        file.appendBytes(byteArrayOf(0, 0, 0, 50, 1, 2, 3))
+
+        val loaded = ChatLogStore(directory).load("torn")
+        assertEquals(listOf("kept"), loaded.messages.map { it.text })
+        assertEquals(validLength, file.length())
+    }
+
+    @Test
+    fun testCompactionBoundsLogSize() {
+        val store = ChatLogStore(directory)
+        val messages = mutableListOf(ChatMessage("q", true, 1), ChatMessage("a", false, 1))
+        val history = ChatHistory("compact", "q", Date(), messages)
+        repeat(200) {
+            messages[1].updateText("answer $it")
+            history.updateMessages(messages)
+            store.save(history)
+        }
+        store.close()
+
+        val file = File(directory, "compact" + ChatLogStore.LOG_SUFFIX)
+        assertTrue("Log grew to ${file.length()} bytes", file.length() < 4096)
+        assertEquals("answer 199", ChatLogStore(directory).load("compact").messages[1].text)
+    }
+
+    @Test
+    fun testLongConversationIsStoredCompressed() {
+        val answer = "根據您提供的資訊，我建議您可以考慮以下幾點：首先，饒河街夜市以胡椒餅聞名。" +
+            "其次，士林夜市是台北最大的夜市之一。希望這些資訊對您有幫助！"
+        val messages = (0 until 20).map { i ->
+            ChatMessage(if (i % 2 == 0) "台北有哪些夜市值得推薦？第 $i 題" else answer, i % 2 == 0, 1).apply {
+                if (i == 3) setError(true)
+                if (i == 5) setCustomTextColor(0xFFFF0000.toInt())
+                if (i == 7) setCompleted(false)
+            }
+        }
+        val store = ChatLogStore(directory)
+        store.save(ChatHistory("zip", "夜市", Date(1000), messages))
+        store.close()
+
+        val rawLength = messages.sumOf { it.text.toByteArray().size }
+        val file = File(directory, "zip" + ChatLogStore.LOG_SUFFIX)
+        assertTrue("Log is ${file.length()} bytes for $rawLength bytes of text", file.length() < rawLength / 4)
+
+        val loaded = ChatLogStore(directory).load("zip").messages
+        assertEquals(messages.map { it.text }, loaded.map { it.text })
+        assertEquals(messages.map { it.isUser }, loaded.map { it.isUser })
+        assertTrue(loaded[3].isError)
+        assertEquals(0xFFFF0000.toInt(), loaded[5].customTextColor)
+        assertFalse(loaded[7].isCompleted)
+    }
+}
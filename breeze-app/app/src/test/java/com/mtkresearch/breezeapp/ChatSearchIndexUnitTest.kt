@@ -0,0 +1,149 @@
+package com.mtkresearch.breezeapp
+
+import com.mtkresearch.breezeapp.utils.ChatSearchIndex
+import com.mtkresearch.breezeapp.utils.SearchTokenizer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.nio.file.Files
+
+@RunWith(RobolectricTestRunner::class)
+class ChatSearchIndexUnitTest {
+
+    private lateinit var directory: File
+
+    @Before
+    fun setUp() {
+        directory = Files.createTempDirectory("chat_search").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    @Test
+    fun testTokenizerSplitsCjkIntoBigramsAndLatinIntoWords() {
+        assertEquals(listOf("咖啡", "啡豆", "hello", "42", "貓"), SearchTokenizer.tokenize("咖啡豆 Hello, 42 貓"))
+    }
+
+    @Test
+    fun testRanksMatchingMessages() {
+        val index = ChatSearchIndex(directory)
+        index.update("coffee", listOf("如何煮咖啡", "先把咖啡豆磨細，再用熱水沖泡咖啡豆", ""))
+        index.update("weather", listOf("What is the weather today?", "It is sunny and warm"))
+
+        val results = index.search("咖啡豆", 10)
+        assertEquals(2, results.size)
+        assertEquals("coffee", results[0].historyId)
+        assertEquals(1, results[0].messageIndex)
+        assertEquals(1, index.search("SUNNY", 10).size)
+        assertEquals("A single character matches the bigrams it starts", 2, index.search("咖", 10).size)
+        assertTrue(index.search("snow", 10).isEmpty())
+    }
+
+    @Test
+    fun testUpdatesReplaceEditedMessagesAndSurviveReopen() {
+        val index = ChatSearchIndex(directory)
+        index.update("h", listOf("question", "Thinking..."))
+        index.update("h", listOf("question", "the final answer"))
+        assertTrue(index.search("thinking", 10).isEmpty())
+        index.close()
+
+        val reopened = ChatSearchIndex(directory)
+        assertEquals(2, reopened.indexedMessageCount("h"))
+        assertEquals(1, reopened.search("answer", 10).size)
+        assertTrue(reopened.search("thinking", 10).isEmpty())
+
+        reopened.remove("h")
+        assertTrue(reopened.search("question", 10).isEmpty())
+        assertEquals(-1, ChatSearchIndex(directory).indexedMessageCount("h"))
+    }
+
+    @Test
+    fun testEditWithCollidingHashIsReindexed() {
+        val index = ChatSearchIndex(directory)
+        // "Aa" and "BB" have the same String.hashCode()
+        index.update("h", listOf("Aa"))
+        index.update("h", listOf("BB"))
+        assertTrue(index.search("aa", 10).isEmpty())
+        assertEquals(1, index.search("bb", 10).size)
+    }
+
+    @Test
+    fun testSegmentsAreMergedWithoutDeletedDocuments() {
+        val index = ChatSearchIndex(directory)
+        repeat(20) { i ->
+            index.update("h$i", listOf("common words for history $i", "unique$i"))
+            index.flush()
+        }
+        index.update("h3", listOf("common words for history 3", "edited"))
+        index.remove("h4")
+        index.flush()
+        index.close()
+
+        val segments = directory.listFiles { _, name -> name.startsWith("segment_") }!!
+        assertTrue("Expected merged segments but found ${segments.size}", segments.size <= 8)
+
+        val reopened = ChatSearchIndex(directory)
+        assertEquals(19, reopened.search("common", 100).size)
+        assertTrue(reopened.search("unique3", 10).isEmpty())
+        assertTrue(reopened.search("unique4", 10).isEmpty())
+        assertEquals("h17", reopened.search("unique17", 10).single().historyId)
+    }
+
+    @Test
+    fun testRenumberedDocumentsStayFindableAcrossMerges() {
+        val index = ChatSearchIndex(directory)
+        repeat(40) { i ->
+            index.update("h$i", listOf("common words for history $i", "unique$i"))
+            if (i % 2 == 1) {
+                index.remove("h${i - 1}")
+            }
+            index.flush()
+        }
+        index.close()
+
+        val reopened = ChatSearchIndex(directory)
+        assertEquals(20, reopened.search("common", 100).size)
+        assertEquals("h37", reopened.search("unique37", 10).single().historyId)
+        reopened.update("h37", listOf("common words for history 37", "changed"))
+        assertTrue(reopened.search("unique37", 10).isEmpty())
+        assertEquals(1, reopened.search("changed", 10).single().messageIndex)
+    }
+
+    @Test
+    fun testMergeInterruptedBeforeItsManifestRebuildsIndex() {
+        val index = ChatSearchIndex(directory)
+        repeat(8) { i -> // One segment each; the next flush merges them
+            index.update("h$i", listOf("message $i"))
+            index.flush()
+        }
+        val beforeMerge = Files.createTempDirectory("chat_search_crash").toFile()
+        directory.copyRecursively(beforeMerge)
+        index.remove("h0")
+        index.update("h8", listOf("message 8"))
+        index.flush()
+        index.close()
+        // The merge rewrote the docs log, then the process died before the manifest
+        File(directory, ChatSearchIndex.DOCS_FILE).copyTo(File(beforeMerge, ChatSearchIndex.DOCS_FILE), overwrite = true)
+
+        val reopened = ChatSearchIndex(beforeMerge)
+        assertTrue(reopened.indexedHistoryIds().isEmpty())
+        assertTrue(reopened.search("message", 10).isEmpty())
+        beforeMerge.deleteRecursively()
+    }
+
+    @Test
+    fun testSnippetCentersOnMatch() {
+        val text = "這是一段很長的文字，前面說了很多不相關的事情，中間才提到咖啡豆的烘焙方式，後面又說了其他內容"
+        val snippet = ChatSearchIndex.snippet(text, "咖啡", 20)
+        assertTrue(snippet, snippet.contains("咖啡"))
+        assertTrue(snippet, snippet.startsWith("…") && snippet.endsWith("…"))
+    }
+}
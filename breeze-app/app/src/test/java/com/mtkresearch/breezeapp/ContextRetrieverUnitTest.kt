@@ -0,0 +1,104 @@
+package com.mtkresearch.breezeapp
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.mtkresearch.breezeapp.utils.AttachmentIndex
+import com.mtkresearch.breezeapp.utils.ChatHistory
+import com.mtkresearch.breezeapp.utils.ChatHistoryManager
+import com.mtkresearch.breezeapp.utils.ChatMessage
+import com.mtkresearch.breezeapp.utils.ContextRetriever
+import com.mtkresearch.breezeapp.utils.TextChunker
+import com.mtkresearch.breezeapp.utils.TokenEstimator
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.StringReader
+import java.util.Date
+import java.util.concurrent.TimeUnit
+
+@RunWith(RobolectricTestRunner::class)
+class ContextRetrieverUnitTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private lateinit var historyManager: ChatHistoryManager
+    private lateinit var attachmentIndex: AttachmentIndex
+
+    @Before
+    fun setUp() {
+        historyManager = ChatHistoryManager(context)
+        attachmentIndex = AttachmentIndex(context)
+    }
+
+    @After
+    fun tearDown() {
+        historyManager.close()
+        attachmentIndex.close()
+    }
+
+    @Test
+    fun testChunksEndAtSentencesWithinBudget() {
+        val text = (0 until 200).joinToString(" ") { "Sentence $it is about topic ${it % 7}." }
+        val chunks = mutableListOf<String>()
+        TextChunker.chunk(StringReader(text), 100) { chunks.add(it) }
+
+        assertTrue(chunks.size > 1)
+        chunks.forEach { chunk ->
+            assertTrue(chunk, chunk.endsWith("."))
+            assertTrue(chunk, TokenEstimator.estimateTokenCount(chunk) <= 100 + 20)
+        }
+        assertEquals(text, chunks.joinToString(" "))
+    }
+
+    @Test
+    fun testRetrievesExchangesFromOtherConversations() {
+        historyManager.saveHistory(ChatHistory("trip", "Trip", Date(), listOf(
+            ChatMessage("Which night market in Taipei has the best pepper buns?", true, 1),
+            ChatMessage("Raohe night market is famous for its pepper buns.", false, 1))))
+        historyManager.saveHistory(ChatHistory("other", "Other", Date(), listOf(
+            ChatMessage("How do I boil an egg?", true, 1),
+            ChatMessage("Simmer it for nine minutes.", false, 1))))
+
+        val retriever = ContextRetriever(historyManager, attachmentIndex)
+        val passages = retriever.retrieve("pepper buns", "current", 5000)
+        assertEquals(1, passages.size)
+        assertEquals("Trip", passages[0].source)
+        assertTrue(passages[0].text.startsWith("Q: Which night market"))
+        assertTrue(passages[0].text.contains("A: Raohe"))
+
+        assertTrue("The current conversation is skipped",
+            ContextRetriever(historyManager, attachmentIndex).retrieve("pepper buns", "trip", 5000).isEmpty())
+    }
+
+    @Test
+    fun testRetrieveIfReadyOnlyReturnsFinishedPrefetch() {
+        historyManager.saveHistory(ChatHistory("trip", "Trip", Date(), listOf(
+            ChatMessage("Which night market in Taipei has the best pepper buns?", true, 1),
+            ChatMessage("Raohe night market is famous for its pepper buns.", false, 1))))
+
+        val retriever = ContextRetriever(historyManager, attachmentIndex)
+        assertTrue("Nothing was prefetched", retriever.retrieveIfReady("pepper buns", "current").isEmpty())
+        retriever.prefetch("pepper buns", "current").get(5, TimeUnit.SECONDS)
+        assertEquals(1, retriever.retrieveIfReady(" pepper buns ", "current").size)
+        assertTrue("Another query", retriever.retrieveIfReady("night market", "current").isEmpty())
+    }
+
+    @Test
+    fun testFitToBudgetKeepsBestPassagesThatFit() {
+        val long = ContextRetriever.Passage("a", "x".repeat(2000), 3f)
+        val short = ContextRetriever.Passage("b", "short text", 2f)
+        assertEquals(listOf(short), ContextRetriever.fitToBudget(listOf(long, short), 100))
+    }
+
+    @Test
+    fun testOnlyTextFilesAreIndexable() {
+        assertTrue(AttachmentIndex.isIndexable("text/plain", "notes"))
+        assertTrue(AttachmentIndex.isIndexable(null, "README.md"))
+        assertFalse(AttachmentIndex.isIndexable("application/pdf", "paper.pdf"))
+        assertFalse(AttachmentIndex.isIndexable("image/png", "photo.png"))
+    }
+}
@@ -0,0 +1,85 @@
+package com.mtkresearch.breezeapp
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.mtkresearch.breezeapp.utils.AppConstants
+import com.mtkresearch.breezeapp.utils.DownloadJobJournal
+import com.mtkresearch.breezeapp.utils.ModelDownloadDialog
+import com.mtkresearch.breezeapp.utils.ModelFileDigest
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+
+@RunWith(RobolectricTestRunner::class)
+class DownloadJobJournalUnitTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+
+    private val files = listOf(
+        AppConstants.DownloadFileInfo("https://example.com/m/tokenizer.bin", "tokenizer.bin",
+            "m/tokenizer.bin", AppConstants.FILE_TYPE_LLM, 2_000L, "m"),
+        AppConstants.DownloadFileInfo("https://example.com/m/model.pte", "model.pte",
+            "m/model.pte", AppConstants.FILE_TYPE_LLM, 10_000L, "m",
+            ModelFileDigest("ab".repeat(32), 4_096L, arrayOf("01", "02", "03")))
+    )
+
+    @After
+    fun tearDown() {
+        DownloadJobJournal.delete(context)
+    }
+
+    @Test
+    fun testJournalSurvivesReload() {
+        val journal = DownloadJobJournal(ModelDownloadDialog.DownloadMode.LLM, files)
+        journal.markCompleted(0)
+        journal.setPaused(true)
+        journal.save(context)
+
+        val loaded = DownloadJobJournal.load(context)!!
+
+        assertEquals(ModelDownloadDialog.DownloadMode.LLM, loaded.mode)
+        assertTrue(loaded.isPaused)
+        assertArrayEquals(booleanArrayOf(true, false), loaded.completedFiles())
+        assertEquals(files.map { it.url }, loaded.files.map { it.url })
+        assertEquals(10_000L, loaded.files[1].fileSize)
+        assertEquals("ab".repeat(32), loaded.files[1].digest.sha256)
+        assertTrue(loaded.files[1].digest.blocksFit(10_000L))
+        assertNull(loaded.files[0].digest)
+    }
+
+    @Test
+    fun testFileWithoutModelIdSurvivesReload() {
+        val file = AppConstants.DownloadFileInfo("https://example.com/vocab.txt", "vocab.txt",
+            "vocab.txt", AppConstants.FILE_TYPE_LLM, 100L, null)
+        DownloadJobJournal(ModelDownloadDialog.DownloadMode.LLM, listOf(file)).save(context)
+
+        val loaded = DownloadJobJournal.load(context)!!
+
+        assertNull(loaded.files[0].modelId)
+        assertEquals("vocab.txt", loaded.files[0].fileName)
+    }
+
+    @Test
+    fun testRemainingBytesCountPartialFiles() {
+        val journal = DownloadJobJournal(ModelDownloadDialog.DownloadMode.LLM, files)
+        journal.markCompleted(0)
+        val modelDir = File(context.filesDir, "models/m").apply { mkdirs() }
+        File(modelDir, "model.pte" + AppConstants.MODEL_DOWNLOAD_TEMP_EXTENSION).writeBytes(ByteArray(4_000))
+
+        assertEquals(6_000L, journal.remainingBytes(context))
+    }
+
+    @Test
+    fun testUnreadableJournalIsDropped() {
+        File(context.filesDir, "download_job.json").writeText("{not json")
+
+        assertNull(DownloadJobJournal.load(context))
+        assertNull(DownloadJobJournal.load(context))
+    }
+}
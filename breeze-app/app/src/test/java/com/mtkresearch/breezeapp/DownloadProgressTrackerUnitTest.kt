@@ -0,0 +1,68 @@
+package com.mtkresearch.breezeapp
+
+import com.mtkresearch.breezeapp.utils.AppConstants
+import com.mtkresearch.breezeapp.utils.DownloadProgressTracker
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class DownloadProgressTrackerUnitTest {
+
+    private val tracker = DownloadProgressTracker(2, 1_000L).apply {
+        setProgress(0, 0, 1_000_000L)
+        setProgress(1, 0, 3_000_000L)
+    }
+
+    @Test
+    fun testSnapshotSumsFilesAndStaysUnchanged() {
+        tracker.setProgress(0, 400_000L, 0)
+        tracker.setStatus(1, AppConstants.DOWNLOAD_STATUS_COMPLETED, null)
+
+        val snapshot = tracker.snapshot()
+        tracker.setProgress(0, 900_000L, 0)
+
+        assertEquals(1_000_000L, snapshot.getFileTotal(0))
+        assertEquals(400_000L, snapshot.getFileDownloaded(0))
+        assertEquals(3_400_000L, snapshot.downloadedBytes)
+        assertEquals(4_000_000L, snapshot.totalBytes)
+        assertEquals(-1L, snapshot.bytesPerSecond)
+        assertEquals(-1L, snapshot.etaMs)
+    }
+
+    @Test
+    fun testSteadyRateGivesEta() {
+        for (tick in 0..10) {
+            tracker.setProgress(1, tick * 100_000L, 0)
+            tracker.tick(tick * 1_000L)
+        }
+
+        val snapshot = tracker.snapshot()
+        assertEquals(100_000L, snapshot.bytesPerSecond)
+        // 3 MB left of 4 MB at 100 kB/s
+        assertEquals(30_000L, snapshot.etaMs)
+    }
+
+    @Test
+    fun testBurstIsSmoothed() {
+        tracker.tick(0)
+        tracker.setProgress(1, 100_000L, 0)
+        tracker.tick(1_000)
+        tracker.setProgress(1, 1_100_000L, 0)
+        tracker.tick(1_250)
+
+        val rate = tracker.snapshot().bytesPerSecond
+        // A quarter second at 4 MB/s moves the average only part of the way from 100 kB/s
+        assertTrue("rate $rate", rate in 200_000L..2_000_000L)
+    }
+
+    @Test
+    fun testRefetchedBytesDoNotCountAsNegativeSpeed() {
+        tracker.setProgress(0, 500_000L, 0)
+        tracker.tick(0)
+        tracker.setProgress(0, 200_000L, 0)
+        tracker.tick(1_000)
+
+        assertEquals(0L, tracker.snapshot().bytesPerSecond)
+        assertEquals(-1L, tracker.snapshot().etaMs)
+    }
+}
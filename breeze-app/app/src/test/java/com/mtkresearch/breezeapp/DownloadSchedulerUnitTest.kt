@@ -0,0 +1,99 @@
+package com.mtkresearch.breezeapp
+
+import com.mtkresearch.breezeapp.utils.DownloadScheduler
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+class DownloadSchedulerUnitTest {
+
+    private val sizes = listOf(500L, 10L, 300L, 20L, 1000L)
+    private val retries = Collections.synchronizedList(mutableListOf<Int>())
+    private val failures = Collections.synchronizedList(mutableListOf<Int>())
+
+    private val listener = object : DownloadScheduler.Listener {
+        override fun onRetryScheduled(index: Int, attempt: Int, delayMs: Long) {
+            retries.add(index)
+        }
+
+        override fun onFailed(index: Int) {
+            failures.add(index)
+        }
+    }
+
+    @Test
+    fun testFilesStartSmallestFirstWithinParallelLimit() {
+        val started = Collections.synchronizedList(mutableListOf<Int>())
+        val active = AtomicInteger()
+        val peak = AtomicInteger()
+        val scheduler = DownloadScheduler(2, 3, 10, 4, 0)
+
+        val succeeded = scheduler.run(sizes, { index ->
+            started.add(index)
+            peak.accumulateAndGet(active.incrementAndGet()) { a, b -> maxOf(a, b) }
+            Thread.sleep(30)
+            active.decrementAndGet()
+            true
+        }, listener)
+
+        assertTrue(succeeded)
+        assertEquals(listOf(1, 3), started.take(2).sorted())
+        assertEquals(4, started.last())
+        assertEquals(2, peak.get())
+    }
+
+    @Test
+    fun testFailedFileIsRetried() {
+        val attempts = ConcurrentHashMap<Int, AtomicInteger>()
+        val scheduler = DownloadScheduler(2, 3, 10, 4, 0)
+
+        val succeeded = scheduler.run(sizes, { index ->
+            attempts.getOrPut(index) { AtomicInteger() }.incrementAndGet() > 1 || index != 2
+        }, listener)
+
+        assertTrue(succeeded)
+        assertEquals(listOf(2), retries)
+        assertEquals(2, attempts[2]!!.get())
+        assertFalse(scheduler.isAborted())
+    }
+
+    @Test
+    fun testCancelledAttemptIsNeitherRetriedNorFailed() {
+        val scheduler = DownloadScheduler(2, 3, 10_000, 4, 0)
+
+        val started = System.currentTimeMillis()
+        val succeeded = scheduler.run(sizes, { index ->
+            if (index == 1) {
+                scheduler.cancel()
+            }
+            Thread.sleep(20)
+            false
+        }, listener)
+
+        assertFalse(succeeded)
+        assertFalse(scheduler.isAborted())
+        assertTrue(failures.isEmpty())
+        assertTrue("Waited ${System.currentTimeMillis() - started} ms", System.currentTimeMillis() - started < 5_000)
+    }
+
+    @Test
+    fun testFileOutOfAttemptsStopsTheBundle() {
+        val calls = AtomicInteger()
+        val scheduler = DownloadScheduler(2, 2, 10, 4, 0)
+
+        val succeeded = scheduler.run(sizes, { index ->
+            calls.incrementAndGet()
+            Thread.sleep(20)
+            index != 1
+        }, listener)
+
+        assertFalse(succeeded)
+        assertTrue(scheduler.isAborted())
+        assertEquals(listOf(1), failures)
+        assertTrue("calls ${calls.get()}", calls.get() < sizes.size + 1)
+    }
+}
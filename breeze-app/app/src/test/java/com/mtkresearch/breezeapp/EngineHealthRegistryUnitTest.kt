@@ -0,0 +1,50 @@
+package com.mtkresearch.breezeapp
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.mtkresearch.breezeapp.utils.EngineHealthRegistry
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+
+@RunWith(RobolectricTestRunner::class)
+class EngineHealthRegistryUnitTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+
+    @Test
+    fun testCachedPassIsKeyedByModelFile() {
+        val registry = EngineHealthRegistry(context)
+        val model = File(context.filesDir, "health_test_model.onnx").apply { writeBytes(ByteArray(1024) { 1 }) }
+
+        val fingerprint = registry.fingerprint("cpu", model)
+        assertFalse(registry.hasPassed(EngineHealthRegistry.ENGINE_TTS, fingerprint))
+
+        registry.recordResult(EngineHealthRegistry.ENGINE_TTS, fingerprint, true)
+        assertTrue(registry.hasPassed(EngineHealthRegistry.ENGINE_TTS, fingerprint))
+        assertTrue(EngineHealthRegistry(context).hasPassed(EngineHealthRegistry.ENGINE_TTS, fingerprint))
+
+        // A replaced model must be tested again
+        model.writeBytes(ByteArray(2048) { 2 })
+        val changed = registry.fingerprint("cpu", model)
+        assertNotEquals(fingerprint, changed)
+        assertFalse(registry.hasPassed(EngineHealthRegistry.ENGINE_TTS, changed))
+        assertNotEquals(fingerprint, registry.fingerprint("default", model))
+    }
+
+    @Test
+    fun testFailureInUseInvalidatesPass() {
+        val registry = EngineHealthRegistry(context)
+        val fingerprint = registry.fingerprint("cpu")
+
+        registry.recordResult(EngineHealthRegistry.ENGINE_ASR, fingerprint, true)
+        assertFalse(registry.isReverificationDue(EngineHealthRegistry.ENGINE_ASR))
+
+        registry.invalidate(EngineHealthRegistry.ENGINE_ASR)
+        assertFalse(registry.hasPassed(EngineHealthRegistry.ENGINE_ASR, fingerprint))
+    }
+}
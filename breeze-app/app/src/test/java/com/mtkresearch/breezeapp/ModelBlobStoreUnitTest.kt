@@ -0,0 +1,87 @@
+package com.mtkresearch.breezeapp
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.mtkresearch.breezeapp.utils.AppConstants
+import com.mtkresearch.breezeapp.utils.ModelBlobStore
+import com.mtkresearch.breezeapp.utils.ModelFileDigest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+
+@RunWith(RobolectricTestRunner::class)
+class ModelBlobStoreUnitTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val digest = ModelFileDigest("ab".repeat(32), 0, null)
+
+    private fun fileOf(modelId: String, digest: ModelFileDigest?) =
+        AppConstants.DownloadFileInfo("https://example.com/$modelId/tokenizer.bin", "tokenizer.bin",
+            "$modelId/tokenizer.bin", AppConstants.FILE_TYPE_LLM, 5L, modelId, digest)
+
+    private fun modelFile(modelId: String) =
+        File(context.filesDir, "models/$modelId/tokenizer.bin").apply { parentFile!!.mkdirs() }
+
+    @After
+    fun tearDown() {
+        File(context.filesDir, "models").deleteRecursively()
+        File(context.filesDir, "blobs").deleteRecursively()
+    }
+
+    @Test
+    fun testSharedFileIsLinkedInsteadOfDownloaded() {
+        modelFile("cpu").writeText("hello")
+        assertFalse(ModelBlobStore.contains(context, fileOf("npu", digest)))
+
+        ModelBlobStore.adopt(context, fileOf("cpu", digest), modelFile("cpu"))
+
+        assertTrue(ModelBlobStore.contains(context, fileOf("npu", digest)))
+        assertTrue(ModelBlobStore.linkIfPresent(context, fileOf("npu", digest), modelFile("npu")))
+        assertEquals("hello", modelFile("npu").readText())
+    }
+
+    @Test
+    fun testBlobOutlivesAllButTheLastModel() {
+        modelFile("cpu").writeText("hello")
+        ModelBlobStore.adopt(context, fileOf("cpu", digest), modelFile("cpu"))
+        ModelBlobStore.linkIfPresent(context, fileOf("npu", digest), modelFile("npu"))
+
+        ModelBlobStore.deleteModel(context, "cpu")
+        assertFalse(File(context.filesDir, "models/cpu").exists())
+        assertTrue(ModelBlobStore.contains(context, fileOf("npu", digest)))
+        assertEquals("hello", modelFile("npu").readText())
+
+        ModelBlobStore.deleteModel(context, "npu")
+        assertFalse(ModelBlobStore.contains(context, fileOf("npu", digest)))
+    }
+
+    @Test
+    fun testReplacedFileFreesItsOldBlob() {
+        val newDigest = ModelFileDigest("cd".repeat(32), 0, null)
+        modelFile("cpu").writeText("hello")
+        ModelBlobStore.adopt(context, fileOf("cpu", digest), modelFile("cpu"))
+
+        modelFile("cpu").delete()
+        modelFile("cpu").writeText("hello again")
+        ModelBlobStore.adopt(context, fileOf("cpu", newDigest), modelFile("cpu"))
+
+        assertFalse(ModelBlobStore.contains(context, fileOf("cpu", digest)))
+        assertTrue(ModelBlobStore.contains(context, fileOf("cpu", newDigest)))
+        assertEquals("hello again", modelFile("cpu").readText())
+    }
+
+    @Test
+    fun testFileWithoutDigestIsNotShared() {
+        modelFile("cpu").writeText("hello")
+
+        ModelBlobStore.adopt(context, fileOf("cpu", null), modelFile("cpu"))
+
+        assertFalse(ModelBlobStore.linkIfPresent(context, fileOf("npu", null), modelFile("npu")))
+        assertEquals("hello", modelFile("cpu").readText())
+    }
+}
@@ -0,0 +1,156 @@
+package com.mtkresearch.breezeapp
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.mtkresearch.breezeapp.utils.ModelBundleImporter
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.fail
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+@RunWith(RobolectricTestRunner::class)
+class ModelBundleImporterUnitTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val weights = ByteArray(70_000) { (it * 31).toByte() }
+    private val tokenizer = "tokenizer".toByteArray()
+
+    private fun sha256(bytes: ByteArray) =
+        MessageDigest.getInstance("SHA-256").digest(bytes).joinToString("") { "%02x".format(it) }
+
+    private fun manifest(modelId: String, weightsDigest: String = sha256(weights)) = JSONObject()
+        .put("models", JSONArray().put(JSONObject()
+            .put("id", modelId)
+            .put("backend", "cpu")
+            .put("ramGB", "4")
+            .put("model_entry_path", "model.pte")
+            .put("urls", JSONArray()
+                .put("https://example.com/$modelId/model.pte")
+                .put("https://example.com/$modelId/tokenizer.bin?download=true"))
+            .put("digests", JSONObject()
+                .put("model.pte", JSONObject().put("sha256", weightsDigest))
+                .put("tokenizer.bin", JSONObject().put("sha256", sha256(tokenizer))))))
+        .toString().toByteArray()
+
+    private fun tar(vararg entries: Pair<String, ByteArray>): ByteArray {
+        val out = ByteArrayOutputStream()
+        for ((name, data) in entries) {
+            val header = ByteArray(512)
+            name.toByteArray().copyInto(header)
+            "%011o\u0000".format(data.size).toByteArray().copyInto(header, 124)
+            header[156] = '0'.code.toByte()
+            "ustar\u000000".toByteArray().copyInto(header, 257)
+            out.write(header)
+            out.write(data)
+            out.write(ByteArray((512 - data.size % 512) % 512))
+        }
+        out.write(ByteArray(1024))
+        return out.toByteArray()
+    }
+
+    private fun zip(vararg entries: Pair<String, ByteArray>): ByteArray {
+        val out = ByteArrayOutputStream()
+        ZipOutputStream(out).use { zip ->
+            for ((name, data) in entries) {
+                zip.putNextEntry(ZipEntry(name))
+                zip.write(data)
+                zip.closeEntry()
+            }
+        }
+        return out.toByteArray()
+    }
+
+    private fun registeredIds(): List<String> {
+        val models = JSONObject(File(context.filesDir, "downloadedModelList.json").readText()).getJSONArray("models")
+        return (0 until models.length()).map { models.getJSONObject(it).getString("id") }
+    }
+
+    @After
+    fun tearDown() {
+        File(context.filesDir, "models").deleteRecursively()
+        File(context.filesDir, "blobs").deleteRecursively()
+        File(context.filesDir, "downloadedModelList.json").delete()
+    }
+
+    @Test
+    fun testTarBundleIsInstalledAndRegistered() {
+        val bundle = tar("cpu/model.pte" to weights, "cpu/tokenizer.bin" to tokenizer, "manifest.json" to manifest("cpu"))
+
+        val imported = ModelBundleImporter.importBundle(context, ByteArrayInputStream(bundle))
+
+        assertEquals(listOf("cpu"), imported)
+        assertArrayEquals(weights, File(context.filesDir, "models/cpu/model.pte").readBytes())
+        assertArrayEquals(tokenizer, File(context.filesDir, "models/cpu/tokenizer.bin").readBytes())
+        assertEquals(listOf("cpu"), registeredIds())
+        assertFalse(File(context.filesDir, "models/.import").exists())
+    }
+
+    @Test
+    fun testZipBundleKeepsModelsRegisteredBefore() {
+        ModelBundleImporter.importBundle(context, ByteArrayInputStream(
+            tar("cpu/model.pte" to weights, "cpu/tokenizer.bin" to tokenizer, "manifest.json" to manifest("cpu"))))
+
+        ModelBundleImporter.importBundle(context, ByteArrayInputStream(
+            zip("manifest.json" to manifest("npu"), "npu/model.pte" to weights, "npu/tokenizer.bin" to tokenizer)))
+
+        assertEquals(listOf("cpu", "npu"), registeredIds())
+        assertArrayEquals(weights, File(context.filesDir, "models/npu/model.pte").readBytes())
+    }
+
+    @Test
+    fun testReplacedModelLeavesOnlyTheNewVersion() {
+        ModelBundleImporter.importBundle(context, ByteArrayInputStream(
+            tar("cpu/model.pte" to weights, "cpu/tokenizer.bin" to tokenizer, "manifest.json" to manifest("cpu"))))
+        val newWeights = weights.reversedArray()
+
+        ModelBundleImporter.importBundle(context, ByteArrayInputStream(tar("cpu/model.pte" to newWeights,
+            "cpu/tokenizer.bin" to tokenizer, "manifest.json" to manifest("cpu", sha256(newWeights)))))
+
+        assertArrayEquals(newWeights, File(context.filesDir, "models/cpu/model.pte").readBytes())
+        assertEquals(listOf("cpu"), registeredIds())
+        assertEquals(setOf(sha256(newWeights), sha256(tokenizer)),
+            File(context.filesDir, "blobs/sha256").list()!!.toSet())
+        assertFalse(File(context.filesDir, "models/.import").exists())
+    }
+
+    @Test
+    fun testMismatchedDigestInstallsNothing() {
+        val bundle = tar("manifest.json" to manifest("cpu", "00".repeat(32)),
+            "cpu/model.pte" to weights, "cpu/tokenizer.bin" to tokenizer)
+
+        try {
+            ModelBundleImporter.importBundle(context, ByteArrayInputStream(bundle))
+            fail("Bundle with a wrong digest was imported")
+        } catch (expected: IOException) {
+        }
+
+        assertFalse(File(context.filesDir, "models/cpu/model.pte").exists())
+        assertFalse(File(context.filesDir, "downloadedModelList.json").exists())
+    }
+
+    @Test
+    fun testPathOutsideTheBundleIsRejected() {
+        val bundle = tar("manifest.json" to manifest("cpu"), "../escape.bin" to tokenizer)
+
+        try {
+            ModelBundleImporter.importBundle(context, ByteArrayInputStream(bundle))
+            fail("Bundle escaping the staging directory was imported")
+        } catch (expected: IOException) {
+        }
+
+        assertFalse(File(context.filesDir, "models/escape.bin").exists())
+    }
+}
@@ -0,0 +1,73 @@
+package com.mtkresearch.breezeapp
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.mtkresearch.breezeapp.utils.AppConstants
+import com.mtkresearch.breezeapp.utils.ModelDeltaBase
+import com.mtkresearch.breezeapp.utils.ModelFileDigest
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.security.MessageDigest
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+class ModelDeltaBaseUnitTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val blockSize = 4096
+    private val previous = Random(7).nextBytes(10 * blockSize + 100)
+
+    private fun sha256(bytes: ByteArray) =
+        MessageDigest.getInstance("SHA-256").digest(bytes).joinToString("") { "%02x".format(it) }
+
+    private fun digestOf(bytes: ByteArray) = ModelFileDigest(sha256(bytes), blockSize.toLong(),
+        bytes.indices.step(blockSize).map { sha256(bytes.copyOfRange(it, minOf(it + blockSize, bytes.size))) }
+            .toTypedArray())
+
+    private fun install(vararg modelIds: String) {
+        val models = JSONArray()
+        for (modelId in modelIds) {
+            File(context.filesDir, "models/$modelId").mkdirs()
+            File(context.filesDir, "models/$modelId/model.pte").writeBytes(previous)
+            models.put(JSONObject().put("id", modelId).put("urls", JSONArray().put("https://example.com/$modelId/model.pte")))
+        }
+        File(context.filesDir, "downloadedModelList.json").writeText(JSONObject().put("models", models).toString())
+    }
+
+    private fun update(modelId: String, content: ByteArray) = AppConstants.DownloadFileInfo(
+        "https://example.com/$modelId/model.pte", "model.pte", "$modelId/model.pte",
+        AppConstants.FILE_TYPE_LLM, content.size.toLong(), modelId, digestOf(content))
+
+    @After
+    fun tearDown() {
+        File(context.filesDir, "models").deleteRecursively()
+        File(context.filesDir, "downloadedModelList.json").delete()
+    }
+
+    @Test
+    fun testPreviousReleaseIsTheBase() {
+        install("breeze-vision-cpu", "breeze-250501-cpu")
+        val content = previous.copyOf().also { it[3 * blockSize] = (it[3 * blockSize] + 1).toByte() }
+
+        val base = ModelDeltaBase.find(context, update("breeze-250630-cpu", content))!!
+
+        assertEquals(File(context.filesDir, "models/breeze-250501-cpu/model.pte"), base.file)
+        val target = digestOf(content)
+        assertEquals(10, (0 until target.blockCount()).count { base.blocks.containsKey(target.blockDigest(it)) })
+        assertEquals(4L * blockSize, base.blocks[target.blockDigest(4)])
+    }
+
+    @Test
+    fun testNoBaseWithoutSharedBlocks() {
+        install("breeze-250501-cpu")
+
+        assertNull(ModelDeltaBase.find(context, update("breeze-250630-cpu", Random(8).nextBytes(previous.size))))
+    }
+}
@@ -0,0 +1,121 @@
+package com.mtkresearch.breezeapp
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.mtkresearch.breezeapp.utils.ModelFileProber
+import com.sun.net.httpserver.HttpServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.net.InetSocketAddress
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+@RunWith(RobolectricTestRunner::class)
+class ModelFileProberUnitTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private lateinit var server: HttpServer
+    private val heads = AtomicInteger()
+    private val active = AtomicInteger()
+    private val peak = AtomicInteger()
+
+    @Before
+    fun setUp() {
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        server.executor = Executors.newCachedThreadPool()
+        // Like the model host: a redirect to the storage that serves the file
+        server.createContext("/resolve/") { exchange ->
+            if (exchange.requestURI.path.contains("lfs")) {
+                exchange.responseHeaders.add("X-Linked-Etag", "\"$SHA256\"")
+            }
+            exchange.responseHeaders.add("Location", "/cdn/" + exchange.requestURI.path.removePrefix("/resolve/"))
+            exchange.sendResponseHeaders(302, -1)
+            exchange.close()
+        }
+        server.createContext("/cdn/") { exchange ->
+            heads.incrementAndGet()
+            peak.accumulateAndGet(active.incrementAndGet()) { a, b -> maxOf(a, b) }
+            Thread.sleep(100)
+            exchange.responseHeaders.add("ETag", "\"v1\"")
+            exchange.responseHeaders.add("Content-Length", (1_000 + exchange.requestURI.path.length).toString())
+            active.decrementAndGet()
+            exchange.sendResponseHeaders(200, -1)
+            exchange.close()
+        }
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.stop(0)
+        File(context.filesDir, "file_metadata.json").delete()
+    }
+
+    private fun url(name: String) = "http://127.0.0.1:${server.address.port}/resolve/$name"
+
+    private val urls = (0 until 6).map { url("model-$it.pte") }
+
+    @Test
+    fun testProbesInParallelAndRecordsRedirectTarget() {
+        val metadata = ModelFileProber.probeAll(context, urls)
+
+        assertEquals(6, metadata.size)
+        val first = metadata[urls[0]]!!
+        assertEquals(1_000L + "/cdn/model-0.pte".length, first.size)
+        assertEquals("\"v1\"", first.etag)
+        assertTrue(first.finalUrl, first.finalUrl.endsWith("/cdn/model-0.pte"))
+        assertTrue("peak ${peak.get()}", peak.get() > 1)
+    }
+
+    @Test
+    fun testFreshAnswersComeFromCache() {
+        ModelFileProber.probeAll(context, urls)
+        ModelFileProber.probeAll(context, urls)
+
+        assertEquals(6, heads.get())
+        assertEquals(1_000L + "/cdn/model-2.pte".length, ModelFileProber.cached(context, urls[2])!!.size)
+    }
+
+    @Test
+    fun testAnswersStayInMemoryOnceRead() {
+        ModelFileProber.probeAll(context, urls)
+        File(context.filesDir, "file_metadata.json").delete()
+
+        assertEquals(1_000L + "/cdn/model-3.pte".length, ModelFileProber.peek(urls[3])!!.size)
+        assertTrue(ModelFileProber.resolve(context, urls[3]).endsWith("/cdn/model-3.pte"))
+        assertFalse(File(context.filesDir, "file_metadata.json").exists())
+    }
+
+    @Test
+    fun testForgottenUrlIsDownloadedFromItself() {
+        ModelFileProber.probeAll(context, urls)
+        assertTrue(ModelFileProber.resolve(context, urls[1]).endsWith("/cdn/model-1.pte"))
+
+        ModelFileProber.forget(context, urls[1])
+
+        assertEquals(urls[1], ModelFileProber.resolve(context, urls[1]))
+    }
+
+    @Test
+    fun testLinkedEtagOfRedirectIsRecordedAsDigest() {
+        val lfs = url("lfs-model.pte")
+        val plain = url("plain-model.pte")
+        val metadata = ModelFileProber.probeAll(context, listOf(lfs, plain))
+
+        assertEquals(SHA256.lowercase(), metadata[lfs]!!.sha256)
+        assertNull(metadata[plain]!!.sha256)
+        assertEquals("\"v1\"", metadata[lfs]!!.etag)
+    }
+
+    companion object {
+        private const val SHA256 = "9F86D081884C7D659A2FEAA0C55AD015A3BF4F1B2B0B822CD15D6C15B0F00A08"
+    }
+}
@@ -0,0 +1,49 @@
+package com.mtkresearch.breezeapp
+
+import com.mtkresearch.breezeapp.utils.ResumableSha256
+import org.junit.Assert.assertEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.security.MessageDigest
+import kotlin.random.Random
+
+class ResumableSha256UnitTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun expected(bytes: ByteArray) =
+        MessageDigest.getInstance("SHA-256").digest(bytes).joinToString("") { "%02x".format(it) }
+
+    @Test
+    fun testMatchesMessageDigestAcrossBlockBoundaries() {
+        val random = Random(7)
+        listOf(0, 1, 55, 56, 63, 64, 65, 1000, 123_457).forEach { size ->
+            val data = random.nextBytes(size)
+            val hash = ResumableSha256()
+            var position = 0
+            while (position < size) {
+                val count = minOf(size - position, random.nextInt(200))
+                hash.update(data, position, count)
+                position += count
+            }
+            assertEquals("size $size", expected(data), hash.hexDigest())
+        }
+    }
+
+    @Test
+    fun testSavedStateContinuesTheHash() {
+        val data = Random(11).nextBytes(300_003)
+        val file = folder.newFile("model.pte.part.sha256")
+        val first = ResumableSha256()
+        first.update(data, 0, 100_001)
+        first.saveTo(file)
+
+        val resumed = ResumableSha256.loadFrom(file)!!
+        resumed.update(data, 100_001, data.size - 100_001)
+
+        assertEquals(100_001L, ResumableSha256.loadFrom(file)!!.count())
+        assertEquals(expected(data), resumed.hexDigest())
+    }
+}
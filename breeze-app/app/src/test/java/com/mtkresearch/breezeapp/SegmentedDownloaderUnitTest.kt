@@ -0,0 +1,266 @@
+package com.mtkresearch.breezeapp
+
+import com.mtkresearch.breezeapp.utils.ModelFileDigest
+import com.mtkresearch.breezeapp.utils.ModelFileWriter
+import com.mtkresearch.breezeapp.utils.SegmentedDownloader
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.security.MessageDigest
+import java.util.Collections
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+class SegmentedDownloaderUnitTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val content = Random(42).nextBytes(5 * 1024 * 1024 + 123)
+    private lateinit var server: HttpServer
+    private var supportRanges = true
+    private val requestedRanges = Collections.synchronizedList(mutableListOf<String>())
+    private val activeRequests = AtomicInteger()
+    private val peakRequests = AtomicInteger()
+    private val servedBytes = AtomicLong()
+    private val cancelled = AtomicBoolean(false)
+    private var cancelHalfway = false
+    @Volatile private var corruptOffset = -1
+    private val reservedBytes = AtomicLong()
+
+    @Before
+    fun setUp() {
+        // Os has no native side here; extend the file as fallocate would
+        ModelFileWriter.setSpaceReserver { file, offset, length ->
+            reservedBytes.addAndGet(length)
+            file.setLength(offset + length)
+        }
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        server.executor = Executors.newCachedThreadPool()
+        server.createContext("/model.pte") { exchange -> serve(exchange) }
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.stop(0)
+        ModelFileWriter.setSpaceReserver(null)
+    }
+
+    /** Serves [content], honouring a single "bytes=first-last" range when enabled. */
+    private fun serve(exchange: HttpExchange) {
+        val active = activeRequests.incrementAndGet()
+        peakRequests.accumulateAndGet(active) { a, b -> maxOf(a, b) }
+        try {
+            val range = exchange.requestHeaders.getFirst("Range")
+            if (range == null || !supportRanges) {
+                exchange.sendResponseHeaders(200, content.size.toLong())
+                exchange.responseBody.use { it.write(content) }
+                return
+            }
+            requestedRanges.add(range)
+            val (first, last) = range.removePrefix("bytes=").split("-").map { it.toInt() }
+            val end = minOf(last, content.size - 1)
+            exchange.responseHeaders.add("Content-Range", "bytes $first-$end/${content.size}")
+            exchange.sendResponseHeaders(206, (end - first + 1).toLong())
+            exchange.responseBody.use { out ->
+                // Small writes with pauses so several segments overlap
+                var position = first
+                while (position <= end) {
+                    val count = minOf(64 * 1024, end - position + 1)
+                    val chunk = content.copyOfRange(position, position + count)
+                    if (corruptOffset in position until position + count) {
+                        chunk[corruptOffset - position] = (chunk[corruptOffset - position] + 1).toByte()
+                        corruptOffset = -1 // Only the first time
+                    }
+                    out.write(chunk)
+                    position += count
+                    if (cancelHalfway && servedBytes.addAndGet(count.toLong()) > content.size / 2) {
+                        cancelled.set(true)
+                    }
+                    Thread.sleep(1)
+                }
+            }
+        } catch (e: Exception) {
+            // Client went away
+        } finally {
+            activeRequests.decrementAndGet()
+        }
+    }
+
+    private val url get() = "http://127.0.0.1:${server.address.port}/model.pte"
+
+    private fun downloader() = SegmentedDownloader(512L * 1024, 4, 4, arrayOf())
+
+    private fun control() = object : SegmentedDownloader.Control {
+        override fun isPaused() = false
+        override fun isCancelled() = cancelled.get()
+    }
+
+    @Test
+    fun testDownloadsFileOverSeveralConnections() {
+        val part = folder.newFile("model.pte.part").apply { delete() }
+        var lastProgress = 0L
+
+        val result = downloader().download(url, part, control()) { downloaded, total ->
+            assertEquals(content.size.toLong(), total)
+            lastProgress = downloaded
+        }
+
+        assertEquals(SegmentedDownloader.Result.COMPLETED, result)
+        assertArrayEquals(content, part.readBytes())
+        assertEquals(content.size.toLong(), lastProgress)
+        assertTrue("peak ${peakRequests.get()}", peakRequests.get() > 1)
+        assertFalse(java.io.File(part.path + ".segments").exists())
+    }
+
+    @Test
+    fun testCancelledDownloadResumesWithoutRefetchingFinishedSegments() {
+        val part = folder.newFile("model.pte.part").apply { delete() }
+        cancelHalfway = true
+
+        val first = downloader().download(url, part, control(), null)
+        assertEquals(SegmentedDownloader.Result.CANCELLED, first)
+        assertTrue(java.io.File(part.path + ".segments").exists())
+        // Allocated in full before the first segment arrived
+        assertEquals(content.size.toLong(), part.length())
+        assertEquals(content.size.toLong(), reservedBytes.get())
+
+        cancelHalfway = false
+        cancelled.set(false)
+        requestedRanges.clear()
+        val second = downloader().download(url, part, control(), null)
+
+        assertEquals(SegmentedDownloader.Result.COMPLETED, second)
+        assertArrayEquals(content, part.readBytes())
+        val startsAtZero = requestedRanges.count { it.startsWith("bytes=0-") && it != "bytes=0-0" }
+        assertEquals(0, startsAtZero)
+    }
+
+    @Test
+    fun testJournalIsIgnoredWhenPartFileWasTruncated() {
+        val part = folder.newFile("model.pte.part").apply { delete() }
+        cancelHalfway = true
+        assertEquals(SegmentedDownloader.Result.CANCELLED, downloader().download(url, part, control(), null))
+        // As a single-connection attempt without range support leaves it
+        part.writeBytes(content.copyOf(1000))
+
+        cancelHalfway = false
+        cancelled.set(false)
+        requestedRanges.clear()
+        val result = downloader().download(url, part, control(), null)
+
+        assertEquals(SegmentedDownloader.Result.COMPLETED, result)
+        assertArrayEquals(content, part.readBytes())
+        // The journal claimed half the file; all of it is fetched again
+        assertTrue(requestedRanges.contains("bytes=0-524287"))
+    }
+
+    @Test
+    fun testPartialSingleConnectionFileIsKeptAsPrefix() {
+        val part = folder.newFile("model.pte.part")
+        part.writeBytes(content.copyOf(1024 * 1024))
+
+        val result = downloader().download(url, part, control(), null)
+
+        assertEquals(SegmentedDownloader.Result.COMPLETED, result)
+        assertArrayEquals(content, part.readBytes())
+        assertTrue(requestedRanges.none { it == "bytes=0-524287" })
+    }
+
+    private fun sha256(bytes: ByteArray) =
+        MessageDigest.getInstance("SHA-256").digest(bytes).joinToString("") { "%02x".format(it) }
+
+    @Test
+    fun testCorruptBlockIsFetchedAgain() {
+        val part = folder.newFile("model.pte.part").apply { delete() }
+        val blockSize = 512 * 1024
+        val blocks = content.indices.step(blockSize)
+            .map { sha256(content.copyOfRange(it, minOf(it + blockSize, content.size))) }
+        corruptOffset = 3 * blockSize + 100
+
+        val result = downloader()
+            .setDigest(ModelFileDigest(sha256(content), blockSize.toLong(), blocks.toTypedArray()))
+            .download(url, part, control(), null)
+
+        assertEquals(SegmentedDownloader.Result.COMPLETED, result)
+        assertArrayEquals(content, part.readBytes())
+        assertEquals(2, requestedRanges.count { it.startsWith("bytes=${3 * blockSize}-") })
+    }
+
+    @Test
+    fun testUpdateFetchesOnlyChangedBlocks() {
+        val part = folder.newFile("model.pte.part").apply { delete() }
+        val blockSize = 512 * 1024
+        val blocks = content.indices.step(blockSize)
+            .map { sha256(content.copyOfRange(it, minOf(it + blockSize, content.size))) }
+        // The previous release differs in blocks 2 and 7
+        val previous = content.copyOf()
+        previous[2 * blockSize + 10] = (previous[2 * blockSize + 10] + 1).toByte()
+        previous[7 * blockSize + 10] = (previous[7 * blockSize + 10] + 1).toByte()
+        val base = folder.newFile("previous.pte").apply { writeBytes(previous) }
+        val baseBlocks = previous.indices.step(blockSize)
+            .associate { sha256(previous.copyOfRange(it, minOf(it + blockSize, previous.size))) to it.toLong() }
+        var reused = 0L
+
+        val result = downloader()
+            .setDigest(ModelFileDigest(sha256(content), blockSize.toLong(), blocks.toTypedArray()))
+            .setBase(base, baseBlocks) { reused = it }
+            .download(url, part, control(), null)
+
+        assertEquals(SegmentedDownloader.Result.COMPLETED, result)
+        assertArrayEquals(content, part.readBytes())
+        assertEquals(content.size.toLong() - 2 * blockSize, reused)
+        assertEquals(listOf("bytes=${2 * blockSize}-", "bytes=${7 * blockSize}-"),
+            requestedRanges.filter { it != "bytes=0-0" }.map { it.substringBefore('-') + "-" }.sorted())
+    }
+
+    @Test
+    fun testResumedDownloadIsCheckedAgainstFileDigest() {
+        val part = folder.newFile("model.pte.part").apply { delete() }
+        val digest = ModelFileDigest(sha256(content), 0, null)
+        cancelHalfway = true
+        assertEquals(SegmentedDownloader.Result.CANCELLED,
+            downloader().setDigest(digest).download(url, part, control(), null))
+
+        cancelHalfway = false
+        cancelled.set(false)
+        assertEquals(SegmentedDownloader.Result.COMPLETED,
+            downloader().setDigest(digest).download(url, part, control(), null))
+        assertArrayEquals(content, part.readBytes())
+    }
+
+    @Test(expected = IOException::class)
+    fun testWrongFileDigestFails() {
+        val part = folder.newFile("model.pte.part").apply { delete() }
+
+        downloader().setDigest(ModelFileDigest("00".repeat(32), 0, null)).download(url, part, control(), null)
+    }
+
+    @Test
+    fun testServerWithoutRangesIsReportedUnsupported() {
+        supportRanges = false
+        val part = folder.newFile("model.pte.part").apply { delete() }
+
+        val result = downloader().download(url, part, control(), null)
+
+        assertEquals(SegmentedDownloader.Result.UNSUPPORTED, result)
+        assertFalse(part.exists())
+    }
+}
@@ -0,0 +1,94 @@
+package com.mtkresearch.breezeapp
+
+import android.os.Looper
+import com.mtkresearch.breezeapp.service.ASREngineService
+import com.mtkresearch.breezeapp.service.LLMEngineService
+import com.mtkresearch.breezeapp.service.TTSEngineService
+import com.mtkresearch.breezeapp.utils.LLMInferenceParams
+import com.mtkresearch.breezeapp.utils.VoiceActivityDetector
+import com.mtkresearch.breezeapp.utils.VoiceSessionEngine
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.timeout
+import org.mockito.Mockito.verify
+import org.mockito.Mockito.`when`
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+import java.util.function.Consumer
+import java.util.function.DoubleConsumer
+
+@RunWith(RobolectricTestRunner::class)
+class VoiceSessionEngineUnitTest {
+
+    private val asr = mock(ASREngineService::class.java)
+    private val llm = mock(LLMEngineService::class.java)
+    private val tts = mock(TTSEngineService::class.java)
+    private val listener = mock(VoiceSessionEngine.Listener::class.java)
+
+    private val onResult = AtomicReference<Consumer<String>>()
+    private val onLevel = AtomicReference<DoubleConsumer>()
+    private val onToken = AtomicReference<LLMEngineService.StreamingResponseCallback>()
+
+    private val engine = VoiceSessionEngine(asr, llm, tts, mock(LLMInferenceParams::class.java),
+        { it }, listener)
+
+    @After
+    fun tearDown() {
+        engine.release()
+    }
+
+    private fun idleUntil(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 5_000
+        while (!condition()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline)
+            shadowOf(Looper.getMainLooper()).idle()
+            Thread.sleep(10)
+        }
+    }
+
+    @Test
+    fun testBargeInWhileSpeakIsStartingStopsThatSentence() {
+        doAnswer { onResult.set(it.getArgument(0)); null }.`when`(asr).startListening(any())
+        doAnswer { onLevel.set(it.getArgument(0)); null }.`when`(asr).setAudioLevelListener(any())
+        `when`(llm.generateStreamingResponse(anyString(), any(), any())).thenAnswer {
+            onToken.set(it.getArgument(2))
+            CompletableFuture<String>()
+        }
+        val speakEntered = CountDownLatch(1)
+        val speakMayReturn = CountDownLatch(1)
+        val speech = CompletableFuture<Boolean>()
+        `when`(tts.speak(anyString())).thenAnswer {
+            speakEntered.countDown()
+            speakMayReturn.await()
+            speech
+        }
+
+        engine.start()
+        idleUntil { onResult.get() != null && onLevel.get() != null }
+        repeat(5) { onLevel.get().accept(-60.0) }
+        onResult.get().accept("Tell me a story")
+        idleUntil { onToken.get() != null }
+        onToken.get().onToken("Once upon a time there was a robot. ")
+        assertTrue(speakEntered.await(5, TimeUnit.SECONDS))
+
+        // The user talks over the assistant before speak() has handed back its playback
+        Thread.sleep(VoiceActivityDetector.PLAYBACK_SETTLE_MS + 100)
+        repeat(VoiceActivityDetector.DEFAULT_PLAYBACK_ONSET_FRAMES) { onLevel.get().accept(-10.0) }
+        verify(llm, timeout(5_000)).stopGeneration()
+        speakMayReturn.countDown()
+
+        assertEquals(false, speech.get(5, TimeUnit.SECONDS))
+        verify(tts, timeout(5_000).times(2)).stopSpeaking()
+    }
+}
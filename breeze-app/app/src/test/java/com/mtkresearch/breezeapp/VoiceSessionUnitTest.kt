@@ -0,0 +1,73 @@
+package com.mtkresearch.breezeapp
+
+import com.mtkresearch.breezeapp.utils.SentenceSplitter
+import com.mtkresearch.breezeapp.utils.VoiceActivityDetector
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class VoiceSessionUnitTest {
+
+    @Test
+    fun testSentenceSplitterStreamsSentences() {
+        val splitter = SentenceSplitter()
+
+        assertTrue(splitter.append("你好，我是").isEmpty())
+        assertEquals(listOf("你好，我是助理。"), splitter.append("助理。今天天氣"))
+        assertEquals(
+            listOf("今天天氣很好！", "Price is 3.5 dollars."),
+            splitter.append("很好！Price is 3.5 dollars. Next")
+        )
+        assertEquals("Next", splitter.flush())
+        assertNull(splitter.flush())
+    }
+
+    @Test
+    fun testSentenceSplitterMergesShortFragments() {
+        val splitter = SentenceSplitter()
+
+        assertTrue(splitter.append("好。").isEmpty())
+        assertEquals(listOf("好。謝謝你的問題。"), splitter.append("謝謝你的問題。"))
+    }
+
+    @Test
+    fun testVoiceActivityDetectorOnset() {
+        val vad = VoiceActivityDetector()
+        var now = 0L
+
+        repeat(20) {
+            now += 100
+            assertFalse(vad.process(-60f, now))
+        }
+
+        assertFalse(vad.process(-30f, now + 100))
+        assertTrue(vad.process(-30f, now + 200))
+        assertFalse("Onset is reported once per utterance", vad.process(-30f, now + 300))
+        assertEquals(now + 100, vad.onsetStartMs)
+    }
+
+    @Test
+    fun testVoiceActivityDetectorIgnoresEchoDuringPlayback() {
+        val vad = VoiceActivityDetector()
+        var now = 0L
+        repeat(20) { now += 100; vad.process(-60f, now) }
+
+        vad.setPlaybackActive(true, now)
+        repeat(30) { i ->
+            now += 100
+            assertFalse("Echo must not trigger barge-in", vad.process(-35f + (i % 3) * 2, now))
+        }
+
+        var frames = 0
+        var detected = false
+        while (!detected && frames < 10) {
+            now += 100
+            detected = vad.process(-15f, now)
+            frames++
+        }
+        assertTrue(detected)
+        assertEquals(VoiceActivityDetector.DEFAULT_PLAYBACK_ONSET_FRAMES, frames)
+    }
+}
@@ -0,0 +1,39 @@
+package com.mtkresearch.breezeapp
+
+import com.mtkresearch.breezeapp.utils.WavFileWriter
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class WavFileWriterUnitTest {
+
+    @Test
+    fun testHeaderIsPatchedOnClose() {
+        val file = File.createTempFile("wavwriter", ".wav")
+        try {
+            val samples = ShortArray(1600) { (it - 800).toShort() }
+            WavFileWriter(file, 16000, 1, samples.size).use { writer ->
+                writer.write(samples, 0, samples.size)
+                writer.write(samples, 100, 50)
+                assertEquals(103L, writer.durationMs)
+            }
+
+            val bytes = file.readBytes()
+            val buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN)
+            val dataSize = (samples.size + 50) * 2
+            assertEquals(WavFileWriter.HEADER_SIZE + dataSize, bytes.size)
+            assertEquals("RIFF", String(bytes, 0, 4))
+            assertEquals(36 + dataSize, buffer.getInt(4))
+            assertEquals("WAVE", String(bytes, 8, 4))
+            assertEquals(16000, buffer.getInt(24))
+            assertEquals("data", String(bytes, 36, 4))
+            assertEquals(dataSize, buffer.getInt(40))
+            assertEquals(samples[0], buffer.getShort(44))
+            assertEquals(samples[100], buffer.getShort(44 + samples.size * 2))
+        } finally {
+            file.delete()
+        }
+    }
+}
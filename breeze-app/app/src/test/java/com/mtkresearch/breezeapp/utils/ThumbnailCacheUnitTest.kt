@@ -0,0 +1,118 @@
+package com.mtkresearch.breezeapp.utils
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.drawable.BitmapDrawable
+import android.net.Uri
+import android.widget.ImageView
+import androidx.test.core.app.ApplicationProvider
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+// In the utils package for access to ThumbnailCache's package-private members
+@RunWith(RobolectricTestRunner::class)
+class ThumbnailCacheUnitTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private lateinit var cache: ThumbnailCache
+
+    @Before
+    fun setUp() {
+        // Room for three thumbnails
+        cache = ThumbnailCache(context, 3 * SIZE * SIZE * 4)
+    }
+
+    @After
+    fun tearDown() {
+        cache.close()
+    }
+
+    private fun bitmap(size: Int = SIZE): Bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888)
+
+    private fun options(size: Int = SIZE, sample: Int = 1) = BitmapFactory.Options().apply {
+        outWidth = size
+        outHeight = size
+        inSampleSize = sample
+    }
+
+    @Test
+    fun testSampleSizeKeepsShorterSideAtLeastRequested() {
+        assertEquals(1, ThumbnailCache.sampleSize(50, 50, 100))
+        assertEquals(1, ThumbnailCache.sampleSize(100, 100, 100))
+        assertEquals(1, ThumbnailCache.sampleSize(199, 400, 100))
+        assertEquals(2, ThumbnailCache.sampleSize(400, 200, 100))
+        assertEquals(8, ThumbnailCache.sampleSize(4000, 3000, 300))
+    }
+
+    @Test
+    fun testLeastRecentlyUsedIsEvictedIntoPool() {
+        val bitmaps = List(3) { bitmap() }
+        bitmaps.forEachIndexed { i, bitmap -> cache.memory.put("k$i", bitmap) }
+        assertNotNull(cache.memory.get("k0")) // Now the most recently used
+
+        cache.memory.put("k3", bitmap())
+        assertNull(cache.memory.get("k1"))
+        assertNotNull(cache.memory.get("k0"))
+        assertSame(bitmaps[1], cache.takeReusable(options()))
+        assertNull(cache.takeReusable(options()))
+    }
+
+    @Test
+    fun testShownBitmapIsNotPooled() {
+        val uri = Uri.parse("content://media/images/1")
+        val shown = bitmap()
+        cache.memory.put("$uri@$SIZE", shown)
+        val view = ImageView(context)
+        cache.load(uri, view, SIZE)
+        assertSame(shown, (view.drawable as BitmapDrawable).bitmap)
+
+        repeat(3) { cache.memory.put("other$it", bitmap()) }
+        assertNull(cache.memory.get("$uri@$SIZE"))
+        assertNull(cache.takeReusable(options()))
+    }
+
+    @Test
+    fun testImmutableBitmapIsNotPooled() {
+        cache.memory.put("k0", bitmap().copy(Bitmap.Config.ARGB_8888, false))
+        repeat(3) { cache.memory.put("k${it + 1}", bitmap()) }
+        assertNull(cache.memory.get("k0"))
+        assertNull(cache.takeReusable(options()))
+    }
+
+    @Test
+    fun testPoolKeepsNewestEvictions() {
+        val bitmaps = List(3 + POOL_SIZE + 2) { bitmap() }
+        bitmaps.forEachIndexed { i, bitmap -> cache.memory.put("k$i", bitmap) }
+
+        // The first POOL_SIZE + 2 were evicted; the two oldest were pushed out of the pool
+        val pooled = generateSequence { cache.takeReusable(options()) }.toList()
+        assertEquals(POOL_SIZE, pooled.size)
+        bitmaps.subList(2, 2 + POOL_SIZE).zip(pooled).forEach { (expected, actual) -> assertSame(expected, actual) }
+    }
+
+    @Test
+    fun testReuseNeedsLargeEnoughBitmap() {
+        val small = bitmap(SIZE / 2)
+        val large = bitmap()
+        cache.memory.put("small", small)
+        cache.memory.put("large", large)
+        repeat(3) { cache.memory.put("k$it", bitmap()) }
+
+        assertSame(large, cache.takeReusable(options(SIZE * 2, sample = 2)))
+        assertNull(cache.takeReusable(options()))
+        assertSame(small, cache.takeReusable(options(SIZE / 2)))
+    }
+
+    companion object {
+        private const val SIZE = 64
+        private const val POOL_SIZE = 6 // ThumbnailCache.POOL_SIZE
+    }
+}